@@ -21,6 +21,8 @@ package net.desertconsulting.mochatemplate.parser;
  */
 public class ApiOutputFormatException extends IllegalArgumentException {
 
+    private static final long serialVersionUID = 1L;
+
     ApiOutputFormatException(String message) {
         super(message);
     }
@@ -0,0 +1,189 @@
+/*
+ * Copyright 2016 Patrizio Bruno <desertconsulting@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.desertconsulting.mochatemplate.parser;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.script.Bindings;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineManager;
+import javax.script.ScriptException;
+
+/**
+ * Read-only variables shared by every rendering of the application, e.g.
+ * configuration, feature flags and Java helper objects. They're set once and
+ * installed as the {@link ScriptContext#GLOBAL_SCOPE} of the javascript
+ * engine: variables of the rendering, put into the template engine or
+ * declared by its server-side scripts, hide them.
+ *
+ * Maps and lists are copied into read-only Java collections and javascript
+ * objects, functions and arrays included, are frozen together with the
+ * objects they reference, so that they can be read by concurrent renderings.
+ * Other objects are shared as they are and must be thread-safe.
+ *
+ * @author Patrizio Bruno {@literal <desertconsulting@gmail.com>}
+ */
+public class ApplicationBindings extends AbstractMap<String, Object>
+        implements Bindings {
+
+    /**
+     * The javascript engine parsing JSON values, created the first time it's
+     * needed
+     */
+    private static class EngineHolder {
+
+        private final static ScriptEngine ENGINE = new ScriptEngineManager().
+                getEngineByName("js");
+    }
+
+    /**
+     * Freezes {@code value} and the javascript objects it references, cycles
+     * included; Java objects are skipped
+     */
+    private final static String FREEZE = "(function freeze(o) {"
+            + " if (o === null || typeof o !== 'object'"
+            + " && typeof o !== 'function' || Object.isFrozen(o)) return;"
+            + " Object.freeze(o);"
+            + " Object.getOwnPropertyNames(o).forEach(function(n) {"
+            + " try { freeze(o[n]); } catch (e) { } }); })(value)";
+
+    private final Map<String, Object> values;
+
+    /**
+     * Initialize a new instance of {@link ApplicationBindings}.
+     *
+     * @param values variable values, indexed by name
+     */
+    public ApplicationBindings(Map<String, ?> values) {
+        Map<String, Object> copy = new LinkedHashMap<>();
+        for (Map.Entry<String, ?> entry : values.entrySet()) {
+            if (entry.getKey() == null || entry.getKey().isEmpty()) {
+                throw new IllegalArgumentException(
+                        "variable names can not be empty");
+            }
+            copy.put(entry.getKey(), copy(entry.getValue(), false));
+        }
+        this.values = Collections.unmodifiableMap(copy);
+    }
+
+    /**
+     * Parses a JSON text into read-only Java maps, lists, strings, numbers
+     * and booleans, so that it can be used as a value of
+     * {@link ApplicationBindings}.
+     *
+     * @param json JSON text
+     * @return the parsed value
+     * @throws ScriptException malformed JSON text
+     */
+    public static Object parseJson(String json) throws ScriptException {
+        ScriptEngine engine = EngineHolder.ENGINE;
+        if (engine == null) {
+            throw new ScriptException("no javascript engine available");
+        }
+        Object rv;
+        synchronized (engine) {
+            Bindings bindings = engine.createBindings();
+            bindings.put("json", json);
+            rv = engine.eval("Java.asJSONCompatible(JSON.parse(json))",
+                    bindings);
+        }
+        return copy(rv, true);
+    }
+
+    /**
+     * Creates bindings holding the variables of this instance and
+     * {@code values}, which override them.
+     *
+     * @param values variable values, indexed by name
+     * @return a new instance
+     */
+    public ApplicationBindings with(Map<String, ?> values) {
+        Map<String, Object> merged = new LinkedHashMap<>(this.values);
+        merged.putAll(values);
+        return new ApplicationBindings(merged);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return values.containsKey(key);
+    }
+
+    @Override
+    public Object get(Object key) {
+        return values.get(key);
+    }
+
+    @Override
+    public Set<Map.Entry<String, Object>> entrySet() {
+        return values.entrySet();
+    }
+
+    /**
+     * Copies maps and lists into read-only collections, freezes javascript
+     * objects.
+     *
+     * @param scriptObjects true to copy javascript objects too
+     */
+    private static Object copy(Object value, boolean scriptObjects) {
+        if (value instanceof Bindings && !scriptObjects && freeze(value)) {
+            return value;
+        }
+        if (value instanceof Map) {
+            Map<Object, Object> rv = new LinkedHashMap<>();
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                rv.put(entry.getKey(), copy(entry.getValue(), scriptObjects));
+            }
+            return Collections.unmodifiableMap(rv);
+        }
+        if (value instanceof List) {
+            List<Object> rv = new ArrayList<>();
+            for (Object item : (List<?>) value) {
+                rv.add(copy(item, scriptObjects));
+            }
+            return Collections.unmodifiableList(rv);
+        }
+        return value;
+    }
+
+    /**
+     * Freezes a javascript object and the objects it references.
+     *
+     * @return false if {@code value} is not a javascript object, e.g. a
+     * {@link javax.script.SimpleBindings}
+     */
+    private static boolean freeze(Object value) {
+        ScriptEngine engine = EngineHolder.ENGINE;
+        if (engine == null) {
+            return false;
+        }
+        synchronized (engine) {
+            Bindings bindings = engine.createBindings();
+            bindings.put("value", value);
+            try {
+                engine.eval(FREEZE, bindings);
+            } catch (ScriptException ex) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,408 @@
+/*
+ * Copyright 2016 Patrizio Bruno <desertconsulting@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.desertconsulting.mochatemplate.parser;
+
+import net.desertconsulting.mochatemplate.parser.cache.CacheFile;
+import net.desertconsulting.mochatemplate.parser.cache.FileCache;
+import net.desertconsulting.mochatemplate.parser.render.Fragment;
+import net.desertconsulting.mochatemplate.parser.render.RenderClassGenerator;
+import net.desertconsulting.mochatemplate.parser.render.RenderContext;
+import net.desertconsulting.mochatemplate.parser.render.RenderNode;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.script.Bindings;
+import javax.script.ScriptException;
+import javax.servlet.ServletContext;
+import org.jsoup.Jsoup;
+import org.jsoup.helper.StringUtil;
+import org.jsoup.nodes.Document;
+import org.jsoup.select.Elements;
+
+/**
+ * A template compiled by {@link TemplateCompiler}. A compiled template never
+ * changes after compilation, thus it can be cached and rendered any number of
+ * times, without parsing the template file again. Many threads can render the
+ * same instance at the same time, each one with its own
+ * {@link RenderContext} and bindings: see {@link TemplateRegistry}.
+ *
+ * @author Patrizio Bruno {@literal <desertconsulting@gmail.com>}
+ */
+public class CompiledTemplate {
+
+    private static final Pattern TEMPLATE_SRC_RX = Pattern.compile(
+            "^@([^:]+)(:(.+))?");
+
+    private final static String TEMPLATE_SELECTOR
+            = "template[data-type=\"server/template\"]";
+
+    private final Document document;
+    private final TemplateCompiler compiler;
+    private volatile RenderNode[] nodes;
+    private final List<Script> scripts;
+    /**
+     * Hash of the scripts evaluated at every rendering, computed the first
+     * time it's needed
+     */
+    private volatile String scriptsDigest;
+    private final AtomicInteger renderings = new AtomicInteger();
+
+    /**
+     * Templates included through data-include, indexed by selector
+     */
+    private final ConcurrentHashMap<String, Fragment[]> fragments
+            = new ConcurrentHashMap<>();
+    /**
+     * This template compiled with different output settings
+     */
+    private final ConcurrentHashMap<String, CompiledTemplate> variants
+            = new ConcurrentHashMap<>();
+    private final FileCache<CompiledTemplate> externalTemplates
+            = new FileCache<>();
+
+    /**
+     * Initialize a new instance of {@link CompiledTemplate}.
+     *
+     * @param document template document object model, it must never be
+     * modified
+     * @param compiler the compiler the template has been compiled by
+     * @param nodes compiled nodes
+     * @param scripts server-side scripts found in the template
+     */
+    public CompiledTemplate(Document document, TemplateCompiler compiler,
+            RenderNode[] nodes, List<Script> scripts) {
+        this.document = document;
+        this.compiler = compiler;
+        this.nodes = nodes;
+        this.scripts = Collections.unmodifiableList(scripts);
+    }
+
+    /**
+     * Gets the template document object model. The returned instance must not
+     * be modified.
+     *
+     * @return {@code document} passed as parameter to the constructor
+     */
+    public Document getDocument() {
+        return document;
+    }
+
+    /**
+     * Gets the compiler the template has been compiled by.
+     *
+     * @return {@code compiler} passed as parameter to the constructor
+     */
+    public TemplateCompiler getCompiler() {
+        return compiler;
+    }
+
+    /**
+     * Gets the compiled nodes.
+     *
+     * @return {@code nodes} passed as parameter to the constructor or, once
+     * the template has been turned into a Java class, the generated node
+     */
+    public RenderNode[] getNodes() {
+        return nodes.clone();
+    }
+
+    /**
+     * Gets the &lt;script type="server/javascript"&gt; found in the template,
+     * in order of appearance.
+     *
+     * @return server-side scripts
+     */
+    public List<Script> getScripts() {
+        return scripts;
+    }
+
+    /**
+     * Gets a hash of the paths and the inline sources of the scripts
+     * evaluated at every rendering, libraries excluded: together with the
+     * versions of the external scripts it identifies the global script of
+     * the template, see
+     * {@link net.desertconsulting.mochatemplate.parser.cache.ScriptCache}.
+     *
+     * @return SHA-256 hash, hex encoded
+     */
+    public String getScriptsDigest() {
+        String rv = scriptsDigest;
+        if (rv == null) {
+            MessageDigest digest;
+            try {
+                digest = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException ex) {
+                // every Java platform supports SHA-256
+                throw new IllegalStateException(ex);
+            }
+            for (Script script : scripts) {
+                if (!script.isLibrary()) {
+                    digest.update(String.valueOf(script.getSrc()).getBytes(
+                            StandardCharsets.UTF_8));
+                    digest.update((byte) 0);
+                    digest.update(script.getData().getBytes(
+                            StandardCharsets.UTF_8));
+                    digest.update((byte) 0);
+                }
+            }
+            StringBuilder sb = new StringBuilder();
+            for (byte b : digest.digest()) {
+                sb.append(String.format("%02x", b));
+            }
+            rv = scriptsDigest = sb.toString();
+        }
+        return rv;
+    }
+
+    /**
+     * Writes the template on the output of {@code context}. After
+     * {@link TemplateCompiler#getCodegenThreshold()} renderings the template
+     * gets turned into a Java class by
+     * {@link TemplateCompiler#getCodegenExecutor()}: meanwhile, or if the
+     * generation fails, the template keeps being interpreted.
+     *
+     * @param context rendering context
+     * @param bindings javascript variable bindings
+     * @throws ScriptException javascript syntax error
+     * @throws IOException error writing the output
+     */
+    public void render(RenderContext context, Bindings bindings) throws
+            ScriptException, IOException {
+        int threshold = compiler.getCodegenThreshold();
+        if (threshold > 0 && renderings.get() < threshold
+                && renderings.incrementAndGet() == threshold) {
+            try {
+                compiler.getCodegenExecutor().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        generate();
+                    }
+                });
+            } catch (RejectedExecutionException ex) {
+                Logger.getLogger(CompiledTemplate.class.getName()).log(
+                        Level.FINE, "template class generation rejected, "
+                        + "the template will be interpreted", ex);
+            }
+        }
+        for (RenderNode node : nodes) {
+            node.render(context, bindings);
+        }
+    }
+
+    private void generate() {
+        try {
+            nodes = new RenderNode[]{new RenderClassGenerator().generate(
+                nodes)};
+        } catch (Exception | LinkageError ex) {
+            Logger.getLogger(CompiledTemplate.class.getName()).log(
+                    Level.WARNING, "template class generation failed, "
+                    + "the template will be interpreted", ex);
+        }
+    }
+
+    /**
+     * Check if the template has been turned into a Java class.
+     *
+     * @return true if the template is rendered by a generated class
+     */
+    public boolean isGenerated() {
+        RenderNode[] current = nodes;
+        return current.length == 1 && current[0].getClass().getName().
+                startsWith(RenderClassGenerator.PACKAGE + ".");
+    }
+
+    /**
+     * Gets this template compiled for {@code outputSettings}.
+     *
+     * @param outputSettings HTML generation settings
+     * @return this instance if it has been compiled with compatible settings,
+     * otherwise a compiled copy of the template
+     */
+    public CompiledTemplate withOutputSettings(
+            Document.OutputSettings outputSettings) {
+        if (compiler.supports(outputSettings)) {
+            return this;
+        }
+
+        String key = String.format("%s:%s:%s", outputSettings.syntax(),
+                outputSettings.escapeMode(), outputSettings.charset().name());
+        CompiledTemplate rv = variants.get(key);
+        if (rv == null) {
+            rv = compiler.withOutputSettings(outputSettings).compile(document);
+            CompiledTemplate prev = variants.putIfAbsent(key, rv);
+            if (prev != null) {
+                rv = prev;
+            }
+        }
+        return rv;
+    }
+
+    /**
+     * Finds the templates referenced by a data-include attribute: either a
+     * node-selector or a file-reference:node-selector.
+     *
+     * @param templateSelector value of the data-include attribute
+     * @param context rendering context
+     * @return the matching templates
+     * @throws ScriptException bad template reference or error loading an
+     * external template
+     */
+    public Fragment[] include(String templateSelector, RenderContext context)
+            throws ScriptException {
+        if (templateSelector.startsWith("@")) {
+            Matcher matcher = TEMPLATE_SRC_RX.matcher(templateSelector);
+            if (matcher.find()) {
+                return loadExternalTemplate(matcher.group(1), context.
+                        getServletContext()).fragments(matcher.group(3), true);
+            }
+            throw new ScriptException("bad template reference syntax: "
+                    + templateSelector);
+        }
+        return fragments(templateSelector, false);
+    }
+
+    private Fragment[] fragments(String selector, boolean external) {
+        String key = (external ? "@" : "") + (selector == null ? "" : selector);
+        Fragment[] rv = fragments.get(key);
+        if (rv == null) {
+            Elements elements = document.select(TEMPLATE_SELECTOR);
+            if (!external || !StringUtil.isBlank(selector)) {
+                elements = elements.select(selector);
+            }
+
+            rv = new Fragment[elements.size()];
+            for (int i = 0; i < rv.length; i++) {
+                rv[i] = compiler.compileFragment(elements.get(i), external);
+            }
+
+            Fragment[] prev = fragments.putIfAbsent(key, rv);
+            if (prev != null) {
+                rv = prev;
+            }
+        }
+        return rv;
+    }
+
+    private CompiledTemplate loadExternalTemplate(String fileName,
+            ServletContext servletContext) throws ScriptException {
+        CacheFile file;
+        try {
+            file = new CacheFile(servletContext.getResource(fileName).toURI());
+        } catch (MalformedURLException | URISyntaxException ex) {
+            Logger.getLogger(CompiledTemplate.class.getName()).
+                    log(Level.SEVERE, null, ex);
+            throw new ScriptException(
+                    new Exception("template loading error", ex));
+        }
+
+        try {
+            return externalTemplates.get(file,
+                    new FileCache.Loader<CompiledTemplate>() {
+                @Override
+                public CompiledTemplate load(CacheFile file) throws
+                        IOException {
+                    try (InputStream stream = new FileInputStream(file.
+                            getFile())) {
+                        return compiler.compile(Jsoup.parse(stream, null, ""));
+                    }
+                }
+            });
+        } catch (IOException ex) {
+            Logger.getLogger(CompiledTemplate.class.getName()).
+                    log(Level.SEVERE, null, ex);
+            throw new ScriptException(new Exception(
+                    "template loading error", ex));
+        }
+    }
+
+    /**
+     * A &lt;script type="server/javascript"&gt; found in the template.
+     */
+    public static class Script {
+
+        private final String src;
+        private final String data;
+        private final boolean library;
+
+        /**
+         * Initialize a new instance of {@link Script}.
+         *
+         * @param src path to the external script or null for inline scripts
+         * @param data script source
+         */
+        public Script(String src, String data) {
+            this(src, data, false);
+        }
+
+        /**
+         * Initialize a new instance of {@link Script}.
+         *
+         * @param src path to the external script or null for inline scripts
+         * @param data script source
+         * @param library true if the external script is a library, see
+         * {@link #isLibrary()}
+         */
+        public Script(String src, String data, boolean library) {
+            this.src = src;
+            this.data = data;
+            this.library = library && src != null;
+        }
+
+        /**
+         * Gets the path to the external script, relative to the
+         * {@link ServletContext} path.
+         *
+         * @return {@code src} passed as parameter to the constructor
+         */
+        public String getSrc() {
+            return src;
+        }
+
+        /**
+         * Gets the inline script source.
+         *
+         * @return {@code data} passed as parameter to the constructor
+         */
+        public String getData() {
+            return data;
+        }
+
+        /**
+         * Check whether the script is a library, an external script marked
+         * with the attribute data-library: it's evaluated once per javascript
+         * engine instead of once per rendering, see {@link ScriptLibraries}.
+         *
+         * @return true if the script is a library
+         */
+        public boolean isLibrary() {
+            return library;
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2016 Patrizio Bruno <desertconsulting@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.desertconsulting.mochatemplate.parser;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.script.Bindings;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineManager;
+import javax.script.ScriptException;
+
+/**
+ * Evaluates at compile time the javascript expressions whose result never
+ * changes: expressions made only of literals, operators and variables whose
+ * value is known at compile time, like the variable of a data-for over a
+ * constant range.
+ *
+ * Expressions get evaluated by a javascript engine shared by every compiler,
+ * so the results are the same the template engine would produce while
+ * rendering.
+ *
+ * @author Patrizio Bruno {@literal <desertconsulting@gmail.com>}
+ */
+public class ConstantFolder {
+
+    /**
+     * Returned by {@link #fold(String, Map)} when the expression cannot be
+     * evaluated at compile time.
+     */
+    public final static Object NOT_CONSTANT = new Object();
+
+    /**
+     * Whitespace, numbers, strings, identifiers and operators. Assignments,
+     * increments, member access and object literals are not constant.
+     */
+    private final static Pattern TOKEN_PATTERN = Pattern.compile(
+            "(\\s+)"
+            + "|(\\d+(\\.\\d*)?([eE][+-]?\\d+)?|\\.\\d+([eE][+-]?\\d+)?)"
+            + "|('([^'\\\\\\n]|\\\\.)*'|\"([^\"\\\\\\n]|\\\\.)*\")"
+            + "|([A-Za-z_$][\\w$]*)"
+            + "|(\\+\\+|--)"
+            + "|(===|!==|==|!=|<=|>=|&&|\\|\\||[-+*/%()!<>?:,~^&|])");
+    private final static int IDENTIFIER_GROUP = 9;
+    private final static int INCREMENT_GROUP = 10;
+
+    /**
+     * Identifiers whose value never changes
+     */
+    private final static Set<String> LITERALS = new HashSet<>(Arrays.asList(
+            "true", "false", "null", "undefined", "NaN", "Infinity"));
+
+    /**
+     * Result types that can be used in place of the expression
+     */
+    private final static Set<Class<?>> CONSTANT_TYPES = new HashSet<Class<?>>(
+            Arrays.asList(String.class, Integer.class, Long.class,
+                    Double.class, Boolean.class));
+
+    /**
+     * The shared javascript engine, created the first time it's needed
+     */
+    private static class EngineHolder {
+
+        private final static ScriptEngine ENGINE = new ScriptEngineManager().
+                getEngineByName("js");
+        private final static Bindings BINDINGS = ENGINE == null ? null
+                : ENGINE.createBindings();
+    }
+
+    /**
+     * Check if an expression is made only of literals, operators and
+     * {@code constants}.
+     *
+     * @param expression javascript expression
+     * @param constants names of the variables whose value is known
+     * @return true if the expression has no free variables and no side
+     * effects
+     */
+    public boolean isConstant(String expression, Set<String> constants) {
+        if (expression == null || expression.trim().isEmpty()) {
+            return false;
+        }
+        Matcher matcher = TOKEN_PATTERN.matcher(expression);
+        int end = 0;
+        while (matcher.find() && matcher.start() == end) {
+            end = matcher.end();
+            if (matcher.group(INCREMENT_GROUP) != null) {
+                return false;
+            }
+            String identifier = matcher.group(IDENTIFIER_GROUP);
+            if (identifier != null && !LITERALS.contains(identifier)
+                    && !constants.contains(identifier)) {
+                return false;
+            }
+        }
+        return end == expression.length();
+    }
+
+    /**
+     * Evaluates a constant expression.
+     *
+     * @param expression javascript expression
+     * @param constants variables whose value is known, indexed by name
+     * @return the result of the expression or {@link #NOT_CONSTANT} if the
+     * expression is not constant, its evaluation fails or the result is not a
+     * string, a number, a boolean or null
+     */
+    public Object fold(String expression, Map<String, Object> constants) {
+        if (EngineHolder.ENGINE == null || !isConstant(expression, constants.
+                keySet())) {
+            return NOT_CONSTANT;
+        }
+
+        Object rv;
+        synchronized (EngineHolder.ENGINE) {
+            Bindings bindings = EngineHolder.BINDINGS;
+            bindings.putAll(constants);
+            try {
+                rv = EngineHolder.ENGINE.eval(expression, bindings);
+            } catch (ScriptException | RuntimeException ex) {
+                // the error will be reported while rendering
+                return NOT_CONSTANT;
+            } finally {
+                for (String name : constants.keySet()) {
+                    bindings.remove(name);
+                }
+            }
+        }
+        return rv == null || CONSTANT_TYPES.contains(rv.getClass()) ? rv
+                : NOT_CONSTANT;
+    }
+}
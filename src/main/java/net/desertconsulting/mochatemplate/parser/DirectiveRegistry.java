@@ -0,0 +1,129 @@
+/*
+ * Copyright 2016 Patrizio Bruno <desertconsulting@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.desertconsulting.mochatemplate.parser;
+
+import net.desertconsulting.mochatemplate.parser.node.TemplateAttributeParser;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The data-* attribute parsers, indexed by the instruction they support.
+ * Parsers are either listed as {@link ServiceLoader} providers, see
+ * {@link #load(ClassLoader)}, or registered programmatically.
+ * Attribute parsers are stateless - the javascript engine reaches them through
+ * the {@link Parser} or the render context - so a registry can be shared by
+ * any number of template engines, rendering at the same time on different
+ * javascript engines.
+ *
+ * Instances of this class can be safely shared among threads.
+ *
+ * @author Patrizio Bruno {@literal <desertconsulting@gmail.com>}
+ */
+public class DirectiveRegistry {
+
+    private final ConcurrentHashMap<String, TemplateAttributeParser> parsers
+            = new ConcurrentHashMap<>();
+    private final Map<String, TemplateAttributeParser> view = Collections.
+            unmodifiableMap(parsers);
+
+    /**
+     * The registry holding the attribute parsers listed in the classpath,
+     * created the first time it's needed
+     */
+    private static class DefaultHolder {
+
+        private final static DirectiveRegistry DEFAULT = load(
+                DirectiveRegistry.class.getClassLoader());
+    }
+
+    /**
+     * Gets the registry of the attribute parsers listed in the classpath,
+     * used by the {@link MochaTemplateEngine}s created without a registry.
+     * Parsers registered into the default registry are available to every
+     * such engine.
+     *
+     * @return the default registry
+     */
+    public static DirectiveRegistry getDefault() {
+        return DefaultHolder.DEFAULT;
+    }
+
+    /**
+     * Registers an attribute parser, replacing the parser supporting the same
+     * instruction, if any.
+     *
+     * @param parser attribute parser
+     * @return the replaced parser or null
+     */
+    public TemplateAttributeParser register(TemplateAttributeParser parser) {
+        return parsers.put(parser.supportedAttr(), parser);
+    }
+
+    /**
+     * Gets the attribute parser supporting {@code instruction}.
+     *
+     * @param instruction instruction, eg. "for" for data-for attributes
+     * @return the attribute parser or null
+     */
+    public TemplateAttributeParser get(String instruction) {
+        return parsers.get(instruction);
+    }
+
+    /**
+     * Gets the registered attribute parsers.
+     *
+     * @return read-only view of the attribute parsers, indexed by
+     * instruction
+     */
+    public Map<String, TemplateAttributeParser> getParsers() {
+        return view;
+    }
+
+    /**
+     * Creates a registry holding the attribute parsers listed, as
+     * {@link java.util.ServiceLoader} providers, in the
+     * META-INF/services/net.desertconsulting.mochatemplate.parser.node.TemplateAttributeParser
+     * files visible to {@code classLoader}. Further parsers can be added
+     * through {@link #register(TemplateAttributeParser)}.
+     *
+     * @param classLoader class loader the providers are loaded from
+     * @return a new registry
+     */
+    public static DirectiveRegistry load(ClassLoader classLoader) {
+        DirectiveRegistry rv = new DirectiveRegistry();
+        Iterator<TemplateAttributeParser> iterator = ServiceLoader.load(
+                TemplateAttributeParser.class, classLoader).iterator();
+        while (true) {
+            try {
+                if (!iterator.hasNext()) {
+                    break;
+                }
+                rv.register(iterator.next());
+            } catch (ServiceConfigurationError ex) {
+                // a broken provider doesn't prevent loading the others
+                Logger.getLogger(DirectiveRegistry.class.getName()).log(
+                        Level.WARNING, null, ex);
+            }
+        }
+        return rv;
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2016 Patrizio Bruno <desertconsulting@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.desertconsulting.mochatemplate.parser;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Finds the variables a javascript expression reads. Only expressions made of
+ * literals, variables, property accesses and operators are analyzed: function
+ * calls, assignments, object literals and anything else that could have side
+ * effects make the expression opaque.
+ *
+ * @author Patrizio Bruno {@literal <desertconsulting@gmail.com>}
+ */
+public class ExpressionAnalyzer {
+
+    private final static Pattern TOKEN_PATTERN = Pattern.compile(
+            "(\\s+)"
+            + "|(\\d+(\\.\\d*)?([eE][+-]?\\d+)?|\\.\\d+([eE][+-]?\\d+)?)"
+            + "|('([^'\\\\\\n]|\\\\.)*'|\"([^\"\\\\\\n]|\\\\.)*\")"
+            + "|([A-Za-z_$][\\w$]*)"
+            + "|(\\+\\+|--|>>>=|<<=|>>=|[-+*/%&|^]=|=(?!=))"
+            + "|(===|!==|==|!=|<=|>=|&&|\\|\\||>>>|<<|>>|[-+*/%!<>?:,~^&|.()\\[\\]])");
+    private final static int IDENTIFIER_GROUP = 9;
+    private final static int ASSIGNMENT_GROUP = 10;
+    private final static int OPERATOR_GROUP = 11;
+
+    /**
+     * Keywords and literals that are not variables
+     */
+    private final static Set<String> KEYWORDS = new HashSet<>(Arrays.asList(
+            "true", "false", "null", "undefined", "NaN", "Infinity", "this",
+            "in", "instanceof", "typeof"));
+
+    /**
+     * Keywords that make an expression opaque
+     */
+    private final static Set<String> UNSUPPORTED = new HashSet<>(Arrays.asList(
+            "new", "delete", "function", "void", "yield", "await", "eval",
+            "arguments", "var", "let", "const", "class"));
+
+    /**
+     * Finds the variables read by {@code expression}: identifiers that are
+     * not property names nor keywords.
+     *
+     * @param expression javascript expression
+     * @return names of the variables, or null if the expression cannot be
+     * analyzed or could have side effects
+     */
+    public Set<String> variables(String expression) {
+        if (expression == null || expression.trim().isEmpty()) {
+            return null;
+        }
+
+        Set<String> rv = new HashSet<>();
+        Matcher matcher = TOKEN_PATTERN.matcher(expression);
+        int end = 0;
+        String previous = null;
+        while (matcher.find() && matcher.start() == end) {
+            end = matcher.end();
+            if (matcher.group(1) != null) {
+                continue;
+            }
+            if (matcher.group(ASSIGNMENT_GROUP) != null) {
+                return null;
+            }
+
+            String identifier = matcher.group(IDENTIFIER_GROUP);
+            String operator = matcher.group(OPERATOR_GROUP);
+            if (identifier != null) {
+                if (UNSUPPORTED.contains(identifier)) {
+                    return null;
+                }
+                if (!".".equals(previous) && !KEYWORDS.contains(identifier)) {
+                    rv.add(identifier);
+                }
+            } else if ("(".equals(operator) && previous != null && (previous.
+                    equals(")") || previous.equals("]") || Character.
+                    isJavaIdentifierPart(previous.charAt(previous.length()
+                            - 1)) && !KEYWORDS.contains(previous))) {
+                // function call
+                return null;
+            }
+            previous = matcher.group();
+        }
+        return end == expression.length() ? rv : null;
+    }
+}
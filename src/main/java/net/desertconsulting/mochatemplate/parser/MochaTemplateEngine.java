@@ -18,10 +18,17 @@ package net.desertconsulting.mochatemplate.parser;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.dataformat.xml.XmlMapper;
 import net.desertconsulting.mochatemplate.parser.cache.CacheFile;
+import net.desertconsulting.mochatemplate.parser.cache.ExpressionCache;
 import net.desertconsulting.mochatemplate.parser.cache.FileCache;
+import net.desertconsulting.mochatemplate.parser.cache.ScriptCache;
 import net.desertconsulting.mochatemplate.parser.node.AttributeParserArguments;
 import net.desertconsulting.mochatemplate.parser.node.TemplateNode;
 import net.desertconsulting.mochatemplate.parser.node.TemplateAttributeParser;
+import net.desertconsulting.mochatemplate.parser.render.Interpolation;
+import net.desertconsulting.mochatemplate.parser.render.RenderBudget;
+import net.desertconsulting.mochatemplate.parser.render.RenderBudgetExceededException;
+import net.desertconsulting.mochatemplate.parser.render.RenderContext;
+import net.desertconsulting.mochatemplate.parser.render.RenderOutput;
 import com.google.common.io.CharStreams;
 import java.io.ByteArrayInputStream;
 import java.io.File;
@@ -29,22 +36,19 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.UnsupportedEncodingException;
 import java.io.Writer;
 import java.net.URISyntaxException;
 import java.net.URL;
-import java.text.DecimalFormat;
-import java.text.DecimalFormatSymbols;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 import javax.script.Bindings;
+import javax.script.CompiledScript;
 import javax.script.ScriptContext;
 import javax.script.ScriptEngine;
 import javax.script.ScriptEngineManager;
@@ -59,22 +63,78 @@ import org.jsoup.nodes.Entities;
 import org.jsoup.nodes.Node;
 import org.jsoup.nodes.TextNode;
 import org.jsoup.safety.Whitelist;
-import org.reflections.Reflections;
 
 /**
- * This class handles all the template parsing.
+ * This class handles all the template parsing. An engine holds the state of
+ * a rendering - javascript bindings and evaluated scripts - so it must not be
+ * shared among threads; the {@link CompiledTemplate} it renders can be shared
+ * by any number of engines, see {@link TemplateRegistry}. Engines created
+ * with a {@link ScriptEnginePool} must be closed once the rendering is over.
  *
  * @author Patrizio Bruno {@literal <desertconsulting@gmail.com>}
  */
-public class MochaTemplateEngine implements TemplateEngine {
+public class MochaTemplateEngine implements TemplateEngine, AutoCloseable {
 
     /**
      * Javascript engine, to handle the template logic.
      */
-    private final ScriptEngine jse = new ScriptEngineManager().getEngineByName(
-            "js");
+    private final ScriptEngine jse;
     /**
-     * Template document object model.
+     * Compiled javascript expressions.
+     */
+    private final ExpressionCache expressions;
+    /**
+     * Script libraries evaluated by {@link #jse}.
+     */
+    private final ScriptLibraries libraries;
+    /**
+     * Compiled server-side scripts of the templates.
+     */
+    private final ScriptCache scripts;
+    /**
+     * Javascript global scope of the rendering.
+     */
+    private final Bindings globals;
+    /**
+     * Pool {@link #jse} has been borrowed from, null if the engine is not
+     * pooled.
+     */
+    private final ScriptEnginePool pool;
+    private ScriptEnginePool.PooledEngine pooled;
+    /**
+     * Compiled template.
+     */
+    private CompiledTemplate template;
+    /**
+     * Number of characters written before flushing the output, 0 or less to
+     * never flush.
+     */
+    private int flushThreshold;
+    /**
+     * Maximum number of threads rendering the data-region elements of the
+     * template at once.
+     */
+    private int parallelism = 1;
+    /**
+     * Limits of every rendering, null if renderings are not limited
+     */
+    private RenderBudget budget;
+    /**
+     * Time and operations spent by the current rendering
+     */
+    private RenderBudget.Meter meter;
+    /**
+     * Variables shared by every rendering, null if there are none
+     */
+    private ApplicationBindings application;
+    /**
+     * Global scope of {@link #jse} before installing {@link #application}
+     * and the libraries
+     */
+    private Bindings engineGlobalScope;
+    private boolean globalScopeInstalled;
+    /**
+     * Template document object model, as seen by the node parser.
      */
     private Document dom;
     /**
@@ -84,16 +144,7 @@ public class MochaTemplateEngine implements TemplateEngine {
     /**
      * Attribute parsers
      */
-    private static Map<String, TemplateAttributeParser> attrParsers;
-    /**
-     * This regular expression find javascript expressions in a string and
-     * replaces ${} by their expression result
-     */
-    private final static Pattern INLINE_EXP_PATTERN = Pattern.compile(
-            "\\$\\{([^\\}]+)\\}",
-            0);
-
-    private final static Object LOBJ = new Object();
+    private final DirectiveRegistry directives;
     /**
      * The {@link ServletContext} is needed to load external resources, such as
      * external scripts and partial templates
@@ -110,46 +161,99 @@ public class MochaTemplateEngine implements TemplateEngine {
      * @throws Exception
      */
     public MochaTemplateEngine(ServletContext servletContext) throws Exception {
-        this.servletContext = servletContext;
+        this(servletContext, (ScriptEnginePool) null);
+    }
 
-        synchronized (LOBJ) {
-            if (attrParsers == null) {
-                // let's load attribute parsers
-
-                attrParsers = new HashMap<>();
-
-                // loading all available node-parsers in the classpath
-                Reflections reflections = new Reflections(getClass().
-                        getPackage().
-                        getName(),
-                        getClass().getClassLoader());
-
-                Iterator<Class<? extends TemplateAttributeParser>> iterator
-                        = reflections.
-                                getSubTypesOf(TemplateAttributeParser.class).
-                                iterator();
-
-                while (iterator.hasNext()) {
-                    Class<? extends TemplateAttributeParser> impl = iterator.
-                            next();
-                    TemplateAttributeParser p;
-                    try {
-                        p = impl.getConstructor(ScriptEngine.class).newInstance(
-                                jse);
-                    } catch (NoSuchMethodException ex) {
-                        p = impl.getConstructor(ScriptEngine.class,
-                                ServletContext.class).newInstance(jse,
-                                        servletContext);
-                    }
+    /**
+     * Initialize a new instance of {@link MochaTemplateEngine} evaluating
+     * javascript through an engine borrowed from {@code pool}, with its own
+     * global scope. The engine goes back to the pool when {@link #close()} is
+     * called. No templates are loaded yet.
+     *
+     * @param servletContext used to access external files, located into the
+     * {@link ServletContext} path
+     * @param pool pool to borrow the javascript engine from, null to create a
+     * new engine
+     * @throws Exception no engine available within the pool timeout
+     */
+    public MochaTemplateEngine(ServletContext servletContext,
+            ScriptEnginePool pool) throws Exception {
+        this(servletContext, pool, null);
+    }
 
-                    attrParsers.put(p.supportedAttr(), p);
-                }
-            }
+    /**
+     * Initialize a new instance of {@link MochaTemplateEngine} evaluating
+     * javascript through an engine borrowed from {@code pool} and data-*
+     * attributes through the parsers of {@code directives}. No templates are
+     * loaded yet.
+     *
+     * @param servletContext used to access external files, located into the
+     * {@link ServletContext} path
+     * @param pool pool to borrow the javascript engine from, null to create a
+     * new engine
+     * @param directives data-* attribute parsers, null for
+     * {@link DirectiveRegistry#getDefault()}
+     * @throws Exception no engine available within the pool timeout
+     */
+    public MochaTemplateEngine(ServletContext servletContext,
+            ScriptEnginePool pool, DirectiveRegistry directives)
+            throws Exception {
+        this.servletContext = servletContext;
+        this.pool = pool;
+        this.directives = directives != null ? directives : DirectiveRegistry.
+                getDefault();
+        if (pool != null) {
+            pooled = pool.borrow();
+            jse = pooled.getEngine();
+            expressions = pooled.getExpressions();
+            libraries = pooled.getLibraries();
+            scripts = pooled.getScripts();
+            globals = jse.createBindings();
+        } else {
+            jse = new ScriptEngineManager().getEngineByName("js");
+            expressions = new ExpressionCache(jse);
+            libraries = new ScriptLibraries(jse);
+            scripts = new ScriptCache(jse);
+            globals = jse.getBindings(ScriptContext.ENGINE_SCOPE);
         }
 
         parser = new TemplateParser(jse);
     }
 
+    /**
+     * Gives the javascript engine back to the pool it has been borrowed from,
+     * if any. The engine cannot render anymore.
+     */
+    @Override
+    public void close() {
+        application = null;
+        if (globalScopeInstalled) {
+            jse.setBindings(engineGlobalScope, ScriptContext.GLOBAL_SCOPE);
+            globalScopeInstalled = false;
+        }
+        if (pooled != null) {
+            pool.release(pooled);
+            pooled = null;
+        }
+    }
+
+    /**
+     * Initialize a new instance of {@link MochaTemplateEngine} rendering an
+     * already compiled template and setting {@code servletContext}, that will
+     * be used to access external scripts and template partials from the
+     * {@link ServletContext} path.
+     *
+     * @param servletContext used to access external files, located into the
+     * {@link ServletContext} path
+     * @param template compiled template
+     * @throws Exception
+     */
+    public MochaTemplateEngine(ServletContext servletContext,
+            CompiledTemplate template) throws Exception {
+        this(servletContext);
+        loadTemplate(template);
+    }
+
     /**
      * Initialize a new instance of {@link MochaTemplateEngine} loading the
      * template from a HTML string {@code html} and setting
@@ -206,13 +310,174 @@ public class MochaTemplateEngine implements TemplateEngine {
     }
 
     /**
-     * Load a template into the engine.
+     * Load a template into the engine. The template gets compiled with the
+     * default output settings: XML syntax, extended escape mode and no pretty
+     * printing, see {@link #defaultOutputSettings()}.
      *
      * @param stream stream to read the template from
      * @throws IOException error parsing the stream
      */
     public final void loadTemplate(InputStream stream) throws IOException {
-        dom = Jsoup.parse(stream, null, "");
+        loadTemplate(Jsoup.parse(stream, null, ""));
+    }
+
+    /**
+     * Load an already parsed template into the engine. The template gets
+     * compiled with the default output settings, see
+     * {@link #loadTemplate(InputStream)}.
+     *
+     * @param document template document object model, it must not be
+     * modified afterwards
+     */
+    public final void loadTemplate(Document document) {
+        loadTemplate(new TemplateCompiler(directives.getParsers(), defaultOutputSettings()).
+                compile(document));
+    }
+
+    /**
+     * Load an already compiled template into the engine. Compiled templates
+     * are immutable and can be shared among engines.
+     *
+     * @param template compiled template
+     */
+    public final void loadTemplate(CompiledTemplate template) {
+        this.template = template;
+    }
+
+    /**
+     * Gets the cache of compiled javascript expressions, along with its hit
+     * and miss counters.
+     *
+     * @return the expression cache of this engine
+     */
+    public ExpressionCache getExpressionCache() {
+        return expressions;
+    }
+
+    /**
+     * Gets the loaded template.
+     *
+     * @return the compiled template, null if no template has been loaded yet
+     */
+    public CompiledTemplate getTemplate() {
+        return template;
+    }
+
+    /**
+     * Gets the number of characters written before the output gets flushed.
+     *
+     * @return number of characters, 0 or less if the output is never flushed
+     */
+    public int getFlushThreshold() {
+        return flushThreshold;
+    }
+
+    /**
+     * Sets the number of characters to be written before flushing the output
+     * passed to {@link #parse(Appendable, Document.OutputSettings)}, so that
+     * the client starts receiving the page while it's still being rendered.
+     * Pretty printed output is never flushed, since it's generated only after
+     * the whole template has been evaluated.
+     *
+     * @param flushThreshold number of characters, 0 or less to never flush
+     */
+    public void setFlushThreshold(int flushThreshold) {
+        this.flushThreshold = flushThreshold;
+    }
+
+    /**
+     * Gets the maximum number of threads rendering the template at once.
+     *
+     * @return number of threads, 1 if regions are rendered sequentially
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Sets the maximum number of threads rendering a page at once, the
+     * calling one included. Sibling elements marked with data-region are
+     * rendered concurrently, each with its own copy of the variables. Pretty
+     * printed output is always rendered sequentially.
+     *
+     * Warning: concurrent regions are evaluated by the script engine of this
+     * template engine, from several threads at once, and Nashorn engines are
+     * not thread-safe. Regions must only read objects shared with the rest of
+     * the page and must not define global variables or functions, otherwise
+     * keep the default parallelism of 1.
+     *
+     * Data-for loops reaching
+     * {@link TemplateCompiler#getParallelLoopThreshold()} are split into
+     * chunks too, but only when this engine has been borrowed from a
+     * {@link ScriptEnginePool}: every chunk but the first is evaluated by an
+     * idle engine of the pool.
+     *
+     * @param parallelism number of threads, 1 or less to render regions
+     * sequentially
+     */
+    public void setParallelism(int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * Gets the limits of the renderings.
+     *
+     * @return the budget or null if renderings are not limited
+     */
+    public RenderBudget getBudget() {
+        return budget;
+    }
+
+    /**
+     * Sets the time and the number of operations a rendering can take. The
+     * budget is checked before evaluating server-side scripts, directives and
+     * expressions: once exceeded, the rendering is aborted by a
+     * {@link RenderBudgetExceededException}.
+     *
+     * @param budget limits of the renderings, null for no limit
+     */
+    public void setBudget(RenderBudget budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * Gets the variables shared by every rendering.
+     *
+     * @return the application bindings or null
+     */
+    public ApplicationBindings getApplicationBindings() {
+        return application;
+    }
+
+    /**
+     * Sets the variables shared by every rendering: they're installed as the
+     * global scope of the javascript engine, so that they're looked up after
+     * the variables of the rendering. The previous global scope is restored
+     * by {@link #close()}.
+     *
+     * @param application the application bindings, null to remove them
+     */
+    public void setApplicationBindings(ApplicationBindings application) {
+        this.application = application;
+        installGlobalScope(libraries.getScope(application));
+    }
+
+    /**
+     * Gets the script libraries evaluated by the javascript engine.
+     *
+     * @return the script libraries
+     */
+    public ScriptLibraries getLibraries() {
+        return libraries;
+    }
+
+    /**
+     * Gets the server-side scripts compiled by the javascript engine.
+     *
+     * @return the script cache
+     */
+    public ScriptCache getScriptCache() {
+        return scripts;
     }
 
     @Override
@@ -220,9 +485,18 @@ public class MochaTemplateEngine implements TemplateEngine {
             ScriptException, UnsupportedEncodingException,
             IOException {
 
-        doParse(outputSettings);
+        if (outputSettings == null) {
+            outputSettings = defaultOutputSettings();
+        }
+
+        if (outputSettings.prettyPrint()) {
+            doParse(outputSettings);
+            return dom.html();
+        }
 
-        return dom.html();
+        StringBuilder sb = new StringBuilder();
+        render(new RenderOutput(sb, flushThreshold), outputSettings);
+        return sb.toString();
     }
 
     @Override
@@ -230,9 +504,49 @@ public class MochaTemplateEngine implements TemplateEngine {
             ScriptException, UnsupportedEncodingException,
             IOException {
 
-        doParse(outputSettings);
+        if (outputSettings == null) {
+            outputSettings = defaultOutputSettings();
+        }
+
+        if (outputSettings.prettyPrint()) {
+            doParse(outputSettings);
+            dom.html(output);
+        } else {
+            render(new RenderOutput(output, flushThreshold), outputSettings);
+        }
+    }
+
+    /**
+     * Parses the template and writes the result to a byte stream, encoded
+     * with the charset of {@code outputSettings}. Markup that doesn't depend
+     * on the javascript bindings has been encoded at compile time and it's
+     * written as it is.
+     *
+     * @param output output stream
+     * @param outputSettings HTML generation settings, the default ones if
+     * null
+     * @throws ScriptException javascript syntax error
+     * @throws UnsupportedEncodingException unsupported charset
+     * @throws IOException error writing the output
+     */
+    public void parse(OutputStream output,
+            Document.OutputSettings outputSettings) throws ScriptException,
+            UnsupportedEncodingException, IOException {
+
+        if (outputSettings == null) {
+            outputSettings = defaultOutputSettings();
+        }
 
-        dom.html(output);
+        if (outputSettings.prettyPrint()) {
+            doParse(outputSettings);
+            Writer writer = new OutputStreamWriter(output, outputSettings.
+                    charset());
+            dom.html(writer);
+            writer.flush();
+        } else {
+            render(new RenderOutput(output, outputSettings.charset(),
+                    flushThreshold), outputSettings);
+        }
     }
 
     @Override
@@ -254,90 +568,199 @@ public class MochaTemplateEngine implements TemplateEngine {
 
     @Override
     public Object exec() throws ScriptException, IOException {
+        startMeter();
         return parseGlobals();
     }
 
+    /**
+     * Renders the compiled template, without touching its DOM. The output is
+     * streamed while the template gets evaluated.
+     */
+    private void render(RenderOutput out,
+            Document.OutputSettings outputSettings) throws ScriptException,
+            IOException {
+
+        startMeter();
+        parseGlobals();
+
+        CompiledTemplate compiled = template.withOutputSettings(outputSettings);
+        // directives that cannot be compiled are evaluated by the node parser,
+        // which only reads the template DOM when including templates
+        dom = compiled.getDocument();
+
+        compiled.render(new RenderContext(expressions, compiled, out, parser,
+                servletContext, parallelism).withBudget(meter).withEnginePool(
+                pool), globals);
+        // characters written to a byte stream are buffered until flushed
+        if (flushThreshold > 0 || out.getStream() != null) {
+            out.flush();
+        }
+    }
+
+    /**
+     * Parses a copy of the template DOM: pretty printing needs the whole DOM
+     * to be evaluated before generating the output.
+     */
     private void doParse(Document.OutputSettings outputSettings) throws ScriptException, UnsupportedEncodingException, IOException {
 
+        startMeter();
         parseGlobals();
 
+        dom = template.getDocument().clone();
+        // remove evaluated server-side javascript from the DOM
+        dom.select(SCRIPT_SELECTOR).remove();
+
         Node[] nodes = dom.childNodes().toArray(new Node[0]);
         for (Node node : nodes) {
-            parser.parseNode(node, jse.getBindings(ScriptContext.ENGINE_SCOPE));
+            parser.parseNode(node, globals);
         }
 
         // remove server-side templates from the DOM
         dom.select("template[data-type=\"server/template\"]").remove();
 
-        if (outputSettings == null) {
-            outputSettings = new Document.OutputSettings() {
-                {
-                    syntax(Document.OutputSettings.Syntax.xml);
-                    escapeMode(Entities.EscapeMode.extended);
-                }
-            };
-        }
         dom.outputSettings(outputSettings);
     }
 
+    /**
+     * Default HTML generation settings, used when {@code parse} gets null
+     * settings: XML syntax, extended escape mode and no pretty printing.
+     *
+     * Templates used to be pretty printed by default. Pretty printing is
+     * still supported, e.g. with
+     * {@code defaultOutputSettings().prettyPrint(true)}, but it evaluates a
+     * copy of the template DOM at every rendering instead of the compiled
+     * template: it's slower, its output is generated only once the whole
+     * template has been evaluated and regions are rendered sequentially.
+     *
+     * @return new settings, which can be modified by the caller
+     */
+    public static Document.OutputSettings defaultOutputSettings() {
+        return new Document.OutputSettings() {
+            {
+                syntax(Document.OutputSettings.Syntax.xml);
+                escapeMode(Entities.EscapeMode.extended);
+                prettyPrint(false);
+            }
+        };
+    }
+
     @Override
     public void put(String key, Object value) {
-        jse.put(key, value);
+        globals.put(key, value);
     }
 
     @Override
     public void putJson(String key, String value) throws ScriptException {
-        jse.put(key, value);
-        jse.put(key, jse.eval(String.format("JSON.parse(%s)", key)));
+        globals.put(key, value);
+        globals.put(key, jse.eval(String.format("JSON.parse(%s)", key),
+                globals));
     }
 
     /**
-     * This method retrieves every &lt;script type="server/javascript"&gt; in the
-     * template, loads external script files and evaluates all the found scripts
-     * through. {@link ScriptEngine#eval(String,Bindings)} to initialize the
-     * current {@link ScriptContext}.
+     * This method retrieves every &lt;script type="server/javascript"&gt; found
+     * in the template at compile time, loads external script files and
+     * evaluates all the found scripts through.
+     * {@link ScriptEngine#eval(String,Bindings)} to initialize the current
+     * {@link ScriptContext}. Libraries are evaluated only once per engine by
+     * {@link ScriptLibraries}; the other scripts are compiled once per
+     * version of their sources, see {@link ScriptCache}.
      *
      * @throws ScriptException syntax error evaluating a script
      * @throws IOException error trying to load an external script
      */
     private Object parseGlobals() throws ScriptException, IOException {
-        Element[] globals = dom.select(SCRIPT_SELECTOR).
-                toArray(new Element[0]);
-
         String jvmVersion = System.getProperty("java.version");
-        jse.put("jvmVersion", jvmVersion.substring(2, 3));
+        globals.put("jvmVersion", jvmVersion.substring(2, 3));
+
+        // the key identifies the inline scripts and the versions of the
+        // external ones
+        StringBuilder key = new StringBuilder(template.getScriptsDigest());
+        boolean libraryLoaded = false;
+        for (CompiledTemplate.Script em : template.getScripts()) {
+            if (em.isLibrary()) {
+                String source = loadExternalScript(getExternalScript(em.
+                        getSrc()));
+                if (!libraries.isLoaded(em.getSrc(), source)) {
+                    check();
+                    libraryLoaded |= libraries.load(em.getSrc(), source);
+                }
+            } else if (em.getSrc() != null) {
+                CacheFile file = getExternalScript(em.getSrc());
+                key.append('|').append(file.getUri()).append('@').append(file.
+                        getLastModified());
+            }
+        }
+        if (libraryLoaded || !globalScopeInstalled && libraries.getScope(
+                application) != null) {
+            installGlobalScope(libraries.getScope(application));
+        }
 
-        String script = "";
-        for (Element em : globals) {
-            if (em.hasAttr("src")) {
-                script += loadExternalScript(em.attr("src"));
+        CompiledScript compiled = scripts.get(key.toString());
+        if (compiled == null) {
+            StringBuilder script = new StringBuilder();
+            for (CompiledTemplate.Script em : template.getScripts()) {
+                if (!em.isLibrary()) {
+                    if (em.getSrc() != null) {
+                        script.append(loadExternalScript(getExternalScript(em.
+                                getSrc())));
+                    }
+                    script.append(em.getData()).append('\n');
+                }
             }
-            script += em.data();
-            script += "\n";
+            if (StringUtil.isBlank(script.toString())) {
+                return null;
+            }
+            compiled = scripts.compile(key.toString(), script.toString());
+            if (compiled == null) {
+                check();
+                return jse.eval(script.toString(), globals);
+            }
+        }
+        check();
+        return compiled.eval(globals);
+    }
 
-            // remove evaluated server-side javascript from the DOM
-            em.remove();
+    /**
+     * Installs the variables shared by every rendering as the global scope
+     * of the javascript engine.
+     */
+    private void installGlobalScope(Bindings scope) {
+        if (!globalScopeInstalled) {
+            engineGlobalScope = jse.getBindings(ScriptContext.GLOBAL_SCOPE);
+            globalScopeInstalled = true;
         }
+        jse.setBindings(scope != null ? scope : engineGlobalScope,
+                ScriptContext.GLOBAL_SCOPE);
+    }
+
+    /**
+     * Starts measuring a rendering against the budget, if any.
+     */
+    private void startMeter() {
+        meter = budget != null ? budget.start() : null;
+    }
 
-        if (!StringUtil.isBlank(script)) {
-            return jse.eval(script);
+    /**
+     * Counts an operation of the current rendering against the budget.
+     */
+    private void check() throws RenderBudgetExceededException {
+        if (meter != null) {
+            meter.check();
         }
-        return null;
     }
 
     private final static FileCache<String> SCRIPT_CACHE = new FileCache<>();
 
     /**
-     * Load external server-side javascripts, referenced by HTML tag
+     * Locates external server-side javascripts, referenced by HTML tag
      * &lt;script type="server/javascript" src="externalScript.js"&gt;
      *
      * @param path path to the external script. It is relative to the
      * {@link ServletContext} path.
-     * @return the content of the referenced file
+     * @return the referenced file, along with its version
      * @throws IOException in case of error accessing the referenced file
      */
-    private String loadExternalScript(String path) throws IOException {
-        String rv;
+    private CacheFile getExternalScript(String path) throws IOException {
         CacheFile file;
         try {
             URL resource = servletContext.getResource(path);
@@ -352,16 +775,26 @@ public class MochaTemplateEngine implements TemplateEngine {
             throw new IOException(new Exception(String.format(
                     "bad script path: %s", path), ex));
         }
+        return file;
+    }
 
-        if (SCRIPT_CACHE.containsKey(file)) {
-            rv = SCRIPT_CACHE.get(file);
-        } else {
-            try (FileInputStream input = new FileInputStream(file.getFile())) {
-                rv = CharStreams.toString(new InputStreamReader(input));
-                SCRIPT_CACHE.put(file, rv);
+    /**
+     * Load external server-side javascripts.
+     *
+     * @param file the external script
+     * @return the content of the referenced file
+     * @throws IOException in case of error accessing the referenced file
+     */
+    private String loadExternalScript(CacheFile file) throws IOException {
+        return SCRIPT_CACHE.get(file, new FileCache.Loader<String>() {
+            @Override
+            public String load(CacheFile file) throws IOException {
+                try (FileInputStream input = new FileInputStream(file.
+                        getFile())) {
+                    return CharStreams.toString(new InputStreamReader(input));
+                }
             }
-        }
-        return rv;
+        });
     }
 
     /**
@@ -387,11 +820,12 @@ public class MochaTemplateEngine implements TemplateEngine {
                 ScriptException,
                 UnsupportedEncodingException {
 
+            check();
             if (!("template".equals(node.nodeName())
                     && node.hasAttr("data-type")
                     && "server/template".equals(node.attr("data-type")))) {
 
-                TemplateNode dNode = new TemplateNode(node, bindings, jse, dom);
+                TemplateNode dNode = new TemplateNode(node, bindings, dom);
                 Bindings nodeBindings = dNode.getBindings();
 
                 if (node instanceof Element) {
@@ -440,16 +874,26 @@ public class MochaTemplateEngine implements TemplateEngine {
             }
         }
 
+        @Override
+        public ScriptEngine getEngine() {
+            return jse;
+        }
+
+        @Override
+        public ExpressionCache getExpressions() {
+            return expressions;
+        }
+
+        @Override
+        public ServletContext getServletContext() {
+            return servletContext;
+        }
+
         @Override
         public Object parseDataAttr(Attribute attr, Bindings bindings) throws
                 ScriptException {
-            Object rv;
-            if (bindings == null) {
-                rv = jse.eval(attr.getValue());
-            } else {
-                rv = jse.eval(attr.getValue(), bindings);
-            }
-            return rv;
+            check();
+            return expressions.eval(attr.getValue(), bindings);
         }
 
         /**
@@ -496,34 +940,19 @@ public class MochaTemplateEngine implements TemplateEngine {
                 // unfortunately neither Rhino nor Nashorn do support ES6's multiline template literals
                 // thus the best chance to support ${expression} syntax, without switching to an external JS engine, 
                 // is to find it in text through a regular expression
-                Matcher matcher = INLINE_EXP_PATTERN.matcher(text);
+                Matcher matcher = Interpolation.INLINE_EXP_PATTERN.matcher(
+                        text);
 
                 boolean found = false;
 
                 while (matcher.find()) {
                     found = true;
                     String group = matcher.group(1);
-                    Object evaluated = jse.eval(group, bindings);
-                    if (evaluated != null) {
-                        if (evaluated instanceof Double) {
-                            // Even if both Rhino and Nashorn turn every number to a Double
-                            // integers must be printed as integers, without decimal expansion.
-                            // And... DecimalFormat will format floating point numbers
-                            // accordingly to the current locale settings.
-
-                            DecimalFormat df = new DecimalFormat("0",
-                                    DecimalFormatSymbols.getInstance());
-                            // 340 is the maximum number of fraction digits supported by DigitalFormat
-                            // this will prevent to print a large double in scientific notation
-                            df.setMaximumFractionDigits(340);
-
-                            evaluated = (df.format((double) evaluated));
-                        }
-                        // we are parsing strings and we have to always give back strings...
-                        matcher.appendReplacement(sb, evaluated.toString());
-                    } else {
-                        matcher.appendReplacement(sb, "");
-                    }
+                    check();
+                    Object evaluated = expressions.eval(group, bindings);
+                    // we are parsing strings and we have to always give back strings...
+                    matcher.appendReplacement(sb, Matcher.quoteReplacement(
+                            Interpolation.toString(evaluated)));
                 }
 
                 // if the ${[^}]+} pattern is never found in the input string,
@@ -560,9 +989,8 @@ public class MochaTemplateEngine implements TemplateEngine {
             // a blank instruction is expected in case the attribute name hasn't a 
             // valid syntax
             if (!StringUtil.isBlank(instruction)) {
-                if (attrParsers.containsKey(instruction)) {
-
-                    TemplateAttributeParser parser = attrParsers.get(instruction);
+                TemplateAttributeParser parser = directives.get(instruction);
+                if (parser != null) {
                     // the parser is expected to inform whether the processing of the current
                     // node has to continue
                     rv.setNeedsFurtherProcessing(parser.eval(node, args, this));
@@ -15,9 +15,12 @@
  */
 package net.desertconsulting.mochatemplate.parser;
 
+import net.desertconsulting.mochatemplate.parser.cache.ExpressionCache;
 import java.io.UnsupportedEncodingException;
 import javax.script.Bindings;
+import javax.script.ScriptEngine;
 import javax.script.ScriptException;
+import javax.servlet.ServletContext;
 import org.jsoup.nodes.Attribute;
 import org.jsoup.nodes.Node;
 
@@ -61,4 +64,26 @@ public interface Parser {
      */
     String parseString(String text, Bindings bindings) throws
             ScriptException;
+
+    /**
+     * Gets the Javascript engine the template is evaluated by.
+     *
+     * @return the engine of the template being parsed
+     */
+    ScriptEngine getEngine();
+
+    /**
+     * Gets the compiled javascript expressions of the engine.
+     *
+     * @return the expressions compiled by {@link #getEngine()}
+     */
+    ExpressionCache getExpressions();
+
+    /**
+     * Gets the {@link ServletContext} external templates and scripts are
+     * loaded from.
+     *
+     * @return the servlet context of the template being parsed, or null
+     */
+    ServletContext getServletContext();
 }
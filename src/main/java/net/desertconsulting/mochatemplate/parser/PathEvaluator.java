@@ -0,0 +1,398 @@
+/*
+ * Copyright 2016 Patrizio Bruno <desertconsulting@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.desertconsulting.mochatemplate.parser;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.script.Bindings;
+import net.desertconsulting.mochatemplate.parser.render.FrameLayout;
+import net.desertconsulting.mochatemplate.parser.render.ScopeBindings;
+import net.desertconsulting.mochatemplate.parser.render.Variable;
+
+/**
+ * Evaluates javascript expressions that are plain property paths, like
+ * {@code person.name} or {@code items[0].children}, without going through the
+ * javascript engine. Java bean getters and public fields are called through
+ * cached {@link MethodHandle}s, {@link Map}s, lists and arrays are accessed
+ * directly.
+ *
+ * Whenever the result could differ from the one of the javascript engine -
+ * unbound variables, null values in the middle of the path, missing keys,
+ * indexes out of bounds, numbers the engine would convert - the expression is
+ * left to the engine: {@link #eval(String, Bindings)} returns
+ * {@link #UNRESOLVED}.
+ *
+ * Paths starting from a variable with a slot, see {@link Variable}, read it
+ * by slot: the slot is looked up in the
+ * {@link net.desertconsulting.mochatemplate.parser.render.FrameLayout} of the
+ * scope once, and reused as long as the path is evaluated in scopes of the
+ * same template.
+ *
+ * @author Patrizio Bruno {@literal <desertconsulting@gmail.com>}
+ */
+public class PathEvaluator {
+
+    /**
+     * Returned by {@link #eval(String, Bindings)} when the expression must be
+     * evaluated by the javascript engine.
+     */
+    public final static Object UNRESOLVED = new Object();
+
+    /**
+     * Maximum number of parsed expressions kept in memory
+     */
+    private final static int MAX_PATHS = 4096;
+
+    private final static Pattern PATH_PATTERN = Pattern.compile(
+            "\\s*[A-Za-z_$][\\w$]*(\\s*(\\.\\s*[A-Za-z_$][\\w$]*|\\[\\s*\\d{1,9}\\s*\\]))*\\s*");
+    private final static Pattern SEGMENT_PATTERN = Pattern.compile(
+            "[A-Za-z_$][\\w$]*|\\[\\s*(\\d+)\\s*\\]");
+
+    /**
+     * Javascript keywords and literals that cannot be resolved as variables
+     */
+    private final static Set<String> RESERVED = new HashSet<>(Arrays.asList(
+            "break", "case", "catch", "class", "const", "continue", "debugger",
+            "default", "delete", "do", "else", "enum", "export", "extends",
+            "false", "finally", "for", "function", "if", "implements", "import",
+            "in", "instanceof", "interface", "let", "new", "null", "package",
+            "private", "protected", "public", "return", "static", "super",
+            "switch", "this", "throw", "true", "try", "typeof", "var", "void",
+            "while", "with", "yield", "undefined", "NaN", "Infinity",
+            "arguments", "eval"));
+
+    /**
+     * Numeric types the javascript engine may convert, they're left to it
+     */
+    private final static Set<Class<?>> CONVERTED_TYPES = new HashSet<Class<?>>(
+            Arrays.asList(long.class, Long.class, float.class, Float.class,
+                    short.class, Short.class, byte.class, Byte.class,
+                    char.class, Character.class));
+
+    /**
+     * Marks expressions that are not property paths
+     */
+    private final static Object[] NOT_A_PATH = new Object[0];
+
+    private final static Accessor NO_ACCESSOR = new Accessor(null);
+
+    private final static ClassValue<ConcurrentHashMap<String, Accessor>> ACCESSORS
+            = new ClassValue<ConcurrentHashMap<String, Accessor>>() {
+        @Override
+        protected ConcurrentHashMap<String, Accessor> computeValue(
+                Class<?> type) {
+            return new ConcurrentHashMap<>();
+        }
+    };
+
+    /**
+     * Parsed expressions: every segment is either a property name or an
+     * Integer index, the first one is a {@link Root}
+     */
+    private final ConcurrentHashMap<String, Object[]> paths
+            = new ConcurrentHashMap<>();
+
+    /**
+     * Evaluates {@code expression} if it's a property path.
+     *
+     * @param expression javascript expression
+     * @param bindings javascript variable bindings
+     * @return the value found at the end of the path or {@link #UNRESOLVED}
+     * if the expression must be evaluated by the javascript engine
+     */
+    public Object eval(String expression, Bindings bindings) {
+        return eval(expression, bindings, null);
+    }
+
+    /**
+     * Evaluates {@code expression} if it's a property path, looking up its
+     * first variable in {@code bindings} and then in {@code fallback}, like
+     * the engine does with the scopes of a {@link javax.script.ScriptContext}.
+     *
+     * @param expression javascript expression
+     * @param bindings javascript variable bindings
+     * @param fallback variables not found in {@code bindings}, may be null
+     * @return the value found at the end of the path or {@link #UNRESOLVED}
+     * if the expression must be evaluated by the javascript engine
+     */
+    public Object eval(String expression, Bindings bindings,
+            Bindings fallback) {
+        if (bindings == null) {
+            return UNRESOLVED;
+        }
+
+        Object[] path = parse(expression);
+        if (path == NOT_A_PATH) {
+            return UNRESOLVED;
+        }
+
+        Object value;
+        Variable variable = ((Root) path[0]).variable(bindings);
+        if (variable != null && variable.isBound(bindings)) {
+            value = variable.get(bindings);
+        } else {
+            String root = path[0].toString();
+            if (bindings.containsKey(root)) {
+                value = bindings.get(root);
+            } else if (fallback != null && fallback.containsKey(root)) {
+                value = fallback.get(root);
+            } else {
+                return UNRESOLVED;
+            }
+        }
+        for (int i = 1; i < path.length; i++) {
+            if (value == null) {
+                return UNRESOLVED;
+            }
+            value = path[i] instanceof Integer ? index(value, (Integer) path[i])
+                    : property(value, (String) path[i]);
+            if (value == UNRESOLVED) {
+                return UNRESOLVED;
+            }
+        }
+        return value != null && CONVERTED_TYPES.contains(value.getClass())
+                ? UNRESOLVED : value;
+    }
+
+    /**
+     * Check if {@code expression} is a property path.
+     *
+     * @param expression javascript expression
+     * @return true if the expression can be evaluated by this class
+     */
+    public boolean isPath(String expression) {
+        return parse(expression) != NOT_A_PATH;
+    }
+
+    private Object[] parse(String expression) {
+        Object[] rv = paths.get(expression);
+        if (rv == null) {
+            rv = NOT_A_PATH;
+            if (PATH_PATTERN.matcher(expression).matches()) {
+                List<Object> segments = new ArrayList<>();
+                Matcher matcher = SEGMENT_PATTERN.matcher(expression);
+                while (matcher.find()) {
+                    segments.add(matcher.group(1) != null ? (Object) Integer.
+                            valueOf(matcher.group(1)) : matcher.group());
+                }
+                if (!RESERVED.contains((String) segments.get(0))) {
+                    rv = segments.toArray();
+                    rv[0] = new Root((String) rv[0]);
+                }
+            }
+            if (paths.size() < MAX_PATHS) {
+                paths.putIfAbsent(expression, rv);
+            }
+        }
+        return rv;
+    }
+
+    private Object index(Object value, int index) {
+        if (value instanceof Bindings) {
+            return entry((Bindings) value, String.valueOf(index));
+        }
+        if (value instanceof List) {
+            List<?> list = (List<?>) value;
+            return index < list.size() ? list.get(index) : UNRESOLVED;
+        }
+        if (value.getClass().isArray()) {
+            return index < Array.getLength(value) ? Array.get(value, index)
+                    : UNRESOLVED;
+        }
+        return UNRESOLVED;
+    }
+
+    private Object property(Object value, String name) {
+        if ("class".equals(name)) {
+            // the engine exposes classes as its own objects
+            return UNRESOLVED;
+        }
+        if (value instanceof Bindings) {
+            // javascript objects
+            return entry((Bindings) value, name);
+        }
+        if (value.getClass().isArray()) {
+            return "length".equals(name) ? Array.getLength(value) : UNRESOLVED;
+        }
+
+        Accessor accessor = accessor(value.getClass(), name);
+        if (accessor.handle != null) {
+            try {
+                return accessor.handle.invoke(value);
+            } catch (Throwable ex) {
+                // the engine will report the error
+                return UNRESOLVED;
+            }
+        }
+        if (value instanceof Map) {
+            return entry((Map<?, ?>) value, name);
+        }
+        return UNRESOLVED;
+    }
+
+    private static Object entry(Map<?, ?> map, String key) {
+        return map.containsKey(key) ? map.get(key) : UNRESOLVED;
+    }
+
+    private static Accessor accessor(Class<?> type, String name) {
+        ConcurrentHashMap<String, Accessor> accessors = ACCESSORS.get(type);
+        Accessor rv = accessors.get(name);
+        if (rv == null) {
+            rv = new Accessor(findAccessor(type, name));
+            accessors.putIfAbsent(name, rv.handle == null ? NO_ACCESSOR : rv);
+        }
+        return rv;
+    }
+
+    /**
+     * Finds the bean getter or the public field the javascript engine would
+     * read for the property {@code name}.
+     */
+    private static MethodHandle findAccessor(Class<?> type, String name) {
+        String suffix = Character.toUpperCase(name.charAt(0)) + name.
+                substring(1);
+        MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+        try {
+            for (String getter : new String[]{"get" + suffix, "is" + suffix}) {
+                Method method = publicMethod(type, getter);
+                if (method != null && (!getter.startsWith("is") || method.
+                        getReturnType() == boolean.class)) {
+                    return CONVERTED_TYPES.contains(method.getReturnType())
+                            ? null : lookup.unreflect(method);
+                }
+            }
+            for (Field field : type.getFields()) {
+                if (field.getName().equals(name) && !Modifier.isStatic(field.
+                        getModifiers()) && Modifier.isPublic(field.
+                                getDeclaringClass().getModifiers())) {
+                    return CONVERTED_TYPES.contains(field.getType()) ? null
+                            : lookup.unreflectGetter(field);
+                }
+            }
+        } catch (IllegalAccessException | SecurityException ex) {
+            // left to the javascript engine
+        }
+        return null;
+    }
+
+    /**
+     * Finds a public instance method without parameters, declared by a public
+     * class or interface.
+     */
+    private static Method publicMethod(Class<?> type, String name) {
+        Method method;
+        try {
+            method = type.getMethod(name);
+        } catch (NoSuchMethodException ex) {
+            return null;
+        }
+        if (Modifier.isStatic(method.getModifiers())
+                || method.getReturnType() == void.class) {
+            return null;
+        }
+        if (Modifier.isPublic(method.getDeclaringClass().getModifiers())) {
+            return method;
+        }
+        // a public method of a non-public class, implementing a public
+        // interface or overriding a method of a public superclass
+        for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+            for (Class<?> i : c.getInterfaces()) {
+                Method rv = publicMethod(i, name);
+                if (rv != null) {
+                    return rv;
+                }
+            }
+            if (c != type && Modifier.isPublic(c.getModifiers())) {
+                try {
+                    return c.getMethod(name);
+                } catch (NoSuchMethodException ex) {
+                    // let's try with the superclass
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * A cached property accessor, {@code handle} is null if the property
+     * cannot be read without the javascript engine.
+     */
+    /**
+     * First variable of a path, caching its slot in the layout of the last
+     * scope it has been evaluated in.
+     */
+    private static class Root {
+
+        private final String name;
+        /**
+         * Variable of the last layout, without a slot if the layout has none
+         * for this name
+         */
+        private volatile Variable variable;
+
+        public Root(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Gets the variable in the layout of {@code bindings}.
+         *
+         * @return the variable or null if it has no slot
+         */
+        public Variable variable(Bindings bindings) {
+            if (!(bindings instanceof ScopeBindings)) {
+                return null;
+            }
+            FrameLayout layout = ((ScopeBindings) bindings).getLayout();
+            if (layout == null) {
+                return null;
+            }
+            Variable rv = variable;
+            if (rv == null || rv.getLayout() != layout) {
+                rv = layout.find(name);
+                variable = rv;
+            }
+            return rv.getSlot() >= 0 ? rv : null;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    private static class Accessor {
+
+        private final MethodHandle handle;
+
+        public Accessor(MethodHandle handle) {
+            this.handle = handle;
+        }
+    }
+}
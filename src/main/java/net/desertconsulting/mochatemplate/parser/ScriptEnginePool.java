@@ -0,0 +1,444 @@
+/*
+ * Copyright 2016 Patrizio Bruno <desertconsulting@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.desertconsulting.mochatemplate.parser;
+
+import net.desertconsulting.mochatemplate.parser.cache.ExpressionCache;
+import net.desertconsulting.mochatemplate.parser.cache.ScriptCache;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.script.Bindings;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineManager;
+import javax.script.ScriptException;
+
+/**
+ * A bounded pool of javascript engines, so that engines - and the expressions
+ * they have compiled - are reused by the following requests instead of being
+ * created for every request. A borrowed engine must be used by a single
+ * thread and evaluate scripts against its own {@link Bindings}, created
+ * through {@link ScriptEngine#createBindings()}, so that nothing leaks from a
+ * request to the next one.
+ *
+ * At most {@code maxSize} engines are borrowed at the same time, further
+ * requests wait up to {@code timeout} milliseconds. {@code minSize} engines
+ * are created, and warmed up, along with the pool; engines exceeding
+ * {@code minSize} are discarded after being idle for {@code idleTimeout}
+ * milliseconds.
+ *
+ * Instances of this class can be safely shared among threads.
+ *
+ * @author Patrizio Bruno {@literal <desertconsulting@gmail.com>}
+ */
+public class ScriptEnginePool implements AutoCloseable {
+
+    /**
+     * Default number of milliseconds {@link #borrow()} waits for an engine
+     */
+    public final static long DEFAULT_TIMEOUT = 30000;
+    /**
+     * Default number of milliseconds an engine exceeding the minimum size of
+     * the pool can be idle before being discarded
+     */
+    public final static long DEFAULT_IDLE_TIMEOUT = 300000;
+
+    private final static String WARMUP_SCRIPT
+            = "JSON.stringify({a: [1, 'b', true].map(function(x) { return typeof x; })})";
+
+    private final int minSize;
+    private final int maxSize;
+    private final long timeout;
+    private final long idleTimeout;
+    private final Semaphore permits;
+    /**
+     * Idle engines, the most recently used first
+     */
+    private final LinkedBlockingDeque<PooledEngine> idle
+            = new LinkedBlockingDeque<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicLong borrowed = new AtomicLong();
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong evicted = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong waitTime = new AtomicLong();
+    private volatile boolean closed;
+
+    /**
+     * Initialize a new instance of {@link ScriptEnginePool} with the default
+     * timeouts.
+     *
+     * @param minSize number of engines created along with the pool and never
+     * discarded
+     * @param maxSize maximum number of engines borrowed at the same time
+     */
+    public ScriptEnginePool(int minSize, int maxSize) {
+        this(minSize, maxSize, DEFAULT_TIMEOUT, DEFAULT_IDLE_TIMEOUT);
+    }
+
+    /**
+     * Initialize a new instance of {@link ScriptEnginePool}, creating and
+     * warming up {@code minSize} engines.
+     *
+     * @param minSize number of engines created along with the pool and never
+     * discarded
+     * @param maxSize maximum number of engines borrowed at the same time
+     * @param timeout milliseconds {@link #borrow()} waits for an engine
+     * @param idleTimeout milliseconds an engine exceeding {@code minSize} can
+     * be idle before being discarded
+     */
+    public ScriptEnginePool(int minSize, int maxSize, long timeout,
+            long idleTimeout) {
+        if (maxSize < 1 || minSize < 0 || minSize > maxSize) {
+            throw new IllegalArgumentException(String.format(
+                    "bad pool size: min %d, max %d", minSize, maxSize));
+        }
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.timeout = timeout;
+        this.idleTimeout = idleTimeout;
+        this.permits = new Semaphore(maxSize, true);
+
+        for (int i = 0; i < minSize; i++) {
+            idle.offerLast(create());
+        }
+    }
+
+    /**
+     * Borrows an engine, waiting if {@code maxSize} engines are already
+     * borrowed. The engine must be given back through
+     * {@link #release(PooledEngine)}.
+     *
+     * @return an idle engine or a new one
+     * @throws TimeoutException no engine has been released within
+     * {@code timeout} milliseconds
+     * @throws InterruptedException the thread has been interrupted while
+     * waiting
+     */
+    public PooledEngine borrow() throws TimeoutException,
+            InterruptedException {
+        if (closed) {
+            throw new IllegalStateException("the pool has been closed");
+        }
+
+        long start = System.nanoTime();
+        if (!permits.tryAcquire(timeout, TimeUnit.MILLISECONDS)) {
+            timeouts.incrementAndGet();
+            throw new TimeoutException(String.format(
+                    "no javascript engine available after %d ms", timeout));
+        }
+        waitTime.addAndGet(System.nanoTime() - start);
+        borrowed.incrementAndGet();
+        active.incrementAndGet();
+
+        PooledEngine rv = idle.pollFirst();
+        if (rv == null) {
+            try {
+                rv = create();
+            } catch (RuntimeException | Error ex) {
+                active.decrementAndGet();
+                permits.release();
+                throw ex;
+            }
+        }
+        return rv;
+    }
+
+    /**
+     * Borrows an idle engine, without waiting and without creating a new
+     * one. The engine must be given back through
+     * {@link #release(PooledEngine)}.
+     *
+     * @return an idle engine or null if there is none
+     */
+    public PooledEngine tryBorrow() {
+        if (closed || !permits.tryAcquire()) {
+            return null;
+        }
+        PooledEngine rv = idle.pollFirst();
+        if (rv == null) {
+            permits.release();
+            return null;
+        }
+        borrowed.incrementAndGet();
+        active.incrementAndGet();
+        return rv;
+    }
+
+    /**
+     * Gives back a borrowed engine. Engines that have been idle for longer
+     * than {@code idleTimeout} get discarded.
+     *
+     * @param engine engine returned by {@link #borrow()}
+     */
+    public void release(PooledEngine engine) {
+        engine.lastUsed = System.nanoTime();
+        if (closed) {
+            size.decrementAndGet();
+        } else {
+            idle.offerFirst(engine);
+        }
+        active.decrementAndGet();
+        permits.release();
+        evictIdle();
+    }
+
+    /**
+     * Discards the engines exceeding {@code minSize} that have been idle for
+     * longer than {@code idleTimeout}. It's called every time an engine gets
+     * released.
+     *
+     * @return number of discarded engines
+     */
+    public int evictIdle() {
+        int rv = 0;
+        long now = System.nanoTime();
+        while (size.get() > minSize) {
+            PooledEngine eldest = idle.peekLast();
+            if (eldest == null || now - eldest.lastUsed < TimeUnit.MILLISECONDS.
+                    toNanos(idleTimeout)) {
+                break;
+            }
+            if (idle.removeLastOccurrence(eldest)) {
+                size.decrementAndGet();
+                evicted.incrementAndGet();
+                rv++;
+            }
+        }
+        return rv;
+    }
+
+    /**
+     * Discards the idle engines. Engines still borrowed are discarded when
+     * released, no engine can be borrowed anymore.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        while (idle.pollFirst() != null) {
+            size.decrementAndGet();
+        }
+    }
+
+    private PooledEngine create() {
+        ScriptEngine engine = new ScriptEngineManager().getEngineByName("js");
+        if (engine == null) {
+            throw new IllegalStateException("no javascript engine available");
+        }
+        try {
+            engine.eval(WARMUP_SCRIPT, engine.createBindings());
+        } catch (ScriptException ex) {
+            // the engine works anyway, it's just cold
+            Logger.getLogger(ScriptEnginePool.class.getName()).log(Level.FINE,
+                    null, ex);
+        }
+        size.incrementAndGet();
+        created.incrementAndGet();
+        return new PooledEngine(engine);
+    }
+
+    /**
+     * Gets the number of engines created along with the pool and never
+     * discarded.
+     *
+     * @return {@code minSize} passed as parameter to the constructor
+     */
+    public int getMinSize() {
+        return minSize;
+    }
+
+    /**
+     * Gets the maximum number of engines borrowed at the same time.
+     *
+     * @return {@code maxSize} passed as parameter to the constructor
+     */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Gets the number of milliseconds {@link #borrow()} waits for an engine.
+     *
+     * @return {@code timeout} passed as parameter to the constructor
+     */
+    public long getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * Gets the number of milliseconds an engine exceeding {@code minSize} can
+     * be idle before being discarded.
+     *
+     * @return {@code idleTimeout} passed as parameter to the constructor
+     */
+    public long getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    /**
+     * Gets the number of engines in the pool, either idle or borrowed.
+     *
+     * @return number of engines
+     */
+    public int size() {
+        return size.get();
+    }
+
+    /**
+     * Gets the number of engines currently borrowed.
+     *
+     * @return number of borrowed engines
+     */
+    public int getActive() {
+        return active.get();
+    }
+
+    /**
+     * Gets the number of idle engines.
+     *
+     * @return number of idle engines
+     */
+    public int getIdle() {
+        return idle.size();
+    }
+
+    /**
+     * Gets the fraction of {@code maxSize} currently borrowed.
+     *
+     * @return a number between 0 and 1
+     */
+    public double getUtilization() {
+        return (double) active.get() / maxSize;
+    }
+
+    /**
+     * Gets the number of engines borrowed since the pool has been created.
+     *
+     * @return number of successful calls to {@link #borrow()}
+     */
+    public long getBorrowed() {
+        return borrowed.get();
+    }
+
+    /**
+     * Gets the number of engines created since the pool has been created.
+     *
+     * @return number of engines created
+     */
+    public long getCreated() {
+        return created.get();
+    }
+
+    /**
+     * Gets the number of idle engines discarded.
+     *
+     * @return number of engines discarded by {@link #evictIdle()}
+     */
+    public long getEvicted() {
+        return evicted.get();
+    }
+
+    /**
+     * Gets the number of calls to {@link #borrow()} that timed out.
+     *
+     * @return number of timeouts
+     */
+    public long getTimeouts() {
+        return timeouts.get();
+    }
+
+    /**
+     * Gets the time spent by {@link #borrow()} waiting for an engine.
+     *
+     * @return total waiting time, in milliseconds
+     */
+    public long getWaitTime() {
+        return TimeUnit.NANOSECONDS.toMillis(waitTime.get());
+    }
+
+    /**
+     * Gets the average time spent by {@link #borrow()} waiting for an engine.
+     *
+     * @return average waiting time, in milliseconds
+     */
+    public double getAverageWaitTime() {
+        long count = borrowed.get();
+        return count == 0 ? 0 : waitTime.get() / 1e6 / count;
+    }
+
+    /**
+     * A javascript engine of the pool, along with the expressions it has
+     * compiled.
+     */
+    public static class PooledEngine {
+
+        private final ScriptEngine engine;
+        private final ExpressionCache expressions;
+        private final ScriptLibraries libraries;
+        private final ScriptCache scripts;
+        private volatile long lastUsed = System.nanoTime();
+
+        private PooledEngine(ScriptEngine engine) {
+            this.engine = engine;
+            this.expressions = new ExpressionCache(engine);
+            this.libraries = new ScriptLibraries(engine);
+            this.scripts = new ScriptCache(engine);
+        }
+
+        /**
+         * Gets the javascript engine.
+         *
+         * @return the pooled engine
+         */
+        public ScriptEngine getEngine() {
+            return engine;
+        }
+
+        /**
+         * Gets the expressions compiled by the engine, kept across borrowings.
+         *
+         * @return the expression cache of the engine
+         */
+        public ExpressionCache getExpressions() {
+            return expressions;
+        }
+
+        /**
+         * Gets the script libraries evaluated by the engine, kept across
+         * borrowings.
+         *
+         * @return the script libraries of the engine
+         */
+        public ScriptLibraries getLibraries() {
+            return libraries;
+        }
+
+        /**
+         * Gets the server-side scripts compiled by the engine, kept across
+         * borrowings.
+         *
+         * @return the script cache of the engine
+         */
+        public ScriptCache getScripts() {
+            return scripts;
+        }
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2016 Patrizio Bruno <desertconsulting@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.desertconsulting.mochatemplate.parser;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.script.Bindings;
+import javax.script.ScriptEngine;
+import javax.script.ScriptException;
+
+/**
+ * External server-side scripts marked with the attribute data-library,
+ * evaluated once per javascript engine: they're evaluated into a global
+ * object of their own and the variables and functions they declare are
+ * shared, as {@link ApplicationBindings}, by every following rendering of the
+ * engine. A library is evaluated again only when its source changes: the
+ * global object is then created anew and the other libraries are evaluated
+ * again too, so that variables no longer declared are not shared anymore.
+ *
+ * Libraries must be pure: they must not depend on the variables of a
+ * rendering and must not keep state across renderings, since renderings
+ * share the objects they declare. Shared objects are frozen, see
+ * {@link ApplicationBindings}.
+ *
+ * @author Patrizio Bruno {@literal <desertconsulting@gmail.com>}
+ */
+public class ScriptLibraries {
+
+    private final ScriptEngine engine;
+    /**
+     * Global object the libraries are evaluated into
+     */
+    private Bindings scope;
+    /**
+     * Sources of the evaluated libraries, indexed by path, in evaluation
+     * order
+     */
+    private final Map<String, String> sources = new LinkedHashMap<>();
+    /**
+     * Variables declared by the libraries, null if they must be collected
+     * again
+     */
+    private Map<String, Object> exports = Collections.emptyMap();
+    private ApplicationBindings application;
+    private ApplicationBindings merged;
+    private long evaluations;
+
+    /**
+     * Initialize a new instance of {@link ScriptLibraries}.
+     *
+     * @param engine javascript engine evaluating the libraries
+     */
+    public ScriptLibraries(ScriptEngine engine) {
+        this.engine = engine;
+    }
+
+    /**
+     * Check whether a library has already been evaluated with the same
+     * source.
+     *
+     * @param path path of the library, relative to the ServletContext path
+     * @param source library source
+     * @return true if the library doesn't need to be evaluated
+     */
+    public synchronized boolean isLoaded(String path, String source) {
+        return source.equals(sources.get(path));
+    }
+
+    /**
+     * Evaluates a library, unless it has already been evaluated with the
+     * same source.
+     *
+     * @param path path of the library, relative to the ServletContext path
+     * @param source library source
+     * @return true if the library has been evaluated
+     * @throws ScriptException error evaluating the library
+     */
+    public synchronized boolean load(String path, String source) throws
+            ScriptException {
+        if (isLoaded(path, source)) {
+            return false;
+        }
+        if (sources.remove(path) != null || scope == null) {
+            scope = engine.createBindings();
+            try {
+                for (String library : sources.values()) {
+                    evaluations++;
+                    engine.eval(library, scope);
+                }
+            } catch (ScriptException | RuntimeException ex) {
+                // every library will be evaluated again into a new scope
+                scope = null;
+                sources.clear();
+                throw ex;
+            }
+        }
+        // a library failing halfway may have declared some variables
+        exports = null;
+        evaluations++;
+        engine.eval(source, scope);
+        sources.put(path, source);
+        return true;
+    }
+
+    /**
+     * Gets the variables shared by the renderings of the engine: the ones
+     * declared by the libraries hide the ones of {@code application}.
+     *
+     * @param application variables shared by every rendering, may be null
+     * @return the shared variables, null if there are none
+     */
+    public synchronized Bindings getScope(ApplicationBindings application) {
+        if (exports == null) {
+            exports = new HashMap<>();
+            for (String name : scope.keySet()) {
+                exports.put(name, scope.get(name));
+            }
+            merged = null;
+        }
+        if (exports.isEmpty()) {
+            return application;
+        }
+        if (merged == null || this.application != application) {
+            this.application = application;
+            merged = application != null ? application.with(exports)
+                    : new ApplicationBindings(exports);
+        }
+        return merged;
+    }
+
+    /**
+     * Gets the number of libraries evaluated so far.
+     *
+     * @return number of evaluations
+     */
+    public synchronized long getEvaluations() {
+        return evaluations;
+    }
+}
@@ -0,0 +1,832 @@
+/*
+ * Copyright 2016 Patrizio Bruno <desertconsulting@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.desertconsulting.mochatemplate.parser;
+
+import net.desertconsulting.mochatemplate.parser.node.AttributeParserArguments;
+import net.desertconsulting.mochatemplate.parser.node.TemplateAttributeParser;
+import net.desertconsulting.mochatemplate.parser.render.AttributeNode;
+import net.desertconsulting.mochatemplate.parser.render.ConstantDirective;
+import net.desertconsulting.mochatemplate.parser.render.Directive;
+import net.desertconsulting.mochatemplate.parser.render.DomDirective;
+import net.desertconsulting.mochatemplate.parser.render.ElementNode;
+import net.desertconsulting.mochatemplate.parser.render.Fragment;
+import net.desertconsulting.mochatemplate.parser.render.FrameLayout;
+import net.desertconsulting.mochatemplate.parser.render.HtmlEscaper;
+import net.desertconsulting.mochatemplate.parser.render.InterpolatedTextNode;
+import net.desertconsulting.mochatemplate.parser.render.Interpolation;
+import net.desertconsulting.mochatemplate.parser.render.InvariantNode;
+import net.desertconsulting.mochatemplate.parser.render.InvariantScope;
+import net.desertconsulting.mochatemplate.parser.render.LoopDirective;
+import net.desertconsulting.mochatemplate.parser.render.ParallelNode;
+import net.desertconsulting.mochatemplate.parser.render.RenderClassGenerator;
+import net.desertconsulting.mochatemplate.parser.render.RenderContext;
+import net.desertconsulting.mochatemplate.parser.render.RenderNode;
+import net.desertconsulting.mochatemplate.parser.render.StaticNode;
+import net.desertconsulting.mochatemplate.parser.render.Variable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.jsoup.helper.StringUtil;
+import org.jsoup.nodes.Attribute;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.jsoup.nodes.Node;
+import org.jsoup.nodes.TextNode;
+
+/**
+ * Compiles a template DOM into a tree of {@link RenderNode}s. Markup without
+ * ${} blocks or data-* attributes is serialized once, at compile time, with
+ * the {@link Document.OutputSettings} passed to the constructor. The DOM
+ * passed to {@link #compile(Document)} is never modified.
+ *
+ * Inside loop bodies, ${} blocks and markup that don't depend on the loop
+ * variables are evaluated once per loop instead of once per iteration, see
+ * {@link InvariantScope}.
+ *
+ * @author Patrizio Bruno {@literal <desertconsulting@gmail.com>}
+ */
+public class TemplateCompiler {
+
+    private final static String TEMPLATE_SELECTOR
+            = "template[data-type=\"server/template\"]";
+
+    /**
+     * System property setting the default number of renderings after which a
+     * template gets compiled to a Java class. Class generation needs the
+     * system Java compiler, thus a JDK, and is off unless the property is set
+     * to a positive number.
+     */
+    public final static String CODEGEN_THRESHOLD_PROPERTY
+            = "mochatemplate.codegen.threshold";
+    /**
+     * Default number of renderings after which a template gets compiled to a
+     * Java class: 0, templates are always interpreted
+     */
+    public final static int DEFAULT_CODEGEN_THRESHOLD = 0;
+    /**
+     * System property setting the default number of iterations from which
+     * data-for loops are split into chunks rendered concurrently
+     */
+    public final static String PARALLEL_LOOP_THRESHOLD_PROPERTY
+            = "mochatemplate.parallel.loop.threshold";
+    /**
+     * Default number of iterations from which data-for loops are split into
+     * chunks rendered concurrently: loops are rendered sequentially unless
+     * enabled by {@value #PARALLEL_LOOP_THRESHOLD_PROPERTY}
+     */
+    public final static int DEFAULT_PARALLEL_LOOP_THRESHOLD = 0;
+
+    /**
+     * The default executor of the template class generation, created the
+     * first time it's needed: a single daemon thread, stopped when idle
+     */
+    private static class GeneratorHolder {
+
+        private final static ThreadPoolExecutor EXECUTOR
+                = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS,
+                        new LinkedBlockingQueue<Runnable>(),
+                        new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread rv = new Thread(r, "mochatemplate-codegen");
+                        rv.setDaemon(true);
+                        return rv;
+                    }
+                });
+
+        static {
+            EXECUTOR.allowCoreThreadTimeOut(true);
+        }
+    }
+
+    private final static ConstantFolder FOLDER = new ConstantFolder();
+    private final static ExpressionAnalyzer ANALYZER = new ExpressionAnalyzer();
+
+    private final Map<String, TemplateAttributeParser> attrParsers;
+    private final Document.OutputSettings outputSettings;
+    /**
+     * Variables whose value is known at compile time
+     */
+    private final Map<String, Object> constants;
+    /**
+     * Slots of the template being compiled, null for compilers not bound to
+     * a template
+     */
+    private final FrameLayout layout;
+    private volatile int codegenThreshold = Integer.getInteger(
+            CODEGEN_THRESHOLD_PROPERTY, DEFAULT_CODEGEN_THRESHOLD);
+    private volatile int parallelLoopThreshold = Integer.getInteger(
+            PARALLEL_LOOP_THRESHOLD_PROPERTY, DEFAULT_PARALLEL_LOOP_THRESHOLD);
+    /**
+     * Executor of the template class generation, null for the default one
+     */
+    private volatile Executor codegenExecutor;
+
+    /**
+     * Initialize a new instance of {@link TemplateCompiler}.
+     *
+     * @param attrParsers data-* attribute parsers, indexed by instruction
+     * @param outputSettings HTML generation settings, pretty printing is not
+     * supported and will be disabled
+     */
+    public TemplateCompiler(Map<String, TemplateAttributeParser> attrParsers,
+            Document.OutputSettings outputSettings) {
+        this(attrParsers, outputSettings.clone().prettyPrint(false),
+                Collections.<String, Object>emptyMap(), null);
+    }
+
+    private TemplateCompiler(Map<String, TemplateAttributeParser> attrParsers,
+            Document.OutputSettings outputSettings,
+            Map<String, Object> constants, FrameLayout layout) {
+        this.attrParsers = attrParsers;
+        this.outputSettings = outputSettings;
+        this.constants = constants;
+        this.layout = layout;
+    }
+
+    /**
+     * Gets the HTML generation settings. The returned instance must not be
+     * modified.
+     *
+     * @return HTML generation settings
+     */
+    public Document.OutputSettings getOutputSettings() {
+        return outputSettings;
+    }
+
+    /**
+     * Gets the number of renderings after which a compiled template gets
+     * turned into a Java class by {@link RenderClassGenerator}.
+     *
+     * @return number of renderings, 0 or less if templates are always
+     * interpreted
+     */
+    public int getCodegenThreshold() {
+        return codegenThreshold;
+    }
+
+    /**
+     * Sets the number of renderings after which a compiled template gets
+     * turned into a Java class by {@link RenderClassGenerator}. The default
+     * value is read from the system property
+     * {@value #CODEGEN_THRESHOLD_PROPERTY}, templates are always interpreted
+     * if it's not set.
+     *
+     * @param codegenThreshold number of renderings, 0 or less to always
+     * interpret templates
+     */
+    public void setCodegenThreshold(int codegenThreshold) {
+        this.codegenThreshold = codegenThreshold;
+    }
+
+    /**
+     * Gets the executor turning compiled templates into Java classes. The
+     * generation runs javac, thus it's kept off the rendering threads: until
+     * it's over, templates keep being interpreted.
+     *
+     * @return the executor set by {@link #setCodegenExecutor(Executor)} or
+     * the default one, a single daemon thread shared by every compiler
+     */
+    public Executor getCodegenExecutor() {
+        Executor rv = codegenExecutor;
+        return rv != null ? rv : GeneratorHolder.EXECUTOR;
+    }
+
+    /**
+     * Sets the executor turning compiled templates into Java classes.
+     *
+     * @param codegenExecutor the executor, null for the default one
+     */
+    public void setCodegenExecutor(Executor codegenExecutor) {
+        this.codegenExecutor = codegenExecutor;
+    }
+
+    /**
+     * Gets the number of iterations from which a data-for loop is split into
+     * chunks, rendered concurrently when the rendering allows it: see
+     * {@link RenderContext#getParallelism()}.
+     *
+     * @return number of iterations, 0 or less if loops are always rendered
+     * sequentially
+     */
+    public int getParallelLoopThreshold() {
+        return parallelLoopThreshold;
+    }
+
+    /**
+     * Sets the number of iterations from which a data-for loop is split into
+     * chunks rendered concurrently. The default value is read from the system
+     * property {@value #PARALLEL_LOOP_THRESHOLD_PROPERTY}. Every chunk but the
+     * first is evaluated by its own engine, borrowed from the pool of the
+     * template engine if idle: loops of template engines without a pool are
+     * always rendered sequentially.
+     *
+     * @param parallelLoopThreshold number of iterations, 0 or less to always
+     * render loops sequentially
+     */
+    public void setParallelLoopThreshold(int parallelLoopThreshold) {
+        this.parallelLoopThreshold = parallelLoopThreshold;
+    }
+
+    /**
+     * Check if the output generated by this compiler fits
+     * {@code outputSettings}. Indentation settings are not taken into account.
+     *
+     * @param outputSettings HTML generation settings
+     * @return true if syntax, escape mode and charset match
+     */
+    public boolean supports(Document.OutputSettings outputSettings) {
+        return this.outputSettings.syntax() == outputSettings.syntax()
+                && this.outputSettings.escapeMode() == outputSettings.
+                escapeMode()
+                && this.outputSettings.charset().equals(outputSettings.
+                        charset());
+    }
+
+    /**
+     * Creates a compiler sharing the attribute parsers of this one, with
+     * different HTML generation settings.
+     *
+     * @param outputSettings HTML generation settings
+     * @return a new compiler
+     */
+    public TemplateCompiler withOutputSettings(
+            Document.OutputSettings outputSettings) {
+        TemplateCompiler rv = new TemplateCompiler(attrParsers,
+                outputSettings);
+        rv.setCodegenThreshold(codegenThreshold);
+        rv.setCodegenExecutor(codegenExecutor);
+        rv.setParallelLoopThreshold(parallelLoopThreshold);
+        return rv;
+    }
+
+    /**
+     * Creates a compiler for the markup where some variables have a value
+     * known at compile time, e.g. the body of a data-for over a constant range.
+     *
+     * @param constants variable values, indexed by name
+     * @return a new compiler sharing attribute parsers and settings with this
+     * one
+     */
+    public TemplateCompiler withConstants(Map<String, Object> constants) {
+        Map<String, Object> merged = new HashMap<>(this.constants);
+        merged.putAll(constants);
+        TemplateCompiler rv = new TemplateCompiler(attrParsers, outputSettings,
+                Collections.unmodifiableMap(merged), layout);
+        rv.setCodegenThreshold(codegenThreshold);
+        rv.setCodegenExecutor(codegenExecutor);
+        rv.setParallelLoopThreshold(parallelLoopThreshold);
+        return rv;
+    }
+
+    /**
+     * Gets the variable set by a directive of the template being compiled,
+     * allocating it a slot in the {@link FrameLayout} of the template.
+     *
+     * @param name variable name
+     * @return the variable, stored by name if this compiler is not compiling
+     * a template
+     */
+    public Variable variable(String name) {
+        return layout != null ? layout.variable(name) : new Variable(name);
+    }
+
+    /**
+     * Evaluates a javascript expression at compile time, if its result never
+     * changes: see {@link ConstantFolder}.
+     *
+     * @param expression javascript expression
+     * @return the result of the expression or
+     * {@link ConstantFolder#NOT_CONSTANT}
+     */
+    public Object fold(String expression) {
+        return FOLDER.fold(expression, constants);
+    }
+
+    /**
+     * Compiles an element as it gets rendered once the data-* attributes up
+     * to {@code last} have been evaluated.
+     *
+     * @param element element to be compiled
+     * @param last last data-* attribute already evaluated
+     * @return the compiled nodes
+     */
+    public RenderNode[] compileFrom(Element element, Attribute last) {
+        Element clone = element.clone();
+        for (Attribute attr : element.attributes()) {
+            if (isDirective(attr)) {
+                clone.removeAttr(attr.getKey());
+            }
+            if (attr.getKey().equals(last.getKey())) {
+                break;
+            }
+        }
+        return compileNodes(Collections.<Node>singletonList(clone));
+    }
+
+    /**
+     * Compiles a template.
+     *
+     * @param document template document object model
+     * @return the compiled template
+     */
+    public CompiledTemplate compile(Document document) {
+        List<CompiledTemplate.Script> scripts = new ArrayList<>();
+        for (Element em : document.select(TemplateEngine.SCRIPT_SELECTOR)) {
+            scripts.add(new CompiledTemplate.Script(em.hasAttr("src") ? em.
+                    attr("src") : null, em.data(), em.hasAttr("data-library")));
+        }
+        return new CompiledTemplate(document, this, withLayout().compileNodes(
+                document.childNodes()), scripts);
+    }
+
+    /**
+     * Compiles the children of a &lt;template data-type="server/template"&gt;.
+     *
+     * @param template template element
+     * @param external true if the template has been loaded from an external
+     * file: its server-side scripts will be evaluated at every inclusion
+     * @return the compiled template
+     */
+    public Fragment compileFragment(Element template, boolean external) {
+        List<String> scripts = new ArrayList<>();
+        if (external) {
+            for (Element em : template.select(TemplateEngine.SCRIPT_SELECTOR)) {
+                scripts.add(em.data());
+            }
+        }
+        return new Fragment(template, scripts.toArray(new String[0]),
+                withLayout().compileNodes(template.childNodes()));
+    }
+
+    /**
+     * Creates a compiler allocating the slots of a new template.
+     */
+    private TemplateCompiler withLayout() {
+        TemplateCompiler rv = new TemplateCompiler(attrParsers, outputSettings,
+                constants, new FrameLayout());
+        rv.setCodegenThreshold(codegenThreshold);
+        rv.setCodegenExecutor(codegenExecutor);
+        rv.setParallelLoopThreshold(parallelLoopThreshold);
+        return rv;
+    }
+
+    /**
+     * Compiles a list of sibling nodes.
+     *
+     * @param nodes nodes to be compiled
+     * @return the compiled nodes, adjacent static markup is merged into a
+     * single node
+     */
+    public RenderNode[] compileNodes(List<Node> nodes) {
+        Builder builder = new Builder();
+        for (Node node : nodes) {
+            compileNode(node, builder);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Check if {@code attr} is a data-* attribute handled by one of the
+     * attribute parsers.
+     *
+     * @param attr attribute to be checked
+     * @return true if a parser for the attribute has been found
+     */
+    public boolean isDirective(Attribute attr) {
+        String instruction = new AttributeParserArguments(attr).
+                getInstruction();
+        return !StringUtil.isBlank(instruction) && attrParsers.containsKey(
+                instruction);
+    }
+
+    /**
+     * Serializes an element without evaluating it: data-* attributes up to
+     * {@code last} get removed, server-side scripts and templates are left
+     * out.
+     *
+     * @param element element to be serialized
+     * @param last last data-* attribute to be removed
+     * @return HTML markup
+     */
+    public String rawHtml(Element element, Attribute last) {
+        Element clone = element.clone();
+        for (Attribute attr : element.attributes()) {
+            if (isDirective(attr)) {
+                clone.removeAttr(attr.getKey());
+            }
+            if (attr.getKey().equals(last.getKey())) {
+                break;
+            }
+        }
+        clone.select(TemplateEngine.SCRIPT_SELECTOR).remove();
+        clone.select(TEMPLATE_SELECTOR).remove();
+        return outerHtml(clone);
+    }
+
+    private void compileNode(Node node, Builder builder) {
+        if (node instanceof Element) {
+            compileElement((Element) node, builder);
+        } else if (node instanceof TextNode) {
+            TextNode textNode = (TextNode) node;
+            Interpolation text = Interpolation.parse(textNode.text());
+            String folded = text.hasExpressions() ? fold(text) : null;
+            if (folded != null) {
+                builder.text(folded);
+            } else if (text.hasExpressions()) {
+                builder.add(new InterpolatedTextNode(text));
+            } else {
+                builder.append(HtmlEscaper.escape(textNode.getWholeText(),
+                        outputSettings));
+            }
+        } else if (!isServerComment(node)) {
+            builder.append(outerHtml(node));
+        }
+    }
+
+    private void compileElement(Element element, Builder builder) {
+        if (isServerElement(element)) {
+            return;
+        }
+
+        List<Directive> directives = new ArrayList<>();
+        List<String> processedAttrs = new ArrayList<>();
+        for (Attribute attr : element.attributes()) {
+            if (isDirective(attr)) {
+                AttributeParserArguments args = new AttributeParserArguments(
+                        attr);
+                Directive directive = attrParsers.get(args.getInstruction()).
+                        compile(element, args, this);
+                if (directive == null) {
+                    // the remaining attributes will be evaluated by the DOM parser
+                    directives.add(new DomDirective(element, processedAttrs));
+                    break;
+                }
+                processedAttrs.add(attr.getKey());
+                if (directive instanceof ConstantDirective) {
+                    RenderNode[] nodes = ((ConstantDirective) directive).
+                            getNodes();
+                    if (nodes == null) {
+                        continue;
+                    }
+                    if (directives.isEmpty()) {
+                        // the element is always replaced by the same nodes
+                        for (RenderNode node : nodes) {
+                            builder.add(node);
+                        }
+                        return;
+                    }
+                    directives.add(directive);
+                    break;
+                }
+                directives.add(directive);
+            }
+        }
+
+        Builder head = directives.isEmpty() ? builder : new Builder();
+        head.append("<").append(element.tagName());
+        for (Attribute attr : element.attributes()) {
+            if (!isDirective(attr)) {
+                Interpolation value = Interpolation.parse(attr.getValue());
+                String folded = value.hasExpressions() ? fold(value) : null;
+                if (folded != null) {
+                    head.attribute(attr.getKey(), folded);
+                } else if (value.hasExpressions()) {
+                    head.add(new AttributeNode(attr.getKey(), value));
+                } else {
+                    head.attribute(attr.getKey(), attr.getValue());
+                }
+            }
+        }
+
+        boolean selfClosing = element.tag().isSelfClosing();
+        for (Node child : element.childNodes()) {
+            if (!isServerComment(child) && !(child instanceof Element
+                    && isServerElement((Element) child))) {
+                selfClosing = false;
+                break;
+            }
+        }
+
+        String tail = "";
+        if (selfClosing) {
+            head.append(outputSettings.syntax()
+                    == Document.OutputSettings.Syntax.html
+                    && element.tag().isEmpty() ? ">" : " />");
+        } else {
+            head.append(">");
+            tail = "</" + element.tagName() + ">";
+        }
+
+        if (directives.isEmpty()) {
+            for (Node child : element.childNodes()) {
+                compileNode(child, builder);
+            }
+            builder.append(tail);
+        } else {
+            builder.add(hoistInvariants(element, directives, head.build(),
+                    compileNodes(element.childNodes()), tail));
+        }
+    }
+
+    /**
+     * Creates the node of an element with directives. If the element is a
+     * loop, the expressions of its body not depending on the variables set
+     * inside the loop are evaluated once per loop.
+     */
+    private ElementNode hoistInvariants(Element element,
+            List<Directive> directives, RenderNode[] head, RenderNode[] children,
+            String tail) {
+        int loop = -1;
+        Set<String> variant = new HashSet<>();
+        for (int i = 0; i < directives.size(); i++) {
+            Directive directive = directives.get(i);
+            if (directive instanceof DomDirective) {
+                loop = -1;
+                break;
+            }
+            if (directive instanceof LoopDirective && loop < 0) {
+                loop = i;
+                variant.addAll(Arrays.asList(((LoopDirective) directive).
+                        getVariables()));
+            }
+        }
+
+        if (loop >= 0 && findVariables(element, variant)) {
+            InvariantScope scope = new InvariantScope();
+            RenderNode[] hoistedHead = hoist(head, scope, variant);
+            RenderNode[] hoistedChildren = hoist(children, scope, variant);
+            if (scope.size() > 0) {
+                List<Directive> rv = new ArrayList<>(directives);
+                rv.add(loop, scope);
+                return new ElementNode(rv.toArray(new Directive[0]),
+                        hoistedHead, hoistedChildren, tail);
+            }
+        }
+        return new ElementNode(directives.toArray(new Directive[0]), head,
+                children, tail);
+    }
+
+    /**
+     * Collects the variables set by the data-* attributes of a node and its
+     * descendants.
+     *
+     * @return false if any attribute or expression may have side effects
+     */
+    private boolean findVariables(Node node, Set<String> variables) {
+        if (node instanceof TextNode) {
+            return isAnalyzable(Interpolation.parse(((TextNode) node).text()));
+        }
+        if (!(node instanceof Element) || isServerElement((Element) node)) {
+            return true;
+        }
+
+        for (Attribute attr : node.attributes()) {
+            if (isDirective(attr)) {
+                AttributeParserArguments args = new AttributeParserArguments(
+                        attr);
+                String[] names = attrParsers.get(args.getInstruction()).
+                        getVariables(args);
+                String expression = args.getExpression();
+                if (names == null || Interpolation.parse(expression).
+                        hasExpressions() || (!expression.trim().isEmpty()
+                        && ANALYZER.variables(expression) == null)) {
+                    return false;
+                }
+                variables.addAll(Arrays.asList(names));
+            } else if (!isAnalyzable(Interpolation.parse(attr.getValue()))) {
+                return false;
+            }
+        }
+        for (Node child : node.childNodes()) {
+            if (!findVariables(child, variables)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean isAnalyzable(Interpolation text) {
+        for (String expression : text.getExpressions()) {
+            if (ANALYZER.variables(expression) == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Rewrites the nodes of a loop body: expressions not reading
+     * {@code variant} variables get evaluated once per loop and sequences of
+     * nodes made only of such expressions get rendered once per loop.
+     */
+    private RenderNode[] hoist(RenderNode[] nodes, InvariantScope scope,
+            Set<String> variant) {
+        List<RenderNode> rv = new ArrayList<>();
+        List<RenderNode> invariants = new ArrayList<>();
+        for (RenderNode node : nodes) {
+            Interpolation value = null;
+            if (node instanceof InterpolatedTextNode) {
+                value = ((InterpolatedTextNode) node).getText();
+            } else if (node instanceof AttributeNode) {
+                value = ((AttributeNode) node).getValue();
+            }
+
+            boolean[] invariant = value != null && !value.isHoisted()
+                    ? invariants(value, variant) : null;
+            boolean all = invariant != null;
+            boolean any = false;
+            for (int i = 0; invariant != null && i < invariant.length; i++) {
+                all &= invariant[i];
+                any |= invariant[i];
+            }
+
+            if (all || (node instanceof StaticNode && !invariants.isEmpty())) {
+                invariants.add(node);
+                continue;
+            }
+            flushInvariants(invariants, scope, rv);
+            if (any) {
+                node = node instanceof AttributeNode ? new AttributeNode(
+                        ((AttributeNode) node).getKey(), value.hoist(scope,
+                        invariant)) : new InterpolatedTextNode(value.hoist(
+                        scope, invariant));
+            } else if (node instanceof ElementNode) {
+                ElementNode element = (ElementNode) node;
+                node = new ElementNode(element.getDirectives(), hoist(element.
+                        getHead(), scope, variant), hoist(element.
+                        getChildren(), scope, variant), element.getTail());
+            } else if (node instanceof ParallelNode) {
+                node = new ParallelNode(hoist(((ParallelNode) node).getNodes(),
+                        scope, variant));
+            }
+            rv.add(node);
+        }
+        flushInvariants(invariants, scope, rv);
+        return rv.toArray(new RenderNode[0]);
+    }
+
+    /**
+     * Checks which expressions of {@code value} don't read {@code variant}
+     * variables.
+     */
+    private boolean[] invariants(Interpolation value, Set<String> variant) {
+        String[] expressions = value.getExpressions();
+        boolean[] rv = new boolean[expressions.length];
+        for (int i = 0; i < expressions.length; i++) {
+            Set<String> variables = ANALYZER.variables(expressions[i]);
+            rv[i] = variables != null && Collections.disjoint(variables,
+                    variant);
+        }
+        return rv;
+    }
+
+    /**
+     * Wraps a sequence of invariant nodes into an {@link InvariantNode}. The
+     * trailing static markup is left out, so that it's still written as it
+     * is.
+     */
+    private void flushInvariants(List<RenderNode> invariants,
+            InvariantScope scope, List<RenderNode> nodes) {
+        int end = invariants.size();
+        while (end > 0 && invariants.get(end - 1) instanceof StaticNode) {
+            end--;
+        }
+        if (end > 0) {
+            nodes.add(new InvariantNode(scope, invariants.subList(0, end).
+                    toArray(new RenderNode[0])));
+        }
+        nodes.addAll(invariants.subList(end, invariants.size()));
+        invariants.clear();
+    }
+
+    /**
+     * Check if an element is a server-side script or template, that will
+     * never be part of the output.
+     */
+    private boolean isServerElement(Element element) {
+        return ("script".equalsIgnoreCase(element.tagName())
+                && element.hasAttr("type")
+                && "server/javascript".equalsIgnoreCase(element.attr("type").
+                        trim()))
+                || ("template".equalsIgnoreCase(element.tagName())
+                && element.hasAttr("data-type")
+                && "server/template".equalsIgnoreCase(element.attr(
+                        "data-type").trim()));
+    }
+
+    /**
+     * Evaluates the ${} blocks of a text at compile time.
+     *
+     * @return the evaluated text or null if any expression is not constant
+     */
+    private String fold(Interpolation text) {
+        String[] literals = text.getLiterals();
+        String[] expressions = text.getExpressions();
+        StringBuilder sb = new StringBuilder(literals[0]);
+        for (int i = 0; i < expressions.length; i++) {
+            Object value = fold(expressions[i]);
+            if (value == ConstantFolder.NOT_CONSTANT) {
+                return null;
+            }
+            sb.append(Interpolation.toString(value)).append(literals[i + 1]);
+        }
+        return sb.toString();
+    }
+
+    private boolean isServerComment(Node node) {
+        return "#comment".equals(node.nodeName())
+                && node.attr("comment").trim().startsWith("server-comment ");
+    }
+
+    private String outerHtml(Node node) {
+        Document holder = new Document("");
+        holder.outputSettings(outputSettings.clone());
+        holder.appendChild(node.clone());
+        return holder.html();
+    }
+
+    /**
+     * Collects compiled nodes, merging adjacent static markup.
+     */
+    private class Builder {
+
+        private final List<RenderNode> nodes = new ArrayList<>();
+        private final StringBuilder html = new StringBuilder();
+
+        public Builder append(String markup) {
+            html.append(markup);
+            return this;
+        }
+
+        public void attribute(String key, String value) {
+            try {
+                HtmlEscaper.attribute(html, key, value, outputSettings);
+            } catch (IOException ex) {
+                // a StringBuilder never throws IOException
+                throw new IllegalStateException(ex);
+            }
+        }
+
+        public void text(String value) {
+            try {
+                InterpolatedTextNode.write(html, value, outputSettings);
+            } catch (IOException ex) {
+                // a StringBuilder never throws IOException
+                throw new IllegalStateException(ex);
+            }
+        }
+
+        public void add(RenderNode node) {
+            if (node instanceof StaticNode) {
+                html.append(((StaticNode) node).getHtml());
+            } else {
+                flush();
+                nodes.add(node);
+            }
+        }
+
+        /**
+         * Gets the collected nodes. Siblings including more than one region
+         * are wrapped into a {@link ParallelNode}.
+         */
+        public RenderNode[] build() {
+            flush();
+            RenderNode[] rv = nodes.toArray(new RenderNode[0]);
+            return ParallelNode.countRegions(rv) > 1
+                    ? new RenderNode[]{new ParallelNode(rv)} : rv;
+        }
+
+        private void flush() {
+            if (html.length() > 0) {
+                nodes.add(new StaticNode(html.toString(), outputSettings.
+                        charset()));
+                html.setLength(0);
+            }
+        }
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright 2016 Patrizio Bruno <desertconsulting@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.desertconsulting.mochatemplate.parser;
+
+import net.desertconsulting.mochatemplate.parser.render.Interpolation;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import javax.script.Compilable;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineManager;
+import javax.script.ScriptException;
+import org.jsoup.nodes.Attribute;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.jsoup.nodes.Node;
+import org.jsoup.nodes.TextNode;
+
+/**
+ * Build-time step validating the templates of a web application and listing
+ * them in {@value #INDEX_PATH}, so that
+ * {@link net.desertconsulting.mochatemplate.servlet.MainServlet} compiles
+ * them when it gets initialized instead of at the first request.
+ *
+ * Every template gets compiled and its ${} blocks, data-if and data-set-*
+ * expressions and inline server-side scripts get checked for javascript
+ * syntax errors.
+ *
+ * Usage: {@code TemplatePrecompiler webappDir [outputDir]}, the index is
+ * written to outputDir/WEB-INF, outputDir defaults to webappDir. The process
+ * exits with status 1 if any template is not valid.
+ *
+ * @author Patrizio Bruno {@literal <desertconsulting@gmail.com>}
+ */
+public class TemplatePrecompiler {
+
+    /**
+     * Path of the template index, relative to the web application root
+     */
+    public final static String INDEX_PATH = "/WEB-INF/mochatemplate.index";
+
+    /**
+     * Folders that are not served, thus don't contain templates
+     */
+    private final static List<String> EXCLUDED_FOLDERS = Arrays.asList(
+            "WEB-INF", "META-INF");
+
+    private final File webappDir;
+    private final ScriptEngine jse = new ScriptEngineManager().getEngineByName(
+            "js");
+
+    /**
+     * Initialize a new instance of {@link TemplatePrecompiler}.
+     *
+     * @param webappDir web application root folder
+     */
+    public TemplatePrecompiler(File webappDir) {
+        this.webappDir = webappDir;
+    }
+
+    /**
+     * Finds the templates of the web application: every .html file outside
+     * of WEB-INF and META-INF.
+     *
+     * @return template paths relative to the web application root, starting
+     * with "/", sorted alphabetically
+     */
+    public List<String> findTemplates() {
+        List<String> rv = new ArrayList<>();
+        findTemplates(webappDir, "/", rv);
+        Collections.sort(rv);
+        return rv;
+    }
+
+    private void findTemplates(File dir, String path, List<String> templates) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.isDirectory()) {
+                if (!("/".equals(path) && EXCLUDED_FOLDERS.contains(file.
+                        getName()))) {
+                    findTemplates(file, path + file.getName() + "/", templates);
+                }
+            } else if (file.getName().endsWith(".html")) {
+                templates.add(path + file.getName());
+            }
+        }
+    }
+
+    /**
+     * Compiles a template and checks its javascript expressions.
+     *
+     * @param path template path, relative to the web application root
+     * @return error messages, empty if the template is valid
+     */
+    public List<String> validate(String path) {
+        List<String> rv = new ArrayList<>();
+        File file = new File(webappDir, path.substring(1));
+        try (InputStream stream = new FileInputStream(file)) {
+            MochaTemplateEngine engine = new MochaTemplateEngine(null, stream);
+            Document document = engine.getTemplate().getDocument();
+
+            for (CompiledTemplate.Script script : engine.getTemplate().
+                    getScripts()) {
+                check(path, "server/javascript", script.getData(), rv);
+            }
+            validate(path, document, rv);
+        } catch (Exception ex) {
+            rv.add(String.format("%s: %s", path, ex));
+        }
+        return rv;
+    }
+
+    private void validate(String path, Node node, List<String> errors) {
+        if (node.hasAttr("data-ignore")) {
+            return;
+        }
+        if (node instanceof TextNode) {
+            checkInterpolation(path, ((TextNode) node).getWholeText(), errors);
+        } else if (node instanceof Element) {
+            for (Attribute attr : node.attributes()) {
+                String key = attr.getKey();
+                if (!Interpolation.parse(attr.getValue()).hasExpressions()
+                        && ("data-if".equals(key) || key.startsWith(
+                        "data-set-"))) {
+                    check(path, key, attr.getValue(), errors);
+                } else {
+                    checkInterpolation(path, attr.getValue(), errors);
+                }
+            }
+        }
+        for (Node child : node.childNodes()) {
+            validate(path, child, errors);
+        }
+    }
+
+    private void checkInterpolation(String path, String text,
+            List<String> errors) {
+        for (String expression : Interpolation.parse(text).getExpressions()) {
+            check(path, "${" + expression + "}", expression, errors);
+        }
+    }
+
+    private void check(String path, String source, String script,
+            List<String> errors) {
+        if (jse instanceof Compilable) {
+            try {
+                ((Compilable) jse).compile(script);
+            } catch (ScriptException ex) {
+                errors.add(String.format("%s: %s: %s", path, source, ex.
+                        getMessage()));
+            }
+        }
+    }
+
+    /**
+     * Writes the template index, one template path per line.
+     *
+     * @param templates template paths, relative to the web application root
+     * @param outputDir web application root folder the index will be written
+     * to
+     * @throws IOException error writing the index
+     */
+    public static void writeIndex(List<String> templates, File outputDir)
+            throws IOException {
+        File index = new File(outputDir, INDEX_PATH.substring(1));
+        if (!index.getParentFile().isDirectory() && !index.getParentFile().
+                mkdirs()) {
+            throw new IOException("cannot create " + index.getParent());
+        }
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(
+                index), StandardCharsets.UTF_8)) {
+            for (String template : templates) {
+                writer.write(template);
+                writer.write('\n');
+            }
+        }
+    }
+
+    /**
+     * Validates the templates found in {@code args[0]} and writes their index
+     * into {@code args[1]}, or {@code args[0]} if missing.
+     *
+     * @param args web application folder and output folder
+     * @throws IOException error writing the index
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println(
+                    "usage: TemplatePrecompiler webappDir [outputDir]");
+            System.exit(2);
+        }
+        File webappDir = new File(args[0]);
+        TemplatePrecompiler precompiler = new TemplatePrecompiler(webappDir);
+
+        List<String> templates = precompiler.findTemplates();
+        List<String> errors = new ArrayList<>();
+        for (String template : templates) {
+            errors.addAll(precompiler.validate(template));
+        }
+        for (String error : errors) {
+            System.err.println(error);
+        }
+        if (!errors.isEmpty()) {
+            System.exit(1);
+        }
+
+        writeIndex(templates, args.length > 1 ? new File(args[1]) : webappDir);
+        System.out.println(String.format("%d templates precompiled",
+                templates.size()));
+    }
+}
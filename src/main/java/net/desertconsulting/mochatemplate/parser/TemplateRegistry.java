@@ -0,0 +1,400 @@
+/*
+ * Copyright 2016 Patrizio Bruno <desertconsulting@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.desertconsulting.mochatemplate.parser;
+
+import net.desertconsulting.mochatemplate.parser.cache.CacheFile;
+import net.desertconsulting.mochatemplate.parser.cache.DocumentCache;
+import net.desertconsulting.mochatemplate.parser.cache.FileCache;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.MalformedURLException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.servlet.ServletContext;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+
+/**
+ * The compiled templates of a web application. Every template is compiled
+ * once and the same {@link CompiledTemplate} is rendered by any number of
+ * threads at the same time: the per-request state - javascript bindings,
+ * output, evaluated scripts - lives in the {@link MochaTemplateEngine}
+ * returned by {@link #createEngine(String)}, which must not be shared.
+ *
+ * Templates stored on the file system are compiled again when the file gets
+ * modified. Templates not stored on the file system, e.g. packed into a WAR,
+ * are compiled again when the modification time the container reports for
+ * them changes or, if the container doesn't report any, when their content
+ * changes. Templates listed in {@link TemplatePrecompiler#INDEX_PATH} are
+ * compiled by {@link #precompile()}. Parsed templates, not compiled ones, can
+ * be kept across restarts by a {@link DocumentCache}.
+ *
+ * Instances of this class can be safely shared among threads.
+ *
+ * @author Patrizio Bruno {@literal <desertconsulting@gmail.com>}
+ */
+public class TemplateRegistry {
+
+    private final ServletContext servletContext;
+    private final ScriptEnginePool pool;
+    private final DirectiveRegistry directives;
+    private final FileCache<CompiledTemplate> templates = new FileCache<>();
+    /**
+     * Templates not stored on the file system, e.g. packed into a WAR,
+     * indexed by path
+     */
+    private final ConcurrentHashMap<String, ResourceTemplate> resources
+            = new ConcurrentHashMap<>();
+    /**
+     * Parsed templates kept across restarts, null if templates are parsed
+     * at every restart
+     */
+    private volatile DocumentCache documents;
+
+    /**
+     * Initialize a new instance of {@link TemplateRegistry}.
+     *
+     * @param servletContext used to access template files, external scripts
+     * and template partials
+     */
+    public TemplateRegistry(ServletContext servletContext) {
+        this(servletContext, null);
+    }
+
+    /**
+     * Initialize a new instance of {@link TemplateRegistry} whose engines
+     * borrow their javascript engine from {@code pool}.
+     *
+     * @param servletContext used to access template files, external scripts
+     * and template partials
+     * @param pool pool of javascript engines, null to create an engine for
+     * every {@link MochaTemplateEngine}
+     */
+    public TemplateRegistry(ServletContext servletContext,
+            ScriptEnginePool pool) {
+        this(servletContext, pool, null);
+    }
+
+    /**
+     * Initialize a new instance of {@link TemplateRegistry} whose templates
+     * are compiled with the data-* attribute parsers of {@code directives}.
+     *
+     * @param servletContext used to access template files, external scripts
+     * and template partials
+     * @param pool pool of javascript engines, null to create an engine for
+     * every {@link MochaTemplateEngine}
+     * @param directives data-* attribute parsers, null for
+     * {@link DirectiveRegistry#getDefault()}
+     */
+    public TemplateRegistry(ServletContext servletContext,
+            ScriptEnginePool pool, DirectiveRegistry directives) {
+        this.servletContext = servletContext;
+        this.pool = pool;
+        this.directives = directives;
+    }
+
+    /**
+     * Gets the {@link ServletContext} templates are loaded from.
+     *
+     * @return {@code servletContext} passed as parameter to the constructor
+     */
+    public ServletContext getServletContext() {
+        return servletContext;
+    }
+
+    /**
+     * Gets the pool javascript engines are borrowed from.
+     *
+     * @return {@code pool} passed as parameter to the constructor, or null
+     */
+    public ScriptEnginePool getPool() {
+        return pool;
+    }
+
+    /**
+     * Gets the on-disk parse cache of the templates.
+     *
+     * @return the document cache or null if templates are parsed after every
+     * restart
+     */
+    public DocumentCache getDocumentCache() {
+        return documents;
+    }
+
+    /**
+     * Sets the on-disk parse cache the parsed templates are stored into, so
+     * that after a restart templates get compiled without being parsed again.
+     * Compiled templates are not stored.
+     *
+     * @param documents the document cache, null to parse templates after
+     * every restart
+     */
+    public void setDocumentCache(DocumentCache documents) {
+        this.documents = documents;
+    }
+
+    /**
+     * Gets the compiled template at {@code path}, compiling it if needed.
+     *
+     * @param path path to the template, relative to the {@link ServletContext}
+     * path
+     * @return the compiled template or null if the template doesn't exist
+     * @throws Exception error loading the template
+     */
+    public CompiledTemplate getTemplate(String path) throws Exception {
+        CacheFile file = cacheFile(path);
+        ResourceVersion version = file == null ? resourceVersion(path) : null;
+        CompiledTemplate rv = cached(path, file, version);
+        if (rv == null) {
+            try (MochaTemplateEngine engine = compile(path, file, version)) {
+                rv = engine != null ? engine.getTemplate() : null;
+            }
+        }
+        return rv;
+    }
+
+    /**
+     * Creates a template engine rendering the template at {@code path}. The
+     * engine holds the state of a single rendering and must not be shared
+     * among threads, the compiled template is shared by every engine. The
+     * engine must be closed once the rendering is over, so that its
+     * javascript engine goes back to the pool.
+     *
+     * @param path path to the template, relative to the {@link ServletContext}
+     * path
+     * @return a new template engine or null if the template doesn't exist
+     * @throws Exception error loading the template
+     */
+    public MochaTemplateEngine createEngine(String path) throws Exception {
+        CacheFile file = cacheFile(path);
+        ResourceVersion version = file == null ? resourceVersion(path) : null;
+        CompiledTemplate compiled = cached(path, file, version);
+        if (compiled != null) {
+            MochaTemplateEngine rv = new MochaTemplateEngine(servletContext,
+                    pool, directives);
+            rv.loadTemplate(compiled);
+            return rv;
+        }
+        return compile(path, file, version);
+    }
+
+    /**
+     * Compiles the template at {@code path} and caches it.
+     *
+     * @return a new template engine or null if the template doesn't exist
+     */
+    private MochaTemplateEngine compile(String path, CacheFile file,
+            ResourceVersion version) throws Exception {
+
+        try (InputStream templateStream = version != null && version.content
+                != null ? new ByteArrayInputStream(version.content)
+                : servletContext.getResourceAsStream(path)) {
+            if (templateStream == null) {
+                return null;
+            }
+            MochaTemplateEngine rv = new MochaTemplateEngine(servletContext,
+                    pool, directives);
+            try {
+                loadTemplate(rv, path, file, templateStream);
+            } catch (Exception | Error ex) {
+                rv.close();
+                throw ex;
+            }
+            if (file != null) {
+                // another thread may have compiled the template meanwhile
+                CompiledTemplate prev = templates.putIfAbsent(file, rv.
+                        getTemplate());
+                if (prev != null) {
+                    rv.loadTemplate(prev);
+                }
+            } else if (version != null) {
+                ResourceTemplate item = new ResourceTemplate(version.version,
+                        rv.getTemplate());
+                ResourceTemplate prev = resources.putIfAbsent(path, item);
+                if (prev != null) {
+                    if (prev.version.equals(version.version)) {
+                        rv.loadTemplate(prev.template);
+                    } else {
+                        resources.replace(path, prev, item);
+                    }
+                }
+            }
+            return rv;
+        }
+    }
+
+    /**
+     * Compiles the templates listed in {@link TemplatePrecompiler#INDEX_PATH},
+     * if the index exists, so that no template gets parsed while serving a
+     * request.
+     *
+     * @return number of templates compiled
+     */
+    public int precompile() {
+        int count = 0;
+        try (InputStream index = servletContext.getResourceAsStream(
+                TemplatePrecompiler.INDEX_PATH)) {
+            if (index == null) {
+                return 0;
+            }
+            BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    index, StandardCharsets.UTF_8));
+            String path;
+            while ((path = reader.readLine()) != null) {
+                path = path.trim();
+                if (path.isEmpty()) {
+                    continue;
+                }
+                try {
+                    if (getTemplate(path) != null) {
+                        count++;
+                    }
+                } catch (Exception ex) {
+                    // the template will be compiled at the first request
+                    Logger.getLogger(TemplateRegistry.class.getName()).log(
+                            Level.WARNING, String.format(
+                                    "error precompiling %s", path), ex);
+                }
+            }
+        } catch (IOException ex) {
+            Logger.getLogger(TemplateRegistry.class.getName()).log(
+                    Level.WARNING, null, ex);
+        }
+        return count;
+    }
+
+    /**
+     * Loads a template into {@code engine}, parsing it unless it's found in
+     * the document cache.
+     */
+    private void loadTemplate(MochaTemplateEngine engine, String path,
+            CacheFile file, InputStream templateStream) throws IOException {
+        DocumentCache cache = documents;
+        if (cache == null) {
+            engine.loadTemplate(templateStream);
+            return;
+        }
+        byte[] content = ByteStreams.toByteArray(templateStream);
+        String key = file != null ? file.getUri().toString() : path;
+        long lastModified = file != null ? file.getLastModified() : 0;
+        Document document = cache.get(key, lastModified, content);
+        if (document == null) {
+            document = Jsoup.parse(new ByteArrayInputStream(content), null,
+                    "");
+            cache.put(key, lastModified, content, document);
+        }
+        engine.loadTemplate(document);
+    }
+
+    private CompiledTemplate cached(String path, CacheFile file,
+            ResourceVersion version) {
+        if (file != null) {
+            return templates.get(file);
+        }
+        ResourceTemplate rv = version != null ? resources.get(path) : null;
+        return rv != null && rv.version.equals(version.version) ? rv.template
+                : null;
+    }
+
+    /**
+     * Gets the version of a template not stored on the file system: its
+     * modification time, if the container reports it, or a hash of its
+     * content.
+     *
+     * @return the template version or null if the template doesn't exist
+     */
+    private ResourceVersion resourceVersion(String path) throws IOException {
+        URL resource = servletContext.getResource(path);
+        if (resource != null) {
+            URLConnection connection = resource.openConnection();
+            long lastModified = connection.getLastModified();
+            if (lastModified > 0) {
+                return new ResourceVersion("t" + lastModified, null);
+            }
+        }
+        try (InputStream templateStream = servletContext.getResourceAsStream(
+                path)) {
+            if (templateStream == null) {
+                return null;
+            }
+            byte[] content = ByteStreams.toByteArray(templateStream);
+            return new ResourceVersion("h" + Hashing.sha256().hashBytes(
+                    content), content);
+        }
+    }
+
+    /**
+     * Gets the file the template at {@code path} is stored in.
+     *
+     * @return the template file or null if the template is not stored on the
+     * file system
+     */
+    private CacheFile cacheFile(String path) {
+        try {
+            URL resource = servletContext.getResource(path);
+            if (resource != null && "file".equals(resource.getProtocol())) {
+                return new CacheFile(resource.toURI());
+            }
+        } catch (MalformedURLException | URISyntaxException ex) {
+            // the template will not be cached
+            Logger.getLogger(TemplateRegistry.class.getName()).log(Level.FINE,
+                    null, ex);
+        }
+        return null;
+    }
+
+    /**
+     * The version of a template not stored on the file system.
+     */
+    private static class ResourceVersion {
+
+        public final String version;
+        /**
+         * Template content, if it has been read to compute the version
+         */
+        public final byte[] content;
+
+        public ResourceVersion(String version, byte[] content) {
+            this.version = version;
+            this.content = content;
+        }
+    }
+
+    /**
+     * A compiled template not stored on the file system and the version of
+     * the template it has been compiled from.
+     */
+    private static class ResourceTemplate {
+
+        public final String version;
+        public final CompiledTemplate template;
+
+        public ResourceTemplate(String version, CompiledTemplate template) {
+            this.version = version;
+            this.template = template;
+        }
+    }
+}
@@ -44,6 +44,10 @@ public class CacheFile {
         return this.file;
     }
 
+    public long getLastModified() {
+        return lastModified;
+    }
+
     @Override
     public int hashCode() {
         int hash = 3;
@@ -0,0 +1,348 @@
+/*
+ * Copyright 2016 Patrizio Bruno <desertconsulting@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.desertconsulting.mochatemplate.parser.cache;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.jsoup.nodes.Attribute;
+import org.jsoup.nodes.Attributes;
+import org.jsoup.nodes.BooleanAttribute;
+import org.jsoup.nodes.Comment;
+import org.jsoup.nodes.DataNode;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.DocumentType;
+import org.jsoup.nodes.Element;
+import org.jsoup.nodes.FormElement;
+import org.jsoup.nodes.Node;
+import org.jsoup.nodes.TextNode;
+import org.jsoup.parser.Tag;
+
+/**
+ * This class is a parse cache: it keeps the parsed documents of the templates
+ * into a directory, so that templates don't get parsed again after the
+ * application gets restarted. Compiled templates are not cached. An entry is
+ * identified by the template URI, its modification time, its size and a hash
+ * of its content: a changed template is parsed again and its entry replaced.
+ *
+ * Entries are written into a temporary file and then renamed, so that
+ * concurrent readers never see a partially written entry, and are
+ * memory-mapped when read back. Damaged or outdated entries are ignored.
+ *
+ * Only the document is persisted: compiled templates hold javascript engine
+ * objects and generated classes, thus templates are still compiled after a
+ * restart, which takes about as long as parsing them. At most the parsing
+ * time is saved; {@code DocumentCacheTest.testGetTime} prints the times of
+ * parsing, reading an entry and compiling a large template.
+ *
+ * @author Patrizio Bruno {@literal <desertconsulting@gmail.com>}
+ */
+public class DocumentCache {
+
+    /**
+     * Identifies the entry format, changed whenever the format changes
+     */
+    private final static int MAGIC = 0x4d544401;
+    private final static String SUFFIX = ".dom";
+
+    private final static byte ELEMENT = 1;
+    private final static byte FORM = 2;
+    private final static byte TEXT = 3;
+    private final static byte DATA = 4;
+    private final static byte COMMENT = 5;
+    private final static byte DOCTYPE = 6;
+
+    private final File directory;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Initialize a new instance of {@link DocumentCache}.
+     *
+     * @param directory directory the entries are stored in, created if it
+     * doesn't exist
+     * @throws IOException the directory can't be created
+     */
+    public DocumentCache(File directory) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("cannot create " + directory);
+        }
+        this.directory = directory;
+    }
+
+    /**
+     * Gets the directory the entries are stored in.
+     *
+     * @return {@code directory} passed as parameter to the constructor
+     */
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Retrieves a parsed template.
+     *
+     * @param key template URI, or path if the template is not a file
+     * @param lastModified modification time of the template, 0 if unknown
+     * @param content template content
+     * @return the parsed template or null if it has not been cached, or it
+     * has been cached for a different version of the template
+     */
+    public Document get(String key, long lastModified, byte[] content) {
+        File entry = entry(key);
+        Document rv = null;
+        if (entry.isFile()) {
+            try (FileChannel channel = FileChannel.open(entry.toPath(),
+                    StandardOpenOption.READ)) {
+                ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY,
+                        0, channel.size());
+                rv = read(buffer, key, lastModified, content);
+            } catch (IOException | RuntimeException ex) {
+                // the template will be parsed and cached again
+                Logger.getLogger(DocumentCache.class.getName()).log(
+                        Level.FINE, String.format("bad cache entry %s",
+                                entry), ex);
+            }
+        }
+        if (rv != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+        }
+        return rv;
+    }
+
+    /**
+     * Puts a parsed template into the cache. Errors writing the entry are
+     * logged, the template just won't be cached.
+     *
+     * @param key template URI, or path if the template is not a file
+     * @param lastModified modification time of the template, 0 if unknown
+     * @param content template content
+     * @param document the parsed template, it must not be modified meanwhile
+     */
+    public void put(String key, long lastModified, byte[] content,
+            Document document) {
+        File entry = entry(key);
+        File temp = null;
+        try {
+            temp = File.createTempFile("mochatpl", ".tmp", directory);
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                writeString(out, key);
+                out.writeLong(lastModified);
+                out.writeLong(content.length);
+                out.write(digest(content));
+                writeString(out, document.outputSettings().charset().name());
+                out.writeByte(document.quirksMode().ordinal());
+                writeChildren(out, document);
+            }
+            try {
+                Files.move(temp.toPath(), entry.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(temp.toPath(), entry.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException ex) {
+            Logger.getLogger(DocumentCache.class.getName()).log(Level.WARNING,
+                    String.format("error caching %s", key), ex);
+            if (temp != null && !temp.delete()) {
+                temp.deleteOnExit();
+            }
+        }
+    }
+
+    /**
+     * Gets the number of templates found in the cache.
+     *
+     * @return cache hits
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Gets the number of templates that had to be parsed.
+     *
+     * @return cache misses
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    private File entry(String key) {
+        StringBuilder name = new StringBuilder();
+        for (byte b : digest(key.getBytes(StandardCharsets.UTF_8))) {
+            name.append(String.format("%02x", b));
+        }
+        return new File(directory, name.append(SUFFIX).toString());
+    }
+
+    private static byte[] digest(byte[] content) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(content);
+        } catch (NoSuchAlgorithmException ex) {
+            // every Java platform supports SHA-256
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Reads an entry, checking it has been written for the same version of
+     * the template.
+     *
+     * @return the parsed template or null if the entry is outdated
+     * @throws BufferUnderflowException truncated entry
+     */
+    private static Document read(ByteBuffer in, String key, long lastModified,
+            byte[] content) throws IOException {
+        if (in.getInt() != MAGIC || !key.equals(readString(in))
+                || in.getLong() != lastModified
+                || in.getLong() != content.length) {
+            return null;
+        }
+        byte[] hash = new byte[32];
+        in.get(hash);
+        if (!Arrays.equals(hash, digest(content))) {
+            return null;
+        }
+        Document rv = new Document("");
+        rv.outputSettings().charset(Charset.forName(readString(in)));
+        rv.quirksMode(Document.QuirksMode.values()[in.get()]);
+        readChildren(in, rv);
+        return rv;
+    }
+
+    private static void writeChildren(DataOutputStream out, Node node) throws
+            IOException {
+        out.writeInt(node.childNodeSize());
+        for (Node child : node.childNodes()) {
+            if (child instanceof Element) {
+                Element element = (Element) child;
+                out.writeByte(element instanceof FormElement ? FORM : ELEMENT);
+                writeString(out, element.tagName());
+                out.writeInt(element.attributes().size());
+                for (Attribute attr : element.attributes()) {
+                    out.writeBoolean(attr instanceof BooleanAttribute);
+                    writeString(out, attr.getKey());
+                    writeString(out, attr.getValue());
+                }
+                writeChildren(out, element);
+            } else if (child instanceof TextNode) {
+                out.writeByte(TEXT);
+                writeString(out, ((TextNode) child).getWholeText());
+            } else if (child instanceof DataNode) {
+                out.writeByte(DATA);
+                writeString(out, ((DataNode) child).getWholeData());
+            } else if (child instanceof Comment) {
+                out.writeByte(COMMENT);
+                writeString(out, ((Comment) child).getData());
+            } else if (child instanceof DocumentType) {
+                out.writeByte(DOCTYPE);
+                writeString(out, child.attr("name"));
+                writeString(out, child.attr("publicId"));
+                writeString(out, child.attr("systemId"));
+            } else {
+                throw new IOException(String.format("unsupported node %s",
+                        child.nodeName()));
+            }
+        }
+    }
+
+    private static void readChildren(ByteBuffer in, Element parent) throws
+            IOException {
+        for (int i = in.getInt(); i > 0; i--) {
+            byte type = in.get();
+            switch (type) {
+                case ELEMENT:
+                case FORM:
+                    Tag tag = Tag.valueOf(readString(in));
+                    Attributes attributes = new Attributes();
+                    for (int j = in.getInt(); j > 0; j--) {
+                        boolean bool = in.get() != 0;
+                        String key = readString(in);
+                        String value = readString(in);
+                        attributes.put(bool ? new BooleanAttribute(key)
+                                : new Attribute(key, value));
+                    }
+                    Element element = type == FORM ? new FormElement(tag, "",
+                            attributes) : new Element(tag, "", attributes);
+                    parent.appendChild(element);
+                    readChildren(in, element);
+                    break;
+                case TEXT:
+                    parent.appendChild(new TextNode(readString(in), ""));
+                    break;
+                case DATA:
+                    parent.appendChild(new DataNode(readString(in), ""));
+                    break;
+                case COMMENT:
+                    parent.appendChild(new Comment(readString(in), ""));
+                    break;
+                case DOCTYPE:
+                    parent.appendChild(new DocumentType(readString(in),
+                            readString(in), readString(in), ""));
+                    break;
+                default:
+                    throw new IOException(String.format("bad node type %d",
+                            type));
+            }
+        }
+    }
+
+    /**
+     * Writes a string as its UTF-8 length followed by its UTF-8 bytes: unlike
+     * {@link DataOutputStream#writeUTF(String)}, strings are not limited to
+     * 64KB, e.g. long inline scripts.
+     */
+    private static void writeString(DataOutputStream out, String value)
+            throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0 || length > in.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        ByteBuffer bytes = in.slice();
+        bytes.limit(length);
+        in.position(in.position() + length);
+        return StandardCharsets.UTF_8.decode(bytes).toString();
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright 2016 Patrizio Bruno <desertconsulting@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.desertconsulting.mochatemplate.parser.cache;
+
+import net.desertconsulting.mochatemplate.parser.PathEvaluator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptException;
+
+/**
+ * This class caches compiled javascript expressions, so that the same ${} or
+ * data-* expression doesn't get parsed again every time it's evaluated. The
+ * cache is bounded: the least recently used expressions get evicted first. If
+ * the javascript engine doesn't implement {@link Compilable}, expressions are
+ * evaluated from source. Plain property paths are resolved by a
+ * {@link PathEvaluator}, without going through the engine at all.
+ *
+ * @author Patrizio Bruno {@literal <desertconsulting@gmail.com>}
+ */
+public class ExpressionCache {
+
+    /**
+     * Default maximum number of cached expressions.
+     */
+    public final static int DEFAULT_MAX_SIZE = 1024;
+
+    private final ScriptEngine engine;
+    private final Compilable compilable;
+    private final int maxSize;
+    private final Map<String, CompiledScript> cache;
+    private final PathEvaluator paths = new PathEvaluator();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Initialize a new instance of {@link ExpressionCache} holding up to
+     * {@link #DEFAULT_MAX_SIZE} expressions.
+     *
+     * @param engine javascript engine the expressions get compiled by
+     */
+    public ExpressionCache(ScriptEngine engine) {
+        this(engine, DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * Initialize a new instance of {@link ExpressionCache}.
+     *
+     * @param engine javascript engine the expressions get compiled by
+     * @param maxSize maximum number of cached expressions, 0 disables the
+     * cache
+     */
+    public ExpressionCache(ScriptEngine engine, final int maxSize) {
+        this.engine = engine;
+        this.compilable = engine instanceof Compilable ? (Compilable) engine
+                : null;
+        this.maxSize = maxSize;
+        this.cache = new LinkedHashMap<String, CompiledScript>(16, 0.75f, true) {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(
+                    Map.Entry<String, CompiledScript> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * Evaluates a javascript expression, compiling it only the first time it
+     * gets evaluated. Property paths like {@code person.name} are resolved
+     * against {@code bindings}, then against the global scope of the engine,
+     * directly when possible.
+     *
+     * @param expression javascript expression
+     * @param bindings javascript variable bindings, when null the engine's
+     * default context is used
+     * @return the expression result
+     * @throws ScriptException javascript syntax error
+     */
+    public Object eval(String expression, Bindings bindings) throws
+            ScriptException {
+        Object rv = paths.eval(expression, bindings, engine.getBindings(
+                ScriptContext.GLOBAL_SCOPE));
+        if (rv != PathEvaluator.UNRESOLVED) {
+            return rv;
+        }
+
+        CompiledScript script = compile(expression);
+        if (script == null) {
+            return bindings == null ? engine.eval(expression) : engine.eval(
+                    expression, bindings);
+        }
+        return bindings == null ? script.eval() : script.eval(bindings);
+    }
+
+    /**
+     * Gets the compiled version of a javascript expression, compiling it if
+     * it's not cached yet.
+     *
+     * @param expression javascript expression
+     * @return the compiled expression or null if the engine doesn't support
+     * compilation or the cache is disabled
+     * @throws ScriptException javascript syntax error
+     */
+    public CompiledScript compile(String expression) throws ScriptException {
+        if (compilable == null || maxSize <= 0) {
+            return null;
+        }
+
+        CompiledScript rv;
+        synchronized (cache) {
+            rv = cache.get(expression);
+        }
+
+        if (rv != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+            rv = compilable.compile(expression);
+            synchronized (cache) {
+                cache.put(expression, rv);
+            }
+        }
+        return rv;
+    }
+
+    /**
+     * Gets the javascript engine.
+     *
+     * @return {@code engine} passed as parameter to the constructor
+     */
+    public ScriptEngine getEngine() {
+        return engine;
+    }
+
+    /**
+     * Gets the maximum number of cached expressions.
+     *
+     * @return {@code maxSize} passed as parameter to the constructor
+     */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Gets the number of cached expressions.
+     *
+     * @return number of cached expressions
+     */
+    public int size() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    /**
+     * Gets the number of evaluations that found the expression already
+     * compiled.
+     *
+     * @return cache hits
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Gets the number of evaluations that had to compile the expression.
+     *
+     * @return cache misses
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Removes every cached expression and resets the counters.
+     */
+    public void clear() {
+        synchronized (cache) {
+            cache.clear();
+        }
+        hits.set(0);
+        misses.set(0);
+    }
+}
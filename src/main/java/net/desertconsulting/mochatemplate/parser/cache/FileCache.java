@@ -1,4 +1,4 @@
-/* 
+/*
  * Copyright 2016 Patrizio Bruno <desertconsulting@gmail.com>.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
@@ -15,24 +15,108 @@
  */
 package net.desertconsulting.mochatemplate.parser.cache;
 
+import java.io.IOException;
 import java.net.URI;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * This utility class serves as cache for files. Used to cache external script
- * files and external templates.
+ * files and external templates. It can be safely shared among threads.
+ *
+ * The cache can be bounded by a number of files and by a total weight, e.g.
+ * an approximate number of bytes: once a bound is exceeded, the least
+ * recently used files get evicted. Lookups don't lock the cache, eviction
+ * scans it, thus it's meant for caches whose files are loaded far less often
+ * than they're read.
  *
  * @author Patrizio Bruno {@literal <desertconsulting@gmail.com>}
  * @param <T> type of the file content to be cached
  */
 public class FileCache<T> {
 
+    /**
+     * System property setting the default maximum number of cached files
+     */
+    public final static String MAX_SIZE_PROPERTY
+            = "mochatemplate.filecache.max.size";
+    /**
+     * System property setting the default maximum weight of the cached
+     * files, weighted by {@link #FILE_LENGTH}
+     */
+    public final static String MAX_WEIGHT_PROPERTY
+            = "mochatemplate.filecache.max.weight";
+    /**
+     * Default maximum number of cached files
+     */
+    public final static int DEFAULT_MAX_SIZE = 4096;
+
+    /**
+     * Weighs files by their length in bytes.
+     */
+    public final static Weigher<Object> FILE_LENGTH = new Weigher<Object>() {
+        @Override
+        public long weigh(CacheFile file, Object content) {
+            return file.getFile().length();
+        }
+    };
+
     private final ConcurrentHashMap<URI, CacheItem<T>> cache
             = new ConcurrentHashMap<>();
+    private final int maxSize;
+    private final long maxWeight;
+    private final Weigher<? super T> weigher;
+    private final Object evictionLock = new Object();
+    /**
+     * Counts the accesses, orders the files from the least recently used
+     */
+    private final AtomicLong clock = new AtomicLong();
+    private final AtomicLong weight = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong loads = new AtomicLong();
+    private final AtomicLong loadTime = new AtomicLong();
+
+    /**
+     * Initialize a new instance of {@link FileCache} bounded by the system
+     * properties {@value #MAX_SIZE_PROPERTY}, {@link #DEFAULT_MAX_SIZE} files
+     * if missing, and {@value #MAX_WEIGHT_PROPERTY}, unbounded if missing.
+     */
+    public FileCache() {
+        this(Integer.getInteger(MAX_SIZE_PROPERTY, DEFAULT_MAX_SIZE), Long.
+                getLong(MAX_WEIGHT_PROPERTY, 0), FILE_LENGTH);
+    }
+
+    /**
+     * Initialize a new instance of {@link FileCache} bounded by a number of
+     * files.
+     *
+     * @param maxSize maximum number of cached files, 0 or less for no limit
+     */
+    public FileCache(int maxSize) {
+        this(maxSize, 0, FILE_LENGTH);
+    }
+
+    /**
+     * Initialize a new instance of {@link FileCache} bounded by a number of
+     * files and by their total weight.
+     *
+     * @param maxSize maximum number of cached files, 0 or less for no limit
+     * @param maxWeight maximum total weight of the cached files, 0 or less for
+     * no limit
+     * @param weigher weighs the cached files
+     */
+    public FileCache(int maxSize, long maxWeight, Weigher<? super T> weigher) {
+        this.maxSize = maxSize;
+        this.maxWeight = maxWeight;
+        this.weigher = weigher;
+    }
 
     /**
      * Retrieves a file content from the cache.
-     * 
+     *
      * @param key file expected to be cached
      * @return content of the file or null if the file has not been cached
      */
@@ -40,12 +124,44 @@ public class FileCache<T> {
         T rv = null;
         URI uri = key.getUri();
 
-        if (cache.containsKey(uri)) {
-            CacheItem<T> cachedItem = cache.get(uri);
+        CacheItem<T> cachedItem = cache.get(uri);
+        if (cachedItem != null) {
             if (cachedItem.cacheFile.equals(key)) {
+                cachedItem.accessed = clock.incrementAndGet();
                 rv = cachedItem.content;
-            } else {
-                cache.remove(uri);
+            } else if (cache.remove(uri, cachedItem)) {
+                // a newer version may have been put meanwhile
+                weight.addAndGet(-cachedItem.weight);
+            }
+        }
+        if (rv != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+        }
+        return rv;
+    }
+
+    /**
+     * Retrieves a file content from the cache, loading it through
+     * {@code loader} if the file has not been cached.
+     *
+     * @param key file expected to be cached
+     * @param loader loads the file content
+     * @return content of the file
+     * @throws IOException error loading the file
+     */
+    public T get(CacheFile key, Loader<? extends T> loader) throws
+            IOException {
+        T rv = get(key);
+        if (rv == null) {
+            long start = System.nanoTime();
+            rv = loader.load(key);
+            loadTime.addAndGet(System.nanoTime() - start);
+            loads.incrementAndGet();
+            T prev = putIfAbsent(key, rv);
+            if (prev != null) {
+                rv = prev;
             }
         }
         return rv;
@@ -53,17 +169,53 @@ public class FileCache<T> {
 
     /**
      * Puts a file content into the cache.
-     * 
+     *
      * @param file file to be cached
      * @param content file content to be cached
      */
     public void put(CacheFile file, T content) {
-        cache.put(file.getUri(), new CacheItem<>(file, content));
+        CacheItem<T> item = newItem(file, content);
+        weight.addAndGet(item.weight);
+        CacheItem<T> prev = cache.put(file.getUri(), item);
+        if (prev != null) {
+            weight.addAndGet(-prev.weight);
+        }
+        evict();
+    }
+
+    /**
+     * Puts a file content into the cache, unless the same version of the file
+     * has already been cached.
+     *
+     * @param file file to be cached
+     * @param content file content to be cached
+     * @return the content already cached or null if {@code content} has been
+     * cached
+     */
+    public T putIfAbsent(CacheFile file, T content) {
+        URI uri = file.getUri();
+        CacheItem<T> item = newItem(file, content);
+        while (true) {
+            CacheItem<T> cachedItem = cache.putIfAbsent(uri, item);
+            if (cachedItem == null) {
+                weight.addAndGet(item.weight);
+                break;
+            }
+            if (cachedItem.cacheFile.equals(file)) {
+                return cachedItem.content;
+            }
+            if (cache.replace(uri, cachedItem, item)) {
+                weight.addAndGet(item.weight - cachedItem.weight);
+                break;
+            }
+        }
+        evict();
+        return null;
     }
 
     /**
      * Check if a given file has been cached.
-     * 
+     *
      * @param key file expected to be cached
      * @return true if the file has been cached, false otherwise
      */
@@ -71,19 +223,165 @@ public class FileCache<T> {
         return get(key) != null;
     }
 
+    /**
+     * Gets the number of cached files.
+     *
+     * @return number of cached files
+     */
+    public int size() {
+        return cache.size();
+    }
+
+    /**
+     * Gets the total weight of the cached files.
+     *
+     * @return the sum of the weights of the cached files
+     */
+    public long getWeight() {
+        return weight.get();
+    }
+
+    /**
+     * Gets the number of lookups that found the file cached.
+     *
+     * @return cache hits
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Gets the number of lookups that didn't find the file cached, or found
+     * an older version of it.
+     *
+     * @return cache misses
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Gets the number of files evicted to respect the bounds of the cache.
+     *
+     * @return cache evictions
+     */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * Gets the number of files loaded through
+     * {@link #get(CacheFile, Loader)}.
+     *
+     * @return number of loads
+     */
+    public long getLoads() {
+        return loads.get();
+    }
+
+    /**
+     * Gets the time spent loading files through
+     * {@link #get(CacheFile, Loader)}.
+     *
+     * @return nanoseconds
+     */
+    public long getLoadTime() {
+        return loadTime.get();
+    }
+
+    private CacheItem<T> newItem(CacheFile file, T content) {
+        return new CacheItem<>(file, content, weigher.weigh(file, content),
+                clock.incrementAndGet());
+    }
+
+    private boolean isOverflowing() {
+        return maxSize > 0 && cache.size() > maxSize
+                || maxWeight > 0 && weight.get() > maxWeight;
+    }
+
+    /**
+     * Evicts the least recently used files until the cache respects its
+     * bounds.
+     */
+    private void evict() {
+        if (!isOverflowing()) {
+            return;
+        }
+        synchronized (evictionLock) {
+            while (isOverflowing()) {
+                Map.Entry<URI, CacheItem<T>> eldest = null;
+                for (Map.Entry<URI, CacheItem<T>> entry : cache.entrySet()) {
+                    if (eldest == null || entry.getValue().accessed
+                            < eldest.getValue().accessed) {
+                        eldest = entry;
+                    }
+                }
+                if (eldest == null) {
+                    break;
+                }
+                if (cache.remove(eldest.getKey(), eldest.getValue())) {
+                    weight.addAndGet(-eldest.getValue().weight);
+                    evictions.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    /**
+     * Weighs the cached files, e.g. by their approximate size in bytes.
+     *
+     * @param <T> type of the file content
+     */
+    public interface Weigher<T> {
+
+        /**
+         * Weighs a cached file.
+         *
+         * @param file cached file
+         * @param content cached file content
+         * @return the weight of the file, 0 or more
+         */
+        long weigh(CacheFile file, T content);
+    }
+
+    /**
+     * Loads the content of the files missing from the cache.
+     *
+     * @param <T> type of the file content
+     */
+    public interface Loader<T> {
+
+        /**
+         * Loads a file content.
+         *
+         * @param file file to be loaded
+         * @return the file content, never null
+         * @throws IOException error loading the file
+         */
+        T load(CacheFile file) throws IOException;
+    }
+
     /**
      * This class is a container for cached items.
-     * 
-     * @param <T> type of the file content 
+     *
+     * @param <T> type of the file content
      */
-    private class CacheItem<T> {
+    private static class CacheItem<T> {
 
-        public CacheFile cacheFile;
-        public T content;
+        public final CacheFile cacheFile;
+        public final T content;
+        public final long weight;
+        /**
+         * Value of the cache clock the last time the item has been read
+         */
+        public volatile long accessed;
 
-        public CacheItem(CacheFile cacheFile, T content) {
+        public CacheItem(CacheFile cacheFile, T content, long weight,
+                long accessed) {
             this.cacheFile = cacheFile;
             this.content = content;
+            this.weight = weight;
+            this.accessed = accessed;
         }
     }
 }
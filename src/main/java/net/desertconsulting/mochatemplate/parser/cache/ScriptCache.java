@@ -0,0 +1,182 @@
+/*
+ * Copyright 2016 Patrizio Bruno <desertconsulting@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.desertconsulting.mochatemplate.parser.cache;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.ScriptEngine;
+import javax.script.ScriptException;
+
+/**
+ * This class caches the compiled server-side scripts of the templates, so
+ * that the scripts of a template don't get parsed again at every rendering.
+ * Scripts are looked up by a key identifying their sources, e.g. a hash of
+ * the inline scripts and the versions of the external ones: the caller
+ * builds the source only on a cache miss. The cache is bounded: the least
+ * recently used scripts get evicted first.
+ *
+ * @author Patrizio Bruno {@literal <desertconsulting@gmail.com>}
+ */
+public class ScriptCache {
+
+    /**
+     * Default maximum number of cached scripts.
+     */
+    public final static int DEFAULT_MAX_SIZE = 64;
+
+    private final Compilable compilable;
+    private final int maxSize;
+    private final Map<String, CompiledScript> cache;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Initialize a new instance of {@link ScriptCache} holding up to
+     * {@link #DEFAULT_MAX_SIZE} scripts.
+     *
+     * @param engine javascript engine the scripts get compiled by
+     */
+    public ScriptCache(ScriptEngine engine) {
+        this(engine, DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * Initialize a new instance of {@link ScriptCache}.
+     *
+     * @param engine javascript engine the scripts get compiled by
+     * @param maxSize maximum number of cached scripts, 0 disables the cache
+     */
+    public ScriptCache(ScriptEngine engine, final int maxSize) {
+        this.compilable = engine instanceof Compilable ? (Compilable) engine
+                : null;
+        this.maxSize = maxSize;
+        this.cache = new LinkedHashMap<String, CompiledScript>(16, 0.75f, true) {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(
+                    Map.Entry<String, CompiledScript> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * Check whether the cache can hold scripts: the engine must implement
+     * {@link Compilable} and the cache must not be disabled.
+     *
+     * @return true if scripts get cached
+     */
+    public boolean isEnabled() {
+        return compilable != null && maxSize > 0;
+    }
+
+    /**
+     * Gets a cached script.
+     *
+     * @param key key identifying the script sources
+     * @return the compiled script or null if it has to be compiled through
+     * {@link #compile(String, String)}
+     */
+    public CompiledScript get(String key) {
+        if (!isEnabled()) {
+            return null;
+        }
+        CompiledScript rv;
+        synchronized (cache) {
+            rv = cache.get(key);
+        }
+        if (rv != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+        }
+        return rv;
+    }
+
+    /**
+     * Compiles a script and caches it.
+     *
+     * @param key key identifying the script sources
+     * @param source script source
+     * @return the compiled script or null if the cache is disabled
+     * @throws ScriptException javascript syntax error
+     */
+    public CompiledScript compile(String key, String source) throws
+            ScriptException {
+        if (!isEnabled()) {
+            return null;
+        }
+        CompiledScript rv = compilable.compile(source);
+        synchronized (cache) {
+            cache.put(key, rv);
+        }
+        return rv;
+    }
+
+    /**
+     * Gets the maximum number of cached scripts.
+     *
+     * @return {@code maxSize} passed as parameter to the constructor
+     */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Gets the number of cached scripts.
+     *
+     * @return number of cached scripts
+     */
+    public int size() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    /**
+     * Gets the number of lookups that found the script already compiled.
+     *
+     * @return cache hits
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Gets the number of lookups that had to compile the script.
+     *
+     * @return cache misses
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Removes every cached script and resets the counters.
+     */
+    public void clear() {
+        synchronized (cache) {
+            cache.clear();
+        }
+        hits.set(0);
+        misses.set(0);
+    }
+}
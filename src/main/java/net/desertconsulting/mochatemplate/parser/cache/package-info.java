@@ -16,6 +16,7 @@
 
 /**
  * Contains a generic file-cache implementation used to cache external scripts
- * and included templates.
+ * and included templates, the on-disk cache of parsed templates and the caches
+ * of compiled javascript expressions and server-side scripts.
  */
 package net.desertconsulting.mochatemplate.parser.cache;
@@ -16,6 +16,19 @@
 package net.desertconsulting.mochatemplate.parser.node;
 
 import net.desertconsulting.mochatemplate.parser.Parser;
+import net.desertconsulting.mochatemplate.parser.ScriptEnginePool;
+import net.desertconsulting.mochatemplate.parser.TemplateCompiler;
+import net.desertconsulting.mochatemplate.parser.render.ConstantDirective;
+import net.desertconsulting.mochatemplate.parser.render.Directive;
+import net.desertconsulting.mochatemplate.parser.render.ElementNode;
+import net.desertconsulting.mochatemplate.parser.render.ElementState;
+import net.desertconsulting.mochatemplate.parser.render.LoopDirective;
+import net.desertconsulting.mochatemplate.parser.render.RenderContext;
+import net.desertconsulting.mochatemplate.parser.render.RenderNode;
+import net.desertconsulting.mochatemplate.parser.render.RenderTask;
+import net.desertconsulting.mochatemplate.parser.render.StaticNode;
+import net.desertconsulting.mochatemplate.parser.render.Variable;
+import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
@@ -24,6 +37,7 @@ import java.lang.reflect.Modifier;
 import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -33,8 +47,8 @@ import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import javax.script.Bindings;
-import javax.script.ScriptEngine;
 import javax.script.ScriptException;
+import org.jsoup.nodes.Element;
 import org.jsoup.nodes.Node;
 
 /**
@@ -53,15 +67,6 @@ public class ForAttributeParser extends TemplateAttributeParser {
 
     private static final String SUPPORTED_FIELD = "for";
 
-    /**
-     * .ctor
-     *
-     * @param engine javascript engine
-     */
-    public ForAttributeParser(ScriptEngine engine) {
-        super(engine);
-    }
-
     @Override
     public boolean eval(TemplateNode dataNode, AttributeParserArguments args,
             Parser parser)
@@ -78,42 +83,19 @@ public class ForAttributeParser extends TemplateAttributeParser {
             // if the expression is a range-descriptor, it must not be evaluated as Javascript.
             // I adopted this syntax because it's cleaner than a Javascript solution
             // such as Array.apply(null, { length: 5 }).map(Number.call, Number)
-            if (RangeIterator.isRange((String) expression)) {
+            if (RangeIterator.isRange(expression)) {
                 exprResult = expression;
-            } else if (bindings == null) {
-                exprResult = engine.eval(args.getExpression());
             } else {
-                exprResult = engine.eval(args.getExpression(), bindings);
+                exprResult = parser.getExpressions().eval(expression, bindings);
             }
 
             Node prev = node.previousSibling();
             node.removeAttr(args.getAttributeName());
 
-            Iterator<Map.Entry> values = null;
-            if (exprResult != null) {
-                if (exprResult instanceof List) {
-                    values = new ListIterator((Collection) exprResult);
-                } else if (exprResult instanceof Map) {
-                    // Actually only Nashorn - thus JDK8 - does support Map types. JDK7 will never use MapIterator
-                    values = new MapIterator((Map) exprResult);
-                } else if (exprResult instanceof String) {
-                    if (RangeIterator.isRange((String) exprResult)) {
-                        values = new RangeIterator((String) exprResult);
-                    } else {
-                        values = new StringIterator((String) exprResult);
-                    }
-                } else if (exprResult instanceof Double) {
-                    values = new SingleElementIterator(exprResult);
-                } else if (exprResult instanceof Object) {
-                    values = new ObjectIterator(exprResult);
-                } else {
-                    // used ScriptEngines can produce a different type?
-                    values = new SingleElementIterator(exprResult);
-                }
-            }
+            Iterator<Map.Entry<?, ?>> values = iterator(exprResult);
 
             while (values != null && values.hasNext()) {
-                Map.Entry entry = values.next();
+                Map.Entry<?, ?> entry = values.next();
                 if (bindings != null) {
                     bindings.put(varName, entry.getValue());
                     if (indexName != null) {
@@ -137,16 +119,328 @@ public class ForAttributeParser extends TemplateAttributeParser {
         }
     }
 
+    /**
+     * This method compiles data-for attributes. Attributes with a wrong number
+     * of arguments are not compiled, so that {@link #eval} will report the
+     * error.
+     *
+     * @return the compiled attribute or null
+     */
+    @Override
+    public Directive compile(Element element, AttributeParserArguments args,
+            TemplateCompiler compiler) {
+        if (args.length() == 1 || args.length() == 2) {
+            String varName = args.getArgs()[0];
+            String indexName = args.length() == 2 ? args.getArgs()[1] : null;
+            if (RangeIterator.isRange(args.getExpression())) {
+                Directive rv = unroll(element, args, compiler, varName,
+                        indexName);
+                if (rv != null) {
+                    return rv;
+                }
+            }
+            return new ForDirective(compiler.variable(varName),
+                    indexName != null ? compiler.variable(indexName) : null,
+                    args.getExpression());
+        }
+        return null;
+    }
+
+    /**
+     * Replaces a loop over a small constant range with its output, if every
+     * iteration compiles to static markup.
+     *
+     * @return the unrolled loop or null if it cannot be unrolled
+     */
+    private Directive unroll(Element element, AttributeParserArguments args,
+            TemplateCompiler compiler, String varName, String indexName) {
+        RangeIterator values;
+        try {
+            values = new RangeIterator(args.getExpression());
+        } catch (NumberFormatException ex) {
+            // the error will be reported while rendering
+            return null;
+        }
+        if (values.size() > MAX_UNROLLED_ITERATIONS) {
+            return null;
+        }
+
+        StringBuilder html = new StringBuilder();
+        while (values.hasNext()) {
+            Map.Entry<Integer, Integer> entry = values.next();
+            Map<String, Object> constants = new HashMap<>();
+            constants.put(varName, entry.getValue());
+            if (indexName != null) {
+                constants.put(indexName, entry.getKey());
+            }
+            for (RenderNode node : compiler.withConstants(constants).
+                    compileFrom(element, args.getAttribute())) {
+                if (!(node instanceof StaticNode)) {
+                    return null;
+                }
+                html.append(((StaticNode) node).getHtml());
+            }
+        }
+        return new ConstantDirective(new RenderNode[]{new StaticNode(html.
+            toString(), compiler.getOutputSettings().charset())});
+    }
+
+    /**
+     * data-for sets the loop variable and the optional index.
+     *
+     * @return variable and index name, or null if the number of arguments is
+     * wrong
+     */
+    @Override
+    public String[] getVariables(AttributeParserArguments args) {
+        return args.length() == 1 || args.length() == 2 ? args.getArgs()
+                : null;
+    }
+
     @Override
     public String supportedAttr() {
         return SUPPORTED_FIELD;
     }
 
+    /**
+     * Creates an iterator over the result of the data-for expression.
+     *
+     * @param exprResult result of the data-for expression
+     * @return an iterator whose entries hold index and value of every element,
+     * or null if {@code exprResult} is null
+     */
+    private Iterator<Map.Entry<?, ?>> iterator(Object exprResult) {
+        Iterator<Map.Entry<?, ?>> values = null;
+        if (exprResult != null) {
+            if (exprResult instanceof List) {
+                values = new ListIterator((Collection<?>) exprResult);
+            } else if (exprResult instanceof Map) {
+                // Actually only Nashorn - thus JDK8 - does support Map types. JDK7 will never use MapIterator
+                values = new MapIterator((Map<?, ?>) exprResult);
+            } else if (exprResult instanceof String) {
+                if (RangeIterator.isRange((String) exprResult)) {
+                    values = new RangeIterator((String) exprResult);
+                } else {
+                    values = new StringIterator((String) exprResult);
+                }
+            } else if (exprResult instanceof Double) {
+                values = new SingleElementIterator(exprResult);
+            } else if (exprResult instanceof Object) {
+                values = new ObjectIterator(exprResult);
+            } else {
+                // used ScriptEngines can produce a different type?
+                values = new SingleElementIterator(exprResult);
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Compiled data-for: the element gets rendered once per every element of
+     * the list, each time with its own scope of the bindings. Slots of the
+     * loop variables are resolved at compile time.
+     */
+    private class ForDirective implements LoopDirective {
+
+        private final Variable variable;
+        private final Variable indexVariable;
+        private final String expression;
+
+        public ForDirective(Variable variable, Variable indexVariable,
+                String expression) {
+            this.variable = variable;
+            this.indexVariable = indexVariable;
+            this.expression = expression;
+        }
+
+        @Override
+        public String[] getVariables() {
+            return indexVariable != null ? new String[]{variable.getName(),
+                indexVariable.getName()} : new String[]{variable.getName()};
+        }
+
+        @Override
+        public void render(RenderContext context, ElementState state,
+                ElementNode element, int index) throws ScriptException,
+                IOException {
+            Object exprResult;
+            if (RangeIterator.isRange(expression)) {
+                exprResult = expression;
+            } else {
+                exprResult = context.eval(expression, state.getBindings());
+            }
+
+            Iterator<Map.Entry<?, ?>> values = iterator(exprResult);
+            int threshold = context.getTemplate().getCompiler().
+                    getParallelLoopThreshold();
+            if (values != null && threshold > 0 && context.getParallelism() > 1
+                    && context.getEnginePool() != null
+                    && size(exprResult) >= threshold) {
+                List<Map.Entry<?, ?>> entries = new ArrayList<>();
+                while (values.hasNext()) {
+                    entries.add(values.next());
+                }
+                renderChunks(context, state, element, index, entries);
+                return;
+            }
+            while (values != null && values.hasNext()) {
+                renderIteration(context, state, element, index, values.next());
+            }
+        }
+
+        /**
+         * Splits the iterations into a chunk per thread allowed to render the
+         * page, as long as the engine pool has idle engines: the first chunk
+         * is rendered by the calling thread straight into the output, the
+         * others concurrently, each by its own engine into its own buffer,
+         * and written in order.
+         */
+        private void renderChunks(RenderContext context, ElementState state,
+                ElementNode element, int index, List<Map.Entry<?, ?>> entries)
+                throws ScriptException, IOException {
+            List<ScriptEnginePool.PooledEngine> engines = borrowEngines(context);
+            int chunkSize = (entries.size() + engines.size())
+                    / (engines.size() + 1);
+            List<RenderTask> chunks = new ArrayList<>();
+            Exception error = null;
+            try {
+                try {
+                    for (int start = chunkSize; chunks.size() < engines.size()
+                            && start < entries.size(); start += chunkSize) {
+                        chunks.add(new ChunkTask(context, engines.get(chunks.
+                                size()), state, element, index, entries.
+                                subList(start, Math.min(start + chunkSize,
+                                        entries.size()))).start());
+                    }
+                } finally {
+                    for (ScriptEnginePool.PooledEngine engine : engines.
+                            subList(chunks.size(), engines.size())) {
+                        context.getEnginePool().release(engine);
+                        context.releaseRegion();
+                    }
+                }
+                for (Map.Entry<?, ?> entry : entries.subList(0, Math.min(
+                        chunkSize, entries.size()))) {
+                    renderIteration(context, state, element, index, entry);
+                }
+            } catch (ScriptException | IOException | RuntimeException ex) {
+                error = ex;
+            }
+
+            try {
+                RenderTask.joinAll(chunks, error == null ? context.getOutput()
+                        : null);
+            } catch (ScriptException | IOException | RuntimeException ex) {
+                error = error != null ? error : ex;
+            }
+            RenderTask.rethrow(error);
+        }
+
+        /**
+         * Borrows an idle engine per thread allowed to render the page,
+         * together with its permit.
+         *
+         * @return borrowed engines, possibly none
+         */
+        private List<ScriptEnginePool.PooledEngine> borrowEngines(
+                RenderContext context) {
+            List<ScriptEnginePool.PooledEngine> rv = new ArrayList<>();
+            while (rv.size() < context.getParallelism() - 1 && context.
+                    tryAcquireRegion()) {
+                ScriptEnginePool.PooledEngine engine = context.getEnginePool().
+                        tryBorrow();
+                if (engine == null) {
+                    context.releaseRegion();
+                    break;
+                }
+                rv.add(engine);
+            }
+            return rv;
+        }
+
+        private void renderIteration(RenderContext context, ElementState state,
+                ElementNode element, int index, Map.Entry<?, ?> entry) throws
+                ScriptException, IOException {
+            context.check();
+            ElementState iteration = state.copy(context);
+            Bindings bindings = iteration.getBindings();
+            if (bindings != null) {
+                variable.set(bindings, entry.getValue());
+                if (indexVariable != null) {
+                    indexVariable.set(bindings, entry.getKey());
+                }
+            }
+            element.renderNext(context, iteration, index + 1);
+        }
+
+        /**
+         * Renders consecutive iterations of the loop into its own buffer,
+         * evaluating them by a borrowed engine which goes back to the pool
+         * once done.
+         */
+        private class ChunkTask extends RenderTask {
+
+            private static final long serialVersionUID = 1L;
+
+            private final ScriptEnginePool pool;
+            private final ScriptEnginePool.PooledEngine engine;
+            private final ElementState state;
+            private final ElementNode element;
+            private final int index;
+            private final List<Map.Entry<?, ?>> entries;
+
+            public ChunkTask(RenderContext context,
+                    ScriptEnginePool.PooledEngine engine, ElementState state,
+                    ElementNode element, int index, List<Map.Entry<?, ?>> entries) {
+                super(context, engine.getExpressions());
+                this.pool = context.getEnginePool();
+                this.engine = engine;
+                this.state = state;
+                this.element = element;
+                this.index = index;
+                this.entries = entries;
+            }
+
+            @Override
+            protected void render(RenderContext context) throws
+                    ScriptException, IOException {
+                try {
+                    ElementState chunk = state.transfer(engine.getEngine().
+                            createBindings());
+                    for (Map.Entry<?, ?> entry : entries) {
+                        renderIteration(context, chunk, element, index, entry);
+                    }
+                } finally {
+                    pool.release(engine);
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the number of iterations over the result of the data-for
+     * expression, without iterating.
+     *
+     * @return number of iterations, 0 if it's unknown or the result is null
+     */
+    private static long size(Object exprResult) {
+        if (exprResult instanceof List) {
+            return ((List<?>) exprResult).size();
+        } else if (exprResult instanceof Map) {
+            return ((Map<?, ?>) exprResult).size();
+        } else if (exprResult instanceof String) {
+            return RangeIterator.isRange((String) exprResult)
+                    ? new RangeIterator((String) exprResult).size()
+                    : ((String) exprResult).length();
+        }
+        return 0;
+    }
+
     /**
      * Iterates through the properties of an object. Each entry has property
      * name as key and property value as a value.
      */
-    private class ObjectIterator implements Iterator<Map.Entry> {
+    private class ObjectIterator implements Iterator<Map.Entry<?, ?>> {
 
         private final List<Map.Entry<String, Object>> list = new ArrayList<>();
         private final Iterator<Map.Entry<String, Object>> iterator;
@@ -158,7 +452,7 @@ public class ForAttributeParser extends TemplateAttributeParser {
          * @param obj source of the properties
          */
         public ObjectIterator(Object obj) {
-            Class cl = obj.getClass();
+            Class<?> cl = obj.getClass();
             for (Method getter : cl.getMethods()) {
                 if (Modifier.isPublic(getter.getModifiers())
                         && getter.getParameterTypes().length == 0) {
@@ -218,11 +512,11 @@ public class ForAttributeParser extends TemplateAttributeParser {
         }
     }
 
-    private class MapIterator implements Iterator<Map.Entry> {
+    private class MapIterator implements Iterator<Map.Entry<?, ?>> {
 
-        private final Iterator iterator;
+        private final Iterator<? extends Map.Entry<?, ?>> iterator;
 
-        public MapIterator(Map map) {
+        public MapIterator(Map<?, ?> map) {
             iterator = map.entrySet().iterator();
         }
 
@@ -232,8 +526,8 @@ public class ForAttributeParser extends TemplateAttributeParser {
         }
 
         @Override
-        public Map.Entry next() {
-            return (Map.Entry) iterator.next();
+        public Map.Entry<?, ?> next() {
+            return iterator.next();
         }
 
         @Override
@@ -246,7 +540,7 @@ public class ForAttributeParser extends TemplateAttributeParser {
      * Iterates through a string's characters.
      */
     private class StringIterator implements
-            Iterator<Map.Entry> {
+            Iterator<Map.Entry<?, ?>> {
 
         private int idx = -1;
         private final char[] characters;
@@ -286,7 +580,7 @@ public class ForAttributeParser extends TemplateAttributeParser {
      * Iterates over a list made of a single element.
      */
     private class SingleElementIterator implements
-            Iterator<Map.Entry> {
+            Iterator<Map.Entry<?, ?>> {
 
         private boolean finished = false;
         private final Object single;
@@ -322,11 +616,16 @@ public class ForAttributeParser extends TemplateAttributeParser {
     private static final Pattern RANGE_PATTERN = Pattern.compile(
             "([0-9]+)\\.\\.\\.([0-9]+)");
 
+    /**
+     * Loops over constant ranges up to this size get unrolled at compile time
+     */
+    private static final int MAX_UNROLLED_ITERATIONS = 64;
+
     /**
      * Iterates over a range of values.
      */
     private static class RangeIterator implements
-            Iterator<Map.Entry> {
+            Iterator<Map.Entry<?, ?>> {
 
         private final String range;
         private Integer first;
@@ -357,6 +656,16 @@ public class ForAttributeParser extends TemplateAttributeParser {
             return RANGE_PATTERN.matcher(range).matches();
         }
 
+        /**
+         * Gets the number of values in the range.
+         *
+         * @return number of values, 0 for empty ranges
+         */
+        public long size() {
+            return current == null ? 0 : Math.max(0L, (long) last - current
+                    + 1);
+        }
+
         @Override
         public boolean hasNext() {
             return current <= last;
@@ -392,12 +701,12 @@ public class ForAttributeParser extends TemplateAttributeParser {
     /**
      * Iterates over a list of objects.
      */
-    private class ListIterator implements Iterator<Map.Entry> {
+    private class ListIterator implements Iterator<Map.Entry<?, ?>> {
 
-        private final Iterator iterator;
+        private final Iterator<?> iterator;
         private int idx = -1;
 
-        public ListIterator(Collection list) {
+        public ListIterator(Collection<?> list) {
             this.iterator = list.iterator();
         }
 
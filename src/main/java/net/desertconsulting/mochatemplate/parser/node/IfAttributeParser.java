@@ -15,11 +15,19 @@
  */
 package net.desertconsulting.mochatemplate.parser.node;
 
+import net.desertconsulting.mochatemplate.parser.ConstantFolder;
 import net.desertconsulting.mochatemplate.parser.Parser;
+import net.desertconsulting.mochatemplate.parser.TemplateCompiler;
+import net.desertconsulting.mochatemplate.parser.render.ConstantDirective;
+import net.desertconsulting.mochatemplate.parser.render.Directive;
+import net.desertconsulting.mochatemplate.parser.render.ElementNode;
+import net.desertconsulting.mochatemplate.parser.render.ElementState;
+import net.desertconsulting.mochatemplate.parser.render.RenderContext;
+import java.io.IOException;
 import java.io.UnsupportedEncodingException;
-import javax.script.ScriptEngine;
 import javax.script.ScriptException;
 import org.jsoup.helper.StringUtil;
+import org.jsoup.nodes.Element;
 
 /**
  * This attribute parser supports data-if attribute. It implements a condition
@@ -33,21 +41,57 @@ public class IfAttributeParser extends TemplateAttributeParser {
 
     private static final String SUPPORTED_FIELD = "if";
 
+    @Override
+    public boolean eval(TemplateNode node, AttributeParserArguments args,
+            Parser parser) throws ScriptException, UnsupportedEncodingException {
+        boolean rv = isTrue(parser.parseDataAttr(args.getAttribute(), node.
+                getBindings()));
+
+        if (rv) {
+            node.getNode().removeAttr(args.getAttributeName());
+        } else {
+            node.getNode().remove();
+        }
+
+        // if the condition is false, the node has been removed and the node
+        // wont need further evaluation
+        return rv;
+    }
+
+    @Override
+    public Directive compile(Element element, AttributeParserArguments args,
+            TemplateCompiler compiler) {
+        Object value = compiler.fold(args.getExpression());
+        if (value != ConstantFolder.NOT_CONSTANT) {
+            return isTrue(value) ? ConstantDirective.RENDER
+                    : ConstantDirective.REMOVE;
+        }
+        return new IfDirective(args.getExpression());
+    }
+
     /**
-     * .ctor
+     * data-if doesn't set any variable.
      *
-     * @param engine javascript engine
+     * @return an empty array
      */
-    public IfAttributeParser(ScriptEngine engine) {
-        super(engine);
+    @Override
+    public String[] getVariables(AttributeParserArguments args) {
+        return new String[0];
     }
 
     @Override
-    public boolean eval(TemplateNode node, AttributeParserArguments args,
-            Parser parser) throws ScriptException, UnsupportedEncodingException {
+    public String supportedAttr() {
+        return SUPPORTED_FIELD;
+    }
+
+    /**
+     * Converts the result of the condition to a boolean.
+     *
+     * @param obj result of the javascript expression
+     * @return false for null, false, 0 and blank strings; true otherwise
+     */
+    private static boolean isTrue(Object obj) {
         boolean rv = false;
-        Object obj = parser.parseDataAttr(args.getAttribute(), node.
-                getBindings());
         if (obj != null) {
             if (obj instanceof Boolean) {
                 rv = ((boolean) obj);
@@ -59,20 +103,28 @@ public class IfAttributeParser extends TemplateAttributeParser {
                 rv = true;
             }
         }
-
-        if (rv) {
-            node.getNode().removeAttr(args.getAttributeName());
-        } else {
-            node.getNode().remove();
-        }
-
-        // if the condition is false, the node has been removed and the node
-        // wont need further evaluation
         return rv;
     }
 
-    @Override
-    public String supportedAttr() {
-        return SUPPORTED_FIELD;
+    /**
+     * Compiled data-if: the element gets rendered only if the condition is
+     * true.
+     */
+    private static class IfDirective implements Directive {
+
+        private final String expression;
+
+        public IfDirective(String expression) {
+            this.expression = expression;
+        }
+
+        @Override
+        public void render(RenderContext context, ElementState state,
+                ElementNode element, int index) throws ScriptException,
+                IOException {
+            if (isTrue(context.eval(expression, state.getBindings()))) {
+                element.renderNext(context, state, index + 1);
+            }
+        }
     }
 }
@@ -16,9 +16,15 @@
 package net.desertconsulting.mochatemplate.parser.node;
 
 import net.desertconsulting.mochatemplate.parser.Parser;
+import net.desertconsulting.mochatemplate.parser.TemplateCompiler;
+import net.desertconsulting.mochatemplate.parser.render.Directive;
+import net.desertconsulting.mochatemplate.parser.render.ElementNode;
+import net.desertconsulting.mochatemplate.parser.render.ElementState;
+import net.desertconsulting.mochatemplate.parser.render.RenderContext;
+import java.io.IOException;
 import java.io.UnsupportedEncodingException;
-import javax.script.ScriptEngine;
 import javax.script.ScriptException;
+import org.jsoup.nodes.Element;
 
 /**
  * This attribute parser supports data-ignore attribute, any other template related
@@ -30,18 +36,50 @@ public class IgnoreAttributeParser extends TemplateAttributeParser {
 
     private static final String SUPPORTED_FIELD = "ignore";
 
-    public IgnoreAttributeParser(ScriptEngine engine) {
-        super(engine);
-    }
-
     @Override
     public boolean eval(TemplateNode dataNode, AttributeParserArguments args, Parser parser) throws ScriptException, UnsupportedEncodingException {
         dataNode.getNode().removeAttr(args.getAttributeName());
         return false;
     }
 
+    @Override
+    public Directive compile(Element element, AttributeParserArguments args,
+            TemplateCompiler compiler) {
+        return new IgnoreDirective(compiler.rawHtml(element, args.
+                getAttribute()));
+    }
+
+    /**
+     * data-ignore doesn't set any variable.
+     *
+     * @return an empty array
+     */
+    @Override
+    public String[] getVariables(AttributeParserArguments args) {
+        return new String[0];
+    }
+
     @Override
     public String supportedAttr() {
         return SUPPORTED_FIELD;
     }
+
+    /**
+     * Compiled data-ignore: the element is written as it is in the template.
+     */
+    private static class IgnoreDirective implements Directive {
+
+        private final String html;
+
+        public IgnoreDirective(String html) {
+            this.html = html;
+        }
+
+        @Override
+        public void render(RenderContext context, ElementState state,
+                ElementNode element, int index) throws ScriptException,
+                IOException {
+            context.getOutput().append(html);
+        }
+    }
 }
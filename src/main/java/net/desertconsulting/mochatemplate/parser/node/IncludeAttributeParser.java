@@ -17,6 +17,13 @@ package net.desertconsulting.mochatemplate.parser.node;
 
 import net.desertconsulting.mochatemplate.parser.Parser;
 import net.desertconsulting.mochatemplate.parser.TemplateEngine;
+import net.desertconsulting.mochatemplate.parser.TemplateCompiler;
+import net.desertconsulting.mochatemplate.parser.render.Directive;
+import net.desertconsulting.mochatemplate.parser.render.ElementNode;
+import net.desertconsulting.mochatemplate.parser.render.ElementState;
+import net.desertconsulting.mochatemplate.parser.render.RenderContext;
+import net.desertconsulting.mochatemplate.parser.render.Fragment;
+import net.desertconsulting.mochatemplate.parser.render.Interpolation;
 import net.desertconsulting.mochatemplate.parser.cache.CacheFile;
 import net.desertconsulting.mochatemplate.parser.cache.FileCache;
 import java.io.FileInputStream;
@@ -61,13 +68,6 @@ public class IncludeAttributeParser extends TemplateAttributeParser {
     private final static String SUPPORTED_FIELD = "include";
     private final static String TEMPLATE_SELECTOR = "template[data-type=\"server/template\"]";
 
-    private final ServletContext context;
-
-    public IncludeAttributeParser(ScriptEngine engine, ServletContext context) {
-        super(engine);
-        this.context = context;
-    }
-
     private static final FileCache<Document> EXT_TPL_CACHE
             = new FileCache<>();
 
@@ -83,7 +83,8 @@ public class IncludeAttributeParser extends TemplateAttributeParser {
                 getValue(), bindings);
 
         if (templateSelector.startsWith("@")) {
-            templateElements = loadExternalTemplate(templateSelector);
+            templateElements = loadExternalTemplate(templateSelector, parser.
+                    getServletContext());
             external = true;
         } else {
             templateElements = dataNode.getDocument().select(TEMPLATE_SELECTOR).select(
@@ -91,7 +92,8 @@ public class IncludeAttributeParser extends TemplateAttributeParser {
         }
 
         for (Element templateElement : templateElements) {
-            boolean foundScripts = external && runScripts(templateElement, bindings);
+            boolean foundScripts = external && runScripts(templateElement,
+                    bindings, parser.getEngine());
             for (Node child : templateElement.childNodes()) {
                 Node nChild = child.clone();
                 ((Element) node).appendChild(nChild);
@@ -108,13 +110,19 @@ public class IncludeAttributeParser extends TemplateAttributeParser {
         return true;
     }
 
+    @Override
+    public Directive compile(Element element, AttributeParserArguments args,
+            TemplateCompiler compiler) {
+        return new IncludeDirective(Interpolation.parse(args.getExpression()));
+    }
+
     @Override
     public String supportedAttr() {
         return SUPPORTED_FIELD;
     }
 
-    private Elements loadExternalTemplate(String templateSelector) throws
-            ScriptException {
+    private Elements loadExternalTemplate(String templateSelector,
+            ServletContext context) throws ScriptException {
 
         Elements rv = null;
         Matcher matcher = TEMPLATE_SRC_RX.matcher(templateSelector);
@@ -135,18 +143,21 @@ public class IncludeAttributeParser extends TemplateAttributeParser {
             String selector = matcher.groupCount() == 3 ? matcher.group(3)
                     : null;
 
-            if (EXT_TPL_CACHE.containsKey(file)) {
-                dom = EXT_TPL_CACHE.get(file);
-            } else {
-                try (InputStream stream = new FileInputStream(file.getFile())) {
-                    dom = Jsoup.parse(stream, null, "");
-                    EXT_TPL_CACHE.put(file, dom);
-                } catch (IOException ex) {
-                    Logger.getLogger(IncludeAttributeParser.class.getName()).
-                            log(Level.SEVERE, null, ex);
-                    throw new ScriptException(new Exception(
-                            "template loading error", ex));
-                }
+            try {
+                dom = EXT_TPL_CACHE.get(file, new FileCache.Loader<Document>() {
+                    @Override
+                    public Document load(CacheFile file) throws IOException {
+                        try (InputStream stream = new FileInputStream(file.
+                                getFile())) {
+                            return Jsoup.parse(stream, null, "");
+                        }
+                    }
+                });
+            } catch (IOException ex) {
+                Logger.getLogger(IncludeAttributeParser.class.getName()).
+                        log(Level.SEVERE, null, ex);
+                throw new ScriptException(new Exception(
+                        "template loading error", ex));
             }
 
             if (dom != null) {
@@ -164,7 +175,8 @@ public class IncludeAttributeParser extends TemplateAttributeParser {
         return rv;
     }
 
-    private boolean runScripts(Element templateElement, Bindings bindings) throws ScriptException {
+    private boolean runScripts(Element templateElement, Bindings bindings,
+            ScriptEngine engine) throws ScriptException {
         Elements scripts = templateElement.select(TemplateEngine.SCRIPT_SELECTOR);
         if (!scripts.isEmpty()) {
             Element[] scriptElements = scripts.toArray(new Element[0]);
@@ -175,4 +187,38 @@ public class IncludeAttributeParser extends TemplateAttributeParser {
         }
         return false;
     }
+
+    /**
+     * Compiled data-include: included templates are compiled once, the first
+     * time they get included, and rendered after the element's children.
+     */
+    private static class IncludeDirective implements Directive {
+
+        private final Interpolation templateSelector;
+
+        public IncludeDirective(Interpolation templateSelector) {
+            this.templateSelector = templateSelector;
+        }
+
+        @Override
+        public void render(RenderContext context, ElementState state,
+                ElementNode element, int index) throws ScriptException,
+                IOException {
+            String selector = templateSelector.evaluate(context, state.
+                    getBindings());
+
+            ElementState current = state;
+            for (Fragment fragment : context.getTemplate().include(selector,
+                    context)) {
+                if (fragment.hasScripts() && current == state) {
+                    // variables declared by the scripts must not leak into
+                    // the engine
+                    current = state.isolate(context);
+                }
+                fragment.runScripts(context, current.getBindings());
+                current.include(fragment);
+            }
+            element.renderNext(context, current, index + 1);
+        }
+    }
 }
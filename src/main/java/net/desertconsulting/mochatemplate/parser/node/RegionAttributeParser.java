@@ -0,0 +1,62 @@
+/*
+ * Copyright 2016 Patrizio Bruno <desertconsulting@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.desertconsulting.mochatemplate.parser.node;
+
+import net.desertconsulting.mochatemplate.parser.Parser;
+import net.desertconsulting.mochatemplate.parser.TemplateCompiler;
+import net.desertconsulting.mochatemplate.parser.render.Directive;
+import net.desertconsulting.mochatemplate.parser.render.RegionDirective;
+import org.jsoup.nodes.Element;
+
+/**
+ * This attribute parser supports data-region attribute, marking an element
+ * that can be rendered concurrently with its sibling regions. The DOM parser
+ * renders regions sequentially.
+ *
+ * @author Patrizio Bruno {@literal <desertconsulting@gmail.com>}
+ */
+public class RegionAttributeParser extends TemplateAttributeParser {
+
+    private static final String SUPPORTED_FIELD = "region";
+
+    @Override
+    public boolean eval(TemplateNode dataNode, AttributeParserArguments args,
+            Parser parser) {
+        dataNode.getNode().removeAttr(args.getAttributeName());
+        return true;
+    }
+
+    @Override
+    public Directive compile(Element element, AttributeParserArguments args,
+            TemplateCompiler compiler) {
+        return new RegionDirective();
+    }
+
+    /**
+     * data-region doesn't set any variable.
+     *
+     * @return an empty array
+     */
+    @Override
+    public String[] getVariables(AttributeParserArguments args) {
+        return new String[0];
+    }
+
+    @Override
+    public String supportedAttr() {
+        return SUPPORTED_FIELD;
+    }
+}
@@ -16,10 +16,17 @@
 package net.desertconsulting.mochatemplate.parser.node;
 
 import net.desertconsulting.mochatemplate.parser.Parser;
+import net.desertconsulting.mochatemplate.parser.TemplateCompiler;
+import net.desertconsulting.mochatemplate.parser.render.Directive;
+import net.desertconsulting.mochatemplate.parser.render.ElementNode;
+import net.desertconsulting.mochatemplate.parser.render.ElementState;
+import net.desertconsulting.mochatemplate.parser.render.RenderContext;
+import net.desertconsulting.mochatemplate.parser.render.Variable;
+import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import javax.script.Bindings;
-import javax.script.ScriptEngine;
 import javax.script.ScriptException;
+import org.jsoup.nodes.Element;
 
 /**
  * This attribute parser supports data-set attribute. It permits to set a
@@ -32,15 +39,6 @@ public class SetAttributeParser extends TemplateAttributeParser {
 
     private static final String SUPPORTED_FIELD = "set";
 
-    /**
-     * .ctor
-     *
-     * @param engine Javascript engine to evaluate Javascript expressions
-     */
-    public SetAttributeParser(ScriptEngine engine) {
-        super(engine);
-    }
-
     /**
      * This method evaluates data-set attributes. args must hold a single arg,
      * with the name of the variable to be set: eg. "data-set-name" will set a
@@ -69,6 +67,35 @@ public class SetAttributeParser extends TemplateAttributeParser {
         return true;
     }
 
+    /**
+     * This method compiles data-set attributes. Attributes with a wrong number
+     * of arguments are not compiled, so that {@link #eval} will report the
+     * error.
+     *
+     * @return the compiled attribute or null
+     */
+    @Override
+    public Directive compile(Element element, AttributeParserArguments args,
+            TemplateCompiler compiler) {
+        String[] arguments = args.getArgs();
+        if (arguments != null && arguments.length == 1) {
+            return new SetDirective(compiler.variable(arguments[0]), args.
+                    getExpression());
+        }
+        return null;
+    }
+
+    /**
+     * data-set sets the variable named by its argument.
+     *
+     * @return the variable name, or null if the number of arguments is wrong
+     */
+    @Override
+    public String[] getVariables(AttributeParserArguments args) {
+        String[] arguments = args.getArgs();
+        return arguments != null && arguments.length == 1 ? arguments : null;
+    }
+
     /**
      * This method returns "set".
      *
@@ -79,4 +106,27 @@ public class SetAttributeParser extends TemplateAttributeParser {
         return SUPPORTED_FIELD;
     }
 
+    /**
+     * Compiled data-set: sets a variable in the element's bindings, the
+     * variable's slot is resolved at compile time.
+     */
+    private static class SetDirective implements Directive {
+
+        private final Variable variable;
+        private final String expression;
+
+        public SetDirective(Variable variable, String expression) {
+            this.variable = variable;
+            this.expression = expression;
+        }
+
+        @Override
+        public void render(RenderContext context, ElementState state,
+                ElementNode element, int index) throws ScriptException,
+                IOException {
+            Bindings bindings = state.getBindings();
+            variable.set(bindings, context.eval(expression, bindings));
+            element.renderNext(context, state, index + 1);
+        }
+    }
 }
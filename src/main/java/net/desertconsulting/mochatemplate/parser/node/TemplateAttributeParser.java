@@ -16,32 +16,24 @@
 package net.desertconsulting.mochatemplate.parser.node;
 
 import net.desertconsulting.mochatemplate.parser.Parser;
+import net.desertconsulting.mochatemplate.parser.TemplateCompiler;
+import net.desertconsulting.mochatemplate.parser.render.Directive;
 import java.io.UnsupportedEncodingException;
-import javax.script.ScriptEngine;
 import javax.script.ScriptException;
+import org.jsoup.nodes.Element;
 
 /**
  * This serves as a base class to create template node's attributes parsers.
+ * Attribute parsers are stateless and shared by every template engine: the
+ * javascript engine evaluating an attribute is reached through the
+ * {@link Parser} while parsing the DOM, and through the
+ * {@link net.desertconsulting.mochatemplate.parser.render.RenderContext} while
+ * rendering a compiled template.
  * 
  * @author Patrizio Bruno {@literal <desertconsulting@gmail.com>}
  */
 public abstract class TemplateAttributeParser {
 
-    /**
-     * Javascript engine that will evaluate every javascript expression in the template
-     * expressions
-     */
-    protected final ScriptEngine engine;
-
-    /**
-     * Initializes a new instance of {@link TemplateAttributeParser}, setting
-     * {@code engine} as Javascript engine.
-     * @param engine Javascript engine that will evaluate every javascript expression in the template
-     */
-    public TemplateAttributeParser(ScriptEngine engine) {
-        this.engine = engine;
-    }
-
     /**
      * Attribute parsers must override this method to parse a template data- attribute
      * and evaluate the template portion represented by {@code dataNode}.
@@ -58,6 +50,37 @@ public abstract class TemplateAttributeParser {
     public abstract boolean eval(TemplateNode dataNode, AttributeParserArguments args, Parser parser)
             throws ScriptException, UnsupportedEncodingException;
 
+    /**
+     * Attribute parsers may override this method to compile a template data- attribute
+     * into a {@link Directive}, evaluated at every rendering without touching the DOM.
+     * Attributes that don't get compiled are evaluated through {@link #eval}.
+     * 
+     * @param element the element holding the attribute, it must never be modified
+     * @param args attribute and arguments to the parser
+     * @param compiler template compiler, it will eventually be used to compile markup
+     * belonging to the element
+     * @return the compiled attribute or null if the attribute has to be evaluated
+     * through {@link #eval}
+     */
+    public Directive compile(Element element, AttributeParserArguments args,
+            TemplateCompiler compiler) {
+        return null;
+    }
+
+    /**
+     * Attribute parsers may override this method to declare the javascript variables
+     * a data- attribute sets. The compiler uses them to find the expressions of a loop
+     * body that don't depend on the loop, evaluated once per loop instead of once per
+     * iteration: loops containing attributes with unknown effects are not optimized.
+     * 
+     * @param args attribute and arguments to the parser
+     * @return names of the variables set by the attribute, an empty array if none, or
+     * null if the attribute may have other side effects
+     */
+    public String[] getVariables(AttributeParserArguments args) {
+        return null;
+    }
+
     /**
      * Attribute parsers must override this method to indicate which instruction they support:
      * eg.
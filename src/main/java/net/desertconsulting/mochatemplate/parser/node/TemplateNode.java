@@ -15,6 +15,7 @@
  */
 package net.desertconsulting.mochatemplate.parser.node;
 
+import net.desertconsulting.mochatemplate.parser.render.ScopeBindings;
 import javax.script.Bindings;
 import javax.script.ScriptEngine;
 import org.jsoup.nodes.Document;
@@ -33,7 +34,10 @@ public class TemplateNode {
 
     /**
      * Initialize a new instance of {@link TemplateNode}, setting all the
-     * instance's properties with the passed paramters.
+     * instance's properties with the passed paramters. The variables of
+     * {@code bindings} are copied into new bindings of {@code engine}, which
+     * may be expensive, e.g. Nashorn creates a global object: see
+     * {@link #TemplateNode(Node, Bindings, Document)}.
      *
      * @param node node to be parsed
      * @param bindings Javascript variable bindings
@@ -52,6 +56,22 @@ public class TemplateNode {
         }
     }
 
+    /**
+     * Initialize a new instance of {@link TemplateNode} whose bindings are a
+     * {@link ScopeBindings} of {@code bindings}: the variables set while
+     * parsing the node are not visible to {@code bindings}, nothing is
+     * copied.
+     *
+     * @param node node to be parsed
+     * @param bindings Javascript variable bindings of the enclosing node
+     * @param document node's parent document
+     */
+    public TemplateNode(Node node, Bindings bindings, Document document) {
+        this.node = node;
+        this.document = document;
+        this.bindings = bindings != null ? new ScopeBindings(bindings) : null;
+    }
+
     /**
      * Gets the node to be parsed
      *
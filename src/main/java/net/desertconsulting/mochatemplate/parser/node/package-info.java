@@ -17,7 +17,8 @@
 /**
  * Contains the base class {@link TemplateAttributeParser} and all the derived
  * data-* attribute parsers. {@link TemplateAttributeParser} can be used to extend
- * the template language, {@link net.desertconsulting.mochatemplate.parser.MochaTemplateEngine}
- * will search for every class in the classpath extending {@link TemplateAttributeParser}.
+ * the template language: new parsers are either listed in
+ * META-INF/services/net.desertconsulting.mochatemplate.parser.node.TemplateAttributeParser
+ * or registered into a {@link net.desertconsulting.mochatemplate.parser.DirectiveRegistry}.
  */
 package net.desertconsulting.mochatemplate.parser.node;
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2016 Patrizio Bruno <desertconsulting@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.desertconsulting.mochatemplate.parser.render;
+
+import java.io.IOException;
+import javax.script.Bindings;
+import javax.script.ScriptException;
+
+/**
+ * An element attribute whose value contains ${} blocks. Attributes with a
+ * constant value are compiled into {@link StaticNode}s.
+ *
+ * @author Patrizio Bruno {@literal <desertconsulting@gmail.com>}
+ */
+public class AttributeNode implements RenderNode {
+
+    private final String key;
+    private final Interpolation value;
+
+    /**
+     * Initialize a new instance of {@link AttributeNode}.
+     *
+     * @param key attribute name
+     * @param value attribute value
+     */
+    public AttributeNode(String key, Interpolation value) {
+        this.key = key;
+        this.value = value;
+    }
+
+    /**
+     * Gets the attribute name.
+     *
+     * @return {@code key} passed as parameter to the constructor
+     */
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * Gets the attribute value.
+     *
+     * @return {@code value} passed as parameter to the constructor
+     */
+    public Interpolation getValue() {
+        return value;
+    }
+
+    @Override
+    public void render(RenderContext context, Bindings bindings) throws
+            ScriptException, IOException {
+        write(context, key, value.evaluate(context, bindings));
+    }
+
+    /**
+     * Writes an attribute with an evaluated value.
+     *
+     * @param context current rendering context
+     * @param key attribute name
+     * @param value evaluated attribute value
+     * @throws IOException error writing the output
+     */
+    public static void write(RenderContext context, String key, String value)
+            throws IOException {
+        HtmlEscaper.attribute(context.getOutput(), key, value, context.
+                getOutputSettings());
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2016 Patrizio Bruno <desertconsulting@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.desertconsulting.mochatemplate.parser.render;
+
+import java.io.IOException;
+import javax.script.Bindings;
+import javax.script.ScriptException;
+
+/**
+ * A directive whose outcome is known at compile time: either the rest of the
+ * element is always rendered, or the element is always replaced by the same
+ * nodes, e.g. nothing for a data-if that is always false or static markup for
+ * an unrolled data-for.
+ *
+ * @author Patrizio Bruno {@literal <desertconsulting@gmail.com>}
+ */
+public class ConstantDirective implements Directive {
+
+    /**
+     * The rest of the element is always rendered: the directive can be left
+     * out.
+     */
+    public final static ConstantDirective RENDER = new ConstantDirective(null);
+    /**
+     * The element is never rendered.
+     */
+    public final static ConstantDirective REMOVE = new ConstantDirective(
+            new RenderNode[0]);
+
+    private final RenderNode[] nodes;
+
+    /**
+     * Initialize a new instance of {@link ConstantDirective}.
+     *
+     * @param nodes nodes replacing the element, null to render the element
+     */
+    public ConstantDirective(RenderNode[] nodes) {
+        this.nodes = nodes;
+    }
+
+    /**
+     * Gets the nodes replacing the element.
+     *
+     * @return a copy of {@code nodes} passed as parameter to the constructor,
+     * null if the element gets rendered
+     */
+    public RenderNode[] getNodes() {
+        return nodes == null ? null : nodes.clone();
+    }
+
+    @Override
+    public void render(RenderContext context, ElementState state,
+            ElementNode element, int index) throws ScriptException,
+            IOException {
+        if (nodes == null) {
+            element.renderNext(context, state, index + 1);
+        } else {
+            Bindings bindings = state.getBindings();
+            for (RenderNode node : nodes) {
+                node.render(context, bindings);
+            }
+        }
+    }
+}
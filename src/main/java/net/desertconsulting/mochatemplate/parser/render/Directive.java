@@ -0,0 +1,43 @@
+/*
+ * Copyright 2016 Patrizio Bruno <desertconsulting@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.desertconsulting.mochatemplate.parser.render;
+
+import java.io.IOException;
+import javax.script.ScriptException;
+
+/**
+ * A compiled data-* attribute. Directives of an element are evaluated in
+ * order of appearance: each directive decides if, and how many times, the
+ * rest of the element has to be rendered, by calling
+ * {@link ElementNode#renderNext(RenderContext, ElementState, int)}.
+ *
+ * @author Patrizio Bruno {@literal <desertconsulting@gmail.com>}
+ */
+public interface Directive {
+
+    /**
+     * Evaluates the directive.
+     *
+     * @param context current rendering context
+     * @param state bindings and included templates of the element
+     * @param element the element the directive belongs to
+     * @param index position of the directive in the element
+     * @throws ScriptException javascript syntax error
+     * @throws IOException error writing the output
+     */
+    void render(RenderContext context, ElementState state, ElementNode element,
+            int index) throws ScriptException, IOException;
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2016 Patrizio Bruno <desertconsulting@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.desertconsulting.mochatemplate.parser.render;
+
+import java.io.IOException;
+import net.desertconsulting.mochatemplate.parser.TemplateEngine;
+import net.desertconsulting.mochatemplate.parser.node.TemplateAttributeParser;
+import java.util.List;
+import javax.script.ScriptException;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.jsoup.nodes.Node;
+import org.jsoup.nodes.TextNode;
+
+/**
+ * Fallback for data-* attributes whose {@link TemplateAttributeParser} doesn't
+ * support compilation. A copy of the element gets parsed through the DOM
+ * {@link net.desertconsulting.mochatemplate.parser.Parser}, the same way
+ * templates were rendered before compilation was introduced.
+ *
+ * @author Patrizio Bruno {@literal <desertconsulting@gmail.com>}
+ */
+public class DomDirective implements Directive {
+
+    private final static String TEMPLATE_SELECTOR
+            = "template[data-type=\"server/template\"]";
+
+    private final Element element;
+    private final List<String> processedAttrs;
+
+    /**
+     * Initialize a new instance of {@link DomDirective}.
+     *
+     * @param element the element to be parsed, it must never be modified
+     * @param processedAttrs names of the data-* attributes already evaluated
+     * by compiled directives
+     */
+    public DomDirective(Element element, List<String> processedAttrs) {
+        this.element = element;
+        this.processedAttrs = processedAttrs;
+    }
+
+    @Override
+    public void render(RenderContext context, ElementState state,
+            ElementNode elementNode, int index) throws ScriptException,
+            IOException {
+        Element clone = element.clone();
+        for (String attr : processedAttrs) {
+            clone.removeAttr(attr);
+        }
+        for (Fragment fragment : state.getIncludes()) {
+            for (Node child : fragment.getSource().childNodes()) {
+                clone.appendChild(child.clone());
+            }
+        }
+        clone.select(TemplateEngine.SCRIPT_SELECTOR).remove();
+
+        Document holder = new Document("");
+        holder.outputSettings(context.getOutputSettings().clone());
+        // some parsers, such as data-for, need a previous sibling to work with
+        holder.appendChild(new TextNode("", ""));
+        holder.appendChild(clone);
+
+        context.getParser().parseNode(clone, state.getBindings());
+        holder.select(TEMPLATE_SELECTOR).remove();
+
+        for (Node node : holder.childNodes()) {
+            context.getOutput().append(node.outerHtml());
+        }
+    }
+}
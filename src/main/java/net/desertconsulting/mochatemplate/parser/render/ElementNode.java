@@ -0,0 +1,124 @@
+/*
+ * Copyright 2016 Patrizio Bruno <desertconsulting@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.desertconsulting.mochatemplate.parser.render;
+
+import java.io.IOException;
+import javax.script.Bindings;
+import javax.script.ScriptException;
+
+/**
+ * An element carrying data-* attributes. Elements without directives are
+ * compiled into their parent's sequence of nodes, so an {@link ElementNode}
+ * always has at least one {@link Directive}.
+ *
+ * @author Patrizio Bruno {@literal <desertconsulting@gmail.com>}
+ */
+public class ElementNode implements RenderNode {
+
+    private final Directive[] directives;
+    private final RenderNode[] head;
+    private final RenderNode[] children;
+    private final String tail;
+
+    /**
+     * Initialize a new instance of {@link ElementNode}.
+     *
+     * @param directives compiled data-* attributes, in order of appearance
+     * @param head start tag, including attributes
+     * @param children child nodes
+     * @param tail end tag, empty for self-closing tags
+     */
+    public ElementNode(Directive[] directives, RenderNode[] head,
+            RenderNode[] children, String tail) {
+        this.directives = directives;
+        this.head = head;
+        this.children = children;
+        this.tail = tail;
+    }
+
+    /**
+     * Gets the compiled data-* attributes of the element.
+     *
+     * @return {@code directives} passed as parameter to the constructor
+     */
+    public Directive[] getDirectives() {
+        return directives.clone();
+    }
+
+    /**
+     * Gets the start tag of the element.
+     *
+     * @return {@code head} passed as parameter to the constructor
+     */
+    public RenderNode[] getHead() {
+        return head.clone();
+    }
+
+    /**
+     * Gets the end tag of the element.
+     *
+     * @return {@code tail} passed as parameter to the constructor
+     */
+    public String getTail() {
+        return tail;
+    }
+
+    /**
+     * Gets the child nodes of the element.
+     *
+     * @return {@code children} passed as parameter to the constructor
+     */
+    public RenderNode[] getChildren() {
+        return children.clone();
+    }
+
+    @Override
+    public void render(RenderContext context, Bindings bindings) throws
+            ScriptException, IOException {
+        renderNext(context, new ElementState(context.newScope(bindings)),
+                0);
+    }
+
+    /**
+     * Renders the element starting from the directive at {@code index}. Once
+     * every directive has been evaluated the element itself gets written.
+     *
+     * @param context current rendering context
+     * @param state bindings and included templates of the element
+     * @param index position of the directive to be evaluated
+     * @throws ScriptException javascript syntax error
+     * @throws IOException error writing the output
+     */
+    public void renderNext(RenderContext context, ElementState state,
+            int index) throws ScriptException, IOException {
+        if (index < directives.length) {
+            context.check();
+            directives[index].render(context, state, this, index);
+        } else {
+            Bindings bindings = state.getBindings();
+            for (RenderNode node : head) {
+                node.render(context, bindings);
+            }
+            for (RenderNode node : children) {
+                node.render(context, bindings);
+            }
+            for (Fragment fragment : state.getIncludes()) {
+                fragment.render(context, bindings);
+            }
+            context.getOutput().append(tail);
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2016 Patrizio Bruno <desertconsulting@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.desertconsulting.mochatemplate.parser.render;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import javax.script.Bindings;
+
+/**
+ * Per-render state of an {@link ElementNode}: the javascript variable bindings
+ * local to the element and the templates included into it.
+ *
+ * @author Patrizio Bruno {@literal <desertconsulting@gmail.com>}
+ */
+public class ElementState {
+
+    private final Bindings bindings;
+    private List<Fragment> includes;
+
+    /**
+     * Initialize a new instance of {@link ElementState}.
+     *
+     * @param bindings javascript variable bindings local to the element
+     */
+    public ElementState(Bindings bindings) {
+        this.bindings = bindings;
+    }
+
+    /**
+     * Gets the javascript variable bindings local to the element.
+     *
+     * @return {@code bindings} passed as parameter to the constructor
+     */
+    public Bindings getBindings() {
+        return bindings;
+    }
+
+    /**
+     * Gets the templates included into the element.
+     *
+     * @return included templates, in order of inclusion
+     */
+    public List<Fragment> getIncludes() {
+        if (includes == null) {
+            return Collections.emptyList();
+        }
+        return includes;
+    }
+
+    /**
+     * Adds a template to be rendered after the element's children.
+     *
+     * @param fragment included template
+     */
+    public void include(Fragment fragment) {
+        if (includes == null) {
+            includes = new ArrayList<>();
+        }
+        includes.add(fragment);
+    }
+
+    /**
+     * Creates a copy of this state, used to render a repetition of the
+     * element.
+     *
+     * @param context current rendering context
+     * @return a new state with a new scope of the bindings and the same
+     * included templates
+     */
+    public ElementState copy(RenderContext context) {
+        return copy(context.newScope(bindings));
+    }
+
+    /**
+     * Creates a copy of this state owning its own javascript global object,
+     * used to evaluate scripts declaring variables: see
+     * {@link RenderContext#copyBindings(Bindings)}.
+     *
+     * @param context current rendering context
+     * @return a new state with a copy of the bindings and the same included
+     * templates
+     */
+    public ElementState isolate(RenderContext context) {
+        return copy(context.copyBindings(bindings));
+    }
+
+    /**
+     * Creates a copy of this state evaluated by another javascript engine,
+     * used to render a part of the page concurrently: see
+     * {@link ScopeBindings#ScopeBindings(Bindings, Bindings)}.
+     *
+     * @param global bindings of the engine evaluating the copy
+     * @return a new state with a new scope of the bindings and the same
+     * included templates
+     */
+    public ElementState transfer(Bindings global) {
+        return copy(bindings != null ? new ScopeBindings(bindings, global)
+                : null);
+    }
+
+    private ElementState copy(Bindings bindings) {
+        ElementState rv = new ElementState(bindings);
+        if (includes != null) {
+            rv.includes = new ArrayList<>(includes);
+        }
+        return rv;
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2016 Patrizio Bruno <desertconsulting@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.desertconsulting.mochatemplate.parser.render;
+
+import java.io.IOException;
+import javax.script.Bindings;
+import javax.script.ScriptException;
+import org.jsoup.nodes.Element;
+
+/**
+ * The compiled content of a &lt;template data-type="server/template"&gt;,
+ * ready to be included by data-include.
+ *
+ * @author Patrizio Bruno {@literal <desertconsulting@gmail.com>}
+ */
+public class Fragment {
+
+    private final Element source;
+    private final String[] scripts;
+    private final RenderNode[] nodes;
+
+    /**
+     * Initialize a new instance of {@link Fragment}.
+     *
+     * @param source the template element, it must never be modified
+     * @param scripts server-side scripts to be evaluated when the template gets
+     * included
+     * @param nodes compiled children of the template
+     */
+    public Fragment(Element source, String[] scripts, RenderNode[] nodes) {
+        this.source = source;
+        this.scripts = scripts;
+        this.nodes = nodes;
+    }
+
+    /**
+     * Gets the template element the fragment has been compiled from.
+     *
+     * @return {@code source} passed as parameter to the constructor
+     */
+    public Element getSource() {
+        return source;
+    }
+
+    /**
+     * Gets the server-side scripts to be evaluated when the template gets
+     * included.
+     *
+     * @return {@code scripts} passed as parameter to the constructor
+     */
+    public String[] getScripts() {
+        return scripts.clone();
+    }
+
+    /**
+     * Check whether the template has server-side scripts.
+     *
+     * @return true if there is any script to be evaluated
+     */
+    public boolean hasScripts() {
+        return scripts.length > 0;
+    }
+
+    /**
+     * Evaluates the template's server-side scripts in {@code bindings}.
+     *
+     * @param context current rendering context
+     * @param bindings bindings of the including element
+     * @throws ScriptException javascript syntax error
+     */
+    public void runScripts(RenderContext context, Bindings bindings) throws
+            ScriptException {
+        for (String script : scripts) {
+            context.eval(script, bindings);
+        }
+    }
+
+    /**
+     * Writes the template's children.
+     *
+     * @param context current rendering context
+     * @param bindings bindings of the including element
+     * @throws ScriptException javascript syntax error
+     * @throws IOException error writing the output
+     */
+    public void render(RenderContext context, Bindings bindings) throws
+            ScriptException, IOException {
+        for (RenderNode node : nodes) {
+            node.render(context, bindings);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2016 Patrizio Bruno <desertconsulting@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.desertconsulting.mochatemplate.parser.render;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Slots of the variables set by the directives of a compiled template, see
+ * {@link Variable}. Every template and every template fragment gets its own
+ * layout, so that frames of {@link ScopeBindings} are sized to the variables
+ * of the template being rendered.
+ *
+ * Slots are allocated by the
+ * {@link net.desertconsulting.mochatemplate.parser.TemplateCompiler} while
+ * compiling the template; the layout is read-only afterwards and can then be
+ * shared among threads.
+ *
+ * @author Patrizio Bruno {@literal <desertconsulting@gmail.com>}
+ */
+public class FrameLayout {
+
+    private final Map<String, Variable> variables = new HashMap<>();
+    private final List<String> names = new ArrayList<>();
+
+    /**
+     * Gets the variable named {@code name}, allocating it the next slot if it
+     * has none. Must only be called while compiling the template.
+     *
+     * @param name variable name
+     * @return the variable
+     */
+    public Variable variable(String name) {
+        Variable rv = variables.get(name);
+        if (rv == null) {
+            rv = new Variable(name, names.size(), this);
+            variables.put(name, rv);
+            names.add(name);
+        }
+        return rv;
+    }
+
+    /**
+     * Gets the variable named {@code name} without allocating it a slot.
+     *
+     * @param name variable name
+     * @return the variable, its slot is -1 if it has none in this layout
+     */
+    public Variable find(String name) {
+        Variable rv = variables.get(name);
+        return rv != null ? rv : new Variable(name, -1, this);
+    }
+
+    /**
+     * Gets the number of slots.
+     *
+     * @return number of variables with a slot
+     */
+    public int size() {
+        return names.size();
+    }
+
+    int slotOf(Object name) {
+        Variable rv = variables.get(name);
+        return rv != null ? rv.getSlot() : -1;
+    }
+
+    String nameOf(int slot) {
+        return names.get(slot);
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2016 Patrizio Bruno <desertconsulting@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.desertconsulting.mochatemplate.parser.render;
+
+import java.io.IOException;
+import java.nio.charset.CharsetEncoder;
+import java.util.Arrays;
+import java.util.Map;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Entities;
+
+/**
+ * HTML escaping, following the same rules Jsoup applies when serializing a
+ * document, so that compiled templates produce the same markup the DOM would.
+ *
+ * @author Patrizio Bruno {@literal <desertconsulting@gmail.com>}
+ */
+public final class HtmlEscaper {
+
+    /**
+     * Attributes that get collapsed to their name in HTML syntax. It must stay
+     * sorted, it's searched with {@link Arrays#binarySearch}.
+     */
+    private static final String[] BOOLEAN_ATTRIBUTES = {
+        "allowfullscreen", "async", "autofocus", "checked", "compact",
+        "declare", "default", "defer", "disabled", "formnovalidate", "hidden",
+        "inert", "ismap", "itemscope", "multiple", "muted", "nohref",
+        "noresize", "noshade", "novalidate", "nowrap", "open", "readonly",
+        "required", "reversed", "seamless", "selected", "sortable",
+        "truespeed", "typemustmatch"
+    };
+
+    private HtmlEscaper() {
+    }
+
+    /**
+     * Escapes {@code string} as text content.
+     *
+     * @param string text to be escaped
+     * @param out output settings
+     * @return the escaped text
+     */
+    public static String escape(String string, Document.OutputSettings out) {
+        StringBuilder sb = new StringBuilder(string.length());
+        try {
+            escape(sb, string, out, false);
+        } catch (IOException ex) {
+            // a StringBuilder never throws IOException
+            throw new IllegalStateException(ex);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Writes an attribute, preceded by a space, the same way Jsoup does:
+     * boolean attributes get collapsed in HTML syntax.
+     *
+     * @param accum output
+     * @param key attribute name
+     * @param value attribute value
+     * @param out output settings
+     * @throws IOException error writing on {@code accum}
+     */
+    public static void attribute(Appendable accum, String key, String value,
+            Document.OutputSettings out) throws IOException {
+        accum.append(' ').append(key);
+        if (!(("".equals(value) || value.equalsIgnoreCase(key))
+                && out.syntax() == Document.OutputSettings.Syntax.html
+                && Arrays.binarySearch(BOOLEAN_ATTRIBUTES, key) >= 0)) {
+            accum.append("=\"");
+            escape(accum, value, out, true);
+            accum.append('"');
+        }
+    }
+
+    /**
+     * Escapes {@code string} and writes it on {@code accum}.
+     *
+     * @param accum output
+     * @param string text to be escaped
+     * @param out output settings
+     * @param inAttribute true if {@code string} is an attribute value
+     * @throws IOException error writing on {@code accum}
+     */
+    public static void escape(Appendable accum, String string,
+            Document.OutputSettings out, boolean inAttribute) throws
+            IOException {
+
+        final Entities.EscapeMode escapeMode = out.escapeMode();
+        final String charsetName = out.charset().name();
+        final boolean ascii = "US-ASCII".equals(charsetName);
+        final boolean utf = charsetName.startsWith("UTF-");
+        final CharsetEncoder encoder = ascii || utf ? null : out.charset().
+                newEncoder();
+        final Map<Character, String> map = escapeMode.getMap();
+        final int length = string.length();
+
+        int codePoint;
+        for (int offset = 0; offset < length; offset += Character.charCount(
+                codePoint)) {
+            codePoint = string.codePointAt(offset);
+
+            if (codePoint < Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+                final char c = (char) codePoint;
+                switch (c) {
+                    case '&':
+                        accum.append("&amp;");
+                        break;
+                    case 0xA0:
+                        if (escapeMode != Entities.EscapeMode.xhtml) {
+                            accum.append("&nbsp;");
+                        } else {
+                            accum.append("&#xa0;");
+                        }
+                        break;
+                    case '<':
+                        if (!inAttribute
+                                || escapeMode == Entities.EscapeMode.xhtml) {
+                            accum.append("&lt;");
+                        } else {
+                            accum.append(c);
+                        }
+                        break;
+                    case '>':
+                        if (!inAttribute) {
+                            accum.append("&gt;");
+                        } else {
+                            accum.append(c);
+                        }
+                        break;
+                    case '"':
+                        if (inAttribute) {
+                            accum.append("&quot;");
+                        } else {
+                            accum.append(c);
+                        }
+                        break;
+                    default:
+                        if (utf || (ascii && c < 0x80)
+                                || (encoder != null && encoder.canEncode(c))) {
+                            accum.append(c);
+                        } else if (map.containsKey(c)) {
+                            accum.append('&').append(map.get(c)).append(';');
+                        } else {
+                            accum.append("&#x").append(Integer.toHexString(
+                                    codePoint)).append(';');
+                        }
+                }
+            } else {
+                final String c = new String(Character.toChars(codePoint));
+                if (utf || (encoder != null && encoder.canEncode(c))) {
+                    accum.append(c);
+                } else {
+                    accum.append("&#x").append(Integer.toHexString(codePoint)).
+                            append(';');
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2016 Patrizio Bruno <desertconsulting@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.desertconsulting.mochatemplate.parser.render;
+
+import java.io.IOException;
+import javax.script.Bindings;
+import javax.script.ScriptException;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.safety.Whitelist;
+
+/**
+ * A text node containing ${} blocks. The evaluated text gets cleaned from any
+ * markup before being escaped.
+ *
+ * @author Patrizio Bruno {@literal <desertconsulting@gmail.com>}
+ */
+public class InterpolatedTextNode implements RenderNode {
+
+    private final Interpolation text;
+
+    /**
+     * Initialize a new instance of {@link InterpolatedTextNode}.
+     *
+     * @param text node text, with whitespaces already normalized
+     */
+    public InterpolatedTextNode(Interpolation text) {
+        this.text = text;
+    }
+
+    /**
+     * Gets the text of the node.
+     *
+     * @return {@code text} passed as parameter to the constructor
+     */
+    public Interpolation getText() {
+        return text;
+    }
+
+    @Override
+    public void render(RenderContext context, Bindings bindings) throws
+            ScriptException, IOException {
+        write(context, text.evaluate(context, bindings));
+    }
+
+    /**
+     * Writes an evaluated text: HTML tags get stripped and the text gets
+     * escaped.
+     *
+     * @param context current rendering context
+     * @param value evaluated text
+     * @throws IOException error writing the output
+     */
+    public static void write(RenderContext context, String value) throws
+            IOException {
+        write(context.getOutput(), value, context.getOutputSettings());
+    }
+
+    /**
+     * Writes an evaluated text: HTML tags get stripped and the text gets
+     * escaped.
+     *
+     * @param out output stream
+     * @param value evaluated text
+     * @param settings HTML generation settings
+     * @throws IOException error writing the output
+     */
+    public static void write(Appendable out, String value,
+            Document.OutputSettings settings) throws IOException {
+        String val = Jsoup.clean(value, Whitelist.none());
+        HtmlEscaper.escape(out, val, settings, false);
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright 2016 Patrizio Bruno <desertconsulting@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.desertconsulting.mochatemplate.parser.render;
+
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.script.Bindings;
+import javax.script.ScriptException;
+
+/**
+ * A string containing javascript expressions in ${} blocks, split at compile
+ * time into literal parts and expressions.
+ *
+ * @author Patrizio Bruno {@literal <desertconsulting@gmail.com>}
+ */
+public class Interpolation {
+
+    /**
+     * This regular expression finds javascript expressions in a string
+     */
+    public final static Pattern INLINE_EXP_PATTERN = Pattern.compile(
+            "\\$\\{([^\\}]+)\\}",
+            0);
+
+    private final String text;
+    /**
+     * literals.length is always expressions.length + 1
+     */
+    private final String[] literals;
+    private final String[] expressions;
+    /**
+     * Scope of the loop whose invariants are evaluated once, null if every
+     * expression gets evaluated every time
+     */
+    private final InvariantScope scope;
+    /**
+     * Slot of every invariant expression in {@code scope}, -1 for the others
+     */
+    private final int[] slots;
+
+    private Interpolation(String text, String[] literals, String[] expressions) {
+        this(text, literals, expressions, null, null);
+    }
+
+    private Interpolation(String text, String[] literals, String[] expressions,
+            InvariantScope scope, int[] slots) {
+        this.text = text;
+        this.literals = literals;
+        this.expressions = expressions;
+        this.scope = scope;
+        this.slots = slots;
+    }
+
+    /**
+     * Splits {@code text} into literal parts and ${} expressions.
+     *
+     * @param text text to be parsed
+     * @return the parsed text
+     */
+    public static Interpolation parse(String text) {
+        List<String> literals = new ArrayList<>();
+        List<String> expressions = new ArrayList<>();
+
+        if (text != null) {
+            Matcher matcher = INLINE_EXP_PATTERN.matcher(text);
+            int last = 0;
+            while (matcher.find()) {
+                literals.add(text.substring(last, matcher.start()));
+                expressions.add(matcher.group(1));
+                last = matcher.end();
+            }
+            literals.add(text.substring(last));
+        } else {
+            literals.add("");
+        }
+
+        return new Interpolation(text, literals.toArray(new String[0]),
+                expressions.toArray(new String[0]));
+    }
+
+    /**
+     * Check if the text contains at least a ${} block.
+     *
+     * @return true if the text contains javascript expressions
+     */
+    public boolean hasExpressions() {
+        return expressions.length > 0;
+    }
+
+    /**
+     * Check if some expressions get evaluated once per loop, see
+     * {@link #hoist(InvariantScope, boolean[])}.
+     *
+     * @return true if the text contains loop invariants
+     */
+    public boolean isHoisted() {
+        return scope != null;
+    }
+
+    /**
+     * Creates a copy of this text whose loop invariant expressions get
+     * evaluated once per execution of the loop.
+     *
+     * @param scope scope of the loop
+     * @param invariant for every expression, true if it doesn't depend on the
+     * loop variables
+     * @return the new text
+     */
+    public Interpolation hoist(InvariantScope scope, boolean[] invariant) {
+        int[] rv = new int[expressions.length];
+        for (int i = 0; i < rv.length; i++) {
+            rv[i] = invariant[i] ? scope.allocate() : -1;
+        }
+        return new Interpolation(text, literals, expressions, scope, rv);
+    }
+
+    /**
+     * Gets the unparsed text.
+     *
+     * @return {@code text} passed to {@link #parse(String)}
+     */
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * Gets the literal parts of the text, surrounding the ${} blocks. There's
+     * always one literal more than the expressions.
+     *
+     * @return the literal parts, in order of appearance
+     */
+    public String[] getLiterals() {
+        return literals.clone();
+    }
+
+    /**
+     * Gets the javascript expressions found in the text, in order of
+     * appearance.
+     *
+     * @return the expressions
+     */
+    public String[] getExpressions() {
+        return expressions.clone();
+    }
+
+    /**
+     * Evaluates every expression and replaces the ${} blocks with their
+     * results.
+     *
+     * @param context current rendering context
+     * @param bindings javascript variable bindings
+     * @return the evaluated text
+     * @throws ScriptException syntax error in ${} expressions
+     */
+    public String evaluate(RenderContext context, Bindings bindings) throws
+            ScriptException {
+        if (expressions.length == 0) {
+            return text;
+        }
+
+        StringBuilder sb = new StringBuilder(literals[0]);
+        for (int i = 0; i < expressions.length; i++) {
+            sb.append(toString(scope != null && slots[i] >= 0 ? scope.eval(
+                    context, slots[i], expressions[i], bindings) : context.eval(
+                    expressions[i], bindings)));
+            sb.append(literals[i + 1]);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Converts the result of a javascript expression to the string that will
+     * replace its ${} block.
+     *
+     * @param evaluated result of a javascript expression
+     * @return the string representation of {@code evaluated}, an empty string
+     * for null
+     */
+    public static String toString(Object evaluated) {
+        if (evaluated == null) {
+            return "";
+        }
+        if (evaluated instanceof Double) {
+            // Even if both Rhino and Nashorn turn every number to a Double
+            // integers must be printed as integers, without decimal expansion.
+            // And... DecimalFormat will format floating point numbers
+            // accordingly to the current locale settings.
+
+            DecimalFormat df = new DecimalFormat("0",
+                    DecimalFormatSymbols.getInstance());
+            // 340 is the maximum number of fraction digits supported by DigitalFormat
+            // this will prevent to print a large double in scientific notation
+            df.setMaximumFractionDigits(340);
+
+            return df.format((double) evaluated);
+        }
+        return evaluated.toString();
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2016 Patrizio Bruno <desertconsulting@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.desertconsulting.mochatemplate.parser.render;
+
+import java.io.IOException;
+import javax.script.Bindings;
+import javax.script.ScriptException;
+
+/**
+ * A sequence of nodes inside a loop body that doesn't depend on the loop
+ * variables: it gets rendered at the first iteration and its output is
+ * written again by the following ones.
+ *
+ * @author Patrizio Bruno {@literal <desertconsulting@gmail.com>}
+ */
+public class InvariantNode implements RenderNode {
+
+    private final InvariantScope scope;
+    private final int slot;
+    private final RenderNode[] nodes;
+
+    /**
+     * Initialize a new instance of {@link InvariantNode}.
+     *
+     * @param scope scope of the loop the nodes belong to
+     * @param nodes nodes not depending on the loop variables
+     */
+    public InvariantNode(InvariantScope scope, RenderNode[] nodes) {
+        this.scope = scope;
+        this.slot = scope.allocate();
+        this.nodes = nodes;
+    }
+
+    /**
+     * Gets the wrapped nodes.
+     *
+     * @return {@code nodes} passed as parameter to the constructor
+     */
+    public RenderNode[] getNodes() {
+        return nodes.clone();
+    }
+
+    @Override
+    public void render(RenderContext context, Bindings bindings) throws
+            ScriptException, IOException {
+        scope.render(context, slot, nodes, bindings);
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2016 Patrizio Bruno <desertconsulting@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.desertconsulting.mochatemplate.parser.render;
+
+import java.io.IOException;
+import java.util.Arrays;
+import javax.script.Bindings;
+import javax.script.ScriptException;
+
+/**
+ * Holds, for a single execution of a loop, the values of the expressions and
+ * nodes of the loop body that don't depend on the loop variables: they get
+ * evaluated at the first iteration that needs them and reused by the
+ * following ones. The compiler places the scope right before the
+ * {@link LoopDirective} it belongs to.
+ *
+ * @author Patrizio Bruno {@literal <desertconsulting@gmail.com>}
+ */
+public class InvariantScope implements Directive {
+
+    /**
+     * Marks the values not evaluated yet
+     */
+    private final static Object UNSET = new Object();
+
+    private int size;
+
+    /**
+     * Reserves a slot for an invariant value. Slots are allocated at compile
+     * time, before the scope is shared.
+     *
+     * @return the slot index
+     */
+    public int allocate() {
+        return size++;
+    }
+
+    /**
+     * Gets the number of allocated slots.
+     *
+     * @return number of invariant values of the loop body
+     */
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public void render(RenderContext context, ElementState state,
+            ElementNode element, int index) throws ScriptException,
+            IOException {
+        Object[] values = new Object[size];
+        Arrays.fill(values, UNSET);
+        Object[] outer = context.setInvariants(this, values);
+        try {
+            element.renderNext(context, state, index + 1);
+        } finally {
+            context.setInvariants(this, outer);
+        }
+    }
+
+    /**
+     * Evaluates an invariant expression, once per execution of the loop.
+     *
+     * @param context current rendering context
+     * @param slot slot allocated to the expression
+     * @param expression javascript expression
+     * @param bindings javascript variable bindings
+     * @return the expression result
+     * @throws ScriptException javascript syntax error
+     */
+    public Object eval(RenderContext context, int slot, String expression,
+            Bindings bindings) throws ScriptException {
+        Object[] values = context.getInvariants(this);
+        if (values == null) {
+            return context.eval(expression, bindings);
+        }
+        if (values[slot] == UNSET) {
+            values[slot] = context.eval(expression, bindings);
+        }
+        return values[slot];
+    }
+
+    /**
+     * Renders invariant nodes, once per execution of the loop: the following
+     * iterations write the same output again.
+     *
+     * @param context current rendering context
+     * @param slot slot allocated to the nodes
+     * @param nodes nodes to be rendered
+     * @param bindings javascript variable bindings
+     * @throws ScriptException javascript syntax error
+     * @throws IOException error writing the output
+     */
+    public void render(RenderContext context, int slot, RenderNode[] nodes,
+            Bindings bindings) throws ScriptException, IOException {
+        Object[] values = context.getInvariants(this);
+        if (values == null) {
+            for (RenderNode node : nodes) {
+                node.render(context, bindings);
+            }
+            return;
+        }
+        if (values[slot] == UNSET) {
+            StringBuilder sb = new StringBuilder();
+            RenderContext capture = context.withOutput(sb);
+            for (RenderNode node : nodes) {
+                node.render(capture, bindings);
+            }
+            values[slot] = sb.toString();
+        }
+        context.getOutput().append((String) values[slot]);
+    }
+}
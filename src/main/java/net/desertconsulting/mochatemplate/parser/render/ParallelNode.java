@@ -0,0 +1,164 @@
+/*
+ * Copyright 2016 Patrizio Bruno <desertconsulting@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.desertconsulting.mochatemplate.parser.render;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import javax.script.Bindings;
+import javax.script.ScriptException;
+
+/**
+ * A sequence of sibling nodes containing regions, elements carrying a
+ * {@link RegionDirective}. When the rendering allows it, see
+ * {@link RenderContext#tryAcquireRegion()}, regions are rendered by
+ * {@link RenderTask}s, each into its own buffer and with its own scope of the
+ * bindings, while the other nodes are rendered by the calling thread; the
+ * output is written in document order. Regions exceeding the parallelism of
+ * the rendering are rendered by the calling thread.
+ *
+ * Regions share the script engine of the rendering, which is not
+ * thread-safe: see
+ * {@link net.desertconsulting.mochatemplate.parser.MochaTemplateEngine#setParallelism(int)}.
+ *
+ * @author Patrizio Bruno {@literal <desertconsulting@gmail.com>}
+ */
+public class ParallelNode implements RenderNode {
+
+    private final RenderNode[] nodes;
+    private final boolean[] regions;
+
+    /**
+     * Initialize a new instance of {@link ParallelNode}.
+     *
+     * @param nodes sibling nodes, regions and not
+     */
+    public ParallelNode(RenderNode[] nodes) {
+        this.nodes = nodes;
+        this.regions = new boolean[nodes.length];
+        for (int i = 0; i < nodes.length; i++) {
+            regions[i] = isRegion(nodes[i]);
+        }
+    }
+
+    /**
+     * Counts the regions among sibling nodes.
+     *
+     * @param nodes sibling nodes
+     * @return number of elements carrying a {@link RegionDirective}
+     */
+    public static int countRegions(RenderNode[] nodes) {
+        int rv = 0;
+        for (RenderNode node : nodes) {
+            if (isRegion(node)) {
+                rv++;
+            }
+        }
+        return rv;
+    }
+
+    private static boolean isRegion(RenderNode node) {
+        if (node instanceof ElementNode) {
+            for (Directive directive : ((ElementNode) node).getDirectives()) {
+                if (directive instanceof RegionDirective) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Gets the sibling nodes.
+     *
+     * @return {@code nodes} passed as parameter to the constructor
+     */
+    public RenderNode[] getNodes() {
+        return nodes.clone();
+    }
+
+    @Override
+    public void render(RenderContext context, Bindings bindings) throws
+            ScriptException, IOException {
+        // started regions and the output of the following nodes, in order
+        List<Object> pending = new ArrayList<>();
+        StringBuilder segment = null;
+        Exception error = null;
+        try {
+            for (int i = 0; i < nodes.length; i++) {
+                if (regions[i] && context.tryAcquireRegion()) {
+                    pending.add(new RegionTask(context, nodes[i], context.
+                            newScope(bindings)).start());
+                    segment = null;
+                } else if (pending.isEmpty()) {
+                    nodes[i].render(context, bindings);
+                } else {
+                    if (segment == null) {
+                        segment = new StringBuilder();
+                        pending.add(segment);
+                    }
+                    nodes[i].render(context.withOutput(segment), bindings);
+                }
+            }
+        } catch (ScriptException | IOException | RuntimeException ex) {
+            error = ex;
+        }
+
+        // regions evaluate scripts on the engine of the rendering, which must
+        // not be released before they're over
+        Appendable out = context.getOutput();
+        for (Object item : pending) {
+            CharSequence html = null;
+            if (item instanceof RenderTask) {
+                try {
+                    html = ((RenderTask) item).getOutput();
+                } catch (ScriptException | IOException | RuntimeException ex) {
+                    error = error != null ? error : ex;
+                }
+            } else {
+                html = (StringBuilder) item;
+            }
+            if (error == null) {
+                out.append(html);
+            }
+        }
+        RenderTask.rethrow(error);
+    }
+
+    /**
+     * Renders a region into its own buffer.
+     */
+    private static class RegionTask extends RenderTask {
+
+        private static final long serialVersionUID = 1L;
+
+        private final RenderNode node;
+        private final Bindings bindings;
+
+        public RegionTask(RenderContext context, RenderNode node,
+                Bindings bindings) {
+            super(context);
+            this.node = node;
+            this.bindings = bindings;
+        }
+
+        @Override
+        protected void render(RenderContext context) throws ScriptException,
+                IOException {
+            node.render(context, bindings);
+        }
+    }
+}
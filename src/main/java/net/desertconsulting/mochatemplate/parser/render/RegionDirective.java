@@ -0,0 +1,36 @@
+/*
+ * Copyright 2016 Patrizio Bruno <desertconsulting@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.desertconsulting.mochatemplate.parser.render;
+
+import java.io.IOException;
+import javax.script.ScriptException;
+
+/**
+ * Marks an element whose rendering doesn't depend on its siblings, nor
+ * changes anything they read: sibling regions are rendered concurrently by
+ * {@link ParallelNode}. The directive itself adds nothing to the output.
+ *
+ * @author Patrizio Bruno {@literal <desertconsulting@gmail.com>}
+ */
+public class RegionDirective implements Directive {
+
+    @Override
+    public void render(RenderContext context, ElementState state,
+            ElementNode element, int index) throws ScriptException,
+            IOException {
+        element.renderNext(context, state, index + 1);
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2016 Patrizio Bruno <desertconsulting@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.desertconsulting.mochatemplate.parser.render;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits the time and the number of operations a rendering can take, so that
+ * a runaway template doesn't hold a thread indefinitely. Operations are
+ * directives and javascript evaluations: they're counted, and the deadline
+ * is checked, before each of them, aborting the rendering with a
+ * {@link RenderBudgetExceededException}. A script already running is not
+ * interrupted.
+ *
+ * A budget is shared by every rendering it limits and keeps the number of
+ * renderings aborted.
+ *
+ * @author Patrizio Bruno {@literal <desertconsulting@gmail.com>}
+ */
+public class RenderBudget {
+
+    private final long timeout;
+    private final long maxOperations;
+    private final AtomicLong started = new AtomicLong();
+    private final AtomicLong exceeded = new AtomicLong();
+
+    /**
+     * Initialize a new instance of {@link RenderBudget}.
+     *
+     * @param timeout milliseconds a rendering can last, 0 or less for no
+     * limit
+     * @param maxOperations number of operations a rendering can evaluate, 0
+     * or less for no limit
+     */
+    public RenderBudget(long timeout, long maxOperations) {
+        this.timeout = timeout;
+        this.maxOperations = maxOperations;
+    }
+
+    /**
+     * Gets the milliseconds a rendering can last.
+     *
+     * @return milliseconds, 0 or less if there is no limit
+     */
+    public long getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * Gets the number of operations a rendering can evaluate.
+     *
+     * @return number of operations, 0 or less if there is no limit
+     */
+    public long getMaxOperations() {
+        return maxOperations;
+    }
+
+    /**
+     * Gets the number of renderings started.
+     *
+     * @return number of calls to {@link #start()}
+     */
+    public long getStarted() {
+        return started.get();
+    }
+
+    /**
+     * Gets the number of renderings aborted for exceeding the budget.
+     *
+     * @return number of renderings aborted
+     */
+    public long getExceeded() {
+        return exceeded.get();
+    }
+
+    /**
+     * Starts measuring a rendering.
+     *
+     * @return the meter of the rendering, shared by every thread rendering it
+     */
+    public Meter start() {
+        started.incrementAndGet();
+        return new Meter();
+    }
+
+    /**
+     * Time and operations spent by a single rendering.
+     */
+    public class Meter {
+
+        private final long start = System.nanoTime();
+        private final AtomicLong operations = new AtomicLong();
+        private final AtomicBoolean aborted = new AtomicBoolean();
+
+        /**
+         * Counts an operation, checking the budget is not exceeded.
+         *
+         * @throws RenderBudgetExceededException the rendering must be aborted
+         */
+        public void check() throws RenderBudgetExceededException {
+            long count = operations.incrementAndGet();
+            if (maxOperations > 0 && count > maxOperations) {
+                abort(String.format(
+                        "render budget exceeded: more than %d operations",
+                        maxOperations));
+            }
+            if (timeout > 0 && getElapsed() > timeout) {
+                abort(String.format(
+                        "render budget exceeded: more than %d ms", timeout));
+            }
+        }
+
+        /**
+         * Gets the number of operations counted so far.
+         *
+         * @return number of calls to {@link #check()}
+         */
+        public long getOperations() {
+            return operations.get();
+        }
+
+        /**
+         * Gets the time elapsed since the rendering started.
+         *
+         * @return milliseconds
+         */
+        public long getElapsed() {
+            return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        }
+
+        private void abort(String message) throws
+                RenderBudgetExceededException {
+            if (aborted.compareAndSet(false, true)) {
+                exceeded.incrementAndGet();
+            }
+            throw new RenderBudgetExceededException(message, getOperations(),
+                    getElapsed());
+        }
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2016 Patrizio Bruno <desertconsulting@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.desertconsulting.mochatemplate.parser.render;
+
+import javax.script.ScriptException;
+
+/**
+ * Thrown when a rendering exceeds its {@link RenderBudget}.
+ *
+ * @author Patrizio Bruno {@literal <desertconsulting@gmail.com>}
+ */
+public class RenderBudgetExceededException extends ScriptException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long operations;
+    private final long elapsed;
+
+    RenderBudgetExceededException(String message, long operations,
+            long elapsed) {
+        super(message);
+        this.operations = operations;
+        this.elapsed = elapsed;
+    }
+
+    /**
+     * Gets the number of operations evaluated before the rendering got
+     * aborted.
+     *
+     * @return number of operations
+     */
+    public long getOperations() {
+        return operations;
+    }
+
+    /**
+     * Gets the time the rendering lasted before getting aborted.
+     *
+     * @return milliseconds
+     */
+    public long getElapsed() {
+        return elapsed;
+    }
+}
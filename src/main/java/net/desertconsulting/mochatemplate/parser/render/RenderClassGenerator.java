@@ -0,0 +1,494 @@
+/*
+ * Copyright 2016 Patrizio Bruno <desertconsulting@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.desertconsulting.mochatemplate.parser.render;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.OutputStream;
+import java.lang.reflect.Constructor;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.security.CodeSource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+/**
+ * Turns a sequence of {@link RenderNode}s into a generated Java class, so
+ * that the JIT compiler can optimize the rendering of a template as a whole
+ * instead of the generic node-walking loop. Static markup is written by its
+ * {@link StaticNode}, which holds it already encoded, ${} blocks become
+ * calls to {@link RenderContext#eval(String, javax.script.Bindings)} and
+ * {@link ElementNode}s keep their {@link Directive}s, with head and children
+ * generated as well. Any other node, including text and attributes holding
+ * loop invariants, is called as it is.
+ *
+ * Every generated class is loaded by its own class loader, so that it can be
+ * unloaded along with the template. Generation needs a Java compiler at
+ * runtime ({@link ToolProvider#getSystemJavaCompiler()}): running on a JRE it
+ * fails with an {@link IllegalStateException}.
+ *
+ * @author Patrizio Bruno {@literal <desertconsulting@gmail.com>}
+ */
+public class RenderClassGenerator {
+
+    /**
+     * Package of the generated classes
+     */
+    public final static String PACKAGE
+            = "net.desertconsulting.mochatemplate.parser.render.generated";
+
+    /**
+     * Maximum number of statements per generated method, to stay far from the
+     * JVM's 64KB method size limit
+     */
+    private final static int STATEMENTS_PER_METHOD = 200;
+    /**
+     * Maximum length of a string literal, its UTF-8 encoding must fit in a
+     * class file constant
+     */
+    private final static int MAX_LITERAL_LENGTH = 16384;
+
+    private final static AtomicInteger CLASS_COUNTER = new AtomicInteger();
+
+    /**
+     * Generates a class rendering {@code nodes}.
+     *
+     * @param nodes nodes to be rendered
+     * @return a node rendering the same output of {@code nodes}
+     * @throws IllegalStateException no Java compiler is available or the
+     * generated source doesn't compile
+     * @throws ReflectiveOperationException error instantiating the generated
+     * class
+     */
+    public RenderNode generate(RenderNode[] nodes) throws
+            ReflectiveOperationException {
+        String className = "Template" + CLASS_COUNTER.incrementAndGet();
+        Generation generation = new Generation();
+        int root = generation.sequence(nodes);
+
+        byte[] bytecode = compile(className, generation.source(className));
+        Class<?> cl = new GeneratedClassLoader(RenderNode.class.
+                getClassLoader(), PACKAGE + "." + className, bytecode).
+                loadClass(PACKAGE + "." + className);
+        Constructor<?> ctor = cl.getConstructor(int.class, RenderNode[].class);
+
+        RenderNode[] delegates = new RenderNode[generation.delegates.size()];
+        RenderNode[] sequences = new RenderNode[generation.sequences.size()];
+        for (int i = 0; i < sequences.length; i++) {
+            sequences[i] = (RenderNode) ctor.newInstance(i, delegates);
+        }
+        for (int i = 0; i < delegates.length; i++) {
+            delegates[i] = generation.delegates.get(i).create(sequences);
+        }
+        return sequences[root];
+    }
+
+    private byte[] compile(String className, String source) {
+        JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+        if (javac == null) {
+            throw new IllegalStateException("no Java compiler available");
+        }
+
+        DiagnosticCollector<JavaFileObject> diagnostics
+                = new DiagnosticCollector<>();
+        StandardJavaFileManager standard = javac.getStandardFileManager(
+                diagnostics, null, StandardCharsets.UTF_8);
+        MemoryFileManager fileManager = new MemoryFileManager(standard);
+        JavaFileObject file = new SourceFile(PACKAGE.replace('.', '/') + "/"
+                + className, source);
+        List<String> options = Arrays.asList("-classpath", classpath(),
+                "-proc:none", "-g:none");
+
+        Boolean success = javac.getTask(null, fileManager, diagnostics,
+                options, null, Arrays.asList(file)).call();
+        if (!Boolean.TRUE.equals(success) || fileManager.bytecode == null) {
+            StringBuilder sb = new StringBuilder(
+                    "template class generation failed:");
+            for (Diagnostic<? extends JavaFileObject> d : diagnostics.
+                    getDiagnostics()) {
+                sb.append('\n').append(d.getMessage(null));
+            }
+            throw new IllegalStateException(sb.toString());
+        }
+        return fileManager.bytecode.toByteArray();
+    }
+
+    /**
+     * The generated code only refers to classes of this package: the
+     * classpath is where this class has been loaded from, which is not
+     * necessarily part of "java.class.path" in a servlet container.
+     */
+    private String classpath() {
+        CodeSource source = RenderNode.class.getProtectionDomain().
+                getCodeSource();
+        if (source != null && source.getLocation() != null) {
+            try {
+                return new File(source.getLocation().toURI()).getPath();
+            } catch (URISyntaxException | IllegalArgumentException ex) {
+                // let's try with the system class path
+            }
+        }
+        return System.getProperty("java.class.path");
+    }
+
+    /**
+     * Writes {@code value} as a Java string literal.
+     */
+    private static void literal(StringBuilder sb, String value) {
+        sb.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20 || c > 0x7e) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        sb.append('"');
+    }
+
+    /**
+     * Source code of a generated class: every sequence of nodes becomes a set
+     * of methods, selected by the sequence index passed to the constructor.
+     */
+    private static class Generation {
+
+        private final List<List<String>> sequences = new ArrayList<>();
+        private final List<String> constants = new ArrayList<>();
+        private final Map<String, String> constantNames = new HashMap<>();
+        private final List<Delegate> delegates = new ArrayList<>();
+
+        public int sequence(RenderNode[] nodes) {
+            int rv = sequences.size();
+            List<String> statements = new ArrayList<>();
+            sequences.add(statements);
+
+            for (RenderNode node : nodes) {
+                if (node instanceof InterpolatedTextNode
+                        && !((InterpolatedTextNode) node).getText().
+                        isHoisted()) {
+                    statements.add("InterpolatedTextNode.write(context, "
+                            + interpolation(((InterpolatedTextNode) node).
+                                    getText()) + ");");
+                } else if (node instanceof AttributeNode
+                        && !((AttributeNode) node).getValue().isHoisted()) {
+                    AttributeNode attr = (AttributeNode) node;
+                    statements.add("AttributeNode.write(context, " + constant(
+                            attr.getKey()) + ", " + interpolation(attr.
+                            getValue()) + ");");
+                } else if (node instanceof ElementNode) {
+                    ElementNode element = (ElementNode) node;
+                    int head = sequence(element.getHead());
+                    int children = sequence(element.getChildren());
+                    statements.add(delegate(new Delegate(element, head,
+                            children)));
+                } else {
+                    statements.add(delegate(new Delegate(node)));
+                }
+            }
+            return rv;
+        }
+
+        private String delegate(Delegate delegate) {
+            delegates.add(delegate);
+            return "nodes[" + (delegates.size() - 1)
+                    + "].render(context, bindings);";
+        }
+
+        private String interpolation(Interpolation value) {
+            String[] literals = value.getLiterals();
+            String[] expressions = value.getExpressions();
+            StringBuilder sb = new StringBuilder("new StringBuilder()");
+            for (int i = 0; i < expressions.length; i++) {
+                if (!literals[i].isEmpty()) {
+                    sb.append(".append(").append(constant(literals[i])).append(
+                            ')');
+                }
+                sb.append(".append(Interpolation.toString(context.eval(").
+                        append(constant(expressions[i])).append(
+                        ", bindings)))");
+            }
+            if (!literals[expressions.length].isEmpty()) {
+                sb.append(".append(").append(constant(
+                        literals[expressions.length])).append(')');
+            }
+            return sb.append(".toString()").toString();
+        }
+
+        private String constant(String value) {
+            String rv = constantNames.get(value);
+            if (rv == null) {
+                rv = "C" + constants.size();
+                constants.add(value);
+                constantNames.put(value, rv);
+            }
+            return rv;
+        }
+
+        /**
+         * Gets the number of methods the statements of a sequence are split
+         * into.
+         */
+        private int methods(int sequence) {
+            return (sequences.get(sequence).size() + STATEMENTS_PER_METHOD - 1)
+                    / STATEMENTS_PER_METHOD;
+        }
+
+        public String source(String className) {
+            StringBuilder sb = new StringBuilder();
+            sb.append("package ").append(PACKAGE).append(";\n\n");
+            sb.append("import java.io.IOException;\n");
+            sb.append("import javax.script.Bindings;\n");
+            sb.append("import javax.script.ScriptException;\n");
+            sb.append("import net.desertconsulting.mochatemplate.parser.render.*;\n\n");
+            sb.append("public final class ").append(className).append(
+                    " implements RenderNode {\n\n");
+
+            for (int i = 0; i < constants.size(); i++) {
+                String value = constants.get(i);
+                sb.append("    private static final String C").append(i).
+                        append(" = ");
+                if (value.length() <= MAX_LITERAL_LENGTH) {
+                    literal(sb, value);
+                } else {
+                    sb.append("new StringBuilder(").append(value.length()).
+                            append(')');
+                    for (int j = 0; j < value.length(); j
+                            += MAX_LITERAL_LENGTH) {
+                        sb.append("\n            .append(");
+                        literal(sb, value.substring(j, Math.min(value.length(),
+                                j + MAX_LITERAL_LENGTH)));
+                        sb.append(')');
+                    }
+                    sb.append(".toString()");
+                }
+                sb.append(";\n");
+            }
+
+            sb.append("\n    private final int sequence;\n");
+            sb.append("    private final RenderNode[] nodes;\n\n");
+            sb.append("    public ").append(className).append(
+                    "(int sequence, RenderNode[] nodes) {\n");
+            sb.append("        this.sequence = sequence;\n");
+            sb.append("        this.nodes = nodes;\n");
+            sb.append("    }\n\n");
+
+            sb.append("    @Override\n");
+            sb.append("    public void render(RenderContext context, Bindings bindings)\n");
+            sb.append("            throws ScriptException, IOException {\n");
+            // sequences are dispatched in groups, a method per group, so
+            // that no method grows with the number of sequences
+            int groups = (sequences.size() + STATEMENTS_PER_METHOD - 1)
+                    / STATEMENTS_PER_METHOD;
+            sb.append("        switch (sequence / ").append(
+                    STATEMENTS_PER_METHOD).append(") {\n");
+            for (int k = 0; k < groups; k++) {
+                sb.append("            case ").append(k).append(":\n");
+                sb.append("                d").append(k).append(
+                        "(context, bindings);\n");
+                sb.append("                break;\n");
+            }
+            sb.append("        }\n");
+            sb.append("    }\n");
+
+            for (int k = 0; k < groups; k++) {
+                sb.append("\n    private void d").append(k).append(
+                        "(RenderContext context, Bindings bindings)\n");
+                sb.append("            throws ScriptException, IOException {\n");
+                sb.append("        switch (sequence) {\n");
+                for (int i = k * STATEMENTS_PER_METHOD; i < Math.min(
+                        sequences.size(), (k + 1) * STATEMENTS_PER_METHOD);
+                        i++) {
+                    sb.append("            case ").append(i).append(":\n");
+                    int methods = methods(i);
+                    if (methods > 0) {
+                        sb.append("                s").append(i).append(
+                                methods > 1 ? "" : "_0").append(
+                                "(context, bindings);\n");
+                    }
+                    sb.append("                break;\n");
+                }
+                sb.append("        }\n");
+                sb.append("    }\n");
+            }
+
+            for (int i = 0; i < sequences.size(); i++) {
+                int methods = methods(i);
+                if (methods > 1) {
+                    sb.append("\n    private void s").append(i).append(
+                            "(RenderContext context, Bindings bindings)\n");
+                    sb.append("            throws ScriptException, IOException {\n");
+                    for (int j = 0; j < methods; j++) {
+                        sb.append("        s").append(i).append('_').append(j).
+                                append("(context, bindings);\n");
+                    }
+                    sb.append("    }\n");
+                }
+            }
+
+            for (int i = 0; i < sequences.size(); i++) {
+                List<String> statements = sequences.get(i);
+                for (int j = 0; j * STATEMENTS_PER_METHOD < statements.size();
+                        j++) {
+                    sb.append("\n    private void s").append(i).append('_').
+                            append(j).append(
+                            "(RenderContext context, Bindings bindings)\n");
+                    sb.append("            throws ScriptException, IOException {\n");
+                    for (String statement : statements.subList(j
+                            * STATEMENTS_PER_METHOD, Math.min(statements.size(),
+                                    (j + 1) * STATEMENTS_PER_METHOD))) {
+                        sb.append("        ").append(statement).append('\n');
+                    }
+                    sb.append("    }\n");
+                }
+            }
+            sb.append("}\n");
+            return sb.toString();
+        }
+    }
+
+    /**
+     * A node called by the generated class. {@link ElementNode}s are rebuilt
+     * with generated head and children.
+     */
+    private static class Delegate {
+
+        private final RenderNode node;
+        private final int head;
+        private final int children;
+
+        public Delegate(RenderNode node) {
+            this(node, -1, -1);
+        }
+
+        public Delegate(RenderNode node, int head, int children) {
+            this.node = node;
+            this.head = head;
+            this.children = children;
+        }
+
+        public RenderNode create(RenderNode[] sequences) {
+            if (node instanceof ElementNode) {
+                ElementNode element = (ElementNode) node;
+                return new ElementNode(element.getDirectives(),
+                        new RenderNode[]{sequences[head]},
+                        new RenderNode[]{sequences[children]}, element.
+                        getTail());
+            }
+            return node;
+        }
+    }
+
+    private static class SourceFile extends SimpleJavaFileObject {
+
+        private final String source;
+
+        public SourceFile(String path, String source) {
+            super(URI.create("string:///" + path + Kind.SOURCE.extension),
+                    Kind.SOURCE);
+            this.source = source;
+        }
+
+        @Override
+        public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+            return source;
+        }
+    }
+
+    /**
+     * Keeps the compiled class in memory.
+     */
+    private static class MemoryFileManager extends
+            ForwardingJavaFileManager<JavaFileManager> {
+
+        private ByteArrayOutputStream bytecode;
+
+        public MemoryFileManager(JavaFileManager fileManager) {
+            super(fileManager);
+        }
+
+        @Override
+        public JavaFileObject getJavaFileForOutput(Location location,
+                String className, JavaFileObject.Kind kind, FileObject sibling) {
+            return new SimpleJavaFileObject(URI.create("mem:///" + className.
+                    replace('.', '/') + kind.extension), kind) {
+                @Override
+                public OutputStream openOutputStream() {
+                    bytecode = new ByteArrayOutputStream();
+                    return bytecode;
+                }
+            };
+        }
+    }
+
+    /**
+     * Loads a single generated class.
+     */
+    private static class GeneratedClassLoader extends ClassLoader {
+
+        private final String className;
+        private final byte[] bytecode;
+
+        public GeneratedClassLoader(ClassLoader parent, String className,
+                byte[] bytecode) {
+            super(parent);
+            this.className = className;
+            this.bytecode = bytecode;
+        }
+
+        @Override
+        protected Class<?> findClass(String name) throws
+                ClassNotFoundException {
+            if (className.equals(name)) {
+                return defineClass(name, bytecode, 0, bytecode.length);
+            }
+            return super.findClass(name);
+        }
+    }
+}
@@ -0,0 +1,385 @@
+/*
+ * Copyright 2016 Patrizio Bruno <desertconsulting@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.desertconsulting.mochatemplate.parser.render;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import javax.script.Bindings;
+import javax.script.ScriptEngine;
+import javax.script.ScriptException;
+import javax.servlet.ServletContext;
+import net.desertconsulting.mochatemplate.parser.CompiledTemplate;
+import net.desertconsulting.mochatemplate.parser.Parser;
+import net.desertconsulting.mochatemplate.parser.ScriptEnginePool;
+import net.desertconsulting.mochatemplate.parser.cache.ExpressionCache;
+import org.jsoup.nodes.Document;
+
+/**
+ * Everything a single rendering of a {@link CompiledTemplate} needs: the
+ * javascript engine, the output and the settings the template has been
+ * compiled with. A context is not shared among concurrent renderings.
+ *
+ * @author Patrizio Bruno {@literal <desertconsulting@gmail.com>}
+ */
+public class RenderContext {
+
+    private final ExpressionCache expressions;
+    private final CompiledTemplate template;
+    private final Appendable output;
+    private final Parser parser;
+    private final ServletContext servletContext;
+    /**
+     * Values of the loop invariants, for the loops being rendered
+     */
+    private final Map<InvariantScope, Object[]> invariants;
+    /**
+     * Permits for regions rendered concurrently, null when the rendering is
+     * sequential
+     */
+    private final Semaphore regions;
+    private final int parallelism;
+    /**
+     * Time and operations spent by the rendering, null if it's not limited
+     */
+    private final RenderBudget.Meter meter;
+    /**
+     * Engines for the parts of the rendering evaluated by other threads,
+     * null if there are none
+     */
+    private final ScriptEnginePool enginePool;
+
+    /**
+     * Initialize a new instance of {@link RenderContext}, rendering
+     * sequentially.
+     *
+     * @param expressions compiled javascript expressions of the engine
+     * evaluating the template
+     * @param template template being rendered
+     * @param output output stream
+     * @param parser DOM parser, used by directives that cannot be compiled
+     * @param servletContext used to access external template partials
+     */
+    public RenderContext(ExpressionCache expressions, CompiledTemplate template,
+            Appendable output, Parser parser, ServletContext servletContext) {
+        this(expressions, template, output, parser, servletContext, 1);
+    }
+
+    /**
+     * Initialize a new instance of {@link RenderContext}.
+     *
+     * @param expressions compiled javascript expressions of the engine
+     * evaluating the template
+     * @param template template being rendered
+     * @param output output stream
+     * @param parser DOM parser, used by directives that cannot be compiled
+     * @param servletContext used to access external template partials
+     * @param parallelism maximum number of threads rendering the template at
+     * once, the calling one included; 1 renders regions sequentially
+     */
+    public RenderContext(ExpressionCache expressions, CompiledTemplate template,
+            Appendable output, Parser parser, ServletContext servletContext,
+            int parallelism) {
+        this.expressions = expressions;
+        this.template = template;
+        this.output = output;
+        this.parser = parser;
+        this.servletContext = servletContext;
+        this.invariants = new IdentityHashMap<>();
+        this.parallelism = Math.max(1, parallelism);
+        this.regions = parallelism > 1 ? new Semaphore(parallelism - 1) : null;
+        this.meter = null;
+        this.enginePool = null;
+    }
+
+    private RenderContext(RenderContext context, Appendable output,
+            Map<InvariantScope, Object[]> invariants) {
+        this(context, context.expressions, output, invariants, context.meter,
+                context.enginePool);
+    }
+
+    private RenderContext(RenderContext context, ExpressionCache expressions,
+            Appendable output, Map<InvariantScope, Object[]> invariants,
+            RenderBudget.Meter meter, ScriptEnginePool enginePool) {
+        this.expressions = expressions;
+        this.template = context.template;
+        this.output = output;
+        this.parser = context.parser;
+        this.servletContext = context.servletContext;
+        this.invariants = invariants;
+        this.regions = context.regions;
+        this.parallelism = context.parallelism;
+        this.meter = meter;
+        this.enginePool = enginePool;
+    }
+
+    /**
+     * Creates a context writing to a different output, sharing everything
+     * else with this one.
+     *
+     * @param output output stream
+     * @return a new context
+     */
+    public RenderContext withOutput(Appendable output) {
+        return new RenderContext(this, output, invariants);
+    }
+
+    /**
+     * Creates a context limited by a {@link RenderBudget}, sharing everything
+     * else with this one.
+     *
+     * @param meter time and operations spent by the rendering, null for no
+     * limit
+     * @return a new context
+     */
+    public RenderContext withBudget(RenderBudget.Meter meter) {
+        return new RenderContext(this, expressions, output, invariants, meter,
+                enginePool);
+    }
+
+    /**
+     * Creates a context whose concurrent parts can borrow their own
+     * javascript engines, sharing everything else with this one.
+     *
+     * @param enginePool pool of idle engines, null if parts of the rendering
+     * must not be evaluated by other engines
+     * @return a new context
+     */
+    public RenderContext withEnginePool(ScriptEnginePool enginePool) {
+        return new RenderContext(this, expressions, output, invariants, meter,
+                enginePool);
+    }
+
+    /**
+     * Gets the pool of the engines available to the concurrent parts of the
+     * rendering.
+     *
+     * @return the pool or null if there is none
+     */
+    public ScriptEnginePool getEnginePool() {
+        return enginePool;
+    }
+
+    /**
+     * Counts an operation of the rendering, a directive or an expression,
+     * against its budget.
+     *
+     * @throws RenderBudgetExceededException the rendering must be aborted
+     */
+    public void check() throws RenderBudgetExceededException {
+        if (meter != null) {
+            meter.check();
+        }
+    }
+
+    /**
+     * Creates a context for a part of the rendering run by another thread:
+     * the loop invariants computed so far are copied, so that the two
+     * renderings don't share any state. Must be called by the thread owning
+     * this context.
+     *
+     * @param output buffer of the region
+     * @return a new context
+     */
+    public RenderContext forRegion(Appendable output) {
+        return forRegion(output, expressions);
+    }
+
+    /**
+     * Creates a context for a part of the rendering run by another thread and
+     * evaluated by another javascript engine, see
+     * {@link #forRegion(Appendable)}.
+     *
+     * @param output buffer of the region
+     * @param expressions compiled javascript expressions of the engine
+     * evaluating the region
+     * @return a new context
+     */
+    public RenderContext forRegion(Appendable output,
+            ExpressionCache expressions) {
+        Map<InvariantScope, Object[]> copy = new IdentityHashMap<>();
+        for (Map.Entry<InvariantScope, Object[]> entry : invariants.
+                entrySet()) {
+            copy.put(entry.getKey(), entry.getValue().clone());
+        }
+        return new RenderContext(this, expressions, output, copy, meter,
+                enginePool);
+    }
+
+    /**
+     * Reserves a thread for rendering a region concurrently. The permit must
+     * be given back with {@link #releaseRegion()} once the region has been
+     * rendered.
+     *
+     * @return false if the rendering is sequential or already uses as many
+     * threads as allowed
+     */
+    public boolean tryAcquireRegion() {
+        return regions != null && regions.tryAcquire();
+    }
+
+    /**
+     * Gives back a permit obtained by {@link #tryAcquireRegion()}.
+     */
+    public void releaseRegion() {
+        regions.release();
+    }
+
+    /**
+     * Gets the maximum number of threads rendering the template at once.
+     *
+     * @return number of threads, 1 if the rendering is sequential
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Gets the values of the invariants of a loop being rendered.
+     *
+     * @param scope invariant scope of the loop
+     * @return the values or null if the loop is not being rendered
+     */
+    public Object[] getInvariants(InvariantScope scope) {
+        return invariants.get(scope);
+    }
+
+    /**
+     * Sets the values of the invariants of a loop.
+     *
+     * @param scope invariant scope of the loop
+     * @param values invariant values, null when the loop rendering ends
+     * @return the previous values, belonging to an outer rendering of the same
+     * loop
+     */
+    public Object[] setInvariants(InvariantScope scope, Object[] values) {
+        return values == null ? invariants.remove(scope) : invariants.put(
+                scope, values);
+    }
+
+    /**
+     * Evaluates a javascript expression. Expressions get compiled once and
+     * cached by the {@link ExpressionCache}.
+     *
+     * @param expression javascript expression
+     * @param bindings javascript variable bindings, when null the engine's
+     * default context is used
+     * @return the expression result
+     * @throws ScriptException javascript syntax error or
+     * {@link RenderBudgetExceededException}
+     */
+    public Object eval(String expression, Bindings bindings) throws
+            ScriptException {
+        check();
+        return expressions.eval(expression, bindings);
+    }
+
+    /**
+     * Creates a scope for a node, so that variables set by the node won't be
+     * visible to its siblings. Variables of {@code bindings} are not copied,
+     * see {@link ScopeBindings}, and expressions evaluated in the scope share
+     * the javascript global object of the root bindings.
+     *
+     * @param bindings javascript variable bindings of the enclosing scope
+     * @return a new {@link Bindings} instance or null if {@code bindings} is
+     * null
+     */
+    public Bindings newScope(Bindings bindings) {
+        return bindings != null ? new ScopeBindings(bindings) : null;
+    }
+
+    /**
+     * Creates a copy of {@code bindings} owning its own javascript global
+     * object: variables declared by scripts evaluated in the copy don't leak
+     * into the engine. It's much more expensive than
+     * {@link #newScope(Bindings)}.
+     *
+     * @param bindings javascript variable bindings to be copied
+     * @return a new {@link Bindings} instance or null if {@code bindings} is
+     * null
+     */
+    public Bindings copyBindings(Bindings bindings) {
+        Bindings rv = null;
+        if (bindings != null) {
+            rv = expressions.getEngine().createBindings();
+            rv.putAll(bindings);
+        }
+        return rv;
+    }
+
+    /**
+     * Gets the Javascript engine.
+     *
+     * @return the engine the expressions get compiled by
+     */
+    public ScriptEngine getEngine() {
+        return expressions.getEngine();
+    }
+
+    /**
+     * Gets the compiled javascript expressions.
+     *
+     * @return {@code expressions} passed as parameter to the constructor
+     */
+    public ExpressionCache getExpressions() {
+        return expressions;
+    }
+
+    /**
+     * Gets the template being rendered.
+     *
+     * @return {@code template} passed as parameter to the constructor
+     */
+    public CompiledTemplate getTemplate() {
+        return template;
+    }
+
+    /**
+     * Gets the output stream.
+     *
+     * @return {@code output} passed as parameter to the constructor
+     */
+    public Appendable getOutput() {
+        return output;
+    }
+
+    /**
+     * Gets the DOM parser.
+     *
+     * @return {@code parser} passed as parameter to the constructor
+     */
+    public Parser getParser() {
+        return parser;
+    }
+
+    /**
+     * Gets the {@link ServletContext}.
+     *
+     * @return {@code servletContext} passed as parameter to the constructor
+     */
+    public ServletContext getServletContext() {
+        return servletContext;
+    }
+
+    /**
+     * Gets the HTML generation settings the template has been compiled with.
+     *
+     * @return HTML generation settings
+     */
+    public Document.OutputSettings getOutputSettings() {
+        return template.getCompiler().getOutputSettings();
+    }
+}
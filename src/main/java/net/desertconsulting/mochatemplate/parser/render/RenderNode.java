@@ -0,0 +1,40 @@
+/*
+ * Copyright 2016 Patrizio Bruno <desertconsulting@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.desertconsulting.mochatemplate.parser.render;
+
+import java.io.IOException;
+import javax.script.Bindings;
+import javax.script.ScriptException;
+
+/**
+ * This interface defines a node of a compiled template. Render nodes are
+ * immutable and can be rendered any number of times.
+ *
+ * @author Patrizio Bruno {@literal <desertconsulting@gmail.com>}
+ */
+public interface RenderNode {
+
+    /**
+     * Writes the node on the output of {@code context}.
+     *
+     * @param context current rendering context
+     * @param bindings javascript variable bindings for the node
+     * @throws ScriptException javascript syntax error
+     * @throws IOException error writing the output
+     */
+    void render(RenderContext context, Bindings bindings) throws
+            ScriptException, IOException;
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright 2016 Patrizio Bruno <desertconsulting@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.desertconsulting.mochatemplate.parser.render;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+/**
+ * Streams the rendered template to an {@link Appendable}, flushing it every
+ * time at least {@code flushThreshold} characters have been written since the
+ * last flush. Flushing a servlet response writer sends the rendered part of
+ * the page to the client while the rest is still being rendered.
+ *
+ * When backed by an {@link OutputStream}, markup encoded at compile time is
+ * written as it is through {@link #write(byte[], Charset, CharSequence)}, only
+ * the evaluated parts of the template get encoded while rendering.
+ *
+ * @author Patrizio Bruno {@literal <desertconsulting@gmail.com>}
+ */
+public class RenderOutput implements Appendable, Flushable {
+
+    /**
+     * Number of characters buffered before being encoded to the output stream
+     */
+    private final static int BUFFER_SIZE = 8192;
+
+    private final Appendable output;
+    private final OutputStream stream;
+    private final Charset charset;
+    private final StringBuilder chars;
+    private final int flushThreshold;
+    private int pending;
+
+    /**
+     * Initialize a new instance of {@link RenderOutput}.
+     *
+     * @param output output stream, it gets flushed only if it implements
+     * {@link Flushable}
+     * @param flushThreshold number of characters written before the output
+     * gets flushed, 0 or less to never flush
+     */
+    public RenderOutput(Appendable output, int flushThreshold) {
+        this.output = output;
+        this.stream = null;
+        this.charset = null;
+        this.chars = null;
+        this.flushThreshold = flushThreshold;
+    }
+
+    /**
+     * Initialize a new instance of {@link RenderOutput} writing bytes. The
+     * characters appended get encoded with {@code charset}, {@link #flush()}
+     * must be called once the rendering is complete.
+     *
+     * @param stream output stream
+     * @param charset output charset
+     * @param flushThreshold number of characters written before the output
+     * gets flushed, 0 or less to flush only when {@link #flush()} is called
+     */
+    public RenderOutput(OutputStream stream, Charset charset,
+            int flushThreshold) {
+        this.output = null;
+        this.stream = stream;
+        this.charset = charset;
+        this.chars = new StringBuilder();
+        this.flushThreshold = flushThreshold;
+    }
+
+    /**
+     * Gets the wrapped output stream.
+     *
+     * @return {@code output} passed as parameter to the constructor, null if
+     * writing to an {@link OutputStream}
+     */
+    public Appendable getOutput() {
+        return output;
+    }
+
+    /**
+     * Gets the wrapped byte stream.
+     *
+     * @return {@code stream} passed as parameter to the constructor, null if
+     * writing to an {@link Appendable}
+     */
+    public OutputStream getStream() {
+        return stream;
+    }
+
+    /**
+     * Gets the charset of the byte stream.
+     *
+     * @return {@code charset} passed as parameter to the constructor, null if
+     * writing to an {@link Appendable}
+     */
+    public Charset getCharset() {
+        return charset;
+    }
+
+    /**
+     * Gets the number of characters written before the output gets flushed.
+     *
+     * @return {@code flushThreshold} passed as parameter to the constructor
+     */
+    public int getFlushThreshold() {
+        return flushThreshold;
+    }
+
+    @Override
+    public Appendable append(CharSequence csq) throws IOException {
+        if (stream != null) {
+            chars.append(csq);
+            if (chars.length() >= BUFFER_SIZE) {
+                encode(false);
+            }
+        } else {
+            output.append(csq);
+        }
+        written(csq == null ? 4 : csq.length());
+        return this;
+    }
+
+    @Override
+    public Appendable append(CharSequence csq, int start, int end) throws
+            IOException {
+        if (stream != null) {
+            chars.append(csq, start, end);
+            if (chars.length() >= BUFFER_SIZE) {
+                encode(false);
+            }
+        } else {
+            output.append(csq, start, end);
+        }
+        written(end - start);
+        return this;
+    }
+
+    @Override
+    public Appendable append(char c) throws IOException {
+        if (stream != null) {
+            chars.append(c);
+            if (chars.length() >= BUFFER_SIZE) {
+                encode(false);
+            }
+        } else {
+            output.append(c);
+        }
+        written(1);
+        return this;
+    }
+
+    /**
+     * Writes already encoded text. The bytes are written as they are if the
+     * output is an {@link OutputStream} with the same charset, otherwise
+     * {@code text} gets appended.
+     *
+     * @param bytes {@code text} encoded with {@code charset}
+     * @param charset charset {@code bytes} have been encoded with
+     * @param text the text to be written
+     * @throws IOException error writing the output
+     */
+    public void write(byte[] bytes, Charset charset, CharSequence text) throws
+            IOException {
+        if (stream != null && this.charset.equals(charset)) {
+            encode(true);
+            stream.write(bytes);
+            written(text.length());
+        } else {
+            append(text);
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        pending = 0;
+        if (stream != null) {
+            encode(true);
+            stream.flush();
+        } else if (output instanceof Flushable) {
+            ((Flushable) output).flush();
+        }
+    }
+
+    /**
+     * Writes the buffered characters to the byte stream. Unless {@code all} is
+     * true, a trailing high surrogate is kept, to be encoded along with the
+     * rest of its pair.
+     */
+    private void encode(boolean all) throws IOException {
+        int end = chars.length();
+        if (!all && end > 0 && Character.isHighSurrogate(chars.charAt(end
+                - 1))) {
+            end--;
+        }
+        if (end > 0) {
+            stream.write(chars.substring(0, end).getBytes(charset));
+            chars.delete(0, end);
+        }
+    }
+
+    private void written(int length) throws IOException {
+        pending += length;
+        if (flushThreshold > 0 && pending >= flushThreshold) {
+            flush();
+        }
+    }
+}
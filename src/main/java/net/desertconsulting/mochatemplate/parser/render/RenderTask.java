@@ -0,0 +1,167 @@
+/*
+ * Copyright 2016 Patrizio Bruno <desertconsulting@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.desertconsulting.mochatemplate.parser.render;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import javax.script.ScriptException;
+import net.desertconsulting.mochatemplate.parser.cache.ExpressionCache;
+
+/**
+ * A part of a rendering run by another thread, writing into its own buffer.
+ * The task owns a permit obtained by {@link RenderContext#tryAcquireRegion()},
+ * released once the part has been rendered; its context is created by the
+ * thread starting the task, see {@link RenderContext#forRegion(Appendable)}.
+ *
+ * @author Patrizio Bruno {@literal <desertconsulting@gmail.com>}
+ */
+public abstract class RenderTask extends RecursiveTask<StringBuilder> {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The pool rendering the tasks, created the first time it's needed
+     */
+    private static class PoolHolder {
+
+        private final static ForkJoinPool POOL = new ForkJoinPool();
+    }
+
+    private final RenderContext context;
+    private final StringBuilder buffer = new StringBuilder();
+    private Exception error;
+
+    /**
+     * Initialize a new instance of {@link RenderTask}. The caller must own a
+     * permit of {@code context}.
+     *
+     * @param context context of the thread starting the task
+     */
+    protected RenderTask(RenderContext context) {
+        this.context = context.forRegion(buffer);
+    }
+
+    /**
+     * Initialize a new instance of {@link RenderTask} evaluated by another
+     * javascript engine. The caller must own a permit of {@code context}.
+     *
+     * @param context context of the thread starting the task
+     * @param expressions compiled javascript expressions of the engine
+     * evaluating the task, which must not be used by other threads meanwhile
+     */
+    protected RenderTask(RenderContext context, ExpressionCache expressions) {
+        this.context = context.forRegion(buffer, expressions);
+    }
+
+    /**
+     * Renders the part of the page.
+     *
+     * @param context context writing to the buffer of the task
+     * @throws ScriptException javascript error
+     * @throws IOException error writing the output
+     */
+    protected abstract void render(RenderContext context) throws
+            ScriptException, IOException;
+
+    /**
+     * Schedules the task on the rendering pool.
+     *
+     * @return this task
+     */
+    public RenderTask start() {
+        if (ForkJoinTask.getPool() == PoolHolder.POOL) {
+            fork();
+        } else {
+            PoolHolder.POOL.execute(this);
+        }
+        return this;
+    }
+
+    /**
+     * Waits for the task to end.
+     *
+     * @return the output of the task
+     * @throws ScriptException javascript error
+     * @throws IOException error writing the output
+     */
+    public StringBuilder getOutput() throws ScriptException, IOException {
+        join();
+        if (error instanceof ScriptException) {
+            throw (ScriptException) error;
+        } else if (error instanceof IOException) {
+            throw (IOException) error;
+        }
+        return buffer;
+    }
+
+    /**
+     * Waits for every task to end, so that the engine of the rendering isn't
+     * used anymore, and writes their output in order.
+     *
+     * @param tasks started tasks
+     * @param out destination of the output, null to discard it
+     * @throws ScriptException first javascript error of the tasks
+     * @throws IOException first error writing the output
+     */
+    public static void joinAll(List<RenderTask> tasks, Appendable out) throws
+            ScriptException, IOException {
+        Exception first = null;
+        for (RenderTask task : tasks) {
+            try {
+                StringBuilder output = task.getOutput();
+                if (first == null && out != null) {
+                    out.append(output);
+                }
+            } catch (ScriptException | IOException | RuntimeException ex) {
+                first = first != null ? first : ex;
+            }
+        }
+        rethrow(first);
+    }
+
+    /**
+     * Throws {@code error}, if any.
+     *
+     * @param error exception thrown by a rendering or null
+     * @throws ScriptException if {@code error} is a {@link ScriptException}
+     * @throws IOException if {@code error} is an {@link IOException}
+     */
+    public static void rethrow(Exception error) throws ScriptException,
+            IOException {
+        if (error instanceof ScriptException) {
+            throw (ScriptException) error;
+        } else if (error instanceof IOException) {
+            throw (IOException) error;
+        } else if (error != null) {
+            throw (RuntimeException) error;
+        }
+    }
+
+    @Override
+    protected StringBuilder compute() {
+        try {
+            render(context);
+        } catch (ScriptException | IOException ex) {
+            error = ex;
+        } finally {
+            context.releaseRegion();
+        }
+        return buffer;
+    }
+}
@@ -0,0 +1,314 @@
+/*
+ * Copyright 2016 Patrizio Bruno <desertconsulting@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.desertconsulting.mochatemplate.parser.render;
+
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import javax.script.Bindings;
+
+/**
+ * Javascript variable bindings of a template node: only the variables the
+ * node introduces, e.g. by data-set and data-for, are stored, every other
+ * variable is read from the parent bindings. Creating a scope costs the same
+ * whatever the number of variables visible to the node.
+ *
+ * Variables having a slot, see {@link Variable}, are stored in a frame, an
+ * array indexed by slot holding the values of the whole scope chain: a
+ * scope shares the frame of its parent until it sets a variable, then it
+ * copies it. Reading them never walks the chain. Other variables are stored
+ * by name. The frame is sized to the {@link FrameLayout} of the template,
+ * adopted by the first scope of the chain setting a variable by slot and
+ * inherited by the scopes created afterwards.
+ *
+ * Variables put into a scope are not visible to its parent. Removing a
+ * variable only removes the value set in this scope, revealing the parent's
+ * one. Variables set by the parent after the creation of a scope may not be
+ * visible to the scope. The parent must not change while the scope is being
+ * read by another thread.
+ *
+ * Every scope of a chain shares the javascript global object of the
+ * bindings the chain starts from: Nashorn looks it up by the
+ * {@value #NASHORN_GLOBAL} key, which is read from and written to the root
+ * bindings, so that evaluating an expression in a scope never creates a new
+ * global object. A scope evaluated by another engine starts a chain with the
+ * global object of that engine, see {@link #ScopeBindings(Bindings,
+ * Bindings)}.
+ *
+ * @author Patrizio Bruno {@literal <desertconsulting@gmail.com>}
+ */
+public class ScopeBindings extends AbstractMap<String, Object> implements
+        Bindings {
+
+    /**
+     * Value of the slots not set
+     */
+    private final static Object UNSET = new Object();
+    private final static Object[] EMPTY = new Object[0];
+    /**
+     * Key of the global object of bindings evaluated by Nashorn, unless they
+     * are a global object themselves
+     */
+    public final static String NASHORN_GLOBAL = "nashorn.global";
+
+    private final Bindings parent;
+    /**
+     * Bindings holding the javascript global object of the scope chain
+     */
+    private final Bindings root;
+    /**
+     * Nearest enclosing bindings holding variables stored by name
+     */
+    private final Bindings fallback;
+    private FrameLayout layout;
+    private Object[] frame;
+    /**
+     * true if {@code frame} may be read by another scope
+     */
+    private boolean shared = true;
+    private Map<String, Object> local;
+
+    /**
+     * Initialize a new instance of {@link ScopeBindings}.
+     *
+     * @param parent bindings of the enclosing scope
+     */
+    public ScopeBindings(Bindings parent) {
+        this(parent, null);
+    }
+
+    /**
+     * Initialize a new instance of {@link ScopeBindings} evaluated by a
+     * different javascript engine than {@code parent}: variables are still
+     * read from {@code parent}, but scripts run in the global object of
+     * {@code global}.
+     *
+     * @param parent bindings of the enclosing scope
+     * @param global bindings of the engine evaluating this scope, e.g.
+     * created by {@link javax.script.ScriptEngine#createBindings()}, null to
+     * share the global object of {@code parent}
+     */
+    public ScopeBindings(Bindings parent, Bindings global) {
+        if (parent == null) {
+            throw new NullPointerException("parent");
+        }
+        this.parent = parent;
+        if (parent instanceof ScopeBindings) {
+            ScopeBindings scope = (ScopeBindings) parent;
+            root = global != null ? global : scope.root;
+            layout = scope.layout;
+            frame = scope.frame;
+            scope.shared = true;
+            fallback = scope.local != null ? scope : scope.fallback;
+        } else {
+            root = global != null ? global : parent;
+            frame = EMPTY;
+            fallback = parent;
+        }
+    }
+
+    /**
+     * Gets the bindings of the enclosing scope.
+     *
+     * @return {@code parent} passed as parameter to the constructor
+     */
+    public Bindings getParent() {
+        return parent;
+    }
+
+    /**
+     * Gets the layout of the frame.
+     *
+     * @return the layout, null if no variable has been set by slot
+     */
+    public FrameLayout getLayout() {
+        return layout;
+    }
+
+    @Override
+    public Object put(String name, Object value) {
+        checkKey(name);
+        if (NASHORN_GLOBAL.equals(name)) {
+            return root.put(name, value);
+        }
+        int slot = slotOf(name);
+        if (slot >= 0) {
+            Object rv = get(slot, name);
+            put(slot, value);
+            return rv;
+        }
+        if (local == null) {
+            local = new HashMap<>(4);
+        }
+        return local.put(name, value);
+    }
+
+    @Override
+    public void putAll(Map<? extends String, ? extends Object> toMerge) {
+        for (Map.Entry<? extends String, ? extends Object> entry : toMerge.
+                entrySet()) {
+            put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        if (NASHORN_GLOBAL.equals(key)) {
+            return true;
+        }
+        int slot = slotOf(key);
+        if (slot >= 0 && slot < frame.length && frame[slot] != UNSET) {
+            return true;
+        }
+        return local != null && local.containsKey(key) || fallback.
+                containsKey(key);
+    }
+
+    @Override
+    public Object get(Object key) {
+        if (NASHORN_GLOBAL.equals(key)) {
+            return global();
+        }
+        int slot = slotOf(key);
+        if (slot >= 0 && slot < frame.length && frame[slot] != UNSET) {
+            return frame[slot];
+        }
+        if (local != null) {
+            Object rv = local.get(key);
+            if (rv != null || local.containsKey(key)) {
+                return rv;
+            }
+        }
+        return fallback.get(key);
+    }
+
+    @Override
+    public Object remove(Object key) {
+        int slot = slotOf(key);
+        if (slot >= 0 && slot < frame.length && frame[slot] != UNSET) {
+            Object rv = frame[slot];
+            Object[] enclosing = parent instanceof ScopeBindings
+                    && ((ScopeBindings) parent).layout == layout
+                    ? ((ScopeBindings) parent).frame : EMPTY;
+            if (enclosing == frame || enclosing.length > slot
+                    && enclosing[slot] == rv) {
+                // the value belongs to an enclosing scope
+                return null;
+            }
+            unshare(slot);
+            frame[slot] = slot < enclosing.length ? enclosing[slot] : UNSET;
+            return rv;
+        }
+        return local != null ? local.remove(key) : null;
+    }
+
+    /**
+     * Gets a snapshot of the variables visible in this scope, the ones set
+     * in this scope override the parent's ones.
+     *
+     * @return read-only entries
+     */
+    @Override
+    public Set<Map.Entry<String, Object>> entrySet() {
+        Map<String, Object> rv = new LinkedHashMap<>(fallback);
+        for (int slot = 0; slot < frame.length; slot++) {
+            if (frame[slot] != UNSET) {
+                rv.put(layout.nameOf(slot), frame[slot]);
+            }
+        }
+        if (local != null) {
+            rv.putAll(local);
+        }
+        return Collections.unmodifiableMap(rv).entrySet();
+    }
+
+    /**
+     * Makes {@code layout} the layout of the frame, unless the frame already
+     * has another one.
+     *
+     * @return true if slots of {@code layout} can be used
+     */
+    boolean adopt(FrameLayout layout) {
+        if (this.layout == null) {
+            this.layout = layout;
+        }
+        return this.layout == layout;
+    }
+
+    boolean containsKey(int slot, String name) {
+        if (slot < frame.length && frame[slot] != UNSET) {
+            return true;
+        }
+        return local != null && local.containsKey(name) || fallback.
+                containsKey(name);
+    }
+
+    Object get(int slot, String name) {
+        if (slot < frame.length && frame[slot] != UNSET) {
+            return frame[slot];
+        }
+        if (local != null && local.containsKey(name)) {
+            return local.get(name);
+        }
+        return fallback.get(name);
+    }
+
+    void put(int slot, Object value) {
+        unshare(slot);
+        frame[slot] = value;
+    }
+
+    /**
+     * Makes {@code frame} a private array long enough to hold {@code slot}.
+     */
+    private void unshare(int slot) {
+        if (shared || slot >= frame.length) {
+            int length = Math.max(frame.length, Math.max(slot + 1, layout.
+                    size()));
+            Object[] copy = Arrays.copyOf(frame, length);
+            Arrays.fill(copy, frame.length, length, UNSET);
+            frame = copy;
+            shared = false;
+        }
+    }
+
+    /**
+     * Gets the global object of the root bindings: the root bindings
+     * themselves if they are a Nashorn global object, e.g. created by
+     * {@link javax.script.ScriptEngine#createBindings()}.
+     */
+    private Object global() {
+        Object rv = root.get(NASHORN_GLOBAL);
+        return rv != null ? rv : root;
+    }
+
+    private int slotOf(Object name) {
+        return layout != null ? layout.slotOf(name) : -1;
+    }
+
+    private static void checkKey(String key) {
+        if (key == null) {
+            throw new NullPointerException("key can not be null");
+        }
+        if (key.isEmpty()) {
+            throw new IllegalArgumentException("key can not be empty");
+        }
+    }
+}
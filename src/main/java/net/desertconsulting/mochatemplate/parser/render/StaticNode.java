@@ -0,0 +1,95 @@
+/*
+ * Copyright 2016 Patrizio Bruno <desertconsulting@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.desertconsulting.mochatemplate.parser.render;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import javax.script.Bindings;
+
+/**
+ * A run of markup that doesn't depend on the javascript bindings. It has
+ * already been serialized and encoded at compile time: when rendering to a
+ * {@link RenderOutput} backed by an {@link java.io.OutputStream} with the same
+ * charset, the encoded bytes are written as they are.
+ *
+ * @author Patrizio Bruno {@literal <desertconsulting@gmail.com>}
+ */
+public class StaticNode implements RenderNode {
+
+    private final String html;
+    private final Charset charset;
+    private final byte[] bytes;
+
+    /**
+     * Initialize a new instance of {@link StaticNode} encoded as UTF-8.
+     *
+     * @param html serialized markup
+     */
+    public StaticNode(String html) {
+        this(html, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Initialize a new instance of {@link StaticNode}.
+     *
+     * @param html serialized markup
+     * @param charset charset of the output the markup will be written to
+     */
+    public StaticNode(String html, Charset charset) {
+        this.html = html;
+        this.charset = charset;
+        this.bytes = html.getBytes(charset);
+    }
+
+    /**
+     * Gets the serialized markup.
+     *
+     * @return {@code html} passed as parameter to the constructor
+     */
+    public String getHtml() {
+        return html;
+    }
+
+    /**
+     * Gets the charset the markup has been encoded with.
+     *
+     * @return {@code charset} passed as parameter to the constructor
+     */
+    public Charset getCharset() {
+        return charset;
+    }
+
+    /**
+     * Gets the encoded markup.
+     *
+     * @return a copy of the markup encoded with {@link #getCharset()}
+     */
+    public byte[] getBytes() {
+        return bytes.clone();
+    }
+
+    @Override
+    public void render(RenderContext context, Bindings bindings) throws
+            IOException {
+        Appendable out = context.getOutput();
+        if (out instanceof RenderOutput) {
+            ((RenderOutput) out).write(bytes, charset, html);
+        } else {
+            out.append(html);
+        }
+    }
+}
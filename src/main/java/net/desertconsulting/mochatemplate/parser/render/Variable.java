@@ -0,0 +1,133 @@
+/*
+ * Copyright 2016 Patrizio Bruno <desertconsulting@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.desertconsulting.mochatemplate.parser.render;
+
+import javax.script.Bindings;
+
+/**
+ * A javascript variable resolved at compile time. Variables set by
+ * directives, like data-set and data-for, get a slot in the
+ * {@link FrameLayout} of their template: {@link ScopeBindings} store their
+ * values in an array indexed by slot, so that directives and the
+ * {@link net.desertconsulting.mochatemplate.parser.PathEvaluator} read and
+ * write them without hashing their names.
+ *
+ * Slots are only used with scopes of the same layout, e.g. variables of an
+ * included fragment are stored by name in the scopes of the including
+ * template.
+ *
+ * @author Patrizio Bruno {@literal <desertconsulting@gmail.com>}
+ */
+public class Variable {
+
+    private final String name;
+    private final int slot;
+    private final FrameLayout layout;
+
+    /**
+     * Initialize a new instance of {@link Variable} without a slot, stored by
+     * name.
+     *
+     * @param name variable name
+     */
+    public Variable(String name) {
+        this(name, -1, null);
+    }
+
+    Variable(String name, int slot, FrameLayout layout) {
+        this.name = name;
+        this.slot = slot;
+        this.layout = layout;
+    }
+
+    /**
+     * Gets the name of the variable.
+     *
+     * @return the name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Gets the slot of the variable.
+     *
+     * @return slot index, -1 if the variable is stored by name
+     */
+    public int getSlot() {
+        return slot;
+    }
+
+    /**
+     * Gets the layout the slot belongs to.
+     *
+     * @return the layout, null if the variable is stored by name
+     */
+    public FrameLayout getLayout() {
+        return layout;
+    }
+
+    /**
+     * Check whether the variable is set in {@code bindings}.
+     *
+     * @param bindings javascript variable bindings
+     * @return true if the variable is set, even to null
+     */
+    public boolean isBound(Bindings bindings) {
+        if (inFrame(bindings)) {
+            return ((ScopeBindings) bindings).containsKey(slot, name);
+        }
+        return bindings.containsKey(name);
+    }
+
+    /**
+     * Gets the value of the variable.
+     *
+     * @param bindings javascript variable bindings
+     * @return the value, null if the variable is not set
+     */
+    public Object get(Bindings bindings) {
+        if (inFrame(bindings)) {
+            return ((ScopeBindings) bindings).get(slot, name);
+        }
+        return bindings.get(name);
+    }
+
+    /**
+     * Sets the value of the variable.
+     *
+     * @param bindings javascript variable bindings
+     * @param value new value
+     */
+    public void set(Bindings bindings, Object value) {
+        if (slot >= 0 && bindings instanceof ScopeBindings
+                && ((ScopeBindings) bindings).adopt(layout)) {
+            ((ScopeBindings) bindings).put(slot, value);
+        } else {
+            bindings.put(name, value);
+        }
+    }
+
+    private boolean inFrame(Bindings bindings) {
+        return slot >= 0 && bindings instanceof ScopeBindings
+                && ((ScopeBindings) bindings).getLayout() == layout;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
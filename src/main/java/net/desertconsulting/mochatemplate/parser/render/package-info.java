@@ -0,0 +1,23 @@
+/*
+ * Copyright 2016 Patrizio Bruno <desertconsulting@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Contains the immutable render tree a template gets compiled into by
+ * {@link net.desertconsulting.mochatemplate.parser.TemplateCompiler}. The tree
+ * is made of static markup, ${} interpolations and {@link Directive}s, and it's
+ * rendered against per-request javascript bindings without touching a DOM.
+ */
+package net.desertconsulting.mochatemplate.parser.render;
@@ -0,0 +1,303 @@
+/*
+ * Copyright 2016 Patrizio Bruno <desertconsulting@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.desertconsulting.mochatemplate.servlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+
+/**
+ * A stream writing the response of an asynchronous request without blocking:
+ * the rendering thread queues chunks of {@link #CHUNK_SIZE} bytes, which are
+ * written to the client only while the container reports it's ready to accept
+ * them. A slow client never blocks the rendering thread nor a container
+ * thread, the output waits in memory up to a maximum number of bytes: once
+ * exceeded, the stream fails and the rendering stops. The
+ * {@link AsyncContext} is completed once the stream has been closed and every
+ * chunk has been written, or as soon as the stream fails or gets aborted.
+ *
+ * Writes must come from a single thread.
+ *
+ * @author Patrizio Bruno {@literal <desertconsulting@gmail.com>}
+ */
+public class AsyncOutputStream extends OutputStream implements WriteListener,
+        AsyncListener {
+
+    /**
+     * Number of bytes queued at once, unless the stream gets flushed
+     */
+    public final static int CHUNK_SIZE = 8192;
+    /**
+     * Default maximum number of bytes waiting to be written to the client
+     */
+    public final static int DEFAULT_MAX_QUEUED = 1024 * 1024;
+
+    private final AsyncContext asyncContext;
+    private final ServletOutputStream out;
+    private final ConcurrentLinkedQueue<byte[]> chunks
+            = new ConcurrentLinkedQueue<>();
+    private final int maxQueued;
+    /**
+     * Number of bytes waiting in {@link #chunks}
+     */
+    private final AtomicInteger queued = new AtomicInteger();
+    /**
+     * Whether any chunk has been queued, thus may have reached the client
+     */
+    private volatile boolean committed;
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(
+            CHUNK_SIZE);
+    private volatile boolean closed;
+    private volatile IOException failure;
+    /**
+     * Whether the {@link AsyncContext} has been completed, guarded by this
+     */
+    private boolean completed;
+
+    /**
+     * Initialize a new instance of {@link AsyncOutputStream}, writing to the
+     * response of {@code asyncContext} in non-blocking mode.
+     *
+     * @param asyncContext context of the asynchronous request
+     * @throws IOException error accessing the response stream
+     */
+    public AsyncOutputStream(AsyncContext asyncContext) throws IOException {
+        this(asyncContext, DEFAULT_MAX_QUEUED);
+    }
+
+    /**
+     * Initialize a new instance of {@link AsyncOutputStream}, writing to the
+     * response of {@code asyncContext} in non-blocking mode.
+     *
+     * @param asyncContext context of the asynchronous request
+     * @param maxQueued maximum number of bytes waiting to be written to the
+     * client, the stream fails once they're exceeded
+     * @throws IOException error accessing the response stream
+     */
+    public AsyncOutputStream(AsyncContext asyncContext, int maxQueued) throws
+            IOException {
+        this.asyncContext = asyncContext;
+        this.maxQueued = maxQueued;
+        asyncContext.addListener(this);
+        out = asyncContext.getResponse().getOutputStream();
+        out.setWriteListener(this);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        check();
+        buffer.write(b);
+        if (buffer.size() >= CHUNK_SIZE) {
+            enqueue();
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        check();
+        buffer.write(b, off, len);
+        if (buffer.size() >= CHUNK_SIZE) {
+            enqueue();
+        }
+    }
+
+    /**
+     * Queues the buffered bytes, so that they're sent as soon as the client
+     * can accept them.
+     *
+     * @throws IOException the client is gone or the request timed out
+     */
+    @Override
+    public void flush() throws IOException {
+        check();
+        enqueue();
+    }
+
+    /**
+     * Queues the buffered bytes and completes the request as soon as every
+     * chunk has been written.
+     *
+     * @throws IOException error writing to the client
+     */
+    @Override
+    public void close() throws IOException {
+        if (!closed && failure == null) {
+            if (buffer.size() > 0) {
+                add(buffer.toByteArray());
+                buffer.reset();
+            }
+            closed = true;
+            drain();
+        }
+    }
+
+    /**
+     * Drops the output that has not been written yet and completes the
+     * request, e.g. once the rendering has failed after part of the page has
+     * been sent: the client gets a truncated page.
+     *
+     * @param t the reason the output is aborted
+     */
+    public void abort(Throwable t) {
+        fail(t);
+    }
+
+    /**
+     * Drops the buffered output, unless part of it has already been queued.
+     *
+     * @return false if the output has been queued, thus it may have reached
+     * the client
+     */
+    public boolean resetBuffer() {
+        if (committed) {
+            return false;
+        }
+        buffer.reset();
+        return true;
+    }
+
+    /**
+     * Check whether part of the output has been queued, thus it may have
+     * reached the client.
+     *
+     * @return true if the output can't be reset anymore
+     */
+    public boolean isCommitted() {
+        return committed;
+    }
+
+    /**
+     * Check whether the {@link AsyncContext} has been completed.
+     *
+     * @return true if nothing can be written to the client anymore
+     */
+    public synchronized boolean isCompleted() {
+        return completed;
+    }
+
+    /**
+     * Check whether the client has stopped accepting the output.
+     *
+     * @return true if the client is gone or the request timed out
+     */
+    public boolean isFailed() {
+        return failure != null;
+    }
+
+    @Override
+    public void onWritePossible() throws IOException {
+        drain();
+    }
+
+    @Override
+    public void onError(Throwable t) {
+        fail(t);
+    }
+
+    @Override
+    public void onComplete(AsyncEvent event) throws IOException {
+        synchronized (this) {
+            completed = true;
+        }
+    }
+
+    @Override
+    public void onTimeout(AsyncEvent event) throws IOException {
+        fail(new IOException("asynchronous request timed out"));
+    }
+
+    @Override
+    public void onError(AsyncEvent event) throws IOException {
+        fail(event.getThrowable());
+    }
+
+    @Override
+    public void onStartAsync(AsyncEvent event) throws IOException {
+    }
+
+    private void check() throws IOException {
+        if (failure != null) {
+            throw failure;
+        }
+        if (closed) {
+            throw new IOException("stream closed");
+        }
+    }
+
+    private void enqueue() throws IOException {
+        if (buffer.size() > 0) {
+            if (queued.get() + buffer.size() > maxQueued) {
+                // the client doesn't keep up with the rendering
+                fail(new IOException(String.format(
+                        "more than %d bytes waiting for the client",
+                        maxQueued)));
+                throw failure;
+            }
+            add(buffer.toByteArray());
+            buffer.reset();
+            drain();
+        }
+    }
+
+    private void add(byte[] chunk) {
+        committed = true;
+        queued.addAndGet(chunk.length);
+        chunks.add(chunk);
+    }
+
+    /**
+     * Writes queued chunks while the container accepts them: once
+     * {@link ServletOutputStream#isReady()} returns false, the container calls
+     * {@link #onWritePossible()} as soon as the client can accept more.
+     */
+    private synchronized void drain() throws IOException {
+        if (completed || failure != null) {
+            return;
+        }
+        while (out.isReady()) {
+            byte[] chunk = chunks.poll();
+            if (chunk == null) {
+                if (closed) {
+                    completed = true;
+                    asyncContext.complete();
+                }
+                return;
+            }
+            queued.addAndGet(-chunk.length);
+            out.write(chunk);
+        }
+    }
+
+    private void fail(Throwable t) {
+        failure = t instanceof IOException ? (IOException) t : new IOException(
+                t);
+        chunks.clear();
+        queued.set(0);
+        synchronized (this) {
+            if (!completed) {
+                completed = true;
+                asyncContext.complete();
+            }
+        }
+    }
+}
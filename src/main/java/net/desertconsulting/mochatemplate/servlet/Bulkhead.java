@@ -0,0 +1,222 @@
+/*
+ * Copyright 2016 Patrizio Bruno <desertconsulting@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.desertconsulting.mochatemplate.servlet;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Admission control for renderings: at most a given number of requests
+ * render at once, in total and for each path, and a bounded number of
+ * requests waits for its turn. Requests exceeding the limits are rejected
+ * right away, so that a traffic spike degrades into refused requests instead
+ * of hundreds of concurrent renderings.
+ *
+ * @author Patrizio Bruno {@literal <desertconsulting@gmail.com>}
+ */
+public class Bulkhead {
+
+    private final int maxConcurrent;
+    private final int maxPerPath;
+    private final int maxQueued;
+    private final long timeout;
+    private final Semaphore permits;
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicLong rejected = new AtomicLong();
+    /**
+     * Requests admitted or waiting, for each path. Counters are removed once
+     * they get to 0, so the per-path limit is approximate under contention.
+     */
+    private final ConcurrentMap<String, AtomicInteger> paths
+            = new ConcurrentHashMap<>();
+
+    /**
+     * Initialize a new instance of {@link Bulkhead}.
+     *
+     * @param maxConcurrent maximum number of requests rendering at once
+     * @param maxPerPath maximum number of requests rendering or waiting for
+     * the same path, 0 or less for no limit
+     * @param maxQueued maximum number of requests waiting for their turn
+     * @param timeout milliseconds a request can wait for its turn
+     */
+    public Bulkhead(int maxConcurrent, int maxPerPath, int maxQueued,
+            long timeout) {
+        if (maxConcurrent <= 0) {
+            throw new IllegalArgumentException(
+                    "maxConcurrent must be positive");
+        }
+        this.maxConcurrent = maxConcurrent;
+        this.maxPerPath = maxPerPath;
+        this.maxQueued = Math.max(0, maxQueued);
+        this.timeout = timeout;
+        this.permits = new Semaphore(maxConcurrent, true);
+    }
+
+    /**
+     * Admits a request, waiting for its turn if the maximum number of
+     * requests is rendering. Admitted requests must call
+     * {@link #release(String)} once done.
+     *
+     * @param path path of the requested template
+     * @return false if the request is rejected
+     * @throws InterruptedException interrupted while waiting
+     */
+    public boolean acquire(String path) throws InterruptedException {
+        AtomicInteger counter = null;
+        if (maxPerPath > 0) {
+            counter = increment(path);
+            if (counter.get() > maxPerPath) {
+                decrement(path, counter);
+                rejected.incrementAndGet();
+                return false;
+            }
+        }
+
+        boolean admitted = permits.tryAcquire();
+        if (!admitted) {
+            if (queued.incrementAndGet() <= maxQueued) {
+                try {
+                    admitted = permits.tryAcquire(timeout,
+                            TimeUnit.MILLISECONDS);
+                } finally {
+                    queued.decrementAndGet();
+                    if (!admitted && counter != null) {
+                        decrement(path, counter);
+                    }
+                }
+            } else {
+                queued.decrementAndGet();
+                if (counter != null) {
+                    decrement(path, counter);
+                }
+            }
+        }
+        if (!admitted) {
+            rejected.incrementAndGet();
+        }
+        return admitted;
+    }
+
+    /**
+     * Admits a request only if it can render right away, without waiting
+     * for its turn. Admitted requests must call {@link #release(String)} once
+     * done.
+     *
+     * @param path path of the requested template
+     * @return false if the request is rejected
+     */
+    public boolean tryAcquire(String path) {
+        AtomicInteger counter = null;
+        if (maxPerPath > 0) {
+            counter = increment(path);
+            if (counter.get() > maxPerPath) {
+                decrement(path, counter);
+                rejected.incrementAndGet();
+                return false;
+            }
+        }
+        if (!permits.tryAcquire()) {
+            if (counter != null) {
+                decrement(path, counter);
+            }
+            rejected.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Lets the next request in.
+     *
+     * @param path path passed to {@link #acquire(String)} or
+     * {@link #tryAcquire(String)}
+     */
+    public void release(String path) {
+        permits.release();
+        if (maxPerPath > 0) {
+            AtomicInteger counter = paths.get(path);
+            if (counter != null) {
+                decrement(path, counter);
+            }
+        }
+    }
+
+    /**
+     * Gets the maximum number of requests rendering at once.
+     *
+     * @return {@code maxConcurrent} passed as parameter to the constructor
+     */
+    public int getMaxConcurrent() {
+        return maxConcurrent;
+    }
+
+    /**
+     * Gets the number of requests rendering.
+     *
+     * @return number of requests admitted and not released
+     */
+    public int getActive() {
+        return maxConcurrent - permits.availablePermits();
+    }
+
+    /**
+     * Gets the number of requests waiting for their turn.
+     *
+     * @return number of requests queued
+     */
+    public int getQueued() {
+        return queued.get();
+    }
+
+    /**
+     * Gets the number of requests rejected so far.
+     *
+     * @return number of calls to {@link #acquire(String)} and
+     * {@link #tryAcquire(String)} returning false
+     */
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    private AtomicInteger increment(String path) {
+        while (true) {
+            AtomicInteger counter = paths.get(path);
+            if (counter == null) {
+                AtomicInteger created = new AtomicInteger();
+                counter = paths.putIfAbsent(path, created);
+                if (counter == null) {
+                    counter = created;
+                }
+            }
+            counter.incrementAndGet();
+            // the counter may have been removed when getting to 0
+            if (paths.get(path) == counter) {
+                return counter;
+            }
+            counter.decrementAndGet();
+        }
+    }
+
+    private void decrement(String path, AtomicInteger counter) {
+        if (counter.decrementAndGet() <= 0) {
+            paths.remove(path, counter);
+        }
+    }
+}
@@ -2,16 +2,39 @@ package net.desertconsulting.mochatemplate.servlet;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.dataformat.xml.XmlMapper;
+import com.google.common.io.CharStreams;
 import java.io.BufferedReader;
+import java.io.File;
+import net.desertconsulting.mochatemplate.parser.ApplicationBindings;
 import net.desertconsulting.mochatemplate.parser.MochaTemplateEngine;
+import net.desertconsulting.mochatemplate.parser.ScriptEnginePool;
 import net.desertconsulting.mochatemplate.parser.TemplateEngine;
+import net.desertconsulting.mochatemplate.parser.TemplateRegistry;
+import net.desertconsulting.mochatemplate.parser.cache.DocumentCache;
+import net.desertconsulting.mochatemplate.parser.render.RenderBudget;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.script.ScriptException;
+import javax.servlet.AsyncContext;
 import javax.servlet.ServletContext;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
@@ -26,7 +49,122 @@ import org.jsoup.helper.StringUtil;
  */
 public class MainServlet extends HttpServlet {
 
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Default number of characters sent to the client at once while a page is
+     * being rendered. It can be changed through the init parameter
+     * "flushThreshold", 0 disables flushing.
+     */
+    public final static int DEFAULT_FLUSH_THRESHOLD = 8192;
+    /**
+     * Default number of milliseconds an asynchronous request can last. It can
+     * be changed through the init parameter "asyncTimeout".
+     */
+    public final static long DEFAULT_ASYNC_TIMEOUT = 30000;
+    /**
+     * Default number of asynchronous requests waiting for a rendering thread.
+     * It can be changed through the init parameter "asyncMaxPending".
+     */
+    public final static int DEFAULT_ASYNC_MAX_PENDING = 64;
+    /**
+     * Name of the {@link ServletContext} attribute holding the
+     * {@link ScriptEnginePool} of the servlet, so that its metrics can be
+     * monitored by the web application.
+     */
+    public final static String ENGINE_POOL_ATTRIBUTE = ScriptEnginePool.class.
+            getName();
+    /**
+     * Name of the {@link ServletContext} attribute holding the
+     * {@link RenderBudget} of the servlet, set by the init parameters
+     * "renderTimeout" and "renderMaxOperations", so that the number of
+     * renderings aborted can be monitored by the web application.
+     */
+    public final static String RENDER_BUDGET_ATTRIBUTE = RenderBudget.class.
+            getName();
+    /**
+     * Name of the {@link ServletContext} attribute holding the
+     * {@link Bulkhead} admitting page requests, set by the init parameters
+     * "maxRenders", "maxRendersPerPath" and "maxQueuedRenders". The one
+     * admitting API requests, set by "maxApiRenders", "maxApiRendersPerPath"
+     * and "maxQueuedApiRenders", is stored with the suffix ".api".
+     */
+    public final static String BULKHEAD_ATTRIBUTE = Bulkhead.class.getName();
+    /**
+     * Name of the {@link ServletContext} attribute holding the
+     * {@link ApplicationBindings} shared by every rendering. The web
+     * application can set it before the servlet gets initialized, e.g. to
+     * share Java helper objects; the properties of the JSON file set by the
+     * init parameter "applicationBindings" are added to them.
+     */
+    public final static String APPLICATION_BINDINGS_ATTRIBUTE
+            = ApplicationBindings.class.getName();
+    /**
+     * Default number of milliseconds a request can wait to be admitted. It
+     * can be changed through the init parameter "admissionTimeout".
+     */
+    public final static long DEFAULT_ADMISSION_TIMEOUT = 1000;
+    /**
+     * Default number of seconds a rejected client is asked to wait before
+     * retrying. It can be changed through the init parameter "retryAfter".
+     */
+    public final static int DEFAULT_RETRY_AFTER = 1;
+
     private String apiExtension;
+    private int flushThreshold;
+    /**
+     * Maximum number of threads rendering a page at once
+     */
+    private int parallelism;
+    /**
+     * Whether pages are pretty printed, as they used to be before templates
+     * got compiled
+     */
+    private boolean prettyPrint;
+    /**
+     * Javascript engines, borrowed by requests; null if every request
+     * creates its own engine
+     */
+    private ScriptEnginePool pool;
+    /**
+     * Limits of every rendering, null if renderings are not limited
+     */
+    private RenderBudget budget;
+    /**
+     * Admission control of page and API requests, null for no limit
+     */
+    private Bulkhead pages;
+    private Bulkhead api;
+    private int retryAfter;
+    /**
+     * Variables shared by every rendering, null if there are none
+     */
+    private ApplicationBindings application;
+    /**
+     * Application bindings set by the web application, restored when the
+     * servlet gets destroyed
+     */
+    private ApplicationBindings providedApplication;
+    /**
+     * Threads rendering pages in asynchronous mode, null when pages are
+     * rendered on the container threads
+     */
+    private ExecutorService executor;
+    private long asyncTimeout;
+    /**
+     * Maximum number of bytes of an asynchronous response waiting for the
+     * client
+     */
+    private int asyncMaxQueued;
+    /**
+     * Compiled templates, shared by every request
+     */
+    private volatile TemplateRegistry registry;
+    /**
+     * Parse cache of the templates, kept across restarts, null if they're not
+     * cached
+     */
+    private DocumentCache documents;
 
     /**
      * Processes requests for both HTTP <code>GET</code> and <code>POST</code>
@@ -40,39 +178,242 @@ public class MainServlet extends HttpServlet {
     protected void processRequest(HttpServletRequest request,
             HttpServletResponse response)
             throws ServletException, IOException {
-        try (PrintWriter out = response.getWriter()) {
-            String pathInfo = request.getPathInfo();
+        String pathInfo = request.getPathInfo();
+
+        if (StringUtil.isBlank(pathInfo) || "/".equals(pathInfo)) {
+            pathInfo = "/index.html";
+        }
+        if (executor != null && !pathInfo.endsWith(apiExtension)) {
+            renderAsync(pathInfo, request, response);
+        } else {
+            render(pathInfo, request, response);
+        }
+    }
+
+    /**
+     * Renders a page on the rendering executor, the container thread is
+     * released right away and the page is written without blocking. The
+     * request is admitted by the {@link Bulkhead} before going asynchronous,
+     * without waiting: requests wait for their turn in the bounded queue of
+     * the executor instead, and are rejected with status 503 once it's full.
+     */
+    private void renderAsync(String pathInfo, HttpServletRequest request,
+            HttpServletResponse response) throws IOException {
+        Bulkhead bulkhead = pages;
+        if (bulkhead != null && !bulkhead.tryAcquire(pathInfo)) {
+            reject(response);
+            return;
+        }
+        AsyncRender task;
+        try {
+            AsyncContext asyncContext = request.startAsync();
+            asyncContext.setTimeout(asyncTimeout);
+            task = new AsyncRender(pathInfo, request, response, asyncContext,
+                    bulkhead);
+        } catch (RuntimeException ex) {
+            if (bulkhead != null) {
+                bulkhead.release(pathInfo);
+            }
+            throw ex;
+        }
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException ex) {
+            // the servlet is being destroyed
+            task.reject();
+        }
+    }
 
-            if (StringUtil.isBlank(pathInfo) || "/".equals(pathInfo)) {
-                pathInfo = "/index.html";
+    /**
+     * Renders a page on the container thread once admitted by the
+     * {@link Bulkhead}, otherwise the request is rejected with status 503.
+     */
+    private void render(String pathInfo, HttpServletRequest request,
+            HttpServletResponse response) throws IOException {
+        Bulkhead bulkhead = pathInfo.endsWith(apiExtension) ? api : pages;
+        boolean admitted = true;
+        if (bulkhead != null) {
+            try {
+                admitted = bulkhead.acquire(pathInfo);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                admitted = false;
             }
-            ServletContext servletContext = getServletContext();
-            try (InputStream templateStream = servletContext.
-                    getResourceAsStream(pathInfo)) {
-                if (templateStream != null) {
-                    TemplateEngine template = new MochaTemplateEngine(servletContext,
-                            templateStream);
+        }
+        if (!admitted) {
+            reject(response);
+            return;
+        }
+        try {
+            doRender(pathInfo, request, response, null);
+        } finally {
+            if (bulkhead != null) {
+                bulkhead.release(pathInfo);
+            }
+        }
+    }
 
-                    template.put("request", request);
+    /**
+     * Asks the client to retry later.
+     */
+    private void reject(HttpServletResponse response) throws IOException {
+        response.setHeader("Retry-After", String.valueOf(retryAfter));
+        response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+    }
 
-                    if (pathInfo.endsWith(apiExtension)) {
+    /**
+     * A page admitted by the {@link Bulkhead}, if any, waiting to be
+     * rendered on the rendering executor.
+     */
+    private class AsyncRender implements Runnable {
+
+        private final String pathInfo;
+        private final HttpServletRequest request;
+        private final HttpServletResponse response;
+        private final AsyncContext asyncContext;
+        private final Bulkhead bulkhead;
+
+        public AsyncRender(String pathInfo, HttpServletRequest request,
+                HttpServletResponse response, AsyncContext asyncContext,
+                Bulkhead bulkhead) {
+            this.pathInfo = pathInfo;
+            this.request = request;
+            this.response = response;
+            this.asyncContext = asyncContext;
+            this.bulkhead = bulkhead;
+        }
+
+        @Override
+        public void run() {
+            try {
+                doRender(pathInfo, request, response, asyncContext);
+            } catch (IOException | RuntimeException ex) {
+                // doRender has already completed the request
+                Logger.getLogger(MainServlet.class.getName()).log(
+                        Level.SEVERE, null, ex);
+            } finally {
+                release();
+            }
+        }
+
+        /**
+         * Completes the request with status 503, the page won't be rendered.
+         */
+        public void reject() {
+            try {
+                MainServlet.this.reject(response);
+            } catch (IOException | RuntimeException ex) {
+                Logger.getLogger(MainServlet.class.getName()).log(Level.FINE,
+                        null, ex);
+            } finally {
+                release();
+                asyncContext.complete();
+            }
+        }
+
+        private void release() {
+            if (bulkhead != null) {
+                bulkhead.release(pathInfo);
+            }
+        }
+    }
+
+    private void doRender(String pathInfo, HttpServletRequest request,
+            HttpServletResponse response, AsyncContext asyncContext) throws
+            IOException {
+        // pages are written to the byte stream, so that static markup
+        // encoded at compile time doesn't get encoded again
+        OutputStream stream = null;
+        MochaTemplateEngine template = null;
+        try {
+            template = registry(getServletContext()).createEngine(pathInfo);
+            if (template != null) {
+                template.setFlushThreshold(flushThreshold);
+                template.setParallelism(parallelism);
+                template.setBudget(budget);
+                template.setApplicationBindings(application);
+                template.put("request", request);
+
+                if (pathInfo.endsWith(apiExtension)) {
+                    try (PrintWriter out = response.getWriter()) {
                         processREST(template, request, response, out);
-                    } else {
-                        response.setContentType("text/html;charset=UTF-8");
-                        template.parse(out, null);
                     }
                 } else {
-                    response.sendError(HttpServletResponse.SC_NOT_FOUND);
+                    response.setContentType("text/html;charset=UTF-8");
+                    stream = asyncContext != null ? new AsyncOutputStream(
+                            asyncContext, asyncMaxQueued) : response.
+                            getOutputStream();
+                    template.parse(stream, prettyPrint ? MochaTemplateEngine.
+                            defaultOutputSettings().prettyPrint(true) : null);
+                    stream.close();
                 }
-            } catch (Exception ex) {
-                response.setContentType("text/html;charset=UTF-8");
-                response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
-                Logger.getLogger(getClass().getName()).log(Level.SEVERE, null, ex);
+            } else {
+                response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            }
+        } catch (TimeoutException ex) {
+            // no javascript engine has been released in time
+            Logger.getLogger(getClass().getName()).log(Level.WARNING,
+                    ex.getMessage());
+            reject(response);
+        } catch (Exception ex) {
+            Logger.getLogger(getClass().getName()).log(Level.SEVERE, null, ex);
+            AsyncOutputStream async = stream instanceof AsyncOutputStream
+                    ? (AsyncOutputStream) stream : null;
+            if (async != null && (async.isFailed() || async.isCompleted())) {
+                // the client is gone or the request timed out, the request
+                // has already been completed
+                return;
+            }
+            if (async != null ? !async.resetBuffer() : response.isCommitted()) {
+                // part of the page has already been sent, an error page would
+                // end up in the middle of it: the page is truncated instead
+                if (async != null) {
+                    async.abort(ex);
+                    return;
+                }
+                throw ex instanceof IOException ? (IOException) ex
+                        : new IOException(ex);
+            }
+            if (async == null) {
+                response.resetBuffer();
+            }
+            response.setContentType("text/html;charset=UTF-8");
+            response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            try (PrintWriter out = stream != null ? new PrintWriter(
+                    new OutputStreamWriter(stream, StandardCharsets.UTF_8))
+                    : response.getWriter()) {
                 out.println("<html><h1>500 Error</h1><pre>");
                 ex.printStackTrace(out);
                 out.println("</pre></html>");
             }
+        } finally {
+            if (template != null) {
+                template.close();
+            }
+            // an asynchronous stream completes the request once written
+            if (asyncContext != null && stream == null) {
+                asyncContext.complete();
+            }
+        }
+    }
+
+    /**
+     * Gets the registry of the compiled templates of {@code servletContext},
+     * created when the servlet gets initialized.
+     */
+    private TemplateRegistry registry(ServletContext servletContext) {
+        TemplateRegistry rv = registry;
+        if (rv == null || rv.getServletContext() != servletContext) {
+            synchronized (this) {
+                rv = registry;
+                if (rv == null || rv.getServletContext() != servletContext) {
+                    rv = new TemplateRegistry(servletContext, pool);
+                    rv.setDocumentCache(documents);
+                    registry = rv;
+                }
+            }
         }
+        return rv;
     }
 
     private void processREST(TemplateEngine engine, HttpServletRequest request,
@@ -176,8 +517,194 @@ public class MainServlet extends HttpServlet {
         if(StringUtil.isBlank(apiExtension)) {
             apiExtension = ".api";
         }
+        String threshold = getInitParameter("flushThreshold");
+        flushThreshold = StringUtil.isBlank(threshold) ? DEFAULT_FLUSH_THRESHOLD
+                : Integer.parseInt(threshold.trim());
+        prettyPrint = Boolean.parseBoolean(getInitParameter("prettyPrint"));
+        parallelism = (int) initParameter("parallelism", 1);
+        if (parallelism > 1) {
+            Logger.getLogger(getClass().getName()).log(Level.WARNING,
+                    "parallelism {0}: regions and large loops of a page are "
+                    + "evaluated concurrently by the same script engine, "
+                    + "which is not thread-safe; they must not modify shared "
+                    + "objects nor define global variables", parallelism);
+        }
+        int poolMaxSize = (int) initParameter("enginePoolMaxSize", 2 * Runtime.
+                getRuntime().availableProcessors());
+        if (poolMaxSize > 0) {
+            pool = new ScriptEnginePool(Math.min((int) initParameter(
+                    "enginePoolMinSize", 1), poolMaxSize), poolMaxSize,
+                    initParameter("enginePoolTimeout",
+                            ScriptEnginePool.DEFAULT_TIMEOUT),
+                    initParameter("enginePoolIdleTimeout",
+                            ScriptEnginePool.DEFAULT_IDLE_TIMEOUT));
+            getServletContext().setAttribute(ENGINE_POOL_ATTRIBUTE, pool);
+        }
+        long renderTimeout = initParameter("renderTimeout", 0);
+        long renderMaxOperations = initParameter("renderMaxOperations", 0);
+        if (renderTimeout > 0 || renderMaxOperations > 0) {
+            budget = new RenderBudget(renderTimeout, renderMaxOperations);
+            getServletContext().setAttribute(RENDER_BUDGET_ATTRIBUTE, budget);
+        }
+        retryAfter = (int) initParameter("retryAfter", DEFAULT_RETRY_AFTER);
+        long admissionTimeout = initParameter("admissionTimeout",
+                DEFAULT_ADMISSION_TIMEOUT);
+        pages = bulkhead("maxRenders", "maxRendersPerPath",
+                "maxQueuedRenders", admissionTimeout, BULKHEAD_ATTRIBUTE);
+        api = bulkhead("maxApiRenders", "maxApiRendersPerPath",
+                "maxQueuedApiRenders", admissionTimeout, BULKHEAD_ATTRIBUTE
+                + ".api");
+        providedApplication = (ApplicationBindings) getServletContext().
+                getAttribute(APPLICATION_BINDINGS_ATTRIBUTE);
+        application = providedApplication;
+        String applicationJson = getInitParameter("applicationBindings");
+        if (!StringUtil.isBlank(applicationJson)) {
+            application = loadApplicationBindings(applicationJson.trim());
+            getServletContext().setAttribute(APPLICATION_BINDINGS_ATTRIBUTE,
+                    application);
+        }
+        String cacheDir = getInitParameter("templateCacheDir");
+        if (!StringUtil.isBlank(cacheDir)) {
+            try {
+                documents = new DocumentCache(new File(cacheDir.trim()));
+            } catch (IOException ex) {
+                // templates will be parsed at every restart
+                Logger.getLogger(getClass().getName()).log(Level.WARNING,
+                        null, ex);
+            }
+        }
+        if (Boolean.parseBoolean(getInitParameter("async"))) {
+            executor = renderExecutor((int) initParameter("asyncThreads", 0),
+                    (int) initParameter("asyncMaxPending",
+                            DEFAULT_ASYNC_MAX_PENDING));
+            asyncTimeout = initParameter("asyncTimeout", DEFAULT_ASYNC_TIMEOUT);
+            asyncMaxQueued = (int) initParameter("asyncMaxQueued",
+                    AsyncOutputStream.DEFAULT_MAX_QUEUED);
+        }
+        Logger.getLogger(getClass().getName()).log(Level.INFO,
+                "{0} templates precompiled", registry(getServletContext()).
+                precompile());
+    }
+
+    /**
+     * Creates a {@link Bulkhead} from the init parameters, storing it in the
+     * servlet context.
+     *
+     * @return the bulkhead or null if the maximum number of renderings is
+     * not set
+     */
+    private Bulkhead bulkhead(String maxParam, String maxPerPathParam,
+            String maxQueuedParam, long timeout, String attribute) {
+        int max = (int) initParameter(maxParam, 0);
+        if (max <= 0) {
+            return null;
+        }
+        Bulkhead rv = new Bulkhead(max, (int) initParameter(maxPerPathParam,
+                0), (int) initParameter(maxQueuedParam, max), timeout);
+        getServletContext().setAttribute(attribute, rv);
+        return rv;
+    }
+
+    /**
+     * Adds the properties of a JSON file of the web application to the
+     * application bindings set by the web application, if any.
+     */
+    private ApplicationBindings loadApplicationBindings(String path) throws
+            ServletException {
+        try (InputStream stream = getServletContext().getResourceAsStream(
+                path)) {
+            if (stream == null) {
+                throw new ServletException(path + " not found");
+            }
+            Object json = ApplicationBindings.parseJson(CharStreams.toString(
+                    new InputStreamReader(stream, StandardCharsets.UTF_8)));
+            if (!(json instanceof Map)) {
+                throw new ServletException(path + " is not a JSON object");
+            }
+            @SuppressWarnings("unchecked")
+            Map<String, ?> values = (Map<String, ?>) json;
+            return providedApplication != null ? providedApplication.with(
+                    values) : new ApplicationBindings(values);
+        } catch (IOException | ScriptException ex) {
+            throw new ServletException(ex);
+        }
+    }
+
+    private long initParameter(String name, long defaultValue) {
+        String value = getInitParameter(name);
+        return StringUtil.isBlank(value) ? defaultValue : Long.parseLong(value.
+                trim());
     }
-    
+
+    /**
+     * Creates the executor rendering pages in asynchronous mode: virtual
+     * threads where the JVM supports them, when {@code threads} is 0 or less,
+     * otherwise a pool of {@code threads} threads with up to
+     * {@code maxPending} requests waiting for a thread. Requests exceeding
+     * the queue are completed with status 503.
+     */
+    private static ExecutorService renderExecutor(int threads,
+            int maxPending) {
+        if (threads <= 0) {
+            try {
+                return (ExecutorService) Executors.class.getMethod(
+                        "newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (NoSuchMethodException | IllegalAccessException
+                    | InvocationTargetException ex) {
+                // no virtual threads before Java 21
+                threads = 2 * Runtime.getRuntime().availableProcessors();
+            }
+        }
+        BlockingQueue<Runnable> queue = maxPending > 0
+                ? new ArrayBlockingQueue<Runnable>(maxPending)
+                : new SynchronousQueue<Runnable>();
+        return new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                queue, new RejectedExecutionHandler() {
+            @Override
+            public void rejectedExecution(Runnable r,
+                    ThreadPoolExecutor executor) {
+                ((AsyncRender) r).reject();
+            }
+        });
+    }
+
+    @Override
+    public void destroy() {
+        if (executor != null) {
+            executor.shutdown();
+            executor = null;
+        }
+        if (pool != null) {
+            getServletContext().removeAttribute(ENGINE_POOL_ATTRIBUTE);
+            pool.close();
+            pool = null;
+        }
+        if (budget != null) {
+            getServletContext().removeAttribute(RENDER_BUDGET_ATTRIBUTE);
+            budget = null;
+        }
+        if (application != providedApplication) {
+            if (providedApplication != null) {
+                getServletContext().setAttribute(
+                        APPLICATION_BINDINGS_ATTRIBUTE, providedApplication);
+            } else {
+                getServletContext().removeAttribute(
+                        APPLICATION_BINDINGS_ATTRIBUTE);
+            }
+        }
+        application = null;
+        providedApplication = null;
+        if (pages != null) {
+            getServletContext().removeAttribute(BULKHEAD_ATTRIBUTE);
+            pages = null;
+        }
+        if (api != null) {
+            getServletContext().removeAttribute(BULKHEAD_ATTRIBUTE + ".api");
+            api = null;
+        }
+        super.destroy();
+    }
+
     /**
      * Returns a short description of the servlet.
      *
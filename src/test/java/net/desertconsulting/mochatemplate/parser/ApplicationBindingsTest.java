@@ -0,0 +1,123 @@
+package net.desertconsulting.mochatemplate.parser;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.script.Bindings;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineManager;
+import javax.script.ScriptException;
+import javax.script.SimpleBindings;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Patrizio Bruno {@literal <desertconsulting@gmail.com>}
+ */
+public class ApplicationBindingsTest {
+
+    public ApplicationBindingsTest() {
+    }
+
+    /**
+     * Test of parseJson method, of class ApplicationBindings.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testParseJson() throws Exception {
+        System.out.println("parseJson");
+        Map<?, ?> result = (Map<?, ?>) ApplicationBindings.parseJson(
+                "{\"flag\": true, \"items\": [1, \"a\"]}");
+        assertEquals(Boolean.TRUE, result.get("flag"));
+        assertEquals(Arrays.asList(1, "a"), result.get("items"));
+        try {
+            ((List<?>) result.get("items")).clear();
+            fail("parsed values are read-only");
+        } catch (UnsupportedOperationException ex) {
+        }
+    }
+
+    /**
+     * Test of parseJson method, of class ApplicationBindings.
+     * @throws java.lang.Exception
+     */
+    @Test(expected = ScriptException.class)
+    public void testParseJsonMalformed() throws Exception {
+        System.out.println("parseJsonMalformed");
+        ApplicationBindings.parseJson("{flag: true");
+    }
+
+    /**
+     * Test of put method, of class ApplicationBindings.
+     */
+    @Test
+    public void testPut() {
+        System.out.println("put");
+        Map<String, Object> values = new HashMap<>();
+        values.put("a", "application");
+        values.put("list", Arrays.asList(1, 2));
+        ApplicationBindings instance = new ApplicationBindings(values);
+        values.put("a", "changed");
+        assertEquals("application", instance.get("a"));
+        try {
+            instance.put("a", "changed");
+            fail("application bindings are read-only");
+        } catch (UnsupportedOperationException ex) {
+        }
+        try {
+            ((List<?>) instance.get("list")).clear();
+            fail("lists are copied into read-only lists");
+        } catch (UnsupportedOperationException ex) {
+        }
+    }
+
+    /**
+     * Test of the constructor of class ApplicationBindings: javascript
+     * objects are frozen, other bindings are copied.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testScriptObjects() throws Exception {
+        System.out.println("scriptObjects");
+        ScriptEngine engine = new ScriptEngineManager().getEngineByName("js");
+        Bindings scope = engine.createBindings();
+        engine.eval("var config = {nested: {a: 1}, items: [1, 2]};", scope);
+        Map<String, Object> values = new HashMap<>();
+        Object config = scope.get("config");
+        values.put("config", config);
+        SimpleBindings simple = new SimpleBindings();
+        simple.put("b", 2);
+        values.put("simple", simple);
+        ApplicationBindings instance = new ApplicationBindings(values);
+
+        assertSame(config, instance.get("config"));
+        assertEquals("1,2,2", engine.eval(
+                "config.nested.a = 5; config.items.push(3); config.added = 1;"
+                + " [config.nested.a, config.items.length, config.added"
+                + " === undefined ? 2 : 0].join()", scope));
+        try {
+            ((Map<?, ?>) instance.get("simple")).clear();
+            fail("bindings are copied into read-only maps");
+        } catch (UnsupportedOperationException ex) {
+        }
+    }
+
+    /**
+     * Test of with method, of class ApplicationBindings.
+     */
+    @Test
+    public void testWith() {
+        System.out.println("with");
+        ApplicationBindings instance = new ApplicationBindings(Collections.
+                singletonMap("a", "b"));
+        ApplicationBindings result = instance.with(Collections.singletonMap(
+                "c", "d"));
+        assertEquals(2, result.size());
+        assertEquals("b", result.get("a"));
+        assertEquals("d", result.get("c"));
+        assertFalse(instance.containsKey("c"));
+    }
+}
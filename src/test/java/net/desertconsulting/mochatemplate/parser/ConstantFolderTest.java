@@ -0,0 +1,60 @@
+package net.desertconsulting.mochatemplate.parser;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Patrizio Bruno {@literal <desertconsulting@gmail.com>}
+ */
+public class ConstantFolderTest {
+
+    public ConstantFolderTest() {
+    }
+
+    /**
+     * Test of isConstant method, of class ConstantFolder.
+     */
+    @Test
+    public void testIsConstant() {
+        System.out.println("isConstant");
+        ConstantFolder instance = new ConstantFolder();
+        for (String expression : new String[]{"1 + 2", "'a' + \"b\"",
+            "true && !false", "(1.5e3 - .5) % 7", "null == undefined",
+            "x < 3 ? 'y' : 'n'"}) {
+            assertTrue(expression, instance.isConstant(expression,
+                    Collections.singleton("x")));
+        }
+        for (String expression : new String[]{"", "y", "x = 1", "x++",
+            "--x", "x.length", "f()", "[1, 2]", "{a: 1}", "'unterminated"}) {
+            assertFalse(expression, instance.isConstant(expression,
+                    Collections.singleton("x")));
+        }
+    }
+
+    /**
+     * Test of fold method, of class ConstantFolder.
+     */
+    @Test
+    public void testFold() {
+        System.out.println("fold");
+        ConstantFolder instance = new ConstantFolder();
+        Map<String, Object> constants = new HashMap<>();
+        constants.put("x", 2);
+
+        assertEquals(3, ((Number) instance.fold("1 + 2", constants)).
+                intValue());
+        assertEquals("a2", instance.fold("'a' + x", constants));
+        assertEquals(false, instance.fold("x != 2", constants));
+        assertNull(instance.fold("null", constants));
+        assertSame(ConstantFolder.NOT_CONSTANT, instance.fold("y + 1",
+                constants));
+        assertSame(ConstantFolder.NOT_CONSTANT, instance.fold("1 +",
+                constants));
+        assertSame(ConstantFolder.NOT_CONSTANT, instance.fold("x",
+                Collections.<String, Object>emptyMap()));
+    }
+}
@@ -0,0 +1,77 @@
+package net.desertconsulting.mochatemplate.parser;
+
+import net.desertconsulting.mochatemplate.parser.node.AttributeParserArguments;
+import net.desertconsulting.mochatemplate.parser.node.ForAttributeParser;
+import net.desertconsulting.mochatemplate.parser.node.TemplateAttributeParser;
+import net.desertconsulting.mochatemplate.parser.node.TemplateNode;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Patrizio Bruno {@literal <desertconsulting@gmail.com>}
+ */
+public class DirectiveRegistryTest {
+
+    public DirectiveRegistryTest() {
+    }
+
+    /**
+     * Test of getDefault method, of class DirectiveRegistry.
+     */
+    @Test
+    public void testGetDefault() {
+        System.out.println("getDefault");
+        DirectiveRegistry instance = DirectiveRegistry.getDefault();
+        assertSame(instance, DirectiveRegistry.getDefault());
+        for (String instruction : new String[]{"for", "if", "set", "include",
+            "ignore"}) {
+            assertNotNull(instruction, instance.get(instruction));
+        }
+        assertTrue(instance.get("for") instanceof ForAttributeParser);
+        assertNull(instance.get("unknown"));
+    }
+
+    /**
+     * Test of load method, of class DirectiveRegistry.
+     */
+    @Test
+    public void testLoad() {
+        System.out.println("load");
+        DirectiveRegistry result = DirectiveRegistry.load(getClass().
+                getClassLoader());
+        assertNotSame(DirectiveRegistry.getDefault(), result);
+        assertEquals(6, result.getParsers().size());
+        assertTrue(result.get("for") instanceof ForAttributeParser);
+    }
+
+    /**
+     * Test of register method, of class DirectiveRegistry.
+     */
+    @Test
+    public void testRegister() {
+        System.out.println("register");
+        DirectiveRegistry instance = new DirectiveRegistry();
+        TemplateAttributeParser parser = new TemplateAttributeParser() {
+            @Override
+            public boolean eval(TemplateNode dataNode,
+                    AttributeParserArguments args, Parser parser) {
+                return true;
+            }
+
+            @Override
+            public String supportedAttr() {
+                return "custom";
+            }
+        };
+        assertNull(instance.register(parser));
+        assertSame(parser, instance.get("custom"));
+        assertSame(parser, instance.register(parser));
+        assertEquals(1, instance.getParsers().size());
+        try {
+            instance.getParsers().clear();
+            fail("the view is read-only");
+        } catch (UnsupportedOperationException ex) {
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package net.desertconsulting.mochatemplate.parser;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Patrizio Bruno {@literal <desertconsulting@gmail.com>}
+ */
+public class ExpressionAnalyzerTest {
+
+    public ExpressionAnalyzerTest() {
+    }
+
+    /**
+     * Test of variables method, of class ExpressionAnalyzer.
+     */
+    @Test
+    public void testVariables() {
+        System.out.println("variables");
+        ExpressionAnalyzer instance = new ExpressionAnalyzer();
+
+        assertEquals(new HashSet<>(Arrays.asList("config", "i18n", "x")),
+                instance.variables(
+                        "config.cdn + i18n[ 'currency' ] + x . length"));
+        assertEquals(new HashSet<>(Arrays.asList("a", "b")), instance.
+                variables("a === null ? 'x' : typeof b != 'undefined' && !a"));
+        assertEquals(Collections.<String>emptySet(), instance.variables(
+                "1...3"));
+        for (String expression : new String[]{"", "a = 1", "a += 1", "a++",
+            "--a", "f(a)", "a.b()", "a[0](1)", "new Date()", "delete a.b",
+            "{a: 1}", "a; b", "`a`"}) {
+            assertNull(expression, instance.variables(expression));
+        }
+    }
+}
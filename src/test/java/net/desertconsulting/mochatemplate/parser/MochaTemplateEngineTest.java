@@ -1,12 +1,17 @@
 package net.desertconsulting.mochatemplate.parser;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
 import javax.servlet.ServletContext;
 import mockit.Mocked;
+import net.desertconsulting.mochatemplate.parser.render.RenderBudget;
+import net.desertconsulting.mochatemplate.parser.render.RenderBudgetExceededException;
 import org.jsoup.nodes.Document;
 import org.junit.Test;
 import static org.junit.Assert.*;
@@ -104,6 +109,24 @@ public class MochaTemplateEngineTest {
         assertEquals(expResult, result);
     }
 
+    /**
+     * Test of parse method, of class MochaTemplateEngine.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testParseOutputStream() throws Exception {
+        System.out.println("parse");
+        String test
+                = "<html><head></head><body><div title=\"${a}\">\u00e8 ${a}</div></body></html>";
+        MochaTemplateEngine instance = new MochaTemplateEngine(
+                servletContext, test);
+        instance.put("a", "\u20ac");
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        instance.parse(output, outputSettings);
+
+        assertEquals(instance.parse(outputSettings), output.toString("UTF-8"));
+    }
+
     /**
      * Test of put method, of class MochaTemplateEngine.
      * @throws java.lang.Exception
@@ -123,6 +146,111 @@ public class MochaTemplateEngineTest {
         assertEquals(test.replace("${js_var}", value), result);
     }
 
+    /**
+     * Test of setBudget method, of class MochaTemplateEngine.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testSetBudget() throws Exception {
+        System.out.println("setBudget");
+        MochaTemplateEngine instance = new MochaTemplateEngine(
+                servletContext, TEST_HTML);
+        RenderBudget budget = new RenderBudget(0, 5);
+        instance.setBudget(budget);
+        assertSame(budget, instance.getBudget());
+        try {
+            instance.parse(outputSettings);
+            fail("the template evaluates more than 5 operations");
+        } catch (RenderBudgetExceededException ex) {
+            assertEquals(6, ex.getOperations());
+        }
+        try {
+            instance.parse(outputSettings.clone().prettyPrint(true));
+            fail("the template evaluates more than 5 operations");
+        } catch (RenderBudgetExceededException ex) {
+            assertEquals(6, ex.getOperations());
+        }
+        assertEquals(2, budget.getStarted());
+        assertEquals(2, budget.getExceeded());
+
+        instance.setBudget(new RenderBudget(60000, 100));
+        assertEquals(expectedHtml, instance.parse(outputSettings));
+    }
+
+    /**
+     * Test of defaultOutputSettings method, of class MochaTemplateEngine:
+     * null settings render without pretty printing, which can be turned back
+     * on.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testDefaultOutputSettings() throws Exception {
+        System.out.println("defaultOutputSettings");
+        Document.OutputSettings result = MochaTemplateEngine.
+                defaultOutputSettings();
+        assertFalse(result.prettyPrint());
+        assertNotSame(result, MochaTemplateEngine.defaultOutputSettings());
+
+        MochaTemplateEngine instance = new MochaTemplateEngine(servletContext,
+                TEST_HTML);
+        assertEquals(expectedHtml, instance.parse(null));
+        String pretty = instance.parse(result.prettyPrint(true));
+        assertTrue(pretty.contains("\n"));
+        assertEquals(expectedHtml, pretty.replaceAll("\\s*\n\\s*", ""));
+    }
+
+    /**
+     * Test of setApplicationBindings method, of class MochaTemplateEngine.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testSetApplicationBindings() throws Exception {
+        System.out.println("setApplicationBindings");
+        Map<String, Object> values = new HashMap<>();
+        values.put("config", ApplicationBindings.parseJson(
+                "{\"title\": \"app\", \"items\": [1, 2]}"));
+        values.put("a", "application");
+        ApplicationBindings application = new ApplicationBindings(values);
+        MochaTemplateEngine instance = new MochaTemplateEngine(servletContext,
+                "<html><head><script type=\"server/javascript\">var a = 'test';</script></head><body><p>${config.title} ${a} ${config.items[1]} ${config.items.length}</p></body></html>");
+        instance.setApplicationBindings(application);
+        assertSame(application, instance.getApplicationBindings());
+        String expected
+                = "<html><head></head><body><p>app test 2 2</p></body></html>";
+        assertEquals(expected, instance.parse(outputSettings));
+        assertEquals(expected, instance.parse(outputSettings.clone().
+                prettyPrint(true)).replaceAll("\\s*\n\\s*", ""));
+
+        instance.close();
+        assertNull(instance.getApplicationBindings());
+    }
+
+    /**
+     * Test of getScriptCache method, of class MochaTemplateEngine: the
+     * server-side scripts of a template are compiled once per engine.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testGetScriptCache() throws Exception {
+        System.out.println("getScriptCache");
+        ScriptEnginePool pool = new ScriptEnginePool(1, 1);
+        try {
+            for (int i = 0; i < 2; i++) {
+                MochaTemplateEngine instance = new MochaTemplateEngine(
+                        servletContext, pool);
+                instance.loadTemplate(new ByteArrayInputStream(TEST_HTML.
+                        getBytes()));
+                assertEquals(expectedHtml, instance.parse(outputSettings));
+                assertEquals(expectedHtml, instance.parse(outputSettings));
+                assertEquals(1, instance.getScriptCache().getMisses());
+                assertEquals(2 * i + 1, instance.getScriptCache().getHits());
+                instance.close();
+            }
+        } finally {
+            pool.close();
+        }
+    }
+
     private File stream2File(InputStream in) throws IOException {
         final File tempFile = File.createTempFile("mochatpl", "tmp");
         tempFile.deleteOnExit();
@@ -0,0 +1,143 @@
+package net.desertconsulting.mochatemplate.parser;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import javax.script.Bindings;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineManager;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Patrizio Bruno {@literal <desertconsulting@gmail.com>}
+ */
+public class PathEvaluatorTest {
+
+    private ScriptEngine engine;
+    private Bindings bindings;
+    private PathEvaluator instance;
+
+    public PathEvaluatorTest() {
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        engine = new ScriptEngineManager().getEngineByName("js");
+        bindings = engine.getBindings(ScriptContext.ENGINE_SCOPE);
+        instance = new PathEvaluator();
+
+        Map<String, Object> map = new HashMap<>();
+        map.put("name", "map");
+        map.put("n", 3);
+        map.put("l", 3L);
+        map.put("items", Arrays.asList("a", "b"));
+        bindings.put("bean", new Bean("bean", new Bean("child", null)));
+        bindings.put("map", map);
+        bindings.put("array", new int[]{4, 5});
+        bindings.put("nothing", null);
+        engine.eval("var js = {a: {b: [1, 2.5, 'x']}, u: undefined};");
+    }
+
+    private void assertSameAsEngine(String expression) throws Exception {
+        Object result = instance.eval(expression, bindings);
+        assertNotSame(expression, PathEvaluator.UNRESOLVED, result);
+        assertEquals(expression, engine.eval(expression, bindings), result);
+    }
+
+    /**
+     * Test of eval method, of class PathEvaluator.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testEval() throws Exception {
+        System.out.println("eval");
+        for (String expression : new String[]{"bean", "bean.name",
+            "bean.child.name", " bean . child.child ", "bean.active",
+            "bean.size", "bean.field", "map.name", "map.n", "map.items[1]",
+            "map.empty", "array[1]", "array.length", "js.a.b[0]", "js.a.b[1]",
+            "js.a.b[2]", "js.a.b.length", "js.u", "nothing"}) {
+            assertSameAsEngine(expression);
+        }
+    }
+
+    /**
+     * Test of eval method, of class PathEvaluator.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testEvalUnresolved() throws Exception {
+        System.out.println("eval");
+        for (String expression : new String[]{"bean.name + 1", "missing",
+            "bean.missing", "nothing.name", "bean.getName", "bean.count",
+            "map.l", "map.missing", "map.items[2]", "array[2]", "true", "this",
+            "bean.class", "bean.name.length", "bean['name']", "f()"}) {
+            assertSame(expression, PathEvaluator.UNRESOLVED, instance.eval(
+                    expression, bindings));
+        }
+        assertSame(PathEvaluator.UNRESOLVED, instance.eval("bean", null));
+    }
+
+    /**
+     * Test of isPath method, of class PathEvaluator.
+     */
+    @Test
+    public void testIsPath() {
+        System.out.println("isPath");
+        assertTrue(instance.isPath("a.b[0].c"));
+        assertTrue(instance.isPath("$a._b"));
+        assertFalse(instance.isPath("a.b()"));
+        assertFalse(instance.isPath("a - b"));
+        assertFalse(instance.isPath("undefined"));
+        assertFalse(instance.isPath("0"));
+    }
+
+    /**
+     * Test of eval method, of class PathEvaluator: non-public classes are
+     * read through their public interfaces.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testEvalNonPublicClass() throws Exception {
+        System.out.println("eval");
+        bindings.put("list", Collections.unmodifiableList(Arrays.asList(1, 2)));
+        assertSameAsEngine("list.empty");
+        assertSameAsEngine("list[1]");
+    }
+
+    public static class Bean {
+
+        public final String field = "field";
+        private final String name;
+        private final Bean child;
+
+        public Bean(String name, Bean child) {
+            this.name = name;
+            this.child = child;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public Bean getChild() {
+            return child;
+        }
+
+        public boolean isActive() {
+            return true;
+        }
+
+        public int getSize() {
+            return 42;
+        }
+
+        public long getCount() {
+            return 1L;
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package net.desertconsulting.mochatemplate.parser;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.TimeoutException;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Patrizio Bruno {@literal <desertconsulting@gmail.com>}
+ */
+public class ScriptEnginePoolTest {
+
+    public ScriptEnginePoolTest() {
+    }
+
+    /**
+     * Test of borrow method, of class ScriptEnginePool.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testBorrow() throws Exception {
+        System.out.println("borrow");
+        ScriptEnginePool instance = new ScriptEnginePool(1, 2, 100, 60000);
+        assertEquals(1, instance.size());
+        assertEquals(1, instance.getIdle());
+
+        ScriptEnginePool.PooledEngine first = instance.borrow();
+        ScriptEnginePool.PooledEngine second = instance.borrow();
+        assertNotSame(first, second);
+        assertEquals(2, instance.size());
+        assertEquals(2, instance.getActive());
+        assertEquals(1.0, instance.getUtilization(), 0.001);
+
+        try {
+            instance.borrow();
+            fail("the pool is exhausted");
+        } catch (TimeoutException ex) {
+            assertEquals(1, instance.getTimeouts());
+        }
+
+        instance.release(second);
+        assertSame(second, instance.borrow());
+        instance.release(second);
+        instance.release(first);
+        assertEquals(0, instance.getActive());
+        assertEquals(2, instance.getIdle());
+        assertEquals(3, instance.getBorrowed());
+        assertEquals(2, instance.getCreated());
+        assertTrue(instance.getAverageWaitTime() >= 0);
+    }
+
+    /**
+     * Test of tryBorrow method, of class ScriptEnginePool.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testTryBorrow() throws Exception {
+        System.out.println("tryBorrow");
+        ScriptEnginePool instance = new ScriptEnginePool(1, 2, 100, 60000);
+        ScriptEnginePool.PooledEngine first = instance.tryBorrow();
+        assertNotNull(first);
+        // engines are never created on the spot
+        assertNull(instance.tryBorrow());
+        assertEquals(1, instance.getActive());
+        assertEquals(1, instance.getCreated());
+
+        ScriptEnginePool.PooledEngine second = instance.borrow();
+        assertNull(instance.tryBorrow());
+        instance.release(first);
+        assertSame(first, instance.tryBorrow());
+        instance.release(first);
+        instance.release(second);
+        assertEquals(0, instance.getActive());
+        assertEquals(3, instance.getBorrowed());
+        assertEquals(0, instance.getTimeouts());
+    }
+
+    /**
+     * Test of evictIdle method, of class ScriptEnginePool.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testEvictIdle() throws Exception {
+        System.out.println("evictIdle");
+        ScriptEnginePool instance = new ScriptEnginePool(1, 3, 100, 0);
+        ScriptEnginePool.PooledEngine first = instance.borrow();
+        ScriptEnginePool.PooledEngine second = instance.borrow();
+        ScriptEnginePool.PooledEngine third = instance.borrow();
+        instance.release(first);
+        instance.release(second);
+        instance.release(third);
+        assertEquals(0, instance.evictIdle());
+        assertEquals(1, instance.size());
+        assertEquals(2, instance.getEvicted());
+    }
+
+    /**
+     * Test of close method, of class ScriptEnginePool.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testClose() throws Exception {
+        System.out.println("close");
+        ScriptEnginePool instance = new ScriptEnginePool(2, 2);
+        ScriptEnginePool.PooledEngine engine = instance.borrow();
+        instance.close();
+        assertEquals(1, instance.size());
+        instance.release(engine);
+        assertEquals(0, instance.size());
+        try {
+            instance.borrow();
+            fail("the pool is closed");
+        } catch (IllegalStateException ex) {
+        }
+    }
+
+    /**
+     * Test of pooled engines, of class ScriptEnginePool: renderings sharing an
+     * engine don't share their variables.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testPooledRendering() throws Exception {
+        System.out.println("pooledRendering");
+        ScriptEnginePool pool = new ScriptEnginePool(1, 1);
+        String html
+                = "<script type=\"server/javascript\">var n = typeof n == 'undefined' ? 1 : n + 1;</script><p>${n}-${x}</p>";
+
+        for (int i = 0; i < 3; i++) {
+            try (MochaTemplateEngine instance = new MochaTemplateEngine(null,
+                    pool)) {
+                instance.loadTemplate(new ByteArrayInputStream(html.
+                        getBytes()));
+                instance.put("x", i);
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                instance.parse(out, null);
+                assertTrue(out.toString("UTF-8").contains("<p>1-" + i
+                        + "</p>"));
+            }
+        }
+        assertEquals(1, pool.getCreated());
+        assertEquals(0, pool.getActive());
+        assertEquals(3, pool.getBorrowed());
+    }
+}
@@ -0,0 +1,121 @@
+package net.desertconsulting.mochatemplate.parser;
+
+import java.io.File;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import javax.script.Bindings;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineManager;
+import javax.servlet.ServletContext;
+import mockit.Mock;
+import mockit.MockUp;
+import org.jsoup.nodes.Document;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Patrizio Bruno {@literal <desertconsulting@gmail.com>}
+ */
+public class ScriptLibrariesTest {
+
+    private final static String LIBRARY
+            = "var util = {up: function(s) { return s.toUpperCase(); }}; function twice(x) { return x * 2; }";
+
+    public ScriptLibrariesTest() {
+    }
+
+    /**
+     * Test of load method, of class ScriptLibraries.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testLoad() throws Exception {
+        System.out.println("load");
+        ScriptEngine engine = new ScriptEngineManager().getEngineByName("js");
+        ScriptLibraries instance = new ScriptLibraries(engine);
+        assertTrue(instance.load("/util.js", LIBRARY));
+        assertFalse(instance.load("/util.js", new String(LIBRARY)));
+        assertTrue(instance.isLoaded("/util.js", LIBRARY));
+        assertEquals(1, instance.getEvaluations());
+
+        // a changed library is evaluated again
+        assertTrue(instance.load("/util.js", LIBRARY + " var v = 2;"));
+        assertEquals(2, instance.getEvaluations());
+        assertTrue(instance.getScope(null).containsKey("v"));
+
+        // into a new scope, together with the other libraries
+        assertTrue(instance.load("/other.js", "var w = 3;"));
+        assertTrue(instance.load("/util.js", LIBRARY));
+        assertEquals(5, instance.getEvaluations());
+        Bindings result = instance.getScope(null);
+        assertFalse(result.containsKey("v"));
+        assertTrue(result.containsKey("w"));
+        assertTrue(result.containsKey("util"));
+    }
+
+    /**
+     * Test of getScope method, of class ScriptLibraries.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testGetScope() throws Exception {
+        System.out.println("getScope");
+        ScriptEngine engine = new ScriptEngineManager().getEngineByName("js");
+        ScriptLibraries instance = new ScriptLibraries(engine);
+        ApplicationBindings application = new ApplicationBindings(Collections.
+                singletonMap("twice", "application"));
+        assertSame(application, instance.getScope(application));
+        assertNull(instance.getScope(null));
+
+        instance.load("/util.js", LIBRARY);
+        Bindings result = instance.getScope(application);
+        assertTrue(result.containsKey("util"));
+        assertNotEquals("application", result.get("twice"));
+        assertSame(result, instance.getScope(application));
+
+        Bindings bindings = engine.createBindings();
+        bindings.put("name", "abc");
+        engine.setBindings(result, ScriptContext.GLOBAL_SCOPE);
+        assertEquals("ABC4", engine.eval("util.up(name) + twice(2)",
+                bindings));
+
+        // renderings cannot modify the shared objects
+        assertEquals("ABC", engine.eval(
+                "util.up = function(s) { return s; }; util.up(name)",
+                bindings));
+    }
+
+    /**
+     * Test of the evaluation of libraries by MochaTemplateEngine: a library
+     * is evaluated once per javascript engine.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testParseWithLibrary() throws Exception {
+        System.out.println("parseWithLibrary");
+        final File file = File.createTempFile("mochatpl", ".js");
+        file.deleteOnExit();
+        Files.write(file.toPath(), LIBRARY.getBytes(StandardCharsets.UTF_8));
+        ServletContext context = new MockUp<ServletContext>() {
+            @Mock
+            public URL getResource(String path) throws MalformedURLException {
+                return "/util.js".equals(path) ? file.toURI().toURL() : null;
+            }
+        }.getMockInstance();
+
+        MochaTemplateEngine instance = new MochaTemplateEngine(context,
+                "<html><head><script type=\"server/javascript\" src=\"/util.js\" data-library></script><script type=\"server/javascript\">var n = twice(3);</script></head><body><p>${util.up('a')}${n}</p></body></html>");
+        Document.OutputSettings outputSettings = new Document.OutputSettings().
+                syntax(Document.OutputSettings.Syntax.xml).prettyPrint(false);
+        String expected = "<html><head></head><body><p>A6</p></body></html>";
+        assertEquals(expected, instance.parse(outputSettings));
+        assertEquals(expected, instance.parse(outputSettings));
+        assertEquals(1, instance.getLibraries().getEvaluations());
+        instance.close();
+    }
+}
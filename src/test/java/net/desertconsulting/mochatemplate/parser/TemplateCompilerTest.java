@@ -0,0 +1,382 @@
+/*
+ * Copyright 2016 Patrizio Bruno <desertconsulting@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.desertconsulting.mochatemplate.parser;
+
+import java.util.HashMap;
+import java.util.Map;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineManager;
+import net.desertconsulting.mochatemplate.parser.cache.ExpressionCache;
+import net.desertconsulting.mochatemplate.parser.node.ForAttributeParser;
+import net.desertconsulting.mochatemplate.parser.node.IfAttributeParser;
+import net.desertconsulting.mochatemplate.parser.node.IgnoreAttributeParser;
+import net.desertconsulting.mochatemplate.parser.node.IncludeAttributeParser;
+import net.desertconsulting.mochatemplate.parser.node.SetAttributeParser;
+import net.desertconsulting.mochatemplate.parser.node.TemplateAttributeParser;
+import net.desertconsulting.mochatemplate.parser.render.RenderContext;
+import net.desertconsulting.mochatemplate.parser.render.RenderNode;
+import net.desertconsulting.mochatemplate.parser.render.ScopeBindings;
+import net.desertconsulting.mochatemplate.parser.render.StaticNode;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Patrizio Bruno {@literal <desertconsulting@gmail.com>}
+ */
+public class TemplateCompilerTest {
+
+    private ScriptEngine engine;
+    private TemplateCompiler instance;
+
+    public TemplateCompilerTest() {
+    }
+
+    @Before
+    public void setUp() {
+        engine = new ScriptEngineManager().getEngineByName("js");
+        Map<String, TemplateAttributeParser> attrParsers = new HashMap<>();
+        TemplateAttributeParser[] parsers = {
+            new ForAttributeParser(),
+            new IfAttributeParser(),
+            new SetAttributeParser(),
+            new IgnoreAttributeParser(),
+            new IncludeAttributeParser()
+        };
+        for (TemplateAttributeParser parser : parsers) {
+            attrParsers.put(parser.supportedAttr(), parser);
+        }
+        instance = new TemplateCompiler(attrParsers,
+                new Document.OutputSettings().syntax(
+                        Document.OutputSettings.Syntax.xml));
+    }
+
+    private String render(CompiledTemplate template) throws Exception {
+        return render(template, 1);
+    }
+
+    private String render(CompiledTemplate template, int parallelism)
+            throws Exception {
+        return render(template, parallelism, null);
+    }
+
+    private String render(CompiledTemplate template, int parallelism,
+            ScriptEnginePool pool) throws Exception {
+        StringBuilder sb = new StringBuilder();
+        template.render(new RenderContext(new ExpressionCache(engine), template,
+                sb, null, null, parallelism).withEnginePool(pool),
+                engine.getBindings(ScriptContext.ENGINE_SCOPE));
+        return sb.toString();
+    }
+
+    private String render(String html) throws Exception {
+        return render(instance.compile(Jsoup.parse(html)));
+    }
+
+    /**
+     * Test of getCodegenThreshold method, of class TemplateCompiler.
+     */
+    @Test
+    public void testGetCodegenThreshold() {
+        System.out.println("getCodegenThreshold");
+        // class generation is opt-in
+        assertEquals(Integer.getInteger(
+                TemplateCompiler.CODEGEN_THRESHOLD_PROPERTY, 0).intValue(),
+                instance.getCodegenThreshold());
+        assertEquals(0, TemplateCompiler.DEFAULT_CODEGEN_THRESHOLD);
+    }
+
+    /**
+     * Test of compile method, of class TemplateCompiler.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testCompileStatic() throws Exception {
+        System.out.println("compile");
+        String html
+                = "<html><head></head><body><div id=\"foo\">a &amp; b</div></body></html>";
+        CompiledTemplate result = instance.compile(Jsoup.parse(html));
+        RenderNode[] nodes = result.getNodes();
+
+        assertEquals(1, nodes.length);
+        assertEquals(html, ((StaticNode) nodes[0]).getHtml());
+        assertEquals(html, render(result));
+    }
+
+    /**
+     * Test of compile method, of class TemplateCompiler.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testCompileDoesNotModifyDocument() throws Exception {
+        System.out.println("compile");
+        Document document = Jsoup.parse(
+                "<script type=\"server/javascript\">var a = 1;</script><!-- server-comment x --><p data-if=\"a\" title=\"${a}\">${a}</p>");
+        String expResult = document.outerHtml();
+        CompiledTemplate template = instance.compile(document);
+        engine.eval(template.getScripts().get(0).getData());
+        render(template);
+
+        assertEquals(expResult, document.outerHtml());
+    }
+
+    /**
+     * Test of compile method, of class TemplateCompiler.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testCompileInterpolation() throws Exception {
+        System.out.println("compile");
+        engine.put("a", "$1 \\");
+        engine.put("b", "x & y");
+        engine.put("n", 2.5);
+        String result = render(
+                "<body><p title=\"${b}\">${a} ${n}</p></body>");
+
+        assertEquals(
+                "<html><head></head><body><p title=\"x &amp; y\">$1 \\ 2.5</p></body></html>",
+                result);
+    }
+
+    /**
+     * Test of compile method, of class TemplateCompiler.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testCompileDirectives() throws Exception {
+        System.out.println("compile");
+        engine.eval("var d = ['a', 'b', 'c'];");
+        String result = render(
+                "<body><ul><li data-for-x-i=\"d\" data-if=\"i != 1\" data-set-y=\"x + i\">${y}</li></ul><p data-if=\"false\">no</p></body>");
+
+        assertEquals(
+                "<html><head></head><body><ul><li>a0</li><li>c2</li></ul></body></html>",
+                result);
+    }
+
+    /**
+     * Test of compile method, of class TemplateCompiler.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testCompileSetScope() throws Exception {
+        System.out.println("compile");
+        String result = render(
+                "<body><div data-set-x=\"'in'\">${x}</div><div data-if=\"typeof x === 'undefined'\">out</div></body>");
+
+        assertEquals(
+                "<html><head></head><body><div>in</div><div>out</div></body></html>",
+                result);
+    }
+
+    /**
+     * Test of compile method, of class TemplateCompiler.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testCompileIgnore() throws Exception {
+        System.out.println("compile");
+        String result = render(
+                "<body><div data-set-x=\"1\" data-ignore title=\"${x}\" data-if=\"false\">${x}<!-- server-comment x --></div></body>");
+
+        assertEquals(
+                "<html><head></head><body><div title=\"${x}\" data-if=\"false\">${x}<!-- server-comment x --></div></body></html>",
+                result);
+    }
+
+    /**
+     * Test of compile method, of class TemplateCompiler.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testCompileInclude() throws Exception {
+        System.out.println("compile");
+        String result = render(
+                "<body><template data-type=\"server/template\" id=\"t\"><b>${x}</b></template><div data-for-x=\"1...2\" data-include=\"#t\">:</div></body>");
+
+        assertEquals(
+                "<html><head></head><body><div>:<b>1</b></div><div>:<b>2</b></div></body></html>",
+                result);
+    }
+
+    /**
+     * Test of compile method, of class TemplateCompiler.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testCompileConstants() throws Exception {
+        System.out.println("compile");
+        String html
+                = "<body><p data-if=\"false\">no</p><p data-if=\"1 < 2\" title=\"${'a' + 'b'}\">${1 + 1} ${'x' + 1}</p></body>";
+        CompiledTemplate result = instance.compile(Jsoup.parse(html));
+        RenderNode[] nodes = result.getNodes();
+
+        assertEquals(1, nodes.length);
+        assertEquals(
+                "<html><head></head><body><p title=\"ab\">2 x1</p></body></html>",
+                ((StaticNode) nodes[0]).getHtml());
+    }
+
+    /**
+     * Test of compile method, of class TemplateCompiler.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testCompileUnrolledFor() throws Exception {
+        System.out.println("compile");
+        String html
+                = "<body><ul><li data-for-x-i=\"1...3\" data-if=\"x != 2\" class=\"i${i}\">${x}</li></ul></body>";
+        String expResult
+                = "<html><head></head><body><ul><li class=\"i0\">1</li><li class=\"i2\">3</li></ul></body></html>";
+        CompiledTemplate result = instance.compile(Jsoup.parse(html));
+        RenderNode[] nodes = result.getNodes();
+
+        assertEquals(1, nodes.length);
+        assertEquals(expResult, ((StaticNode) nodes[0]).getHtml());
+
+        engine.put("y", "-");
+        assertEquals(
+                "<html><head></head><body><ul><li>1-</li><li>2-</li></ul></body></html>",
+                render("<body><ul><li data-for-x=\"1...2\">${x}${y}</li></ul></body>"));
+    }
+
+    /**
+     * Test of compile method, of class TemplateCompiler.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testCompileLoopInvariants() throws Exception {
+        System.out.println("compile");
+        Counter counter = new Counter();
+        engine.put("counter", counter);
+        engine.eval("var d = ['a', 'b', 'c']; var rows = [1, 2];");
+        String result = render(
+                "<body><ul><li data-for-x-i=\"d\" title=\"${counter.value}\">${x}${i} ${counter.value}</li></ul></body>");
+
+        assertEquals(
+                "<html><head></head><body><ul><li title=\"1\">a0 2</li><li title=\"1\">b1 2</li><li title=\"1\">c2 2</li></ul></body></html>",
+                result);
+        assertEquals(2, counter.count);
+
+        counter.count = 0;
+        result = render(
+                "<body><div data-for-r=\"rows\"><p data-for-x=\"d\">${r}${x}${counter.value}</p></div></body>");
+
+        assertEquals(
+                "<html><head></head><body><div><p>1a1</p><p>1b1</p><p>1c1</p></div><div><p>2a2</p><p>2b2</p><p>2c2</p></div></body></html>",
+                result);
+        assertEquals(2, counter.count);
+    }
+
+    /**
+     * Test of compile method, of class TemplateCompiler.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testCompileLoopVariants() throws Exception {
+        System.out.println("compile");
+        Counter counter = new Counter();
+        engine.put("counter", counter);
+        engine.put("cdn", "out");
+        engine.eval("var d = ['a', 'b'];");
+        String result = render(
+                "<body><p data-for-x=\"d\" data-set-cdn=\"x\">${cdn}</p><p data-for-x=\"d\">${counter.value}${String(x)}</p><p data-for-x=\"[]\">${missing}</p></body>");
+
+        assertEquals(
+                "<html><head></head><body><p>a</p><p>b</p><p>1a</p><p>2b</p></body></html>",
+                result);
+    }
+
+    /**
+     * Test of getParallelLoopThreshold method, of class TemplateCompiler:
+     * loops over large collections are rendered in chunks.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testParallelLoop() throws Exception {
+        System.out.println("parallelLoop");
+        instance.setParallelLoopThreshold(10);
+        engine.put("title", "row");
+        engine.eval("var d = []; for (var n = 0; n < 100; n++) d.push(n);");
+        CompiledTemplate template = instance.compile(Jsoup.parse(
+                "<body><p data-for-x-i=\"d\" data-set-y=\"x * 2\">"
+                + "${title}${i}:${y}</p><p data-for-x=\"1...20\">${x}</p>"
+                + "</body>"));
+        String expected = render(template, 1);
+        assertTrue(expected.contains("<p>row0:0</p><p>row1:2</p>"));
+        assertTrue(expected.contains("<p>row99:198</p><p>1</p>"));
+        assertEquals(expected, render(template, 4));
+        assertEquals(expected, render(template, 3));
+        assertNull(engine.get("y"));
+
+        instance.setParallelLoopThreshold(0);
+        assertEquals(expected, render(template, 4));
+    }
+
+    /**
+     * Test of parallel data-for loops evaluated by pooled engines, of class
+     * TemplateCompiler.
+     */
+    @Test
+    public void testParallelLoopPool() throws Exception {
+        System.out.println("parallelLoopPool");
+        assertEquals(0, TemplateCompiler.DEFAULT_PARALLEL_LOOP_THRESHOLD);
+        instance.setParallelLoopThreshold(10);
+        engine.put("title", "row");
+        engine.eval("var d = []; for (var n = 0; n < 200; n++) d.push(n);"
+                + "var base = {offset: 1000};");
+        CompiledTemplate template = instance.compile(Jsoup.parse(
+                "<body><p data-for-x-i=\"d\" data-set-y=\"x * 2 + base.offset\">"
+                + "${title}${i}:${y}:${[x, x * x].join('-')}"
+                + ":${Math.max(x, 50).toString(16)}</p></body>"));
+        String expected = render(template, 1);
+        assertTrue(expected.contains("<p>row0:1000:0-0:32</p>"));
+        assertTrue(expected.contains("<p>row199:1398:199-39601:c7</p>"));
+
+        try (ScriptEnginePool pool = new ScriptEnginePool(2, 2)) {
+            for (int i = 0; i < 20; i++) {
+                assertEquals(expected, render(template, 3, pool));
+            }
+            // every render split the loop among the two pooled engines
+            assertEquals(40, pool.getBorrowed());
+            assertEquals(0, pool.getActive());
+            assertEquals(2, pool.getIdle());
+
+            // no idle engine left: the loop is rendered sequentially
+            ScriptEnginePool.PooledEngine first = pool.borrow();
+            ScriptEnginePool.PooledEngine second = pool.borrow();
+            assertNull(pool.tryBorrow());
+            assertEquals(expected, render(template, 3, pool));
+            pool.release(first);
+            pool.release(second);
+        }
+        assertNull(engine.get("y"));
+        assertNull(engine.get(ScopeBindings.NASHORN_GLOBAL));
+    }
+
+    public static class Counter {
+
+        private int count;
+
+        public int getValue() {
+            return ++count;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package net.desertconsulting.mochatemplate.parser;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Patrizio Bruno {@literal <desertconsulting@gmail.com>}
+ */
+public class TemplatePrecompilerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private TemplatePrecompiler instance;
+
+    public TemplatePrecompilerTest() {
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        write("index.html",
+                "<html><body><p data-if=\"a > 1\" title=\"${a}\">${a}</p></body></html>");
+        write("pages/bad.html",
+                "<html><body><p data-set-x=\"a +\">${b )}</p><div data-ignore>${(}</div></body></html>");
+        write("WEB-INF/hidden.html", "<html></html>");
+        write("style.css", "p {}");
+        instance = new TemplatePrecompiler(folder.getRoot());
+    }
+
+    private void write(String path, String content) throws IOException {
+        File file = new File(folder.getRoot(), path);
+        file.getParentFile().mkdirs();
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(file),
+                StandardCharsets.UTF_8)) {
+            writer.write(content);
+        }
+    }
+
+    /**
+     * Test of findTemplates method, of class TemplatePrecompiler.
+     */
+    @Test
+    public void testFindTemplates() {
+        System.out.println("findTemplates");
+        assertEquals(Arrays.asList("/index.html", "/pages/bad.html"),
+                instance.findTemplates());
+    }
+
+    /**
+     * Test of validate method, of class TemplatePrecompiler.
+     */
+    @Test
+    public void testValidate() {
+        System.out.println("validate");
+        assertTrue(instance.validate("/index.html").isEmpty());
+
+        List<String> errors = instance.validate("/pages/bad.html");
+        assertEquals(2, errors.size());
+        assertTrue(errors.get(0).startsWith("/pages/bad.html: data-set-x: "));
+        assertTrue(errors.get(1).startsWith("/pages/bad.html: ${b )}: "));
+    }
+
+    /**
+     * Test of writeIndex method, of class TemplatePrecompiler.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testWriteIndex() throws Exception {
+        System.out.println("writeIndex");
+        File output = folder.newFolder("out");
+        TemplatePrecompiler.writeIndex(instance.findTemplates(), output);
+
+        assertEquals(Arrays.asList("/index.html", "/pages/bad.html"), Files.
+                readAllLines(new File(output, "WEB-INF/mochatemplate.index").
+                        toPath(), StandardCharsets.UTF_8));
+    }
+}
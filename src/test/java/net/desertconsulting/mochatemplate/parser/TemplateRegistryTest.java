@@ -0,0 +1,193 @@
+package net.desertconsulting.mochatemplate.parser;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javax.servlet.ServletContext;
+import net.desertconsulting.mochatemplate.parser.cache.DocumentCache;
+import mockit.Mock;
+import mockit.MockUp;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Patrizio Bruno {@literal <desertconsulting@gmail.com>}
+ */
+public class TemplateRegistryTest {
+
+    private final static String HTML
+            = "<script type=\"server/javascript\">var items = [1, 2, 3];</script><ul><li data-for-x=\"items\">${x}-${n}</li></ul>";
+
+    private File file;
+    private String packed;
+    private ServletContext context;
+
+    public TemplateRegistryTest() {
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("mochatpl", ".html");
+        file.deleteOnExit();
+        Files.write(file.toPath(), HTML.getBytes(StandardCharsets.UTF_8));
+        packed = HTML;
+        context = new MockUp<ServletContext>() {
+            @Mock
+            public URL getResource(String path) throws MalformedURLException {
+                return "/file.html".equals(path) ? file.toURI().toURL()
+                        : null;
+            }
+
+            @Mock
+            public InputStream getResourceAsStream(String path) throws
+                    FileNotFoundException {
+                switch (path) {
+                    case "/file.html":
+                        return new FileInputStream(file);
+                    case "/packed.html":
+                        return new ByteArrayInputStream(packed.getBytes(
+                                StandardCharsets.UTF_8));
+                    case TemplatePrecompiler.INDEX_PATH:
+                        return new ByteArrayInputStream(
+                                "/packed.html\n/missing.html\n".getBytes(
+                                        StandardCharsets.UTF_8));
+                    default:
+                        return null;
+                }
+            }
+        }.getMockInstance();
+    }
+
+    /**
+     * Test of getTemplate method, of class TemplateRegistry.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testGetTemplate() throws Exception {
+        System.out.println("getTemplate");
+        TemplateRegistry instance = new TemplateRegistry(context);
+
+        assertNull(instance.getTemplate("/missing.html"));
+        CompiledTemplate result = instance.getTemplate("/file.html");
+        assertNotNull(result);
+        assertSame(result, instance.getTemplate("/file.html"));
+        assertSame(result, instance.createEngine("/file.html").getTemplate());
+
+        assertTrue(file.setLastModified(file.lastModified() + 2000));
+        assertNotSame(result, instance.getTemplate("/file.html"));
+
+        // templates packed into a WAR are cached by path and content
+        result = instance.getTemplate("/packed.html");
+        assertNotNull(result);
+        assertSame(result, instance.getTemplate("/packed.html"));
+        assertSame(result, instance.createEngine("/packed.html").
+                getTemplate());
+
+        packed = HTML.replace("${x}", "${x * 2}");
+        CompiledTemplate changed = instance.getTemplate("/packed.html");
+        assertNotSame(result, changed);
+        assertSame(changed, instance.getTemplate("/packed.html"));
+    }
+
+    /**
+     * Test of precompile method, of class TemplateRegistry.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testPrecompile() throws Exception {
+        System.out.println("precompile");
+        TemplateRegistry instance = new TemplateRegistry(context);
+
+        assertEquals(1, instance.precompile());
+        assertSame(instance.getTemplate("/packed.html"), instance.getTemplate(
+                "/packed.html"));
+    }
+
+    /**
+     * Test of setDocumentCache method, of class TemplateRegistry: a new
+     * registry, e.g. after a restart, finds the templates already parsed.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testSetDocumentCache() throws Exception {
+        System.out.println("setDocumentCache");
+        File directory = Files.createTempDirectory("mochatpl").toFile();
+        directory.deleteOnExit();
+        String expected
+                = "<html><head></head><body><ul><li>1-0</li><li>2-0</li><li>3-0</li></ul></body></html>";
+        for (int i = 0; i < 2; i++) {
+            TemplateRegistry instance = new TemplateRegistry(context);
+            DocumentCache documents = new DocumentCache(directory);
+            instance.setDocumentCache(documents);
+            assertSame(documents, instance.getDocumentCache());
+            for (String path : new String[]{"/file.html", "/packed.html"}) {
+                MochaTemplateEngine engine = instance.createEngine(path);
+                engine.put("n", 0);
+                assertEquals(expected, engine.parse(null));
+            }
+            assertEquals(2 * i, documents.getHits());
+            assertEquals(2 * (1 - i), documents.getMisses());
+        }
+    }
+
+    /**
+     * Test of createEngine method, of class TemplateRegistry: engines created
+     * by different threads render the same compiled template at the same
+     * time.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testConcurrentRendering() throws Exception {
+        System.out.println("createEngine");
+        final TemplateRegistry instance = new TemplateRegistry(context);
+        instance.getTemplate("/file.html").getCompiler().setCodegenThreshold(
+                10);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < 40; i++) {
+                final int n = i;
+                results.add(executor.submit(new Callable<String>() {
+                    @Override
+                    public String call() throws Exception {
+                        MochaTemplateEngine engine = instance.createEngine(
+                                "/file.html");
+                        engine.put("n", n);
+                        return engine.parse(null);
+                    }
+                }));
+            }
+            for (int i = 0; i < results.size(); i++) {
+                assertEquals(String.format(
+                        "<html><head></head><body><ul><li>1-%1$d</li><li>2-%1$d</li><li>3-%1$d</li></ul></body></html>",
+                        i), results.get(i).get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+        // the template class is generated by a background thread
+        CompiledTemplate template = instance.getTemplate("/file.html");
+        long deadline = System.currentTimeMillis() + 60000;
+        while (!template.isGenerated() && System.currentTimeMillis()
+                < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(template.isGenerated());
+    }
+}
@@ -0,0 +1,152 @@
+package net.desertconsulting.mochatemplate.parser.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import net.desertconsulting.mochatemplate.parser.TemplateCompiler;
+import net.desertconsulting.mochatemplate.parser.node.ForAttributeParser;
+import net.desertconsulting.mochatemplate.parser.node.IfAttributeParser;
+import net.desertconsulting.mochatemplate.parser.node.SetAttributeParser;
+import net.desertconsulting.mochatemplate.parser.node.TemplateAttributeParser;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Patrizio Bruno {@literal <desertconsulting@gmail.com>}
+ */
+public class DocumentCacheTest {
+
+    private final static String HTML
+            = "<!DOCTYPE html><html><head><script type=\"server/javascript\">var a = 1 < 2;</script></head><body><!-- comment --><form><input disabled value=\"\"></form><p data-if=\"a\">&lt;${a}&gt;</p></body></html>";
+
+    private File directory;
+
+    public DocumentCacheTest() {
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("mochatpl").toFile();
+        directory.deleteOnExit();
+    }
+
+    /**
+     * Test of get method, of class DocumentCache.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testGet() throws Exception {
+        System.out.println("get");
+        byte[] content = HTML.getBytes(StandardCharsets.UTF_8);
+        Document document = Jsoup.parse(new ByteArrayInputStream(content),
+                null, "");
+        DocumentCache instance = new DocumentCache(directory);
+        assertNull(instance.get("/index.html", 1000, content));
+        instance.put("/index.html", 1000, content, document);
+
+        Document result = new DocumentCache(directory).get("/index.html",
+                1000, content);
+        assertNotNull(result);
+        assertEquals(document.outerHtml(), result.outerHtml());
+        assertEquals(document.outputSettings().charset(), result.
+                outputSettings().charset());
+        assertEquals(1, instance.getMisses());
+
+        // a different version of the template is parsed again
+        assertNull(instance.get("/index.html", 2000, content));
+        assertNull(instance.get("/index.html", 1000, "<p></p>".getBytes(
+                StandardCharsets.UTF_8)));
+        assertNull(instance.get("/other.html", 1000, content));
+        assertEquals(4, instance.getMisses());
+        assertEquals(0, instance.getHits());
+    }
+
+    /**
+     * Test of get method, of class DocumentCache: damaged entries are
+     * ignored.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testGetDamaged() throws Exception {
+        System.out.println("get");
+        byte[] content = HTML.getBytes(StandardCharsets.UTF_8);
+        DocumentCache instance = new DocumentCache(directory);
+        instance.put("/index.html", 1000, content, Jsoup.parse(HTML));
+        File[] entries = directory.listFiles();
+        assertEquals(1, entries.length);
+        byte[] entry = Files.readAllBytes(entries[0].toPath());
+        Files.write(entries[0].toPath(), Arrays.copyOf(entry,
+                entry.length / 2));
+
+        assertNull(instance.get("/index.html", 1000, content));
+        assertEquals(1, instance.getMisses());
+    }
+
+    /**
+     * Test of get method, of class DocumentCache: an entry of a large template
+     * reads back as the parsed document. Prints the best time of parsing,
+     * reading the entry and compiling the document, without asserting on
+     * them.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testGetTime() throws Exception {
+        System.out.println("getTime");
+        StringBuilder html = new StringBuilder(
+                "<!DOCTYPE html><html><head><title>rows</title></head><body>");
+        for (int i = 0; i < 1000; i++) {
+            html.append("<div class=\"row\" id=\"r").append(i).append(
+                    "\"><p data-if=\"x > ").append(i).append(
+                    "\">Hello ${name} <b>bold</b> &amp; text</p><ul>"
+                    + "<li data-for=\"it : items\">${it.name}</li></ul>"
+                    + "<a href=\"/x?y=").append(i).append("\">link</a></div>");
+        }
+        byte[] content = html.append("</body></html>").toString().getBytes(
+                StandardCharsets.UTF_8);
+        Map<String, TemplateAttributeParser> attrParsers = new HashMap<>();
+        TemplateAttributeParser[] parsers = {
+            new ForAttributeParser(),
+            new IfAttributeParser(),
+            new SetAttributeParser()
+        };
+        for (TemplateAttributeParser parser : parsers) {
+            attrParsers.put(parser.supportedAttr(), parser);
+        }
+        TemplateCompiler compiler = new TemplateCompiler(attrParsers,
+                new Document.OutputSettings());
+        DocumentCache instance = new DocumentCache(directory);
+        instance.put("/rows.html", 1000, content, Jsoup.parse(
+                new ByteArrayInputStream(content), null, ""));
+
+        long parse = Long.MAX_VALUE;
+        long get = Long.MAX_VALUE;
+        long compile = Long.MAX_VALUE;
+        for (int i = 0; i < 10; i++) {
+            long start = System.nanoTime();
+            Document parsed = Jsoup.parse(new ByteArrayInputStream(content),
+                    null, "");
+            parse = Math.min(parse, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            Document cached = instance.get("/rows.html", 1000, content);
+            get = Math.min(get, System.nanoTime() - start);
+            assertEquals(parsed.outerHtml(), cached.outerHtml());
+
+            start = System.nanoTime();
+            compiler.compile(cached);
+            compile = Math.min(compile, System.nanoTime() - start);
+        }
+        System.out.println(String.format(
+                "%d bytes: parse %d us, cache %d us, compile %d us",
+                content.length, parse / 1000, get / 1000, compile / 1000));
+    }
+}
@@ -0,0 +1,134 @@
+package net.desertconsulting.mochatemplate.parser.cache;
+
+import javax.script.Bindings;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineManager;
+import mockit.Expectations;
+import mockit.Mocked;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Patrizio Bruno {@literal <desertconsulting@gmail.com>}
+ */
+public class ExpressionCacheTest {
+
+    private ScriptEngine engine;
+
+    public ExpressionCacheTest() {
+    }
+
+    @Before
+    public void setUp() {
+        engine = new ScriptEngineManager().getEngineByName("js");
+    }
+
+    /**
+     * Test of eval method, of class ExpressionCache.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testEval() throws Exception {
+        System.out.println("eval");
+        ExpressionCache instance = new ExpressionCache(engine);
+        Bindings bindings = engine.createBindings();
+
+        for (int i = 0; i < 3; i++) {
+            bindings.put("x", i);
+            assertEquals(i + 1, ((Number) instance.eval("x + 1", bindings)).
+                    intValue());
+        }
+        assertEquals(1, instance.getMisses());
+        assertEquals(2, instance.getHits());
+        assertEquals(1, instance.size());
+    }
+
+    /**
+     * Test of eval method, of class ExpressionCache.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testEvalNullBindings() throws Exception {
+        System.out.println("eval");
+        ExpressionCache instance = new ExpressionCache(engine);
+        engine.put("y", "test");
+
+        assertEquals("test", instance.eval("y", null));
+    }
+
+    /**
+     * Test of compile method, of class ExpressionCache.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testCompileEvictsLeastRecentlyUsed() throws Exception {
+        System.out.println("compile");
+        ExpressionCache instance = new ExpressionCache(engine, 2);
+
+        instance.compile("1");
+        instance.compile("2");
+        instance.compile("1");
+        instance.compile("3");
+        assertEquals(2, instance.size());
+        assertEquals(3, instance.getMisses());
+
+        // "2" has been evicted, "1" is still cached
+        instance.compile("1");
+        assertEquals(2, instance.getHits());
+        instance.compile("2");
+        assertEquals(4, instance.getMisses());
+    }
+
+    /**
+     * Test of compile method, of class ExpressionCache.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testCompileDisabled() throws Exception {
+        System.out.println("compile");
+        ExpressionCache instance = new ExpressionCache(engine, 0);
+
+        assertNull(instance.compile("1"));
+        assertEquals(0, instance.size());
+    }
+
+    /**
+     * Test of eval method, of class ExpressionCache.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testEvalNotCompilable(@Mocked final ScriptEngine mockedEngine,
+            @Mocked final Bindings bindings) throws Exception {
+        System.out.println("eval");
+        new Expectations() {
+            {
+                mockedEngine.eval("x", bindings);
+                returns("test");
+            }
+        };
+        ExpressionCache instance = new ExpressionCache(mockedEngine);
+
+        assertEquals("test", instance.eval("x", bindings));
+        assertNull(instance.compile("x"));
+        assertEquals(0, instance.getMisses());
+    }
+
+    /**
+     * Test of clear method, of class ExpressionCache.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testClear() throws Exception {
+        System.out.println("clear");
+        ExpressionCache instance = new ExpressionCache(engine);
+        instance.compile("1");
+        instance.compile("1");
+        instance.clear();
+
+        assertEquals(0, instance.size());
+        assertEquals(0, instance.getHits());
+        assertEquals(0, instance.getMisses());
+    }
+}
@@ -73,4 +73,104 @@ public class FileCacheTest {
         boolean result = instance.containsKey(key);
         assertEquals(expResult, result);
     }
+
+    /**
+     * Test of putIfAbsent method, of class FileCache.
+     */
+    @Test
+    public void testPutIfAbsent() {
+        System.out.println("putIfAbsent");
+        CacheFile key = new CacheFile(uri1);
+        FileCache<String> instance = new FileCache<>();
+        assertNull(instance.putIfAbsent(key, "first"));
+        assertEquals("first", instance.putIfAbsent(new CacheFile(uri1),
+                "second"));
+
+        new File(uri1).setLastModified(new Date().getTime() + 2100);
+        CacheFile changed = new CacheFile(uri1);
+        assertNull(instance.putIfAbsent(changed, "third"));
+        assertEquals("third", instance.get(changed));
+    }
+
+    /**
+     * Test of put method, of class FileCache: the least recently used files
+     * are evicted once the cache is full.
+     * @throws java.io.IOException
+     */
+    @Test
+    public void testPutEvictsLeastRecentlyUsed() throws IOException {
+        System.out.println("put");
+        CacheFile first = new CacheFile(uri1);
+        CacheFile second = new CacheFile(tempFile());
+        CacheFile third = new CacheFile(tempFile());
+        FileCache<String> instance = new FileCache<>(2);
+        instance.put(first, "first");
+        instance.put(second, "second");
+        assertEquals("first", instance.get(first));
+        instance.put(third, "third");
+
+        assertEquals(2, instance.size());
+        assertEquals(1, instance.getEvictions());
+        assertNull(instance.get(second));
+        assertEquals("first", instance.get(first));
+        assertEquals("third", instance.get(third));
+        assertEquals(3, instance.getHits());
+        assertEquals(1, instance.getMisses());
+    }
+
+    /**
+     * Test of put method, of class FileCache: files are evicted once the
+     * cache gets too heavy.
+     * @throws java.io.IOException
+     */
+    @Test
+    public void testPutMaxWeight() throws IOException {
+        System.out.println("put");
+        FileCache<String> instance = new FileCache<>(0, 10,
+                new FileCache.Weigher<String>() {
+            @Override
+            public long weigh(CacheFile file, String content) {
+                return content.length();
+            }
+        });
+        CacheFile first = new CacheFile(uri1);
+        CacheFile second = new CacheFile(tempFile());
+        instance.put(first, "12345");
+        instance.put(second, "123456");
+
+        assertEquals(1, instance.size());
+        assertEquals(6, instance.getWeight());
+        assertNull(instance.get(first));
+        assertEquals("123456", instance.get(second));
+    }
+
+    /**
+     * Test of get method, of class FileCache: missing files are loaded and
+     * cached.
+     * @throws java.io.IOException
+     */
+    @Test
+    public void testGetLoader() throws IOException {
+        System.out.println("get");
+        FileCache<String> instance = new FileCache<>();
+        FileCache.Loader<String> loader = new FileCache.Loader<String>() {
+            @Override
+            public String load(CacheFile file) throws IOException {
+                return file.getUri().toString();
+            }
+        };
+        CacheFile key = new CacheFile(uri1);
+        assertEquals(uri1.toString(), instance.get(key, loader));
+        assertEquals(uri1.toString(), instance.get(new CacheFile(uri1),
+                loader));
+        assertEquals(1, instance.getLoads());
+        assertEquals(1, instance.getHits());
+        assertTrue(instance.getLoadTime() >= 0);
+    }
+
+    private URI tempFile() throws IOException {
+        File file = File.createTempFile("mochatpl", ".tmp");
+        file.deleteOnExit();
+        return file.toURI();
+    }
 }
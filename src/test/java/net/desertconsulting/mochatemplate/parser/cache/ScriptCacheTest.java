@@ -0,0 +1,82 @@
+package net.desertconsulting.mochatemplate.parser.cache;
+
+import javax.script.Bindings;
+import javax.script.CompiledScript;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineManager;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Patrizio Bruno {@literal <desertconsulting@gmail.com>}
+ */
+public class ScriptCacheTest {
+
+    private ScriptEngine engine;
+
+    public ScriptCacheTest() {
+    }
+
+    @Before
+    public void setUp() {
+        engine = new ScriptEngineManager().getEngineByName("js");
+    }
+
+    /**
+     * Test of get method, of class ScriptCache.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testGet() throws Exception {
+        System.out.println("get");
+        ScriptCache instance = new ScriptCache(engine);
+        assertTrue(instance.isEnabled());
+        assertNull(instance.get("a"));
+        CompiledScript script = instance.compile("a", "var x = y + 1;");
+        assertSame(script, instance.get("a"));
+        assertEquals(1, instance.getMisses());
+        assertEquals(1, instance.getHits());
+
+        Bindings bindings = engine.createBindings();
+        bindings.put("y", 1);
+        instance.get("a").eval(bindings);
+        assertEquals(2, ((Number) bindings.get("x")).intValue());
+    }
+
+    /**
+     * Test of compile method, of class ScriptCache.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testCompileEvictsLeastRecentlyUsed() throws Exception {
+        System.out.println("compile");
+        ScriptCache instance = new ScriptCache(engine, 2);
+
+        instance.compile("1", "1");
+        instance.compile("2", "2");
+        instance.get("1");
+        instance.compile("3", "3");
+        assertEquals(2, instance.size());
+
+        // "2" has been evicted, "1" is still cached
+        assertNotNull(instance.get("1"));
+        assertNull(instance.get("2"));
+    }
+
+    /**
+     * Test of compile method, of class ScriptCache.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testCompileDisabled() throws Exception {
+        System.out.println("compile");
+        ScriptCache instance = new ScriptCache(engine, 0);
+        assertFalse(instance.isEnabled());
+        assertNull(instance.compile("1", "1"));
+        assertNull(instance.get("1"));
+        assertEquals(0, instance.size());
+        assertEquals(0, instance.getMisses());
+    }
+}
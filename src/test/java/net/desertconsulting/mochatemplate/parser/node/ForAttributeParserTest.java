@@ -1,6 +1,7 @@
 package net.desertconsulting.mochatemplate.parser.node;
 
 import net.desertconsulting.mochatemplate.parser.Parser;
+import net.desertconsulting.mochatemplate.parser.cache.ExpressionCache;
 import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -9,6 +10,7 @@ import java.util.Map;
 import javax.script.Bindings;
 import javax.script.ScriptEngine;
 import javax.script.ScriptException;
+import javax.servlet.ServletContext;
 import mockit.Expectations;
 import mockit.Mocked;
 import org.jsoup.nodes.Attribute;
@@ -59,7 +61,7 @@ public class ForAttributeParserTest {
         TemplateNode dataNode = new TemplateNode(node, bindings, engine,
                 document);
         AttributeParserArguments args = new AttributeParserArguments(attribute);
-        ForAttributeParser instance = new ForAttributeParser(engine);
+        ForAttributeParser instance = new ForAttributeParser();
         boolean expResult = false;
         ParserImpl parser = new ParserImpl();
         boolean result = instance.eval(dataNode, args, parser);
@@ -83,7 +85,7 @@ public class ForAttributeParserTest {
         TemplateNode dataNode = new TemplateNode(node, bindings, engine,
                 document);
         AttributeParserArguments args = new AttributeParserArguments(attribute);
-        ForAttributeParser instance = new ForAttributeParser(engine);
+        ForAttributeParser instance = new ForAttributeParser();
         boolean expResult = false;
         ParserImpl parser = new ParserImpl();
         boolean result = instance.eval(dataNode, args, parser);
@@ -104,7 +106,7 @@ public class ForAttributeParserTest {
         Attribute attr = new Attribute("data-for-x", "1...4");
 
         AttributeParserArguments args = new AttributeParserArguments(attr);
-        ForAttributeParser instance = new ForAttributeParser(engine);
+        ForAttributeParser instance = new ForAttributeParser();
         boolean expResult = false;
         ParserImpl parser = new ParserImpl();
         boolean result = instance.eval(dataNode, args, parser);
@@ -128,7 +130,7 @@ public class ForAttributeParserTest {
         TemplateNode dataNode = new TemplateNode(node, bindings, engine,
                 document);
         AttributeParserArguments args = new AttributeParserArguments(attribute);
-        ForAttributeParser instance = new ForAttributeParser(engine);
+        ForAttributeParser instance = new ForAttributeParser();
         boolean expResult = false;
         ParserImpl parser = new ParserImpl();
         boolean result = instance.eval(dataNode, args, parser);
@@ -159,7 +161,7 @@ public class ForAttributeParserTest {
         TemplateNode dataNode = new TemplateNode(node, bindings, engine,
                 document);
         AttributeParserArguments args = new AttributeParserArguments(attribute);
-        ForAttributeParser instance = new ForAttributeParser(engine);
+        ForAttributeParser instance = new ForAttributeParser();
         boolean expResult = false;
         ParserImpl parser = new ParserImpl();
         boolean result = instance.eval(dataNode, args, parser);
@@ -185,7 +187,7 @@ public class ForAttributeParserTest {
         TemplateNode dataNode = new TemplateNode(node, bindings, engine,
                 document);
         AttributeParserArguments args = new AttributeParserArguments(attribute);
-        ForAttributeParser instance = new ForAttributeParser(engine);
+        ForAttributeParser instance = new ForAttributeParser();
         boolean expResult = false;
         ParserImpl parser = new ParserImpl();
         boolean result = instance.eval(dataNode, args, parser);
@@ -205,7 +207,7 @@ public class ForAttributeParserTest {
         TemplateNode dataNode = new TemplateNode(node, null, engine,
                 document);
         AttributeParserArguments args = new AttributeParserArguments(attribute);
-        ForAttributeParser instance = new ForAttributeParser(engine);
+        ForAttributeParser instance = new ForAttributeParser();
         boolean expResult = false;
         ParserImpl parser = new ParserImpl();
         boolean result = instance.eval(dataNode, args, parser);
@@ -236,6 +238,21 @@ public class ForAttributeParserTest {
                 ScriptException {
             return null;
         }
+
+        @Override
+        public ScriptEngine getEngine() {
+            return engine;
+        }
+
+        @Override
+        public ExpressionCache getExpressions() {
+            return new ExpressionCache(engine);
+        }
+
+        @Override
+        public ServletContext getServletContext() {
+            return null;
+        }
     }
 
     /**
@@ -244,7 +261,7 @@ public class ForAttributeParserTest {
     @Test
     public void testSupportedAttr() {
         System.out.println("supportedAttr");
-        ForAttributeParser instance = new ForAttributeParser(null);
+        ForAttributeParser instance = new ForAttributeParser();
         String expResult = "for";
         String result = instance.supportedAttr();
         assertEquals(expResult, result);
@@ -51,7 +51,7 @@ public class IfAttributeParserTest {
                 document);
         final Attribute attribute = new Attribute("data-if", "false");
         AttributeParserArguments args = new AttributeParserArguments(attribute);
-        IfAttributeParser instance = new IfAttributeParser(engine);
+        IfAttributeParser instance = new IfAttributeParser();
         final boolean expResult = false;
 
         new Expectations() {
@@ -75,7 +75,7 @@ public class IfAttributeParserTest {
                 document);
         final Attribute attribute = new Attribute("data-if", "0");
         AttributeParserArguments args = new AttributeParserArguments(attribute);
-        IfAttributeParser instance = new IfAttributeParser(engine);
+        IfAttributeParser instance = new IfAttributeParser();
         final boolean expResult = false;
 
         new Expectations() {
@@ -99,7 +99,7 @@ public class IfAttributeParserTest {
                 document);
         final Attribute attribute = new Attribute("data-if", "null");
         AttributeParserArguments args = new AttributeParserArguments(attribute);
-        IfAttributeParser instance = new IfAttributeParser(engine);
+        IfAttributeParser instance = new IfAttributeParser();
         final boolean expResult = false;
 
         new Expectations() {
@@ -123,7 +123,7 @@ public class IfAttributeParserTest {
                 document);
         final Attribute attribute = new Attribute("data-if", "null");
         AttributeParserArguments args = new AttributeParserArguments(attribute);
-        IfAttributeParser instance = new IfAttributeParser(engine);
+        IfAttributeParser instance = new IfAttributeParser();
         final boolean expResult = true;
 
         new Expectations() {
@@ -147,7 +147,7 @@ public class IfAttributeParserTest {
                 document);
         final Attribute attribute = new Attribute("data-if", "''");
         AttributeParserArguments args = new AttributeParserArguments(attribute);
-        IfAttributeParser instance = new IfAttributeParser(engine);
+        IfAttributeParser instance = new IfAttributeParser();
         final boolean expResult = false;
 
         new Expectations() {
@@ -170,7 +170,7 @@ public class IfAttributeParserTest {
                 document);
         final Attribute attribute = new Attribute("data-if", "true");
         AttributeParserArguments args = new AttributeParserArguments(attribute);
-        IfAttributeParser instance = new IfAttributeParser(engine);
+        IfAttributeParser instance = new IfAttributeParser();
         final boolean expResult = true;
 
         new Expectations() {
@@ -189,7 +189,7 @@ public class IfAttributeParserTest {
     @Test
     public void testSupportedAttr() {
         System.out.println("supportedAttr");
-        IfAttributeParser instance = new IfAttributeParser(engine);
+        IfAttributeParser instance = new IfAttributeParser();
         String expResult = "if";
         String result = instance.supportedAttr();
         assertEquals(expResult, result);
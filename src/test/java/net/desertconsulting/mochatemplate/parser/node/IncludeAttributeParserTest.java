@@ -82,9 +82,12 @@ public class IncludeAttributeParserTest {
             {
                 parser.parseString("@..", bindings);
                 returns("@...");
+
+                parser.getServletContext();
+                returns(context);
             }
         };
-        IncludeAttributeParser instance = new IncludeAttributeParser(engine, context);
+        IncludeAttributeParser instance = new IncludeAttributeParser();
         boolean expResult = true;
         boolean result = instance.eval(dataNode, args, parser);
         assertEquals(expResult, result);
@@ -107,9 +110,12 @@ public class IncludeAttributeParserTest {
 
                 parser.parseString("@/tmp/tmpfile", bindings);
                 returns("@/tmp/tmpfile");
+
+                parser.getServletContext();
+                returns(context);
             }
         };
-        IncludeAttributeParser instance = new IncludeAttributeParser(engine, context);
+        IncludeAttributeParser instance = new IncludeAttributeParser();
         boolean expResult = true;
         boolean result = instance.eval(dataNode, args, parser);
         assertEquals(expResult, result);
@@ -140,7 +146,7 @@ public class IncludeAttributeParserTest {
                 returns(templateNodes);
             }
         };
-        IncludeAttributeParser instance = new IncludeAttributeParser(engine, context);
+        IncludeAttributeParser instance = new IncludeAttributeParser();
         boolean expResult = true;
         boolean result = instance.eval(dataNode, args, parser);
         assertEquals(expResult, result);
@@ -152,7 +158,7 @@ public class IncludeAttributeParserTest {
     @Test
     public void testSupportedAttr() {
         System.out.println("supportedAttr");
-        IncludeAttributeParser instance = new IncludeAttributeParser(engine, context);
+        IncludeAttributeParser instance = new IncludeAttributeParser();
         String expResult = "include";
         String result = instance.supportedAttr();
         assertEquals(expResult, result);
@@ -92,7 +92,7 @@ public class SetAttributeParserTest {
         };
         TemplateNode dataNode = new TemplateNode(node, bindings, engine, document);
         AttributeParserArguments args = new AttributeParserArguments(attribute);
-        SetAttributeParser instance = new SetAttributeParser(engine);
+        SetAttributeParser instance = new SetAttributeParser();
         boolean expResult = true;
         boolean result = instance.eval(dataNode, args, parser);
         assertEquals(expResult, result);
@@ -122,7 +122,7 @@ public class SetAttributeParserTest {
         };
         TemplateNode dataNode = new TemplateNode(node, bindings, engine, document);
         AttributeParserArguments args = new AttributeParserArguments(attribute);
-        SetAttributeParser instance = new SetAttributeParser(engine);
+        SetAttributeParser instance = new SetAttributeParser();
         boolean expResult = true;
         boolean result = instance.eval(dataNode, args, parser);
         assertEquals(expResult, result);
@@ -136,7 +136,7 @@ public class SetAttributeParserTest {
     @Test
     public void testSupportedAttr() {
         System.out.println("supportedAttr");
-        SetAttributeParser instance = new SetAttributeParser(engine);
+        SetAttributeParser instance = new SetAttributeParser();
         String expResult = "set";
         String result = instance.supportedAttr();
         assertEquals(expResult, result);
@@ -0,0 +1,47 @@
+package net.desertconsulting.mochatemplate.parser.node;
+
+import javax.script.Bindings;
+import javax.script.SimpleBindings;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.jsoup.parser.Tag;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Patrizio Bruno {@literal <desertconsulting@gmail.com>}
+ */
+public class TemplateNodeTest {
+
+    public TemplateNodeTest() {
+    }
+
+    /**
+     * Test of getBindings method, of class TemplateNode: the node's bindings
+     * are a scope of the enclosing ones.
+     */
+    @Test
+    public void testGetBindings() {
+        System.out.println("getBindings");
+        Document document = new Document("");
+        Element element = new Element(Tag.valueOf("p"), "");
+        Bindings bindings = new SimpleBindings();
+        bindings.put("a", 1);
+        TemplateNode instance = new TemplateNode(element, bindings, document);
+        assertSame(element, instance.getNode());
+        assertSame(document, instance.getDocument());
+
+        Bindings result = instance.getBindings();
+        assertEquals(1, result.get("a"));
+        result.put("a", 2);
+        result.put("b", 3);
+        assertEquals(2, result.get("a"));
+        assertEquals(1, bindings.get("a"));
+        assertFalse(bindings.containsKey("b"));
+
+        TemplateNode child = new TemplateNode(element, result, document);
+        assertEquals(3, child.getBindings().get("b"));
+        assertNull(new TemplateNode(element, null, document).getBindings());
+    }
+}
@@ -0,0 +1,113 @@
+package net.desertconsulting.mochatemplate.parser.render;
+
+import java.util.HashMap;
+import java.util.Map;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineManager;
+import javax.script.ScriptException;
+import net.desertconsulting.mochatemplate.parser.CompiledTemplate;
+import net.desertconsulting.mochatemplate.parser.TemplateCompiler;
+import net.desertconsulting.mochatemplate.parser.cache.ExpressionCache;
+import net.desertconsulting.mochatemplate.parser.node.ForAttributeParser;
+import net.desertconsulting.mochatemplate.parser.node.RegionAttributeParser;
+import net.desertconsulting.mochatemplate.parser.node.SetAttributeParser;
+import net.desertconsulting.mochatemplate.parser.node.TemplateAttributeParser;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Patrizio Bruno {@literal <desertconsulting@gmail.com>}
+ */
+public class ParallelNodeTest {
+
+    private final static String TEMPLATE = "<ul>"
+            + "<li data-region data-for-x=\"[1, 2, 3]\">a${x}</li>"
+            + "<li>${title}</li>"
+            + "<li data-region data-set-y=\"title + '!'\">${y}</li>"
+            + "<li data-region data-for-x=\"[4, 5]\">"
+            + "${java.lang.Thread.currentThread().getName()"
+            + ".indexOf('ForkJoinPool') == 0}</li>"
+            + "</ul>";
+
+    private ScriptEngine engine;
+    private TemplateCompiler compiler;
+
+    public ParallelNodeTest() {
+    }
+
+    @Before
+    public void setUp() {
+        engine = new ScriptEngineManager().getEngineByName("js");
+        engine.put("title", "page");
+        Map<String, TemplateAttributeParser> attrParsers = new HashMap<>();
+        TemplateAttributeParser[] parsers = {
+            new ForAttributeParser(),
+            new SetAttributeParser(),
+            new RegionAttributeParser()
+        };
+        for (TemplateAttributeParser parser : parsers) {
+            attrParsers.put(parser.supportedAttr(), parser);
+        }
+        compiler = new TemplateCompiler(attrParsers,
+                new Document.OutputSettings().prettyPrint(false));
+    }
+
+    private String render(String html, int parallelism) throws Exception {
+        CompiledTemplate template = compiler.compile(Jsoup.parse(html));
+        StringBuilder sb = new StringBuilder();
+        template.render(new RenderContext(new ExpressionCache(engine),
+                template, sb, null, null, parallelism), engine.getBindings(
+                        ScriptContext.ENGINE_SCOPE));
+        return sb.toString();
+    }
+
+    /**
+     * Test of render method, of class ParallelNode.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testRender() throws Exception {
+        System.out.println("render");
+        String result = render(TEMPLATE, 4);
+        assertTrue(result, result.contains("<ul><li>a1</li><li>a2</li>"
+                + "<li>a3</li><li>page</li><li>page!</li>"
+                + "<li>true</li><li>true</li></ul>"));
+        assertNull(engine.get("y"));
+
+        // sequential rendering
+        assertEquals(result.replace("<li>true</li><li>true</li>",
+                "<li>false</li><li>false</li>"), render(TEMPLATE, 1));
+    }
+
+    /**
+     * Test of render method, of class ParallelNode: errors of a region are
+     * thrown by the calling thread.
+     * @throws java.lang.Exception
+     */
+    @Test(expected = ScriptException.class)
+    public void testRenderError() throws Exception {
+        System.out.println("renderError");
+        render("<p data-region>${title}</p><p data-region>${missing.x}</p>",
+                4);
+    }
+
+    /**
+     * Test of countRegions method, of class ParallelNode.
+     */
+    @Test
+    public void testCountRegions() {
+        System.out.println("countRegions");
+        RenderNode[] nodes = {
+            new StaticNode("<p>"),
+            new ElementNode(new Directive[]{new RegionDirective()},
+            new RenderNode[0], new RenderNode[0], "")
+        };
+        assertEquals(1, ParallelNode.countRegions(nodes));
+        assertEquals(0, ParallelNode.countRegions(new RenderNode[0]));
+    }
+}
@@ -0,0 +1,68 @@
+package net.desertconsulting.mochatemplate.parser.render;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Patrizio Bruno {@literal <desertconsulting@gmail.com>}
+ */
+public class RenderBudgetTest {
+
+    public RenderBudgetTest() {
+    }
+
+    /**
+     * Test of start method, of class RenderBudget.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testStart() throws Exception {
+        System.out.println("start");
+        RenderBudget instance = new RenderBudget(0, 3);
+        RenderBudget.Meter meter = instance.start();
+        for (int i = 0; i < 3; i++) {
+            meter.check();
+        }
+        assertEquals(3, meter.getOperations());
+        for (int i = 0; i < 2; i++) {
+            try {
+                meter.check();
+                fail("only 3 operations are allowed");
+            } catch (RenderBudgetExceededException ex) {
+                assertEquals(4 + i, ex.getOperations());
+            }
+        }
+        // a rendering is counted once
+        assertEquals(1, instance.getExceeded());
+
+        instance.start().check();
+        assertEquals(2, instance.getStarted());
+        assertEquals(1, instance.getExceeded());
+    }
+
+    /**
+     * Test of getTimeout method, of class RenderBudget.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testTimeout() throws Exception {
+        System.out.println("timeout");
+        RenderBudget instance = new RenderBudget(10, 0);
+        RenderBudget.Meter meter = instance.start();
+        meter.check();
+        Thread.sleep(20);
+        try {
+            meter.check();
+            fail("the rendering lasted more than 10 ms");
+        } catch (RenderBudgetExceededException ex) {
+            assertTrue(ex.getElapsed() > 10);
+        }
+        assertEquals(1, instance.getExceeded());
+
+        meter = new RenderBudget(0, 0).start();
+        for (int i = 0; i < 1000; i++) {
+            meter.check();
+        }
+    }
+}
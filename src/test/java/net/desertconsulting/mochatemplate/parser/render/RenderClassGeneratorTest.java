@@ -0,0 +1,194 @@
+package net.desertconsulting.mochatemplate.parser.render;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineManager;
+import net.desertconsulting.mochatemplate.parser.CompiledTemplate;
+import net.desertconsulting.mochatemplate.parser.TemplateCompiler;
+import net.desertconsulting.mochatemplate.parser.cache.ExpressionCache;
+import net.desertconsulting.mochatemplate.parser.node.ForAttributeParser;
+import net.desertconsulting.mochatemplate.parser.node.IfAttributeParser;
+import net.desertconsulting.mochatemplate.parser.node.IgnoreAttributeParser;
+import net.desertconsulting.mochatemplate.parser.node.IncludeAttributeParser;
+import net.desertconsulting.mochatemplate.parser.node.SetAttributeParser;
+import net.desertconsulting.mochatemplate.parser.node.TemplateAttributeParser;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Patrizio Bruno {@literal <desertconsulting@gmail.com>}
+ */
+public class RenderClassGeneratorTest {
+
+    private ScriptEngine engine;
+    private TemplateCompiler compiler;
+
+    public RenderClassGeneratorTest() {
+    }
+
+    @Before
+    public void setUp() {
+        engine = new ScriptEngineManager().getEngineByName("js");
+        Map<String, TemplateAttributeParser> attrParsers = new HashMap<>();
+        TemplateAttributeParser[] parsers = {
+            new ForAttributeParser(),
+            new IfAttributeParser(),
+            new SetAttributeParser(),
+            new IgnoreAttributeParser(),
+            new IncludeAttributeParser()
+        };
+        for (TemplateAttributeParser parser : parsers) {
+            attrParsers.put(parser.supportedAttr(), parser);
+        }
+        compiler = new TemplateCompiler(attrParsers,
+                new Document.OutputSettings().syntax(
+                        Document.OutputSettings.Syntax.xml));
+        compiler.setCodegenThreshold(0);
+    }
+
+    private String render(CompiledTemplate template, RenderNode[] nodes)
+            throws Exception {
+        StringBuilder sb = new StringBuilder();
+        RenderContext context = new RenderContext(new ExpressionCache(engine),
+                template, sb, null, null);
+        for (RenderNode node : nodes) {
+            node.render(context, engine.getBindings(
+                    ScriptContext.ENGINE_SCOPE));
+        }
+        return sb.toString();
+    }
+
+    private void assertGenerated(String html) throws Exception {
+        CompiledTemplate template = compiler.compile(Jsoup.parse(html));
+        RenderNode[] nodes = template.getNodes();
+        RenderNode generated = new RenderClassGenerator().generate(nodes);
+
+        assertTrue(generated.getClass().getName().startsWith(
+                RenderClassGenerator.PACKAGE));
+        assertEquals(render(template, nodes), render(template,
+                new RenderNode[]{generated}));
+    }
+
+    /**
+     * Test of generate method, of class RenderClassGenerator.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testGenerate() throws Exception {
+        System.out.println("generate");
+        engine.eval("var d = ['a', 'b', 'c']; var q = '\"<q>\" \\\\ $1';");
+        assertGenerated(
+                "<body><p title=\"${q}\" class=\"\u00e8\">${q} \"\u00e8\"\n\t${d.length}</p><ul><li data-for-x-i=\"d\" data-if=\"i != 1\" data-set-y=\"x + i\" title=\"${y}\">${y}</li></ul><p data-if=\"false\">no</p></body>");
+    }
+
+    /**
+     * Test of generate method, of class RenderClassGenerator.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testGenerateInclude() throws Exception {
+        System.out.println("generate");
+        assertGenerated(
+                "<body><template data-type=\"server/template\" id=\"t\"><b>${x}</b></template><div data-for-x=\"1...2\" data-include=\"#t\">:</div><div data-ignore>${x}</div></body>");
+    }
+
+    /**
+     * Test of generate method, of class RenderClassGenerator.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testGenerateLargeTemplate() throws Exception {
+        System.out.println("generate");
+        StringBuilder html = new StringBuilder("<body>");
+        for (int i = 0; i < 1000; i++) {
+            html.append("<p title=\"").append(i).append("\">${").append(i).
+                    append("}</p>");
+        }
+        for (int i = 0; i < 5000; i++) {
+            html.append("<i>static text</i>");
+        }
+        assertGenerated(html.append("</body>").toString());
+    }
+
+    /**
+     * Test of generate method, of class RenderClassGenerator: the dispatch of
+     * many sequences is split like their statements.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testGenerateManySequences() throws Exception {
+        System.out.println("generate");
+        engine.put("a", "x");
+        StringBuilder html = new StringBuilder("<body>");
+        for (int i = 0; i < 5000; i++) {
+            html.append("<p data-if=\"a\">").append(i).append("</p>");
+        }
+        assertGenerated(html.append("</body>").toString());
+    }
+
+    /**
+     * Test of render method, of class CompiledTemplate: the template gets
+     * generated once the threshold is reached.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testCodegenThreshold() throws Exception {
+        System.out.println("render");
+        compiler.setCodegenThreshold(2);
+        compiler.setCodegenExecutor(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        });
+        engine.put("a", "x");
+        CompiledTemplate template = compiler.compile(Jsoup.parse(
+                "<body><p data-if=\"true\">${a}</p></body>"));
+        String expResult = render(template, template.getNodes());
+
+        StringBuilder sb = new StringBuilder();
+        RenderContext context = new RenderContext(new ExpressionCache(engine),
+                template, sb, null, null);
+        template.render(context, null);
+        assertFalse(template.isGenerated());
+        template.render(context, null);
+        assertTrue(template.isGenerated());
+        assertEquals(expResult + expResult, sb.toString());
+    }
+
+    /**
+     * Test of render method, of class CompiledTemplate: by default the
+     * template gets generated by a background thread, while the rendering
+     * goes on.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testCodegenBackground() throws Exception {
+        System.out.println("render");
+        compiler.setCodegenThreshold(1);
+        engine.put("a", "x");
+        CompiledTemplate template = compiler.compile(Jsoup.parse(
+                "<body><p data-if=\"true\">${a}</p></body>"));
+        String expResult = render(template, template.getNodes());
+
+        StringBuilder sb = new StringBuilder();
+        RenderContext context = new RenderContext(new ExpressionCache(engine),
+                template, sb, null, null);
+        template.render(context, null);
+        long deadline = System.currentTimeMillis() + 60000;
+        while (!template.isGenerated() && System.currentTimeMillis()
+                < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(template.isGenerated());
+        template.render(context, null);
+        assertEquals(expResult + expResult, sb.toString());
+    }
+}
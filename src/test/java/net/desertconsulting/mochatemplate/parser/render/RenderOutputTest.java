@@ -0,0 +1,134 @@
+package net.desertconsulting.mochatemplate.parser.render;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Patrizio Bruno {@literal <desertconsulting@gmail.com>}
+ */
+public class RenderOutputTest {
+
+    public RenderOutputTest() {
+    }
+
+    /**
+     * Test of append method, of class RenderOutput.
+     * @throws java.io.IOException
+     */
+    @Test
+    public void testAppendFlushes() throws IOException {
+        System.out.println("append");
+        CountingWriter writer = new CountingWriter();
+        RenderOutput instance = new RenderOutput(writer, 4);
+
+        instance.append("ab");
+        assertEquals(0, writer.flushes);
+        instance.append('c').append("xdefx", 1, 4);
+        assertEquals(1, writer.flushes);
+        instance.append("ghij");
+        assertEquals(2, writer.flushes);
+        assertEquals("abcdefghij", writer.toString());
+    }
+
+    /**
+     * Test of append method, of class RenderOutput.
+     * @throws java.io.IOException
+     */
+    @Test
+    public void testAppendNeverFlushes() throws IOException {
+        System.out.println("append");
+        CountingWriter writer = new CountingWriter();
+        RenderOutput instance = new RenderOutput(writer, 0);
+
+        instance.append("abcdefghij");
+        assertEquals(0, writer.flushes);
+        assertEquals("abcdefghij", writer.toString());
+    }
+
+    /**
+     * Test of flush method, of class RenderOutput.
+     * @throws java.io.IOException
+     */
+    @Test
+    public void testFlushNotFlushable() throws IOException {
+        System.out.println("flush");
+        StringBuilder sb = new StringBuilder();
+        RenderOutput instance = new RenderOutput(sb, 1);
+
+        instance.append("abc");
+        instance.flush();
+        assertEquals("abc", sb.toString());
+    }
+
+    /**
+     * Test of write method, of class RenderOutput.
+     * @throws java.io.IOException
+     */
+    @Test
+    public void testWriteStream() throws IOException {
+        System.out.println("write");
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        RenderOutput instance = new RenderOutput(stream, StandardCharsets.UTF_8,
+                0);
+
+        instance.append("a\u00e8");
+        instance.write("<b>".getBytes(StandardCharsets.UTF_8),
+                StandardCharsets.UTF_8, "<b>");
+        instance.write("\u00e8".getBytes(StandardCharsets.ISO_8859_1),
+                StandardCharsets.ISO_8859_1, "\u00e8");
+        assertEquals("a\u00e8<b>", stream.toString("UTF-8"));
+        instance.flush();
+        assertEquals("a\u00e8<b>\u00e8", stream.toString("UTF-8"));
+    }
+
+    /**
+     * Test of append method, of class RenderOutput.
+     * @throws java.io.IOException
+     */
+    @Test
+    public void testAppendStreamSurrogates() throws IOException {
+        System.out.println("append");
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        RenderOutput instance = new RenderOutput(stream, StandardCharsets.UTF_8,
+                0);
+        StringBuilder expResult = new StringBuilder();
+        for (int i = 0; i < 8191; i++) {
+            expResult.append('a');
+        }
+        expResult.append("\ud83d\ude00");
+
+        instance.append(expResult, 0, 8192);
+        instance.append(expResult, 8192, 8193);
+        instance.flush();
+        assertEquals(expResult.toString(), stream.toString("UTF-8"));
+    }
+
+    /**
+     * Test of write method, of class RenderOutput.
+     * @throws java.io.IOException
+     */
+    @Test
+    public void testWriteAppendable() throws IOException {
+        System.out.println("write");
+        StringBuilder sb = new StringBuilder();
+        RenderOutput instance = new RenderOutput(sb, 0);
+
+        instance.write(new byte[0], StandardCharsets.UTF_8, "<b>");
+        assertEquals("<b>", sb.toString());
+    }
+
+    private class CountingWriter extends StringWriter {
+
+        public int flushes;
+
+        @Override
+        public void flush() {
+            flushes++;
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package net.desertconsulting.mochatemplate.parser.render;
+
+import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineManager;
+import javax.script.SimpleBindings;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Patrizio Bruno {@literal <desertconsulting@gmail.com>}
+ */
+public class ScopeBindingsTest {
+
+    public ScopeBindingsTest() {
+    }
+
+    /**
+     * Test of get method, of class ScopeBindings.
+     */
+    @Test
+    public void testGet() {
+        System.out.println("get");
+        Bindings root = new SimpleBindings();
+        root.put("x", 1);
+        root.put("y", 2);
+        ScopeBindings parent = new ScopeBindings(root);
+        parent.put("y", 3);
+        ScopeBindings instance = new ScopeBindings(parent);
+        instance.put("z", null);
+
+        assertEquals(1, instance.get("x"));
+        assertEquals(3, instance.get("y"));
+        assertNull(instance.get("z"));
+        assertTrue(instance.containsKey("z"));
+        assertFalse(instance.containsKey("w"));
+        assertEquals(3, instance.size());
+    }
+
+    /**
+     * Test of put method, of class ScopeBindings.
+     */
+    @Test
+    public void testPut() {
+        System.out.println("put");
+        Bindings parent = new SimpleBindings();
+        parent.put("x", 1);
+        ScopeBindings instance = new ScopeBindings(parent);
+        instance.put("x", 2);
+        instance.put("y", 3);
+
+        assertEquals(2, instance.get("x"));
+        assertEquals(1, parent.get("x"));
+        assertFalse(parent.containsKey("y"));
+
+        // removing a variable reveals the parent's one
+        assertEquals(2, instance.remove("x"));
+        assertEquals(1, instance.get("x"));
+    }
+
+    /**
+     * Test of put method, of class ScopeBindings: variables with a slot are
+     * stored in the frame, which is copied before being changed.
+     */
+    @Test
+    public void testPutSlot() {
+        System.out.println("putSlot");
+        FrameLayout layout = new FrameLayout();
+        Variable item = layout.variable("scopeBindingsTestItem");
+        assertEquals(0, item.getSlot());
+        Bindings root = new SimpleBindings();
+        root.put("x", 1);
+        ScopeBindings parent = new ScopeBindings(root);
+        item.set(parent, "a");
+        assertSame(layout, parent.getLayout());
+        ScopeBindings instance = new ScopeBindings(parent);
+        assertEquals("a", item.get(instance));
+
+        item.set(instance, "b");
+        instance.put("y", 2);
+        assertEquals("b", instance.get("scopeBindingsTestItem"));
+        assertEquals("a", item.get(parent));
+        assertTrue(item.isBound(instance));
+        assertEquals("b", item.get(new ScopeBindings(instance)));
+        assertEquals(1, instance.get("x"));
+        assertFalse(root.containsKey("scopeBindingsTestItem"));
+
+        assertEquals("b", instance.remove("scopeBindingsTestItem"));
+        assertEquals("a", item.get(instance));
+        assertEquals(3, instance.size());
+    }
+
+    /**
+     * Test of put method, of class ScopeBindings: variables of a different
+     * layout are stored by name.
+     */
+    @Test
+    public void testPutOtherLayout() {
+        System.out.println("putOtherLayout");
+        FrameLayout layout = new FrameLayout();
+        Variable item = layout.variable("item");
+        Variable index = layout.variable("index");
+        FrameLayout other = new FrameLayout();
+        Variable otherIndex = other.variable("index");
+        assertEquals(1, index.getSlot());
+        assertEquals(0, otherIndex.getSlot());
+
+        ScopeBindings parent = new ScopeBindings(new SimpleBindings());
+        item.set(parent, "a");
+        ScopeBindings instance = new ScopeBindings(parent);
+        otherIndex.set(instance, 1);
+        assertSame(layout, instance.getLayout());
+        assertEquals(1, index.get(instance));
+        assertEquals(1, instance.get("index"));
+        assertEquals("a", item.get(instance));
+        assertTrue(otherIndex.isBound(instance));
+        assertFalse(index.isBound(parent));
+        assertEquals(-1, layout.find("x").getSlot());
+    }
+
+    /**
+     * Test of get method, of class ScopeBindings: expressions evaluated in a
+     * nested scope run in the global object of the root bindings.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testGlobal() throws Exception {
+        System.out.println("global");
+        ScriptEngine engine = new ScriptEngineManager().getEngineByName("js");
+        CompiledScript self = ((Compilable) engine).compile("this");
+        Bindings root = engine.getBindings(ScriptContext.ENGINE_SCOPE);
+        engine.eval("function twice(x) { return 2 * x; }", root);
+        ScopeBindings parent = new ScopeBindings(root);
+        ScopeBindings instance = new ScopeBindings(parent);
+        instance.put("x", 21);
+
+        assertEquals(self.eval(root), self.eval(instance));
+        assertEquals(42.0, ((Number) ((Compilable) engine).compile(
+                "twice(x)").eval(instance)).doubleValue(), 0);
+        assertNull(instance.remove(ScopeBindings.NASHORN_GLOBAL));
+        assertNull(parent.remove(ScopeBindings.NASHORN_GLOBAL));
+
+        // bindings not being a global object get one, shared by the chain
+        Bindings simple = new SimpleBindings();
+        ScopeBindings first = new ScopeBindings(simple);
+        ScopeBindings second = new ScopeBindings(simple);
+        Object global = self.eval(first);
+        assertNotNull(simple.get(ScopeBindings.NASHORN_GLOBAL));
+        assertNull(first.remove(ScopeBindings.NASHORN_GLOBAL));
+        assertEquals(global, self.eval(new ScopeBindings(second)));
+    }
+}
@@ -0,0 +1,192 @@
+package net.desertconsulting.mochatemplate.servlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletResponse;
+import javax.servlet.WriteListener;
+import mockit.Mock;
+import mockit.MockUp;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Patrizio Bruno {@literal <desertconsulting@gmail.com>}
+ */
+public class AsyncOutputStreamTest {
+
+    private FakeOutputStream out;
+    private AsyncContext asyncContext;
+    private int completed;
+
+    public AsyncOutputStreamTest() {
+    }
+
+    @Before
+    public void setUp() {
+        out = new FakeOutputStream();
+        completed = 0;
+        final ServletResponse response = new MockUp<ServletResponse>() {
+            @Mock
+            public ServletOutputStream getOutputStream() {
+                return out;
+            }
+        }.getMockInstance();
+        asyncContext = new MockUp<AsyncContext>() {
+            @Mock
+            public ServletResponse getResponse() {
+                return response;
+            }
+
+            @Mock
+            public void addListener(AsyncListener listener) {
+            }
+
+            @Mock
+            public void complete() {
+                completed++;
+            }
+        }.getMockInstance();
+    }
+
+    /**
+     * Test of write method, of class AsyncOutputStream.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testWrite() throws Exception {
+        System.out.println("write");
+        AsyncOutputStream instance = new AsyncOutputStream(asyncContext);
+        byte[] page = new byte[AsyncOutputStream.CHUNK_SIZE + 10];
+        Arrays.fill(page, (byte) 'a');
+        instance.write(page, 0, page.length);
+        assertEquals(page.length, out.written.size());
+        instance.write('b');
+        assertEquals(page.length, out.written.size());
+        instance.close();
+        assertEquals(page.length + 1, out.written.size());
+        assertEquals(1, completed);
+    }
+
+    /**
+     * Test of onWritePossible method, of class AsyncOutputStream: output is
+     * queued until the client can accept it.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testOnWritePossible() throws Exception {
+        System.out.println("onWritePossible");
+        AsyncOutputStream instance = new AsyncOutputStream(asyncContext);
+        out.ready = false;
+        instance.write("<p>slow</p>".getBytes(StandardCharsets.UTF_8));
+        instance.flush();
+        instance.close();
+        assertEquals(0, out.written.size());
+        assertEquals(0, completed);
+
+        out.ready = true;
+        out.listener.onWritePossible();
+        assertEquals("<p>slow</p>", out.written.toString("UTF-8"));
+        assertEquals(1, completed);
+        out.listener.onWritePossible();
+        assertEquals(1, completed);
+    }
+
+    /**
+     * Test of onTimeout method, of class AsyncOutputStream.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testOnTimeout() throws Exception {
+        System.out.println("onTimeout");
+        AsyncOutputStream instance = new AsyncOutputStream(asyncContext);
+        out.ready = false;
+        instance.write('a');
+        instance.onTimeout(null);
+        assertTrue(instance.isFailed());
+        assertEquals(1, completed);
+        try {
+            instance.write('b');
+            fail("the request timed out");
+        } catch (IOException ex) {
+        }
+        instance.close();
+        assertEquals(1, completed);
+    }
+
+    /**
+     * Test of write method, of class AsyncOutputStream: the stream fails once
+     * too many bytes are waiting for the client.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testWriteMaxQueued() throws Exception {
+        System.out.println("write");
+        AsyncOutputStream instance = new AsyncOutputStream(asyncContext,
+                2 * AsyncOutputStream.CHUNK_SIZE);
+        out.ready = false;
+        byte[] chunk = new byte[AsyncOutputStream.CHUNK_SIZE];
+        instance.write(chunk);
+        instance.write(chunk);
+        assertFalse(instance.isFailed());
+        try {
+            instance.write(chunk);
+            fail("the client doesn't keep up");
+        } catch (IOException ex) {
+        }
+        assertTrue(instance.isFailed());
+        assertTrue(instance.isCompleted());
+        assertEquals(1, completed);
+    }
+
+    /**
+     * Test of abort method, of class AsyncOutputStream.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testAbort() throws Exception {
+        System.out.println("abort");
+        AsyncOutputStream instance = new AsyncOutputStream(asyncContext);
+        instance.write('a');
+        assertTrue(instance.resetBuffer());
+        assertFalse(instance.isCommitted());
+        instance.write("<p>".getBytes(StandardCharsets.UTF_8));
+        instance.flush();
+        assertTrue(instance.isCommitted());
+        assertFalse(instance.resetBuffer());
+
+        instance.abort(new IOException("rendering failed"));
+        instance.close();
+        assertEquals("<p>", out.written.toString("UTF-8"));
+        assertEquals(1, completed);
+    }
+
+    private static class FakeOutputStream extends ServletOutputStream {
+
+        private final ByteArrayOutputStream written
+                = new ByteArrayOutputStream();
+        private boolean ready = true;
+        private WriteListener listener;
+
+        @Override
+        public boolean isReady() {
+            return ready;
+        }
+
+        @Override
+        public void setWriteListener(WriteListener writeListener) {
+            listener = writeListener;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            written.write(b);
+        }
+    }
+}
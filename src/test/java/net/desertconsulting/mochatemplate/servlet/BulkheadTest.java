@@ -0,0 +1,113 @@
+package net.desertconsulting.mochatemplate.servlet;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Patrizio Bruno {@literal <desertconsulting@gmail.com>}
+ */
+public class BulkheadTest {
+
+    public BulkheadTest() {
+    }
+
+    /**
+     * Test of acquire method, of class Bulkhead.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testAcquire() throws Exception {
+        System.out.println("acquire");
+        Bulkhead instance = new Bulkhead(2, 0, 0, 10);
+        assertTrue(instance.acquire("/a.html"));
+        assertTrue(instance.acquire("/b.html"));
+        assertEquals(2, instance.getActive());
+        assertFalse(instance.acquire("/c.html"));
+        assertEquals(1, instance.getRejected());
+
+        instance.release("/a.html");
+        assertTrue(instance.acquire("/c.html"));
+        assertEquals(2, instance.getActive());
+        assertEquals(0, instance.getQueued());
+    }
+
+    /**
+     * Test of acquire method, of class Bulkhead: requests for the same path
+     * are limited.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testAcquirePerPath() throws Exception {
+        System.out.println("acquirePerPath");
+        Bulkhead instance = new Bulkhead(10, 1, 0, 10);
+        assertTrue(instance.acquire("/a.html"));
+        assertFalse(instance.acquire("/a.html"));
+        assertTrue(instance.acquire("/b.html"));
+        instance.release("/a.html");
+        assertTrue(instance.acquire("/a.html"));
+        assertEquals(2, instance.getActive());
+        assertEquals(1, instance.getRejected());
+    }
+
+    /**
+     * Test of acquire method, of class Bulkhead: a queued request is admitted
+     * once a rendering ends.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testAcquireQueued() throws Exception {
+        System.out.println("acquireQueued");
+        final Bulkhead instance = new Bulkhead(1, 0, 1, 10000);
+        assertTrue(instance.acquire("/a.html"));
+
+        final CountDownLatch done = new CountDownLatch(1);
+        final AtomicBoolean admitted = new AtomicBoolean();
+        Thread waiter = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    admitted.set(instance.acquire("/a.html"));
+                } catch (InterruptedException ex) {
+                }
+                done.countDown();
+            }
+        };
+        waiter.start();
+        while (instance.getQueued() == 0) {
+            Thread.sleep(1);
+        }
+        // the queue is full
+        assertFalse(instance.acquire("/b.html"));
+
+        instance.release("/a.html");
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertTrue(admitted.get());
+        assertEquals(1, instance.getActive());
+        assertEquals(0, instance.getQueued());
+        assertEquals(1, instance.getRejected());
+    }
+
+    /**
+     * Test of tryAcquire method, of class Bulkhead: requests don't wait for
+     * their turn, even if the queue is not full.
+     */
+    @Test
+    public void testTryAcquire() {
+        System.out.println("tryAcquire");
+        Bulkhead instance = new Bulkhead(2, 1, 10, 10000);
+        assertTrue(instance.tryAcquire("/a.html"));
+        assertFalse(instance.tryAcquire("/a.html"));
+        assertTrue(instance.tryAcquire("/b.html"));
+        assertFalse(instance.tryAcquire("/c.html"));
+        assertEquals(0, instance.getQueued());
+
+        instance.release("/a.html");
+        assertTrue(instance.tryAcquire("/c.html"));
+        assertEquals(2, instance.getActive());
+        assertEquals(2, instance.getRejected());
+    }
+}
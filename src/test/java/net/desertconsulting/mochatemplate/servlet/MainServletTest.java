@@ -4,11 +4,20 @@ import net.desertconsulting.mochatemplate.parser.MochaTemplateEngineTest;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.PrintWriter;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.AsyncContext;
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletContext;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import mockit.Delegate;
 import mockit.Expectations;
 import mockit.Mock;
 import mockit.MockUp;
@@ -36,8 +45,20 @@ public class MainServletTest {
 
     class HttpServletResponseResultHolder extends MockUp<HttpServletResponse> {
 
-        public int result;
+        public volatile int result;
         public ByteArrayOutputStream output = new ByteArrayOutputStream();
+        public boolean committed;
+        public Map<String, String> headers = new ConcurrentHashMap<>();
+
+        @Mock
+        public void setHeader(String name, String value) {
+            headers.put(name, value);
+        }
+
+        @Mock
+        public boolean isCommitted() {
+            return committed;
+        }
 
         @Mock
         public void sendError(int error) {
@@ -53,6 +74,26 @@ public class MainServletTest {
         public PrintWriter getWriter() throws IOException {
             return new PrintWriter(output);
         }
+
+        @Mock
+        public ServletOutputStream getOutputStream() throws IOException {
+            return new ServletOutputStream() {
+                @Override
+                public void write(int b) throws IOException {
+                    output.write(b);
+                }
+
+                @Override
+                public boolean isReady() {
+                    return true;
+                }
+
+                @Override
+                public void setWriteListener(WriteListener writeListener) {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
     }
 
     /**
@@ -141,6 +182,41 @@ public class MainServletTest {
         assertEquals(expResult, mockedRes.result);
     }
 
+    /**
+     * Test of processRequest method, of class MainServlet: no error page is
+     * appended to a page already sent in part.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testProcessRequest500Committed() throws Exception {
+        System.out.println("processRequest");
+        final MainServlet instance = new MainServlet();
+        final ByteArrayInputStream stream = new ByteArrayInputStream(MochaTemplateEngineTest.BAD_HTML.getBytes());
+        instance.init(config);
+        new Expectations() {
+            {
+                config.getServletContext();
+                returns(context);
+
+                request.getPathInfo();
+                returns("/");
+
+                context.getResourceAsStream("/index.html");
+                returns(stream);
+            }
+        };
+        HttpServletResponseResultHolder mockedRes = new HttpServletResponseResultHolder();
+        mockedRes.committed = true;
+        HttpServletResponse res = mockedRes.getMockInstance();
+        try {
+            instance.processRequest(request, res);
+            fail("the connection must be aborted");
+        } catch (IOException ex) {
+        }
+        assertEquals(0, mockedRes.result);
+        assertEquals(0, mockedRes.output.size());
+    }
+
     /**
      * Test of doGet method, of class MainServlet.
      * @throws java.lang.Exception
@@ -325,4 +401,139 @@ public class MainServletTest {
         assertEquals(expResult, result);
     }
 
+    /**
+     * Records an asynchronous servlet whose rendering threads block reading
+     * the template until {@code proceed} is counted down, expecting
+     * {@code asyncRequests} requests to go asynchronous.
+     */
+    private void recordAsync(final AsyncContext asyncContext,
+            final int asyncRequests, final CountDownLatch started,
+            final CountDownLatch proceed) {
+        new Expectations() {
+            {
+                config.getInitParameter("async");
+                result = "true";
+
+                config.getServletContext();
+                result = context;
+
+                request.getPathInfo();
+                result = "/";
+
+                request.startAsync();
+                result = asyncContext;
+                times = asyncRequests;
+
+                context.getResourceAsStream("/index.html");
+                result = new Delegate<InputStream>() {
+                    InputStream delegate(String path) throws
+                            InterruptedException {
+                        started.countDown();
+                        proceed.await(10, TimeUnit.SECONDS);
+                        return null;
+                    }
+                };
+            }
+        };
+    }
+
+    private static void await(HttpServletResponseResultHolder response,
+            int expResult) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (response.result != expResult && System.currentTimeMillis()
+                < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(expResult, response.result);
+    }
+
+    /**
+     * Test of processRequest method, of class MainServlet: asynchronous
+     * requests exceeding the rendering threads and their queue are rejected.
+     * @param asyncContext mocked asynchronous context
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testProcessRequestAsync503(
+            @Mocked final AsyncContext asyncContext) throws Exception {
+        System.out.println("processRequest");
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch proceed = new CountDownLatch(1);
+        recordAsync(asyncContext, 3, started, proceed);
+        new Expectations() {
+            {
+                config.getInitParameter("asyncThreads");
+                result = "1";
+
+                config.getInitParameter("asyncMaxPending");
+                result = "1";
+            }
+        };
+        MainServlet instance = new MainServlet();
+        instance.init(config);
+        try {
+            HttpServletResponseResultHolder rendering = new HttpServletResponseResultHolder();
+            HttpServletResponseResultHolder pending = new HttpServletResponseResultHolder() {
+            };
+            HttpServletResponseResultHolder rejected = new HttpServletResponseResultHolder() {
+            };
+            instance.processRequest(request, rendering.getMockInstance());
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+            instance.processRequest(request, pending.getMockInstance());
+            instance.processRequest(request, rejected.getMockInstance());
+            assertEquals(503, rejected.result);
+            assertEquals("1", rejected.headers.get("Retry-After"));
+            assertEquals(0, pending.result);
+
+            proceed.countDown();
+            await(rendering, 404);
+            await(pending, 404);
+        } finally {
+            proceed.countDown();
+            instance.destroy();
+        }
+    }
+
+    /**
+     * Test of processRequest method, of class MainServlet: asynchronous
+     * requests are admitted before going asynchronous.
+     * @param asyncContext mocked asynchronous context
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testProcessRequestAsyncAdmission(
+            @Mocked final AsyncContext asyncContext) throws Exception {
+        System.out.println("processRequest");
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch proceed = new CountDownLatch(1);
+        // the rejected request doesn't go asynchronous
+        recordAsync(asyncContext, 1, started, proceed);
+        new Expectations() {
+            {
+                config.getInitParameter("asyncThreads");
+                result = "2";
+
+                config.getInitParameter("maxRenders");
+                result = "1";
+            }
+        };
+        MainServlet instance = new MainServlet();
+        instance.init(config);
+        try {
+            HttpServletResponseResultHolder rendering = new HttpServletResponseResultHolder();
+            HttpServletResponseResultHolder rejected = new HttpServletResponseResultHolder() {
+            };
+            instance.processRequest(request, rendering.getMockInstance());
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+            instance.processRequest(request, rejected.getMockInstance());
+            assertEquals(503, rejected.result);
+            assertEquals("1", rejected.headers.get("Retry-After"));
+
+            proceed.countDown();
+            await(rendering, 404);
+        } finally {
+            proceed.countDown();
+            instance.destroy();
+        }
+    }
 }